@@ -40,12 +40,15 @@
 
 package org.glassfish.hk2.classmodel.reflect;
 
+import org.glassfish.hk2.classmodel.reflect.impl.AnnotationPreFilter;
+import org.glassfish.hk2.classmodel.reflect.impl.ModelIndexCache;
 import org.glassfish.hk2.classmodel.reflect.impl.TypeProxy;
 import org.glassfish.hk2.classmodel.reflect.impl.TypesCtr;
 import org.glassfish.hk2.classmodel.reflect.util.DirectoryArchive;
 import org.glassfish.hk2.classmodel.reflect.util.JarArchive;
 import org.glassfish.hk2.classmodel.reflect.util.ResourceLocator;
 import org.glassfish.hk2.external.org.objectweb.asm.ClassReader;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassVisitor;
 
 import java.io.Closeable;
 import java.io.File;
@@ -68,6 +71,8 @@ import java.util.logging.Logger;
 public class Parser implements Closeable {
 
     public static final String DEFAULT_WAIT_SYSPROP = "hk2.parser.timeout";
+    public static final String PARALLELISM_SYSPROP = "hk2.parser.parallelism";
+    public static final String PREFILTER_SYSPROP = "hk2.parser.prefilter";
       
     private final ParsingContext context;
     private final Map<String, Types> processedURI = Collections.synchronizedMap(new HashMap<String, Types>());
@@ -80,6 +85,22 @@ public class Parser implements Closeable {
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     private final int DEFAULT_TIMEOUT = Integer.getInteger(DEFAULT_WAIT_SYSPROP, 100);
+
+    private static final int CLASS_READER_FLAGS = ClassReader.SKIP_DEBUG | ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES;
+
+    private static final int INITIAL_CLASS_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RETAINED_CLASS_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Each parsing thread reads class entries into its own buffer, which is
+     * reused from one class to the next
+     */
+    private static final ThreadLocal<byte[]> classBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[INITIAL_CLASS_BUFFER_SIZE];
+        }
+    };
     
     
     public Parser(ParsingContext context) {
@@ -338,35 +359,62 @@ public class Parser implements Closeable {
         }
         if (context.archiveSelector == null || context.archiveSelector.selects(adapter)) {
             final URI uri = adapter.getURI();
-            if (logger.isLoggable(Level.FINE)) {
-                logger.log(Level.FINE, "Parsing file {0}", uri.getPath());
-            }
+            if (context.indexCache != null && context.indexCache.replay(uri, context)) {
+                saveResult(uri, context.getTypes());
+            } else {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "Parsing file {0}", uri.getPath());
+                }
 
-            adapter.onSelectedEntries(
-                    new ArchiveAdapter.Selector() {
-                        @Override
-                        public boolean isSelected(ArchiveAdapter.Entry entry) {
-                            return entry.name.endsWith(".class");
-                        }
-                    },
-                    new ArchiveAdapter.EntryTask() {
-                        @Override
-                        public void on(ArchiveAdapter.Entry entry, InputStream is) throws IOException {
-                            if (logger.isLoggable(Level.FINER)) {
-                                logger.log(Level.FINER, "Parsing class " + entry.name);
+                final ModelIndexCache.Recorder recorder = (context.indexCache == null) ? null :
+                        context.indexCache.startRecording(uri);
+
+                adapter.onSelectedEntries(
+                        new ArchiveAdapter.Selector() {
+                            @Override
+                            public boolean isSelected(ArchiveAdapter.Entry entry) {
+                                if (recorder != null && entry.name.endsWith(".jar")) {
+                                    // nested archives are parsed on their own and cannot be replayed
+                                    recorder.invalidate();
+                                }
+                                return entry.name.endsWith(".class");
                             }
-                            try {
-                                ClassReader cr = new ClassReader(is);
-                                cr.accept(context.getClassVisitor(uri, entry.name, true), ClassReader.SKIP_DEBUG);
-                            } catch (Throwable e) {
-                                logger.log(Level.SEVERE, "Exception while visiting " + entry.name
-                                        + " of size " + entry.size, e);
+                        },
+                        new ArchiveAdapter.EntryTask() {
+                            @Override
+                            public void on(ArchiveAdapter.Entry entry, InputStream is) throws IOException {
+                                if (logger.isLoggable(Level.FINER)) {
+                                    logger.log(Level.FINER, "Parsing class " + entry.name);
+                                }
+                                try {
+                                    ClassReader cr = readClass(entry, is);
+                                    ClassVisitor visitor = context.getClassVisitor(uri, entry.name, true);
+                                    // method bodies are not part of the model
+                                    if (recorder != null) {
+                                        // the index must hold the full visit, it may be replayed with another config
+                                        cr.accept(recorder.record(entry.name, visitor), CLASS_READER_FLAGS);
+                                    } else if (context.preFilter != null && !context.preFilter.mayBeAnnotated(cr)) {
+                                        // no annotation of interest, the class members will not be modeled
+                                        AnnotationPreFilter.visitStub(cr, visitor);
+                                    } else {
+                                        cr.accept(visitor, CLASS_READER_FLAGS);
+                                    }
+                                } catch (Throwable e) {
+                                    if (recorder != null) {
+                                        recorder.invalidate();
+                                    }
+                                    logger.log(Level.SEVERE, "Exception while visiting " + entry.name
+                                            + " of size " + entry.size, e);
+                                }
                             }
-                        }
-                    },
-                    logger
-            );
-            saveResult(uri, context.getTypes());
+                        },
+                        logger
+                );
+                if (recorder != null) {
+                    recorder.save();
+                }
+                saveResult(uri, context.getTypes());
+            }
         }
         if (logger.isLoggable(Level.FINE)) {
             logger.log(Level.FINE,"Finished parsing " + adapter.getURI().getPath() + " at " + System.currentTimeMillis() + " in "
@@ -383,6 +431,40 @@ public class Parser implements Closeable {
         }
     }
 
+    /**
+     * Reads a class entry into the buffer of the current thread. The returned
+     * reader is only valid until the next class is read on this thread, which
+     * is fine since readers are not kept once the class has been visited.
+     */
+    private static ClassReader readClass(ArchiveAdapter.Entry entry, InputStream is) throws IOException {
+        byte[] buffer = classBuffers.get();
+        if (entry.size > buffer.length && entry.size <= Integer.MAX_VALUE) {
+            buffer = new byte[(int) entry.size];
+        }
+
+        int length = 0;
+        while (true) {
+            if (length == buffer.length) {
+                // the entry size is only a hint, make sure we are at the end of the stream
+                int next = is.read();
+                if (next < 0) break;
+
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                buffer[length++] = (byte) next;
+            }
+
+            int read = is.read(buffer, length, buffer.length - length);
+            if (read < 0) break;
+            length += read;
+        }
+
+        if (buffer.length <= MAX_RETAINED_CLASS_BUFFER_SIZE) {
+            classBuffers.set(buffer);
+        }
+
+        return new ClassReader(buffer, 0, length);
+    }
+
     /**
      * Returns the context this parser instance was initialized with during
      * the call to {@link Parser#Parser(ParsingContext)}
@@ -395,11 +477,9 @@ public class Parser implements Closeable {
     }
 
     private ExecutorService createExecutorService() {
-        // TODO: may have to dumb this down since there appears to be issues in ZipFile processing when there is contention on the same file or directory
-        // FIXME: anything other than 1 is not stable since the class-model framework is not thread safe (visitors are shared)
-//        Runtime runtime = Runtime.getRuntime();
-//        int nbOfProcessors = runtime.availableProcessors();
-        int nbOfProcessors = 1;
+        // each archive is parsed by a single thread, so there is no contention on
+        // the same file or directory, only the resulting types are shared.
+        int nbOfProcessors = context.parallelism;
         
         return Executors.newFixedThreadPool(nbOfProcessors, new ThreadFactory() {
             @Override
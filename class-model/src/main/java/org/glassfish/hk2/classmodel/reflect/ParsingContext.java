@@ -40,7 +40,9 @@
 
 package org.glassfish.hk2.classmodel.reflect;
 
+import org.glassfish.hk2.classmodel.reflect.impl.AnnotationPreFilter;
 import org.glassfish.hk2.classmodel.reflect.impl.ModelClassVisitor;
+import org.glassfish.hk2.classmodel.reflect.impl.ModelIndexCache;
 import org.glassfish.hk2.classmodel.reflect.impl.TypeBuilder;
 import org.glassfish.hk2.classmodel.reflect.impl.TypesCtr;
 import org.glassfish.hk2.classmodel.reflect.impl.TypesImpl;
@@ -49,10 +51,11 @@ import org.glassfish.hk2.classmodel.reflect.util.ParsingConfig;
 import org.glassfish.hk2.classmodel.reflect.util.ResourceLocator;
 import org.glassfish.hk2.external.org.objectweb.asm.ClassVisitor;
 
+import java.io.File;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.net.URI;
 import java.util.logging.Logger;
@@ -73,6 +76,9 @@ public class ParsingContext {
         ArchiveSelector archiveSelector=null;
         ParsingConfig config=null;
         ResourceLocator locator=null;
+        int parallelism=Integer.getInteger(Parser.PARALLELISM_SYSPROP, 1);
+        File indexCacheDirectory=null;
+        boolean preFilter=Boolean.getBoolean(Parser.PREFILTER_SYSPROP);
 
         /**
          * Returns the configured or default logger for the class-model library.
@@ -111,6 +117,58 @@ public class ParsingContext {
             return this;
         }
 
+        /**
+         * Sets the number of threads the parser will use to parse archives
+         * when no executor service is provided with
+         * {@link #executorService(java.util.concurrent.ExecutorService)}.
+         * Each archive is parsed on a single thread, several archives are
+         * parsed concurrently. Defaults to the value of the
+         * {@link Parser#PARALLELISM_SYSPROP} system property or 1, which
+         * parses one archive at a time.
+         *
+         * @param parallelism the number of parsing threads, must be at least 1
+         * @return itself
+         */
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be at least 1, was " + parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets the directory of the index cache. When set, the parser saves
+         * an index of the class model of every jar file it parses in this
+         * directory, and later parsing of an unchanged jar file builds its
+         * class model from the index instead of parsing the jar entries.
+         *
+         * @param directory the directory holding the index files, created
+         * if it does not exist
+         * @return itself
+         */
+        public Builder indexCache(File directory) {
+            this.indexCacheDirectory = directory;
+            return this;
+        }
+
+        /**
+         * Enables the annotation pre-filter. When enabled, a class whose
+         * constant pool holds none of the annotations of interest of the
+         * {@link ParsingConfig} is only visited for its header and its class
+         * annotations, its fields and methods are not read. The pre-filter
+         * has no effect when the configuration has no annotations of
+         * interest or when an index cache is used. Defaults to the value of
+         * the {@link Parser#PREFILTER_SYSPROP} system property or false.
+         *
+         * @param preFilter true to enable the pre-filter
+         * @return itself
+         */
+        public Builder preFilter(boolean preFilter) {
+            this.preFilter = preFilter;
+            return this;
+        }
+
         /**
          * Sets the archive selector that can selects which jar should be parsed
          * during the parsing activity. This is particularly useful when the
@@ -172,10 +230,15 @@ public class ParsingContext {
     final Logger logger;
     final ParsingConfig config;
     final ResourceLocator locator;
+    final int parallelism;
+    final ModelIndexCache indexCache;
+    final AnnotationPreFilter preFilter;
 
     private ParsingContext(Builder builder) {
-//        Runtime runtime = Runtime.getRuntime();
         this.executorService = builder.executorService;
+        this.parallelism = Math.max(1, builder.parallelism);
+        this.indexCache = (builder.indexCacheDirectory == null) ? null :
+                new ModelIndexCache(builder.indexCacheDirectory, builder.logger);
         this.archiveSelector = builder.archiveSelector;
         this.logger = builder.logger;
         this.locator = builder.locator;
@@ -196,16 +259,23 @@ public class ParsingContext {
                 return false;
             }
         };
+
+        Set<String> annotationsOfInterest = config.getAnnotationsOfInterest();
+        this.preFilter = (builder.preFilter && !annotationsOfInterest.isEmpty()) ?
+                new AnnotationPreFilter(annotationsOfInterest) : null;
     }
 
 
-    Map<URI, TypeBuilder> builders = new HashMap<URI, TypeBuilder>();
+    final ConcurrentMap<URI, TypeBuilder> builders = new ConcurrentHashMap<URI, TypeBuilder>();
 
-    public synchronized TypeBuilder getTypeBuilder(URI definingURI) {
+    public TypeBuilder getTypeBuilder(URI definingURI) {
         TypeBuilder builder = builders.get(definingURI);
         if (builder==null) {
             builder = new TypesImpl(types, definingURI);
-            builders.put(definingURI, builder);
+            TypeBuilder old = builders.putIfAbsent(definingURI, builder);
+            if (old!=null) {
+                builder = old;
+            }
         }
         return builder;
     }
@@ -226,6 +296,16 @@ public class ParsingContext {
                 CommonModelRegistry.getInstance().canLoadResources() ? CommonModelRegistry.getInstance() : null;
     }
 
+    /**
+     * Returns a new visitor for a single class entry. Visitors keep per class
+     * state and must not be shared, while the types they populate are shared
+     * by all the visitors of this context so they can be used concurrently
+     * from several parsing threads.
+     *
+     * @param uri the defining URI of the archive the class is in
+     * @param entryName the entry name of the class in the archive
+     * @return a new class visitor
+     */
     public ClassVisitor getClassVisitor(URI uri, String entryName) {
         return new ModelClassVisitor(this, uri, entryName, false);
     }
@@ -0,0 +1,200 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.classmodel.reflect.impl;
+
+import org.glassfish.hk2.external.org.objectweb.asm.ClassReader;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.FieldVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.MethodVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides from the constant pool of a class alone whether the class can
+ * carry one of the annotations of interest of the
+ * {@link org.glassfish.hk2.classmodel.reflect.util.ParsingConfig}.
+ * <p>
+ * A class annotated with an annotation has the descriptor of that annotation
+ * in its constant pool, so a class whose constant pool has none of the
+ * descriptors of interest is never deeply visited.  Such a class only needs
+ * to be visited as a stub: its header and its class annotations, which is
+ * what {@link #visitStub(ClassReader, ClassVisitor)} does without reading
+ * its fields and methods.
+ *
+ * @author jwells
+ */
+public class AnnotationPreFilter {
+    private static final int UTF8_TAG = 1;
+
+    private static final StubComplete STUB_COMPLETE = new StubComplete();
+
+    /**
+     * The modified UTF-8 encoding of the descriptors of interest, keyed by
+     * their encoded length
+     */
+    private final Map<Integer, List<byte[]>> descriptors = new HashMap<Integer, List<byte[]>>();
+
+    /**
+     * Creates a pre-filter for the given annotations
+     *
+     * @param annotationsOfInterest the fully qualified class names of the
+     * annotations of interest, may not be empty
+     */
+    public AnnotationPreFilter(Set<String> annotationsOfInterest) {
+        for (String annotation : annotationsOfInterest) {
+            byte[] encoded = encode("L" + annotation.replace('.', '/') + ";");
+
+            List<byte[]> sameLength = descriptors.get(encoded.length);
+            if (sameLength == null) {
+                sameLength = new ArrayList<byte[]>(1);
+                descriptors.put(encoded.length, sameLength);
+            }
+            sameLength.add(encoded);
+        }
+    }
+
+    /**
+     * Returns true if the constant pool of the class holds the descriptor
+     * of one of the annotations of interest
+     *
+     * @param cr the reader of the class
+     * @return false if the class cannot be annotated with one of the
+     * annotations of interest
+     */
+    public boolean mayBeAnnotated(ClassReader cr) {
+        byte[] b = cr.b;
+        int count = cr.getItemCount();
+        for (int lcv = 1; lcv < count; lcv++) {
+            int offset = cr.getItem(lcv);
+            // the second slot of long and double constants has no offset
+            if (offset <= 0 || b[offset - 1] != UTF8_TAG) continue;
+
+            List<byte[]> candidates = descriptors.get(cr.readUnsignedShort(offset));
+            if (candidates == null) continue;
+
+            for (byte[] candidate : candidates) {
+                if (matches(b, offset + 2, candidate)) return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean matches(byte[] b, int start, byte[] candidate) {
+        for (int lcv = 0; lcv < candidate.length; lcv++) {
+            if (b[start + lcv] != candidate[lcv]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Visits the header and the class annotations of a class, and ends the
+     * visit before its fields and methods are read
+     *
+     * @param cr the reader of the class
+     * @param visitor the visitor of the class
+     */
+    public static void visitStub(ClassReader cr, ClassVisitor visitor) {
+        try {
+            cr.accept(new StubClassVisitor(visitor), ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        } catch (StubComplete complete) {
+            visitor.visitEnd();
+        }
+    }
+
+    /**
+     * Encodes a string the way the class file format stores it
+     */
+    private static byte[] encode(String value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(value.length());
+        for (int lcv = 0; lcv < value.length(); lcv++) {
+            char c = value.charAt(lcv);
+            if (c >= 0x0001 && c <= 0x007F) {
+                out.write(c);
+            } else if (c <= 0x07FF) {
+                out.write(0xC0 | ((c >> 6) & 0x1F));
+                out.write(0x80 | (c & 0x3F));
+            } else {
+                out.write(0xE0 | ((c >> 12) & 0x0F));
+                out.write(0x80 | ((c >> 6) & 0x3F));
+                out.write(0x80 | (c & 0x3F));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Forwards the class level events and stops the visit at the first
+     * field or method, the ClassReader visits those after everything else
+     */
+    private static class StubClassVisitor extends ClassVisitor {
+        private StubClassVisitor(ClassVisitor delegate) {
+            super(Opcodes.ASM6, delegate);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+            throw STUB_COMPLETE;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            throw STUB_COMPLETE;
+        }
+    }
+
+    /**
+     * Ends a stub visit, it is shared and carries no stack trace
+     */
+    private static class StubComplete extends RuntimeException {
+        private static final long serialVersionUID = -3517617353925536045L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
@@ -51,7 +51,7 @@ import java.util.*;
 public class AnnotationTypeImpl extends InterfaceModelImpl implements AnnotationType {
 
     private final Set<AnnotatedElement> references = Collections.synchronizedSet(new HashSet<AnnotatedElement>());
-    private final Map<String, Object> defValues = new HashMap<String, Object>();
+    private final Map<String, Object> defValues = Collections.synchronizedMap(new HashMap<String, Object>());
 
     public AnnotationTypeImpl(String name, TypeProxy<Type> sink) {
         super(name, sink, null);
@@ -51,7 +51,7 @@ import java.util.logging.Logger;
  */
 public abstract class ExtensibleTypeImpl<T extends ExtensibleType> extends TypeImpl implements ExtensibleType<T> {
 
-    private TypeProxy<?> parent;
+    private volatile TypeProxy<?> parent;
     private final List<FieldModel> staticFields = new ArrayList<FieldModel> ();
     private final List<TypeProxy<InterfaceModel>> implementedIntf = new ArrayList<TypeProxy<InterfaceModel>>();
     private final List<ParameterizedInterfaceModel> implementedParameterizedIntf =
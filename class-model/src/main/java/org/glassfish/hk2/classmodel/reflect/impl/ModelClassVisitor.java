@@ -72,7 +72,6 @@ public class ModelClassVisitor extends ClassVisitor {
     private final ModelMethodVisitor methodVisitor;
     private final ModelAnnotationVisitor annotationVisitor;
     private final ModelDefaultAnnotationVisitor defaultAnnotationVisitor;
-    private static int discarded=0;
     private boolean isApplicationClass;
 
 
@@ -0,0 +1,824 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.classmodel.reflect.impl;
+
+import org.glassfish.hk2.classmodel.reflect.ParsingContext;
+import org.glassfish.hk2.external.org.objectweb.asm.AnnotationVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.FieldVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.MethodVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.Opcodes;
+import org.glassfish.hk2.external.org.objectweb.asm.Type;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * On disk cache of the class visits done while parsing archives.
+ * <p>
+ * The index of an archive records, for each class of the archive, the
+ * visiting events the class model is built from: the class header, the
+ * annotations of the class, its fields and its methods, and the annotation
+ * values.  Method bodies are not recorded.  When an archive has not changed
+ * since its index was written the recorded events are replayed into the class
+ * visitors of the parsing context, so the archive entries are neither
+ * inflated nor parsed again.
+ * <p>
+ * Only archives that are plain files are indexed.  An index is valid as long
+ * as the length and last modification time of its archive are those it was
+ * recorded with, and its format version is the current one.
+ *
+ * @author jwells
+ */
+public class ModelIndexCache {
+    private final static int MAGIC = 0x484b3249;
+    private final static int VERSION = 1;
+    private final static String INDEX_SUFFIX = ".index";
+
+    private final static byte END_ARCHIVE = 0;
+    private final static byte CLASS = 1;
+    private final static byte CLASS_ANNOTATION = 2;
+    private final static byte FIELD = 3;
+    private final static byte METHOD = 4;
+    private final static byte MEMBER_ANNOTATION = 5;
+    private final static byte ANNOTATION_DEFAULT = 6;
+    private final static byte END_MEMBER = 7;
+    private final static byte VALUE = 8;
+    private final static byte ARRAY = 9;
+    private final static byte END_ANNOTATION = 10;
+    private final static byte END_CLASS = 11;
+
+    private final static byte STRING_VALUE = 0;
+    private final static byte BOOLEAN_VALUE = 1;
+    private final static byte BYTE_VALUE = 2;
+    private final static byte CHAR_VALUE = 3;
+    private final static byte SHORT_VALUE = 4;
+    private final static byte INT_VALUE = 5;
+    private final static byte LONG_VALUE = 6;
+    private final static byte FLOAT_VALUE = 7;
+    private final static byte DOUBLE_VALUE = 8;
+    private final static byte TYPE_VALUE = 9;
+    private final static byte BOOLEAN_ARRAY_VALUE = 10;
+    private final static byte BYTE_ARRAY_VALUE = 11;
+    private final static byte CHAR_ARRAY_VALUE = 12;
+    private final static byte SHORT_ARRAY_VALUE = 13;
+    private final static byte INT_ARRAY_VALUE = 14;
+    private final static byte LONG_ARRAY_VALUE = 15;
+    private final static byte FLOAT_ARRAY_VALUE = 16;
+    private final static byte DOUBLE_ARRAY_VALUE = 17;
+
+    private final File directory;
+    private final Logger logger;
+
+    /**
+     * Creates a cache storing its indexes in the given directory
+     *
+     * @param directory the directory holding the indexes, created if needed
+     * @param logger for any logging activity
+     */
+    public ModelIndexCache(File directory, Logger logger) {
+        this.directory = directory;
+        this.logger = logger;
+    }
+
+    /**
+     * Replays the index of the given archive into the class visitors of the
+     * parsing context.  Nothing is visited if the archive has no valid index.
+     *
+     * @param archiveURI the URI of the archive
+     * @param context the context to replay the index into
+     * @return true if the archive was visited from its index, false if the
+     * archive must be parsed
+     */
+    public boolean replay(URI archiveURI, ParsingContext context) {
+        File archive = getArchiveFile(archiveURI);
+        if (archive == null) return false;
+
+        File indexFile = getIndexFile(archiveURI);
+        if (!indexFile.isFile()) return false;
+
+        try {
+            byte[] payload = readPayload(indexFile, archiveURI, archive);
+            if (payload == null) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Index " + indexFile + " of " + archiveURI + " is stale");
+                }
+                return false;
+            }
+
+            // a first pass without visitors checks the whole index can be read, so that
+            // the model is never left with a partially replayed archive
+            replay(new DataInputStream(new ByteArrayInputStream(payload)), archiveURI, null);
+            replay(new DataInputStream(new ByteArrayInputStream(payload)), archiveURI, context);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot read index " + indexFile + " of " + archiveURI, e);
+            return false;
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Visited " + archiveURI + " from index " + indexFile);
+        }
+        return true;
+    }
+
+    /**
+     * Starts recording the index of an archive.
+     *
+     * @param archiveURI the URI of the archive
+     * @return the recorder of the archive index or null if the archive cannot
+     * be indexed
+     */
+    public Recorder startRecording(URI archiveURI) {
+        File archive = getArchiveFile(archiveURI);
+        if (archive == null) return null;
+
+        return new Recorder(archiveURI, archive);
+    }
+
+    private static File getArchiveFile(URI archiveURI) {
+        if (archiveURI == null || !"file".equals(archiveURI.getScheme())) return null;
+
+        File archive;
+        try {
+            archive = new File(archiveURI);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        return archive.isFile() ? archive : null;
+    }
+
+    private File getIndexFile(URI archiveURI) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(archiveURI.toString().getBytes("UTF-8"));
+
+            StringBuilder sb = new StringBuilder(hash.length * 2 + INDEX_SUFFIX.length());
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            sb.append(INDEX_SUFFIX);
+
+            return new File(directory, sb.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the payload of an index into memory.  The index is not memory
+     * mapped: the payload is checked and replayed twice from the heap anyway,
+     * and a mapped file cannot be deleted or replaced on Windows until the
+     * mapping is garbage collected, which would stop a stale index from being
+     * rewritten
+     */
+    private static byte[] readPayload(File indexFile, URI archiveURI, File archive) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != MAGIC) return null;
+            if (in.readInt() != VERSION) return null;
+            if (!archiveURI.toString().equals(readString(in))) return null;
+            if (in.readLong() != archive.length()) return null;
+            if (in.readLong() != archive.lastModified()) return null;
+
+            int length = in.readInt();
+            long checksum = in.readLong();
+            if (length < 0) return null;
+
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, length);
+            if (crc.getValue() != checksum) return null;
+
+            return payload;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replays an archive index, when the context is null the index is only
+     * read
+     */
+    private static void replay(DataInputStream in, URI archiveURI, ParsingContext context) throws IOException {
+        byte tag;
+        while ((tag = in.readByte()) != END_ARCHIVE) {
+            if (tag != CLASS) throw new IOException("Unexpected index entry " + tag);
+
+            String entryName = readString(in);
+            ClassVisitor cv = (context == null) ? null : context.getClassVisitor(archiveURI, entryName, true);
+            replayClass(in, cv);
+        }
+    }
+
+    private static void replayClass(DataInputStream in, ClassVisitor cv) throws IOException {
+        int version = in.readInt();
+        int access = in.readInt();
+        String name = readString(in);
+        String signature = readString(in);
+        String superName = readString(in);
+        String[] interfaces = new String[in.readInt()];
+        for (int lcv = 0; lcv < interfaces.length; lcv++) {
+            interfaces[lcv] = readString(in);
+        }
+        if (cv != null) cv.visit(version, access, name, signature, superName, interfaces);
+
+        while (true) {
+            byte tag = in.readByte();
+            switch (tag) {
+            case CLASS_ANNOTATION: {
+                String desc = readString(in);
+                boolean visible = in.readBoolean();
+                replayAnnotation(in, (cv == null) ? null : cv.visitAnnotation(desc, visible));
+                break;
+            }
+            case FIELD: {
+                int fieldAccess = in.readInt();
+                String fieldName = readString(in);
+                String desc = readString(in);
+                String fieldSignature = readString(in);
+                FieldVisitor fv = (cv == null) ? null : cv.visitField(fieldAccess, fieldName, desc, fieldSignature, null);
+                replayField(in, fv);
+                break;
+            }
+            case METHOD: {
+                int methodAccess = in.readInt();
+                String methodName = readString(in);
+                String desc = readString(in);
+                String methodSignature = readString(in);
+                MethodVisitor mv = (cv == null) ? null : cv.visitMethod(methodAccess, methodName, desc, methodSignature, null);
+                replayMethod(in, mv);
+                break;
+            }
+            case END_CLASS:
+                if (cv != null) cv.visitEnd();
+                return;
+            default:
+                throw new IOException("Unexpected class index entry " + tag);
+            }
+        }
+    }
+
+    private static void replayField(DataInputStream in, FieldVisitor fv) throws IOException {
+        while (true) {
+            byte tag = in.readByte();
+            switch (tag) {
+            case MEMBER_ANNOTATION: {
+                String desc = readString(in);
+                boolean visible = in.readBoolean();
+                replayAnnotation(in, (fv == null) ? null : fv.visitAnnotation(desc, visible));
+                break;
+            }
+            case END_MEMBER:
+                if (fv != null) fv.visitEnd();
+                return;
+            default:
+                throw new IOException("Unexpected field index entry " + tag);
+            }
+        }
+    }
+
+    private static void replayMethod(DataInputStream in, MethodVisitor mv) throws IOException {
+        while (true) {
+            byte tag = in.readByte();
+            switch (tag) {
+            case MEMBER_ANNOTATION: {
+                String desc = readString(in);
+                boolean visible = in.readBoolean();
+                replayAnnotation(in, (mv == null) ? null : mv.visitAnnotation(desc, visible));
+                break;
+            }
+            case ANNOTATION_DEFAULT:
+                replayAnnotation(in, (mv == null) ? null : mv.visitAnnotationDefault());
+                break;
+            case END_MEMBER:
+                if (mv != null) mv.visitEnd();
+                return;
+            default:
+                throw new IOException("Unexpected method index entry " + tag);
+            }
+        }
+    }
+
+    private static void replayAnnotation(DataInputStream in, AnnotationVisitor av) throws IOException {
+        while (true) {
+            byte tag = in.readByte();
+            switch (tag) {
+            case VALUE: {
+                String name = readString(in);
+                Object value = readValue(in);
+                if (av != null) av.visit(name, value);
+                break;
+            }
+            case ARRAY: {
+                String name = readString(in);
+                AnnotationVisitor arrayVisitor = (av == null) ? null : av.visitArray(name);
+                if (arrayVisitor != null) arrayVisitor.visitEnd();
+                break;
+            }
+            case END_ANNOTATION:
+                if (av != null) av.visitEnd();
+                return;
+            default:
+                throw new IOException("Unexpected annotation index entry " + tag);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof String) {
+            out.writeByte(STRING_VALUE);
+            writeString(out, (String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN_VALUE);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE_VALUE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(CHAR_VALUE);
+            out.writeChar((Character) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT_VALUE);
+            out.writeShort((Short) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT_VALUE);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG_VALUE);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT_VALUE);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE_VALUE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Type) {
+            out.writeByte(TYPE_VALUE);
+            writeString(out, ((Type) value).getDescriptor());
+        } else if (value instanceof boolean[]) {
+            boolean[] array = (boolean[]) value;
+            out.writeByte(BOOLEAN_ARRAY_VALUE);
+            out.writeInt(array.length);
+            for (boolean element : array) out.writeBoolean(element);
+        } else if (value instanceof byte[]) {
+            byte[] array = (byte[]) value;
+            out.writeByte(BYTE_ARRAY_VALUE);
+            out.writeInt(array.length);
+            out.write(array);
+        } else if (value instanceof char[]) {
+            char[] array = (char[]) value;
+            out.writeByte(CHAR_ARRAY_VALUE);
+            out.writeInt(array.length);
+            for (char element : array) out.writeChar(element);
+        } else if (value instanceof short[]) {
+            short[] array = (short[]) value;
+            out.writeByte(SHORT_ARRAY_VALUE);
+            out.writeInt(array.length);
+            for (short element : array) out.writeShort(element);
+        } else if (value instanceof int[]) {
+            int[] array = (int[]) value;
+            out.writeByte(INT_ARRAY_VALUE);
+            out.writeInt(array.length);
+            for (int element : array) out.writeInt(element);
+        } else if (value instanceof long[]) {
+            long[] array = (long[]) value;
+            out.writeByte(LONG_ARRAY_VALUE);
+            out.writeInt(array.length);
+            for (long element : array) out.writeLong(element);
+        } else if (value instanceof float[]) {
+            float[] array = (float[]) value;
+            out.writeByte(FLOAT_ARRAY_VALUE);
+            out.writeInt(array.length);
+            for (float element : array) out.writeFloat(element);
+        } else if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            out.writeByte(DOUBLE_ARRAY_VALUE);
+            out.writeInt(array.length);
+            for (double element : array) out.writeDouble(element);
+        } else {
+            throw new IOException("Cannot index annotation value " + value);
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+        case STRING_VALUE:
+            return readString(in);
+        case BOOLEAN_VALUE:
+            return in.readBoolean();
+        case BYTE_VALUE:
+            return in.readByte();
+        case CHAR_VALUE:
+            return in.readChar();
+        case SHORT_VALUE:
+            return in.readShort();
+        case INT_VALUE:
+            return in.readInt();
+        case LONG_VALUE:
+            return in.readLong();
+        case FLOAT_VALUE:
+            return in.readFloat();
+        case DOUBLE_VALUE:
+            return in.readDouble();
+        case TYPE_VALUE:
+            return Type.getType(readString(in));
+        case BOOLEAN_ARRAY_VALUE: {
+            boolean[] array = new boolean[in.readInt()];
+            for (int lcv = 0; lcv < array.length; lcv++) array[lcv] = in.readBoolean();
+            return array;
+        }
+        case BYTE_ARRAY_VALUE: {
+            byte[] array = new byte[in.readInt()];
+            in.readFully(array);
+            return array;
+        }
+        case CHAR_ARRAY_VALUE: {
+            char[] array = new char[in.readInt()];
+            for (int lcv = 0; lcv < array.length; lcv++) array[lcv] = in.readChar();
+            return array;
+        }
+        case SHORT_ARRAY_VALUE: {
+            short[] array = new short[in.readInt()];
+            for (int lcv = 0; lcv < array.length; lcv++) array[lcv] = in.readShort();
+            return array;
+        }
+        case INT_ARRAY_VALUE: {
+            int[] array = new int[in.readInt()];
+            for (int lcv = 0; lcv < array.length; lcv++) array[lcv] = in.readInt();
+            return array;
+        }
+        case LONG_ARRAY_VALUE: {
+            long[] array = new long[in.readInt()];
+            for (int lcv = 0; lcv < array.length; lcv++) array[lcv] = in.readLong();
+            return array;
+        }
+        case FLOAT_ARRAY_VALUE: {
+            float[] array = new float[in.readInt()];
+            for (int lcv = 0; lcv < array.length; lcv++) array[lcv] = in.readFloat();
+            return array;
+        }
+        case DOUBLE_ARRAY_VALUE: {
+            double[] array = new double[in.readInt()];
+            for (int lcv = 0; lcv < array.length; lcv++) array[lcv] = in.readDouble();
+            return array;
+        }
+        default:
+            throw new IOException("Unexpected annotation value type " + tag);
+        }
+    }
+
+    /**
+     * Records the index of a single archive while it is being parsed.  A
+     * recorder is used by the single thread parsing its archive.
+     */
+    public class Recorder {
+        private final URI archiveURI;
+        private final File archive;
+        private final long length;
+        private final long lastModified;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private boolean valid = true;
+
+        private Recorder(URI archiveURI, File archive) {
+            this.archiveURI = archiveURI;
+            this.archive = archive;
+            this.length = archive.length();
+            this.lastModified = archive.lastModified();
+        }
+
+        /**
+         * Returns a class visitor recording the visit of a class entry of
+         * the archive and forwarding it to the given visitor
+         *
+         * @param entryName the name of the class entry in the archive
+         * @param delegate the visitor building the class model
+         * @return the recording visitor
+         */
+        public ClassVisitor record(String entryName, ClassVisitor delegate) {
+            return new RecordingClassVisitor(entryName, delegate);
+        }
+
+        /**
+         * Marks the recording as incomplete, no index will be saved for the
+         * archive
+         */
+        public void invalidate() {
+            valid = false;
+        }
+
+        /**
+         * Saves the recorded index, unless the recording is incomplete or the
+         * archive changed while it was being parsed
+         */
+        public void save() {
+            if (!valid) return;
+            if (archive.length() != length || archive.lastModified() != lastModified) return;
+
+            File indexFile = getIndexFile(archiveURI);
+            File tmpFile = null;
+            try {
+                out.writeByte(END_ARCHIVE);
+                out.flush();
+                byte[] payload = bytes.toByteArray();
+
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, payload.length);
+
+                if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                    throw new IOException("Cannot create directory " + directory);
+                }
+
+                tmpFile = File.createTempFile("hk2-", ".tmp", directory);
+                DataOutputStream fileOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+                try {
+                    fileOut.writeInt(MAGIC);
+                    fileOut.writeInt(VERSION);
+                    writeString(fileOut, archiveURI.toString());
+                    fileOut.writeLong(length);
+                    fileOut.writeLong(lastModified);
+                    fileOut.writeInt(payload.length);
+                    fileOut.writeLong(crc.getValue());
+                    fileOut.write(payload);
+                } finally {
+                    fileOut.close();
+                }
+
+                if (!tmpFile.renameTo(indexFile)) {
+                    indexFile.delete();
+                    if (!tmpFile.renameTo(indexFile)) {
+                        throw new IOException("Cannot rename " + tmpFile + " to " + indexFile);
+                    }
+                }
+                tmpFile = null;
+
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Saved index " + indexFile + " of " + archiveURI);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Cannot save index " + indexFile + " of " + archiveURI, e);
+            } finally {
+                if (tmpFile != null) {
+                    tmpFile.delete();
+                }
+            }
+        }
+
+        private void tag(byte tag) {
+            try {
+                out.writeByte(tag);
+            } catch (IOException e) {
+                valid = false;
+            }
+        }
+
+        private void string(String value) {
+            try {
+                writeString(out, value);
+            } catch (IOException e) {
+                valid = false;
+            }
+        }
+
+        private void integer(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                valid = false;
+            }
+        }
+
+        private void bool(boolean value) {
+            try {
+                out.writeBoolean(value);
+            } catch (IOException e) {
+                valid = false;
+            }
+        }
+
+        private void value(Object value) {
+            try {
+                writeValue(out, value);
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Not indexing " + archiveURI, e);
+                valid = false;
+            }
+        }
+
+        private class RecordingClassVisitor extends ClassVisitor {
+            private final String entryName;
+
+            private RecordingClassVisitor(String entryName, ClassVisitor delegate) {
+                super(Opcodes.ASM6, delegate);
+                this.entryName = entryName;
+            }
+
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                tag(CLASS);
+                string(entryName);
+                integer(version);
+                integer(access);
+                string(name);
+                string(signature);
+                string(superName);
+                integer((interfaces == null) ? 0 : interfaces.length);
+                if (interfaces != null) {
+                    for (String intf : interfaces) {
+                        string(intf);
+                    }
+                }
+                super.visit(version, access, name, signature, superName, interfaces);
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                tag(CLASS_ANNOTATION);
+                string(desc);
+                bool(visible);
+                return new RecordingAnnotationVisitor(super.visitAnnotation(desc, visible));
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                tag(FIELD);
+                integer(access);
+                string(name);
+                string(desc);
+                string(signature);
+                return new RecordingFieldVisitor(super.visitField(access, name, desc, signature, value));
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                tag(METHOD);
+                integer(access);
+                string(name);
+                string(desc);
+                string(signature);
+                return new RecordingMethodVisitor(super.visitMethod(access, name, desc, signature, exceptions));
+            }
+
+            @Override
+            public void visitEnd() {
+                tag(END_CLASS);
+                super.visitEnd();
+            }
+        }
+
+        private class RecordingFieldVisitor extends FieldVisitor {
+            private RecordingFieldVisitor(FieldVisitor delegate) {
+                super(Opcodes.ASM6, delegate);
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                tag(MEMBER_ANNOTATION);
+                string(desc);
+                bool(visible);
+                return new RecordingAnnotationVisitor(super.visitAnnotation(desc, visible));
+            }
+
+            @Override
+            public void visitEnd() {
+                tag(END_MEMBER);
+                super.visitEnd();
+            }
+        }
+
+        private class RecordingMethodVisitor extends MethodVisitor {
+            private RecordingMethodVisitor(MethodVisitor delegate) {
+                super(Opcodes.ASM6, delegate);
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                tag(MEMBER_ANNOTATION);
+                string(desc);
+                bool(visible);
+                return new RecordingAnnotationVisitor(super.visitAnnotation(desc, visible));
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotationDefault() {
+                tag(ANNOTATION_DEFAULT);
+                return new RecordingAnnotationVisitor(super.visitAnnotationDefault());
+            }
+
+            @Override
+            public void visitEnd() {
+                tag(END_MEMBER);
+                super.visitEnd();
+            }
+        }
+
+        /**
+         * Records the values of an annotation, the content of array values
+         * and nested annotations are not part of the class model
+         */
+        private class RecordingAnnotationVisitor extends AnnotationVisitor {
+            private RecordingAnnotationVisitor(AnnotationVisitor delegate) {
+                super(Opcodes.ASM6, delegate);
+            }
+
+            @Override
+            public void visit(String name, Object value) {
+                tag(VALUE);
+                string(name);
+                value(value);
+                super.visit(name, value);
+            }
+
+            @Override
+            public AnnotationVisitor visitArray(String name) {
+                tag(ARRAY);
+                string(name);
+                return super.visitArray(name);
+            }
+
+            @Override
+            public void visitEnd() {
+                tag(END_ANNOTATION);
+                super.visitEnd();
+            }
+        }
+    }
+}
@@ -52,7 +52,7 @@ import java.util.*;
  */
 public class TypeProxy<T extends Type> {
 
-    private T value = null;
+    private volatile T value = null;
     private volatile boolean visited = false;
     private final String name;
     private final Notifier<T> notifier;
@@ -79,7 +79,7 @@ public class TypeProxy<T extends Type> {
       return "TypeProxy:" + name;
     }
 
-    public void set(T  value) {
+    public synchronized void set(T  value) {
         this.value = value;
         if (notifier!=null) {
             notifier.valueSet(value);
@@ -48,7 +48,9 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 /**
- * contains all the parsed types references.
+ * contains all the parsed types references. Instances are shared by all the
+ * threads parsing archives for the same {@link org.glassfish.hk2.classmodel.reflect.ParsingContext}
+ * so every lookup and creation of a type proxy must be safe for concurrent use.
  * @author Jerome Dochez
  */
 public class TypesCtr implements Types {
@@ -84,18 +86,28 @@ public class TypesCtr implements Types {
             }
         }
         // ok let's look in our unknown storage pool.
-        if (unknownTypesStorage.containsKey(name)) {
-            return unknownTypesStorage.get(name);
+        TypeProxy<Type> unknown = unknownTypesStorage.get(name);
+        if (unknown!=null) {
+            return unknown;
         }
-        // ok we don't have and since we don't know its type
-        // let's put it in the unknown storage pool.
-        TypeProxy<Type> typeProxy = new TypeProxy<Type>(null, name);
-        TypeProxy<Type> old = unknownTypesStorage.putIfAbsent(name, typeProxy);
-        if (old==null) {
-            nonVisited.push(typeProxy);
-            return typeProxy;
+        synchronized (unknownTypesStorage) {
+            // another thread may have typed or created it while we were looking
+            for (Map<String, TypeProxy<Type>> map : storage.values()) {
+                TypeProxy<Type> proxy = map.get(name);
+                if (proxy!=null) {
+                    return proxy;
+                }
+            }
+            // ok we don't have and since we don't know its type
+            // let's put it in the unknown storage pool.
+            TypeProxy<Type> typeProxy = new TypeProxy<Type>(null, name);
+            TypeProxy<Type> old = unknownTypesStorage.putIfAbsent(name, typeProxy);
+            if (old==null) {
+                nonVisited.push(typeProxy);
+                return typeProxy;
+            }
+            return old;
         }
-        return old;
     }
 
     public <T extends Type> TypeProxy<Type> getHolder(String name, Class<T> type) {
@@ -110,31 +122,26 @@ public class TypesCtr implements Types {
             }
         }
         TypeProxy<Type> typeProxy = typeStorage.get(name);
-        if (typeProxy ==null) {
-            // in our unknown type pool ? 
-            TypeProxy<Type> tmp = unknownTypesStorage.get(name);
+        if (typeProxy!=null) {
+            return typeProxy;
+        }
+        // moving a proxy from the unknown pool to its typed pool must not
+        // interleave with another thread doing the same or creating a new
+        // unknown proxy for the same name, otherwise two proxies would
+        // represent the same type.
+        synchronized (unknownTypesStorage) {
+            typeProxy = typeStorage.get(name);
+            if (typeProxy!=null) {
+                return typeProxy;
+            }
             // in our unknown type pool ?
-            if (tmp!=null) {
-                synchronized (unknownTypesStorage) {
-                    typeProxy = unknownTypesStorage.remove(name);
-                    if (typeProxy == null) { 
-                        typeProxy = tmp; 
-                     }
-                }
-                if (typeProxy!=null) {
-                    TypeProxy<Type> old = typeStorage.putIfAbsent(name, typeProxy);
-                    if (old!=null) {
-                        typeProxy = old;
-                    }
-                }
+            typeProxy = unknownTypesStorage.remove(name);
+            if (typeProxy!=null) {
+                typeStorage.put(name, typeProxy);
             } else {
                 typeProxy = new TypeProxy<Type>(null, name);
-                TypeProxy<Type> old = typeStorage.putIfAbsent(name, typeProxy);
-                if (old==null) {
-                    nonVisited.push(typeProxy);
-                } else {
-                    typeProxy=old;
-                }
+                typeStorage.put(name, typeProxy);
+                nonVisited.push(typeProxy);
             }
         }
         return typeProxy;
@@ -43,9 +43,7 @@ package org.glassfish.hk2.classmodel.reflect.util;
 import org.glassfish.hk2.classmodel.reflect.Parser;
 
 import java.io.*;
-import java.nio.ByteBuffer;
 import java.net.URI;
-import java.nio.channels.FileChannel;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.logging.Level;
@@ -100,23 +98,23 @@ public class DirectoryArchive extends AbstractAdapter {
             return;
         }
       
-        ByteBuffer buffer = ByteBuffer.allocate(52000);
-
         for (File f : listFiles) {
-            Entry ae = new Entry(mangle(f), f.length(), f.isDirectory());
             if (!f.isDirectory()) {
-                if (ae.name.endsWith(".jar")) {
-                    JarArchive ja = null;
+                String name = mangle(f);
+                if (name.endsWith(".jar")) {
+                    JarArchive ja = new JarArchive(parser, f.toURI());
                     try {
-                        ja = new JarArchive(parser, f.toURI());
                         ja.onSelectedEntries(selector, task, logger);
                     } finally {
                         ja.close();
                     }
                     continue;
                 }
+                // the size is only needed, and only looked up, for selected entries
+                Entry ae = new Entry(name, 0);
                 if (!selector.isSelected(ae))
                     continue;
+                ae = new Entry(name, f.length());
                 InputStream is = null;
                 try {
                     try {
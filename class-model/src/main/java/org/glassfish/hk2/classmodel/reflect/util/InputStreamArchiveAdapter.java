@@ -93,34 +93,31 @@ public class InputStreamArchiveAdapter extends AbstractAdapter {
                         continue;
     
                     try {
+                        // beware, ja.getSize() can be equal to -1 if the size cannot be determined.
                         if (ja.getSize()>bytes.length) {
                             bytes = new byte[(int) ja.getSize()];
                         }
-                        if (ja.getSize()!=0) {
-                            // beware, ja.getSize() can be equal to -1 if the size cannot be determined.
-    
-                            int read = 0;
-                            int allRead=0;
-                            do {
-                                read = jis.read(bytes, allRead, bytes.length-allRead);
-                                allRead+=read;
-                                if (allRead==bytes.length) {
-                                    // oh crap !
-                                    bytes = Arrays.copyOf(bytes, bytes.length*2);
-                                }
-    
-                            } while (read!=-1);
-    
-                            if (ja.getSize()!=-1 && ja.getSize()!=(allRead+1)) {
-                                logger.severe("Incorrect file length while processing " + ja.getName() + " of size " + ja.getSize() + " got " + allRead);
-                            }
-    
-                            // if the size was not known, let's reset it now.
-                            if (je.size==-1) {
-                                je = new Entry(ja.getName(), allRead+1);
+                        
+                        int read;
+                        int allRead=0;
+                        while ((read = jis.read(bytes, allRead, bytes.length-allRead))!=-1) {
+                            allRead+=read;
+                            if (allRead==bytes.length) {
+                                bytes = Arrays.copyOf(bytes, bytes.length*2);
                             }
                         }
-                        ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
+                        
+                        if (ja.getSize()!=-1 && ja.getSize()!=allRead) {
+                            logger.severe("Incorrect file length while processing " + ja.getName() + " of size " + ja.getSize() + " got " + allRead);
+                        }
+                        
+                        // if the size was not known, let's reset it now.
+                        if (je.size==-1) {
+                            je = new Entry(ja.getName(), allRead);
+                        }
+                        
+                        // only hand the bytes of this entry, the buffer is reused for the next one
+                        ByteArrayInputStream bais = new ByteArrayInputStream(bytes, 0, allRead);
                         try {
                             task.on(je, bais);
                         } finally {
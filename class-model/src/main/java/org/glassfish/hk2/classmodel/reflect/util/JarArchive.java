@@ -101,8 +101,10 @@ public class JarArchive extends AbstractAdapter {
                      }
                  }
 
+                 // the nested jar is parsed on its own, under its own URI, and is also
+                 // scanned as part of this archive. Each reader gets its own stream
                  final InputStreamArchiveAdapter subArchive = new InputStreamArchiveAdapter(this, subURI,
-                         jar.getInputStream(jar.getEntry(ja.getName())));
+                         jar.getInputStream(ja));
                  releaseCount.incrementAndGet();
                  parser.parse(subArchive, new Runnable() {
                      @Override
@@ -112,9 +114,21 @@ public class JarArchive extends AbstractAdapter {
                          } catch (IOException e) {
                              logger.log(Level.SEVERE, "Cannot close sub archive {0}", subArchive.getURI());
                          }
+                         try {
+                             releaseCount();
+                         } catch (IOException e) {
+                             logger.log(Level.SEVERE, "Cannot close archive {0}", uri);
+                         }
                      }
                  });
-                     subArchive.onSelectedEntries(selector, task, logger);
+
+                 InputStreamArchiveAdapter inlineArchive = new InputStreamArchiveAdapter(this, subURI,
+                         jar.getInputStream(ja));
+                 try {
+                     inlineArchive.onSelectedEntries(selector, task, logger);
+                 } finally {
+                     inlineArchive.close();
+                 }
              }
              InputStream is = null;
              try {
@@ -0,0 +1,294 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.classmodel.reflect.test.cache;
+
+import org.glassfish.hk2.classmodel.reflect.AnnotationModel;
+import org.glassfish.hk2.classmodel.reflect.AnnotationType;
+import org.glassfish.hk2.classmodel.reflect.ClassModel;
+import org.glassfish.hk2.classmodel.reflect.ExtensibleType;
+import org.glassfish.hk2.classmodel.reflect.FieldModel;
+import org.glassfish.hk2.classmodel.reflect.InterfaceModel;
+import org.glassfish.hk2.classmodel.reflect.MethodModel;
+import org.glassfish.hk2.classmodel.reflect.Parser;
+import org.glassfish.hk2.classmodel.reflect.ParsingContext;
+import org.glassfish.hk2.classmodel.reflect.Type;
+import org.glassfish.hk2.external.org.objectweb.asm.AnnotationVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassWriter;
+import org.glassfish.hk2.external.org.objectweb.asm.FieldVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.MethodVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.Opcodes;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Tests the on disk index of parsed archives
+ */
+public class IndexCacheTest {
+    private static final String PACKAGE = "org/glassfish/hk2/classmodel/indexed/";
+    private static final String CONTRACT = PACKAGE + "Contract";
+    private static final String QUALIFIER = PACKAGE + "Qualifier";
+    private static final String SERVICE = PACKAGE + "Service";
+
+    private File jar;
+    private File cacheDir;
+
+    @Before
+    public void before() throws IOException {
+        jar = File.createTempFile("indexed-", ".jar");
+        createJar(jar);
+
+        cacheDir = File.createTempFile("index-cache-", "");
+        cacheDir.delete();
+    }
+
+    @After
+    public void after() {
+        jar.delete();
+
+        File[] indexes = cacheDir.listFiles();
+        if (indexes != null) {
+            for (File index : indexes) {
+                index.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    /**
+     * Tests that an unchanged jar is visited from its index and gives
+     * the same model as parsing the jar
+     */
+    @Test
+    public void testUnchangedJarIsVisitedFromIndex() throws Exception {
+        List<String> messages = new ArrayList<String>();
+        String parsed = describe(parse(messages));
+
+        Assert.assertFalse(visitedFromIndex(messages));
+        Assert.assertEquals(1, cacheDir.listFiles().length);
+
+        messages.clear();
+        String replayed = describe(parse(messages));
+
+        Assert.assertTrue(visitedFromIndex(messages));
+        Assert.assertEquals(parsed, replayed);
+    }
+
+    /**
+     * Tests that a jar modified after its index was saved is parsed again
+     * and indexed again
+     */
+    @Test
+    public void testModifiedJarIsParsedAgain() throws Exception {
+        List<String> messages = new ArrayList<String>();
+        String parsed = describe(parse(messages));
+
+        Assert.assertTrue(jar.setLastModified(jar.lastModified() + 10000));
+
+        messages.clear();
+        Assert.assertEquals(parsed, describe(parse(messages)));
+        Assert.assertFalse(visitedFromIndex(messages));
+
+        messages.clear();
+        Assert.assertEquals(parsed, describe(parse(messages)));
+        Assert.assertTrue(visitedFromIndex(messages));
+    }
+
+    private boolean visitedFromIndex(List<String> messages) {
+        for (String message : messages) {
+            if (message.startsWith("Visited " + jar.toURI())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Collection<Type> parse(final List<String> messages) throws IOException, InterruptedException {
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.FINE);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        ParsingContext context = new ParsingContext.Builder().logger(logger).indexCache(cacheDir).build();
+        Parser parser = new Parser(context);
+        parser.parse(jar, null);
+
+        Exception[] faults = parser.awaitTermination(100, TimeUnit.SECONDS);
+        Assert.assertEquals(0, faults.length);
+
+        return context.getTypes().getAllTypes();
+    }
+
+    /**
+     * Gives a textual description of the model, sorted by type name
+     */
+    private static String describe(Collection<Type> types) {
+        Map<String, String> descriptions = new TreeMap<String, String>();
+        for (Type type : types) {
+            StringBuilder sb = new StringBuilder(type.getClass().getSimpleName());
+            describeAnnotations(type.getAnnotations(), sb);
+            if (type instanceof ExtensibleType) {
+                ExtensibleType<?> extensible = (ExtensibleType<?>) type;
+                sb.append(" parent=").append((extensible.getParent() == null) ? null : extensible.getParent().getName());
+                for (InterfaceModel intf : extensible.getInterfaces()) {
+                    sb.append(" implements=").append(intf.getName());
+                }
+            }
+            if (type instanceof AnnotationType) {
+                sb.append(" defaults=").append(new TreeMap<String, Object>(((AnnotationType) type).getDefaultValues()));
+            }
+            if (type instanceof ClassModel) {
+                for (FieldModel field : ((ClassModel) type).getFields()) {
+                    sb.append(" field=").append(field.getName());
+                    describeAnnotations(field.getAnnotations(), sb);
+                }
+            }
+            for (MethodModel method : type.getMethods()) {
+                sb.append(" method=").append(method.getName());
+                describeAnnotations(method.getAnnotations(), sb);
+            }
+
+            descriptions.put(type.getName(), sb.toString());
+        }
+
+        return descriptions.toString();
+    }
+
+    private static void describeAnnotations(Collection<AnnotationModel> annotations, StringBuilder sb) {
+        List<String> described = new ArrayList<String>();
+        for (AnnotationModel annotation : annotations) {
+            Map<String, String> values = new TreeMap<String, String>();
+            for (Map.Entry<String, Object> value : annotation.getValues().entrySet()) {
+                Object v = value.getValue();
+                values.put(value.getKey(), (v instanceof int[]) ? Arrays.toString((int[]) v) : String.valueOf(v));
+            }
+            described.add(annotation.getType().getName() + values);
+        }
+        Collections.sort(described);
+
+        sb.append(" annotations=").append(described);
+    }
+
+    private static void createJar(File jar) throws IOException {
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            ClassWriter cw = new ClassWriter(0);
+            cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, CONTRACT, null,
+                    "java/lang/Object", null);
+            cw.visitEnd();
+            addEntry(jos, CONTRACT, cw.toByteArray());
+
+            cw = new ClassWriter(0);
+            cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT | Opcodes.ACC_ANNOTATION,
+                    QUALIFIER, null, "java/lang/Object", new String[] { "java/lang/annotation/Annotation" });
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "value", "()Ljava/lang/String;", null, null);
+            AnnotationVisitor av = mv.visitAnnotationDefault();
+            av.visit(null, "default");
+            av.visitEnd();
+            mv.visitEnd();
+            cw.visitEnd();
+            addEntry(jos, QUALIFIER, cw.toByteArray());
+
+            cw = new ClassWriter(0);
+            cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, SERVICE, null, "java/lang/Object", new String[] { CONTRACT });
+            av = cw.visitAnnotation("L" + QUALIFIER + ";", true);
+            av.visit("value", "service");
+            av.visit("ranks", new int[] { 1, 2, 3 });
+            av.visit("type", org.glassfish.hk2.external.org.objectweb.asm.Type.getType("L" + CONTRACT + ";"));
+            av.visitEnd();
+
+            FieldVisitor fv = cw.visitField(Opcodes.ACC_PRIVATE, "contract", "L" + CONTRACT + ";", null, null);
+            av = fv.visitAnnotation("L" + QUALIFIER + ";", true);
+            av.visit("value", "field");
+            av.visitEnd();
+            fv.visitEnd();
+
+            mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "setContract", "(L" + CONTRACT + ";)V", null, null);
+            av = mv.visitAnnotation("L" + QUALIFIER + ";", true);
+            av.visitEnd();
+            mv.visitCode();
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 2);
+            mv.visitEnd();
+            cw.visitEnd();
+            addEntry(jos, SERVICE, cw.toByteArray());
+        } finally {
+            jos.close();
+        }
+    }
+
+    private static void addEntry(JarOutputStream jos, String name, byte[] bytes) throws IOException {
+        jos.putNextEntry(new JarEntry(name + ".class"));
+        jos.write(bytes);
+        jos.closeEntry();
+    }
+}
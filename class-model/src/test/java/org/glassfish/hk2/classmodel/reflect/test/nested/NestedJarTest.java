@@ -0,0 +1,204 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.classmodel.reflect.test.nested;
+
+import org.glassfish.hk2.classmodel.reflect.ClassModel;
+import org.glassfish.hk2.classmodel.reflect.Parser;
+import org.glassfish.hk2.classmodel.reflect.ParsingContext;
+import org.glassfish.hk2.classmodel.reflect.Types;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassWriter;
+import org.glassfish.hk2.external.org.objectweb.asm.Opcodes;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Tests the parsing of jars nested in a jar
+ *
+ * @author jwells
+ */
+public class NestedJarTest {
+    private static final String OUTER_CLASS = "org/glassfish/hk2/classmodel/nested/Outer";
+    private static final String INNER_CLASS = "org/glassfish/hk2/classmodel/nested/Inner";
+    private static final String INNER_JAR = "lib/inner.jar";
+
+    private File jar;
+    private File cacheDir;
+
+    @Before
+    public void before() throws IOException {
+        jar = File.createTempFile("outer-", ".jar");
+        createOuterJar(jar);
+
+        cacheDir = File.createTempFile("nested-cache-", "");
+        cacheDir.delete();
+    }
+
+    @After
+    public void after() {
+        jar.delete();
+
+        File[] indexes = cacheDir.listFiles();
+        if (indexes != null) {
+            for (File index : indexes) {
+                index.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    /**
+     * Tests that the classes of a nested jar are defined by the nested
+     * jar itself as well as by the jar holding it
+     */
+    @Test
+    public void testNestedJarDefinesItsClasses() throws Exception {
+        Types types = parse(new ParsingContext.Builder(), new ArrayList<String>());
+
+        URI outerURI = jar.toURI();
+        URI innerURI = new URI("jar:" + outerURI + "!/" + INNER_JAR);
+
+        ClassModel outer = types.getBy(ClassModel.class, OUTER_CLASS.replace('/', '.'));
+        Assert.assertTrue(outer.getDefiningURIs().contains(outerURI));
+
+        ClassModel inner = types.getBy(ClassModel.class, INNER_CLASS.replace('/', '.'));
+        Assert.assertNotNull(inner);
+        Assert.assertTrue(inner.getDefiningURIs().toString(), inner.getDefiningURIs().contains(innerURI));
+        Assert.assertTrue(inner.getDefiningURIs().toString(), inner.getDefiningURIs().contains(outerURI));
+    }
+
+    /**
+     * Tests that a jar holding a nested jar is never visited from the
+     * index cache, since the nested jar must be parsed on its own
+     */
+    @Test
+    public void testJarWithNestedJarIsNotIndexed() throws Exception {
+        List<String> messages = new ArrayList<String>();
+        parse(new ParsingContext.Builder().indexCache(cacheDir), messages);
+
+        messages.clear();
+        Types types = parse(new ParsingContext.Builder().indexCache(cacheDir), messages);
+
+        for (String message : messages) {
+            Assert.assertFalse(message, message.startsWith("Visited " + jar.toURI()));
+        }
+
+        ClassModel inner = types.getBy(ClassModel.class, INNER_CLASS.replace('/', '.'));
+        Assert.assertNotNull(inner);
+    }
+
+    private Types parse(ParsingContext.Builder builder, final List<String> messages)
+            throws IOException, InterruptedException {
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.FINE);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        ParsingContext context = builder.logger(logger).build();
+        Parser parser = new Parser(context);
+        parser.parse(jar, null);
+
+        Exception[] faults = parser.awaitTermination(100, TimeUnit.SECONDS);
+        Assert.assertEquals(0, faults.length);
+
+        return context.getTypes();
+    }
+
+    private static void createOuterJar(File jar) throws IOException {
+        ByteArrayOutputStream inner = new ByteArrayOutputStream();
+        JarOutputStream jos = new JarOutputStream(inner);
+        try {
+            addEntry(jos, INNER_CLASS + ".class", createClass(INNER_CLASS));
+        } finally {
+            jos.close();
+        }
+
+        jos = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            addEntry(jos, OUTER_CLASS + ".class", createClass(OUTER_CLASS));
+            addEntry(jos, INNER_JAR, inner.toByteArray());
+        } finally {
+            jos.close();
+        }
+    }
+
+    private static byte[] createClass(String name) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        cw.visitEnd();
+
+        return cw.toByteArray();
+    }
+
+    private static void addEntry(JarOutputStream jos, String name, byte[] bytes) throws IOException {
+        jos.putNextEntry(new JarEntry(name));
+        jos.write(bytes);
+        jos.closeEntry();
+    }
+}
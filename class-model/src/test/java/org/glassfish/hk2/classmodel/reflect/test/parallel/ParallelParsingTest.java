@@ -0,0 +1,223 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.classmodel.reflect.test.parallel;
+
+import org.glassfish.hk2.classmodel.reflect.AnnotationType;
+import org.glassfish.hk2.classmodel.reflect.ClassModel;
+import org.glassfish.hk2.classmodel.reflect.InterfaceModel;
+import org.glassfish.hk2.classmodel.reflect.Parser;
+import org.glassfish.hk2.classmodel.reflect.ParsingContext;
+import org.glassfish.hk2.classmodel.reflect.Types;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassWriter;
+import org.glassfish.hk2.external.org.objectweb.asm.FieldVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.MethodVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.Opcodes;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Parses a set of generated jars with several threads. All the generated
+ * classes extend the same parent, implement the same interface and use the
+ * same annotation so the parsing threads contend on the same types.
+ *
+ * Running the main method benchmarks the parsing of a large jar set with 1
+ * to N threads.
+ */
+public class ParallelParsingTest {
+    private static final String PACKAGE = "org/glassfish/hk2/classmodel/synthetic/";
+    private static final String BASE = PACKAGE + "Base";
+    private static final String SHARED_INTERFACE = PACKAGE + "SharedInterface";
+    private static final String MARKER = PACKAGE + "Marker";
+
+    private static final int NUM_JARS = 8;
+    private static final int CLASSES_PER_JAR = 200;
+
+    /**
+     * Tests that parsing with several threads produces the same model
+     * as parsing with a single thread
+     */
+    @Test
+    public void testParallelParsingMatchesSerialParsing() throws Exception {
+        List<File> jars = createJars(NUM_JARS, CLASSES_PER_JAR);
+        try {
+            Types serial = parse(jars, 1);
+            int numTypes = serial.getAllTypes().size();
+            checkModel(serial, NUM_JARS * CLASSES_PER_JAR);
+
+            for (int round = 0; round < 5; round++) {
+                Types parallel = parse(jars, 4);
+
+                Assert.assertEquals(numTypes, parallel.getAllTypes().size());
+                checkModel(parallel, NUM_JARS * CLASSES_PER_JAR);
+            }
+        } finally {
+            deleteJars(jars);
+        }
+    }
+
+    private static void checkModel(Types types, int numClasses) {
+        InterfaceModel sharedInterface = types.getBy(InterfaceModel.class, SHARED_INTERFACE.replace('/', '.'));
+        Assert.assertNotNull(sharedInterface);
+        Assert.assertEquals(numClasses, sharedInterface.implementations().size());
+
+        ClassModel base = types.getBy(ClassModel.class, BASE.replace('/', '.'));
+        Assert.assertNotNull(base);
+        Assert.assertEquals(numClasses, base.subTypes().size());
+
+        AnnotationType marker = types.getBy(AnnotationType.class, MARKER.replace('/', '.'));
+        Assert.assertNotNull(marker);
+        // every class, its field and its method carry the marker
+        Assert.assertEquals(3 * numClasses, marker.allAnnotatedTypes().size());
+    }
+
+    private static Types parse(List<File> jars, int parallelism) throws IOException, InterruptedException {
+        ParsingContext context = new ParsingContext.Builder().parallelism(parallelism).build();
+        Parser parser = new Parser(context);
+        for (File jar : jars) {
+            parser.parse(jar, null);
+        }
+
+        Exception[] faults = parser.awaitTermination(100, TimeUnit.SECONDS);
+        Assert.assertEquals(0, faults.length);
+
+        return context.getTypes();
+    }
+
+    /**
+     * Creates the jars to parse, the first one also holds the shared
+     * parent, interface and annotation
+     */
+    private static List<File> createJars(int numJars, int classesPerJar) throws IOException {
+        List<File> retVal = new ArrayList<File>(numJars);
+        for (int lcv = 0; lcv < numJars; lcv++) {
+            File jar = File.createTempFile("synthetic" + lcv + "-", ".jar");
+            JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar));
+            try {
+                if (lcv == 0) {
+                    addEntry(jos, BASE, createClass(BASE, Opcodes.ACC_PUBLIC, "java/lang/Object", null, false));
+                    addEntry(jos, SHARED_INTERFACE, createClass(SHARED_INTERFACE,
+                            Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, "java/lang/Object", null, false));
+                    addEntry(jos, MARKER, createClass(MARKER,
+                            Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT | Opcodes.ACC_ANNOTATION,
+                            "java/lang/Object", "java/lang/annotation/Annotation", false));
+                }
+
+                for (int clazz = 0; clazz < classesPerJar; clazz++) {
+                    String name = PACKAGE + "jar" + lcv + "/Service" + clazz;
+                    addEntry(jos, name, createClass(name, Opcodes.ACC_PUBLIC, BASE, SHARED_INTERFACE, true));
+                }
+            } finally {
+                jos.close();
+            }
+
+            retVal.add(jar);
+        }
+
+        return retVal;
+    }
+
+    private static void addEntry(JarOutputStream jos, String name, byte[] bytes) throws IOException {
+        jos.putNextEntry(new JarEntry(name + ".class"));
+        jos.write(bytes);
+        jos.closeEntry();
+    }
+
+    private static byte[] createClass(String name, int access, String superName, String intf, boolean annotated) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_6, access, name, null, superName, (intf == null) ? null : new String[] { intf });
+        if (annotated) {
+            cw.visitAnnotation("L" + MARKER + ";", true).visitEnd();
+
+            FieldVisitor fv = cw.visitField(Opcodes.ACC_PRIVATE, "field", "Ljava/lang/String;", null, null);
+            fv.visitAnnotation("L" + MARKER + ";", true).visitEnd();
+            fv.visitEnd();
+
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "method", "()V", null, null);
+            mv.visitAnnotation("L" + MARKER + ";", true).visitEnd();
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+
+        return cw.toByteArray();
+    }
+
+    private static void deleteJars(List<File> jars) {
+        for (File jar : jars) {
+            jar.delete();
+        }
+    }
+
+    /**
+     * Benchmarks the parsing of a large set of generated jars with 1 to N threads
+     *
+     * @param args optional maximum number of threads, number of jars and classes per jar
+     */
+    public static void main(String[] args) throws Exception {
+        int maxThreads = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int numJars = (args.length > 1) ? Integer.parseInt(args[1]) : 64;
+        int classesPerJar = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+
+        List<File> jars = createJars(numJars, classesPerJar);
+        try {
+            // warm up
+            parse(jars, maxThreads);
+
+            for (int threads = 1; threads <= maxThreads; threads++) {
+                long start = System.nanoTime();
+                Types types = parse(jars, threads);
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+                System.out.println("Parsed " + types.getAllTypes().size() + " types from " + numJars + " jars with "
+                        + threads + " thread(s) in " + elapsed + " ms");
+            }
+        } finally {
+            deleteJars(jars);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.classmodel.reflect.test.selective;
+
+import org.glassfish.hk2.classmodel.reflect.AnnotationType;
+import org.glassfish.hk2.classmodel.reflect.ClassModel;
+import org.glassfish.hk2.classmodel.reflect.Parser;
+import org.glassfish.hk2.classmodel.reflect.ParsingContext;
+import org.glassfish.hk2.classmodel.reflect.Types;
+import org.glassfish.hk2.classmodel.reflect.impl.AnnotationPreFilter;
+import org.glassfish.hk2.classmodel.reflect.util.ParsingConfig;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassReader;
+import org.glassfish.hk2.external.org.objectweb.asm.ClassWriter;
+import org.glassfish.hk2.external.org.objectweb.asm.FieldVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.MethodVisitor;
+import org.glassfish.hk2.external.org.objectweb.asm.Opcodes;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Tests that classes which cannot carry an annotation of interest are only
+ * visited as stubs.
+ *
+ * Running the main method compares the parsing time of a large jar set with
+ * and without the annotation pre-filter.
+ */
+public class SelectiveParsingTest {
+    private static final String PACKAGE = "org/glassfish/hk2/classmodel/selective/";
+    private static final String INTERESTING = PACKAGE + "Interesting";
+    private static final String OTHER = PACKAGE + "Other";
+    private static final String BASE = PACKAGE + "Base";
+
+    /**
+     * Tests that classes with and without the annotation of interest are
+     * modeled the same way with and without the pre-filter
+     */
+    @Test
+    public void testStubsHaveHeaderAndAnnotations() throws Exception {
+        List<File> jars = createJars(1, 10, 2);
+        try {
+            Types filtered = parse(jars, Collections.singleton(INTERESTING.replace('/', '.')), true);
+            Types unfiltered = parse(jars, Collections.singleton(INTERESTING.replace('/', '.')), false);
+
+            for (Types types : new Types[] { filtered, unfiltered }) {
+                ClassModel interesting = types.getBy(ClassModel.class, className(0, 0));
+                Assert.assertEquals(1, interesting.getFields().size());
+                Assert.assertEquals(1, interesting.getMethods().size());
+
+                ClassModel stub = types.getBy(ClassModel.class, className(0, 1));
+                Assert.assertNotNull(stub.getAnnotation(OTHER.replace('/', '.')));
+                Assert.assertEquals(BASE.replace('/', '.'), stub.getParent().getName());
+                Assert.assertTrue(stub.getFields().isEmpty());
+                Assert.assertTrue(stub.getMethods().isEmpty());
+
+                AnnotationType other = types.getBy(AnnotationType.class, OTHER.replace('/', '.'));
+                // the stubs, and the field and method of the interesting classes
+                Assert.assertEquals(5 + 5 * 2, other.allAnnotatedTypes().size());
+            }
+
+            Assert.assertEquals(unfiltered.getAllTypes().size(), filtered.getAllTypes().size());
+        } finally {
+            deleteJars(jars);
+        }
+    }
+
+    /**
+     * Tests that only the constant pool of a class using an annotation of
+     * interest lets the class be deeply visited
+     */
+    @Test
+    public void testPreFilterMatchesConstantPool() {
+        AnnotationPreFilter preFilter = new AnnotationPreFilter(Collections.singleton(INTERESTING.replace('/', '.')));
+
+        Assert.assertTrue(preFilter.mayBeAnnotated(new ClassReader(createClass(PACKAGE + "A", BASE, INTERESTING, 1))));
+        Assert.assertFalse(preFilter.mayBeAnnotated(new ClassReader(createClass(PACKAGE + "B", BASE, OTHER, 1))));
+        Assert.assertFalse(preFilter.mayBeAnnotated(new ClassReader(createClass(PACKAGE + "C", BASE, null, 0))));
+    }
+
+    private static String className(int jar, int clazz) {
+        return (PACKAGE + "jar" + jar + "/Service" + clazz).replace('/', '.');
+    }
+
+    private static Types parse(List<File> jars, final Set<String> annotationsOfInterest, boolean preFilter)
+            throws IOException, InterruptedException {
+        ParsingContext context = new ParsingContext.Builder().config(new ParsingConfig() {
+            @Override
+            public Set<String> getAnnotationsOfInterest() {
+                return annotationsOfInterest;
+            }
+
+            @Override
+            public Set<String> getTypesOfInterest() {
+                return Collections.emptySet();
+            }
+
+            @Override
+            public boolean modelUnAnnotatedMembers() {
+                return true;
+            }
+        }).preFilter(preFilter).build();
+
+        Parser parser = new Parser(context);
+        for (File jar : jars) {
+            parser.parse(jar, null);
+        }
+
+        Exception[] faults = parser.awaitTermination(100, TimeUnit.SECONDS);
+        Assert.assertEquals(0, faults.length);
+
+        return context.getTypes();
+    }
+
+    /**
+     * Creates jars where one class out of interestingRatio is annotated with
+     * the annotation of interest, the others only with another annotation
+     */
+    private static List<File> createJars(int numJars, int classesPerJar, int interestingRatio) throws IOException {
+        List<File> retVal = new ArrayList<File>(numJars);
+        for (int lcv = 0; lcv < numJars; lcv++) {
+            File jar = File.createTempFile("selective" + lcv + "-", ".jar");
+            JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar));
+            try {
+                if (lcv == 0) {
+                    addEntry(jos, BASE, createClass(BASE, "java/lang/Object", null, 0));
+                }
+
+                for (int clazz = 0; clazz < classesPerJar; clazz++) {
+                    String name = PACKAGE + "jar" + lcv + "/Service" + clazz;
+                    String annotation = (clazz % interestingRatio == 0) ? INTERESTING : OTHER;
+                    addEntry(jos, name, createClass(name, BASE, annotation, 1));
+                }
+            } finally {
+                jos.close();
+            }
+
+            retVal.add(jar);
+        }
+
+        return retVal;
+    }
+
+    private static void addEntry(JarOutputStream jos, String name, byte[] bytes) throws IOException {
+        jos.putNextEntry(new JarEntry(name + ".class"));
+        jos.write(bytes);
+        jos.closeEntry();
+    }
+
+    private static byte[] createClass(String name, String superName, String annotation, int numMembers) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name, null, superName, null);
+        if (annotation != null) {
+            cw.visitAnnotation("L" + annotation + ";", true).visitEnd();
+        }
+
+        for (int lcv = 0; lcv < numMembers; lcv++) {
+            FieldVisitor fv = cw.visitField(Opcodes.ACC_PRIVATE, "field" + lcv, "Ljava/lang/String;", null, null);
+            fv.visitAnnotation("L" + OTHER + ";", true).visitEnd();
+            fv.visitEnd();
+
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "method" + lcv, "(I)I", null, null);
+            mv.visitAnnotation("L" + OTHER + ";", true).visitEnd();
+            mv.visitCode();
+            for (int insn = 0; insn < 50; insn++) {
+                mv.visitVarInsn(Opcodes.ILOAD, 1);
+                mv.visitLdcInsn(name + insn);
+                mv.visitInsn(Opcodes.POP);
+                mv.visitInsn(Opcodes.ICONST_1);
+                mv.visitInsn(Opcodes.IADD);
+                mv.visitVarInsn(Opcodes.ISTORE, 1);
+            }
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitMaxs(2, 2);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+
+        return cw.toByteArray();
+    }
+
+    private static void deleteJars(List<File> jars) {
+        for (File jar : jars) {
+            jar.delete();
+        }
+    }
+
+    /**
+     * Compares the parsing of a set of jars with and without the pre-filter.
+     * Without arguments a large set of jars is generated, where one class out
+     * of ten carries the annotation of interest.
+     *
+     * @param args optional annotation of interest followed by the jars to parse
+     */
+    public static void main(String[] args) throws Exception {
+        Set<String> annotationsOfInterest;
+        List<File> jars;
+        boolean generated = (args.length < 2);
+        if (generated) {
+            annotationsOfInterest = Collections.singleton(INTERESTING.replace('/', '.'));
+            jars = createJars(32, 1000, 10);
+        } else {
+            annotationsOfInterest = Collections.singleton(args[0]);
+            jars = new ArrayList<File>();
+            for (int lcv = 1; lcv < args.length; lcv++) {
+                jars.add(new File(args[lcv]));
+            }
+        }
+
+        try {
+            // warm up
+            parse(jars, annotationsOfInterest, true);
+            parse(jars, annotationsOfInterest, false);
+
+            for (int round = 0; round < 3; round++) {
+                for (boolean preFilter : new boolean[] { false, true }) {
+                    long start = System.nanoTime();
+                    Types types = parse(jars, annotationsOfInterest, preFilter);
+                    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+                    System.out.println("Parsed " + types.getAllTypes().size() + " types "
+                            + (preFilter ? "with" : "without") + " pre-filter in " + elapsed + " ms");
+                }
+            }
+        } finally {
+            if (generated) {
+                deleteJars(jars);
+            }
+        }
+    }
+}
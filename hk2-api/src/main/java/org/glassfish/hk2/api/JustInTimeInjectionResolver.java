@@ -65,6 +65,13 @@ import org.jvnet.hk2.annotations.Contract;
  * If any of the registered injection resolvers commits a dynamic change
  * then the system will try one more time to resolve the injection before
  * failing (or returning null if the injection point is Optional).
+ * <p>
+ * Lookups of all the services of a type, with
+ * {@link ServiceLocator#getAllServices(java.lang.reflect.Type, java.lang.annotation.Annotation...)},
+ * {@link ServiceLocator#getAllServiceHandles(java.lang.reflect.Type, java.lang.annotation.Annotation...)}
+ * or an {@link IterableProvider}, also call the resolvers when they find no service at all.
+ * Lookups with a {@link Filter} never call the resolvers, since a filter does
+ * not name a type
  * 
  * @author jwells
  */
@@ -39,6 +39,7 @@
  */
 package org.glassfish.hk2.json.internal;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -54,9 +55,13 @@ import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 import javax.json.Json;
+import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
 import javax.json.JsonWriter;
 import javax.json.JsonWriterFactory;
 import javax.json.stream.JsonGenerator;
@@ -77,6 +82,8 @@ import org.glassfish.hk2.xml.internal.Utilities;
 import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
 import org.glassfish.hk2.xml.spi.Model;
 import org.glassfish.hk2.xml.spi.PreGenerationRequirement;
+import org.glassfish.hk2.xml.spi.XmlDeltaNode;
+import org.glassfish.hk2.xml.spi.XmlServiceDeltaParser;
 import org.glassfish.hk2.xml.spi.XmlServiceParser;
 
 /**
@@ -86,7 +93,7 @@ import org.glassfish.hk2.xml.spi.XmlServiceParser;
 @Singleton
 @Named(JsonUtilities.JSON_SERVICE_NAME)
 @Visibility(DescriptorVisibility.LOCAL)
-public class JsonParser implements XmlServiceParser {
+public class JsonParser implements XmlServiceParser, XmlServiceDeltaParser {
     private void skipper(javax.json.stream.JsonParser parser) {
         if (!parser.hasNext()) return;
         
@@ -343,6 +350,129 @@ public class JsonParser implements XmlServiceParser {
         }
     }
     
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.spi.XmlServiceDeltaParser#marshalDelta(java.io.OutputStream, org.glassfish.hk2.xml.spi.XmlDeltaNode, java.util.Map)
+     */
+    @Override
+    public void marshalDelta(OutputStream outputStream, XmlDeltaNode delta, Map<String, Object> options)
+            throws IOException {
+        JsonObject deltaObject = createDeltaObject(delta);
+        
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put(JsonGenerator.PRETTY_PRINTING, Boolean.TRUE);
+        
+        JsonWriterFactory writerFactory = Json.createWriterFactory(config);
+        JsonWriter writer = writerFactory.createWriter(new NonClosingOutputStream(outputStream));
+        try {
+            writer.writeObject(deltaObject);
+        }
+        finally {
+            writer.close();
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.spi.XmlServiceDeltaParser#parseDelta(java.io.InputStream, java.util.Map)
+     */
+    @Override
+    public XmlDeltaNode parseDelta(InputStream inputStream, Map<String, Object> options) throws IOException {
+        JsonReader reader = Json.createReader(inputStream);
+        
+        // The reader is not closed since that would close the input stream
+        return readDeltaObject(reader.readObject());
+    }
+    
+    private final static String DELTA_NAME = "name";
+    private final static String DELTA_ATTRIBUTES = "attributes";
+    private final static String DELTA_CHILDREN = "children";
+    
+    private static JsonObject createDeltaObject(XmlDeltaNode node) {
+        JsonObjectBuilder builder = Json.createObjectBuilder();
+        builder.add(DELTA_NAME, node.getName());
+        
+        if (!node.getAttributes().isEmpty()) {
+            JsonObjectBuilder attributesBuilder = Json.createObjectBuilder();
+            for (Map.Entry<String, String> attribute : node.getAttributes().entrySet()) {
+                if (attribute.getValue() == null) {
+                    attributesBuilder.addNull(attribute.getKey());
+                }
+                else {
+                    attributesBuilder.add(attribute.getKey(), attribute.getValue());
+                }
+            }
+            
+            builder.add(DELTA_ATTRIBUTES, attributesBuilder);
+        }
+        
+        if (!node.getChildren().isEmpty()) {
+            JsonArrayBuilder childrenBuilder = Json.createArrayBuilder();
+            for (XmlDeltaNode child : node.getChildren()) {
+                childrenBuilder.add(createDeltaObject(child));
+            }
+            
+            builder.add(DELTA_CHILDREN, childrenBuilder);
+        }
+        
+        return builder.build();
+    }
+    
+    private static XmlDeltaNode readDeltaObject(JsonObject object) throws IOException {
+        if (!object.containsKey(DELTA_NAME) || object.isNull(DELTA_NAME)) {
+            throw new IOException("A node of the delta has no name: " + object);
+        }
+        
+        XmlDeltaNode retVal = new XmlDeltaNode(object.getString(DELTA_NAME));
+        
+        JsonObject attributes = object.getJsonObject(DELTA_ATTRIBUTES);
+        if (attributes != null) {
+            for (Map.Entry<String, JsonValue> attribute : attributes.entrySet()) {
+                JsonValue value = attribute.getValue();
+                
+                if (JsonValue.ValueType.NULL.equals(value.getValueType())) {
+                    retVal.setAttribute(attribute.getKey(), null);
+                }
+                else if (value instanceof JsonString) {
+                    retVal.setAttribute(attribute.getKey(), ((JsonString) value).getString());
+                }
+                else {
+                    retVal.setAttribute(attribute.getKey(), value.toString());
+                }
+            }
+        }
+        
+        JsonArray children = object.getJsonArray(DELTA_CHILDREN);
+        if (children != null) {
+            for (int lcv = 0; lcv < children.size(); lcv++) {
+                retVal.addChild(readDeltaObject(children.getJsonObject(lcv)));
+            }
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * The JSON writer closes the stream it writes to, which
+     * the caller of marshalDelta still owns
+     * 
+     * @author jwells
+     *
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        private NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(byte b[], int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+    
     @SuppressWarnings("unchecked")
     private JsonObject createJsonObject(BaseHK2JAXBBean bean, JsonObjectBuilder builder) {
         if (bean == null) {
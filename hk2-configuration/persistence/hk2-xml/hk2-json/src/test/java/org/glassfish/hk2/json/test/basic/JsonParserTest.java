@@ -59,6 +59,7 @@ import org.glassfish.hk2.json.test.skillzbeans.SpecificSkillBean;
 import org.glassfish.hk2.json.test.utilities.Utilities;
 import org.glassfish.hk2.xml.api.XmlHk2ConfigurationBean;
 import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.api.XmlRootSnapshot;
 import org.glassfish.hk2.xml.api.XmlService;
 import org.glassfish.hk2.xml.api.XmlServiceUtilities;
 import org.glassfish.hk2.xml.spi.XmlServiceParser;
@@ -171,6 +172,70 @@ public class JsonParserTest {
         
     }
     
+    private final static String JAVASCRIPT = "javascript";
+    private final static String NOSQL = "nosql";
+    
+    /**
+     * Tests that changes made since a snapshot can be written
+     * as JSON and applied to a copy of the tree in another locator
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testMarshalAndApplyDelta() throws Exception {
+        ServiceLocator sourceLocator = Utilities.enableLocator();
+        ServiceLocator targetLocator = Utilities.enableLocator();
+        
+        XmlService sourceService = sourceLocator.getService(XmlService.class, JsonUtilities.JSON_SERVICE_NAME);
+        XmlService targetService = targetLocator.getService(XmlService.class, JsonUtilities.JSON_SERVICE_NAME);
+        
+        XmlRootHandle<JsonRootBean> sourceHandle = createStandardDocument(sourceService, sourceLocator.getService(Hub.class), sourceLocator);
+        XmlRootHandle<JsonRootBean> targetHandle = createStandardDocument(targetService, targetLocator.getService(Hub.class), targetLocator);
+        
+        XmlRootSnapshot<JsonRootBean> snapshot = sourceHandle.getSnapshot(false);
+        
+        SkillBean sourceSkillz = sourceHandle.getRoot().getSkillz();
+        sourceSkillz.getWebBean().get(0).setYears(6);
+        sourceSkillz.addWebBean(createSpecificSkillBean(sourceService, JAVASCRIPT, 2));
+        sourceSkillz.addDatabaseBean(createSpecificSkillBean(sourceService, NOSQL, 1));
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            sourceHandle.marshalDelta(baos, snapshot, null);
+        }
+        finally {
+            baos.close();
+        }
+        
+        ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+        try {
+            targetHandle.applyDelta(bais, null);
+        }
+        finally {
+            bais.close();
+        }
+        
+        SkillBean targetSkillz = targetHandle.getRoot().getSkillz();
+        
+        List<SpecificSkillBean> webs = targetSkillz.getWebBean();
+        Assert.assertEquals(3, webs.size());
+        Assert.assertEquals(HTML, webs.get(0).getName());
+        Assert.assertEquals(6, webs.get(0).getYears());
+        Assert.assertEquals(CSS, webs.get(1).getName());
+        Assert.assertEquals(3, webs.get(1).getYears());
+        Assert.assertEquals(JAVASCRIPT, webs.get(2).getName());
+        Assert.assertEquals(2, webs.get(2).getYears());
+        
+        SpecificSkillBean dbs[] = targetSkillz.getDatabaseBean();
+        Assert.assertEquals(2, dbs.length);
+        Assert.assertEquals(SQL, dbs[0].getName());
+        Assert.assertEquals(NOSQL, dbs[1].getName());
+        Assert.assertEquals(1, dbs[1].getYears());
+        
+        // The added beans are services in the target locator
+        Assert.assertNotNull(targetLocator.getService(SpecificSkillBean.class, JAVASCRIPT));
+        Assert.assertNotNull(targetLocator.getService(SpecificSkillBean.class, NOSQL));
+    }
+    
     private static XmlRootHandle<JsonRootBean> createStandardDocument(XmlService jsonService, Hub hub, ServiceLocator locator) {
        XmlRootHandle<JsonRootBean> retVal = jsonService.createEmptyHandle(JsonRootBean.class);
        
@@ -0,0 +1,111 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.pbuf.api;
+
+import java.io.IOException;
+
+import org.glassfish.hk2.xml.api.XmlRootHandle;
+
+/**
+ * Persists an {@link XmlRootHandle} as a full snapshot plus an
+ * append-only journal.  Every committed change to the tree is
+ * appended to the journal as a protocol buffer encoded delta, so the
+ * cost of a commit on disk is proportional to the size of the change
+ * rather than the size of the tree.  The changes are written on a
+ * background thread, so a commit does not wait for the disk; use
+ * {@link #flush()} to wait for them to be written.  When the journal grows past a
+ * threshold it is compacted into a new full snapshot in the background.
+ * Opening the journal reads the snapshot and replays the journal on
+ * top of it
+ * <p>
+ * Journals are created with
+ * {@link PBufUtilities#openJournal(org.glassfish.hk2.api.ServiceLocator, Class, java.io.File, String, java.util.Map)}
+ * 
+ * @author jwells
+ *
+ */
+public interface PBufJournal<T> {
+    /**
+     * Gets the handle whose changes are being written to this journal
+     * 
+     * @return The non-null handle of the persisted tree
+     */
+    public XmlRootHandle<T> getRootHandle();
+    
+    /**
+     * Gets the number of bytes in the journal that have not yet
+     * been compacted into the snapshot
+     * 
+     * @return The size of the current journal in bytes
+     */
+    public long getJournalSize();
+    
+    /**
+     * Commits are written to the journal in the background.  This
+     * waits until every change committed before it was called has been
+     * written to the journal, and synced if
+     * {@link PBufUtilities#PBUF_OPTION_JOURNAL_SYNC} is true
+     * 
+     * @throws IOException if the changes could not be written.  The
+     * changes are kept and will be written by a later append
+     */
+    public void flush() throws IOException;
+    
+    /**
+     * Writes the current tree as a new full snapshot and starts an
+     * empty journal.  Will wait for any compaction already running
+     * in the background to finish first
+     * 
+     * @throws IOException if the snapshot could not be written
+     */
+    public void compact() throws IOException;
+    
+    /**
+     * Writes any changes not yet in the journal, stops writing changes
+     * to the journal and releases its files.  Waits for any compaction
+     * running in the background to finish.
+     * Changes made to the tree after this is called are not persisted
+     * 
+     * @throws IOException if the last changes could not be written, if
+     * the journal could not be closed or if a background compaction had failed
+     */
+    public void close() throws IOException;
+
+}
@@ -39,12 +39,19 @@
  */
 package org.glassfish.hk2.pbuf.api;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
 import org.glassfish.hk2.api.DuplicateServiceException;
 import org.glassfish.hk2.api.MultiException;
 import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.pbuf.internal.PBufJournalImpl;
 import org.glassfish.hk2.pbuf.internal.PBufParser;
 import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.glassfish.hk2.xml.api.XmlService;
 import org.glassfish.hk2.xml.api.XmlServiceUtilities;
+import org.glassfish.hk2.xml.spi.XmlServiceParser;
 
 public class PBufUtilities {
     /** The name of the XmlService that uses PBuf as its encoding/decoding format */
@@ -60,6 +67,22 @@ public class PBufUtilities {
      */
     public final static String PBUF_OPTION_INT32_HEADER = "PbufInt32Header";
     
+    /**
+     * This option is given to {@link #openJournal(ServiceLocator, Class, File, String, Map)}
+     * and is the size in bytes the journal may reach before it is compacted
+     * into a new snapshot in the background.  The value must be of type
+     * {@link Long}.  By default this is one megabyte
+     */
+    public final static String PBUF_OPTION_JOURNAL_COMPACTION_THRESHOLD = "PbufJournalCompactionThreshold";
+    
+    /**
+     * This option is given to {@link #openJournal(ServiceLocator, Class, File, String, Map)}
+     * and controls whether or not every append to the journal is forced to the
+     * storage device before the next one is written.  The value must be of type
+     * {@link Boolean}.  By default this is true
+     */
+    public final static String PBUF_OPTION_JOURNAL_SYNC = "PbufJournalSync";
+    
     private static boolean isDup(MultiException me) {
         if (me == null) return false;
         
@@ -72,6 +95,34 @@ public class PBufUtilities {
         return false;
     }
     
+    /**
+     * Opens the journal with the given name in the given directory.  If
+     * a snapshot exists it is read and any journal written after it is
+     * replayed on top of it.  If there is no snapshot a new tree with
+     * an empty root is created.  From then on every committed change to
+     * the returned handle is appended to the journal.  The PBuf service
+     * must already be enabled in the locator
+     * 
+     * @param locator The non-null locator with the PBuf service enabled
+     * @param rootClass The non-null interface of the root of the tree
+     * @param directory The non-null directory holding the snapshot and journal files
+     * @param name The non-null name used as the prefix of the snapshot and journal files
+     * @param options optional (possibly null) options, see {@link #PBUF_OPTION_JOURNAL_COMPACTION_THRESHOLD}
+     * and {@link #PBUF_OPTION_JOURNAL_SYNC}
+     * @return The journal, whose handle contains the persisted tree
+     * @throws IOException if the snapshot or journal could not be read
+     */
+    public static <T> PBufJournal<T> openJournal(ServiceLocator locator, Class<T> rootClass, File directory, String name,
+            Map<String, Object> options) throws IOException {
+        XmlService xmlService = locator.getService(XmlService.class, PBUF_SERVICE_NAME);
+        PBufParser parser = (PBufParser) locator.getService(XmlServiceParser.class, PBUF_SERVICE_NAME);
+        if (xmlService == null || parser == null) {
+            throw new IllegalStateException("The PBuf service has not been enabled in " + locator);
+        }
+        
+        return PBufJournalImpl.open(xmlService, parser, rootClass, directory, name, options);
+    }
+    
     /**
      * Idempotently enables the PBuf parser in the given ServiceLocator.
      * 
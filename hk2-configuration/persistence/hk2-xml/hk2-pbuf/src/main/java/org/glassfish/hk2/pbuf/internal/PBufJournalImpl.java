@@ -0,0 +1,777 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.pbuf.internal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+import org.glassfish.hk2.api.MultiException;
+import org.glassfish.hk2.pbuf.api.PBufJournal;
+import org.glassfish.hk2.pbuf.api.PBufUtilities;
+import org.glassfish.hk2.xml.api.XmlHandleCommitListener;
+import org.glassfish.hk2.xml.api.XmlHk2ConfigurationBean;
+import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.api.XmlRootSnapshot;
+import org.glassfish.hk2.xml.api.XmlService;
+
+/**
+ * The journal is kept in two kinds of files.  The snapshot file
+ * (name.snapshot) holds a generation number followed by the
+ * whole tree.  Each journal file (name.journal.generation) holds
+ * the deltas committed after the snapshot of that generation, each
+ * record being an int32 length, a CRC32 of the delta and the delta
+ * itself.  Compaction starts a new journal generation, writes the
+ * snapshot of the previous generation to a temporary file, renames it
+ * over the snapshot and only then deletes the older journals, so a
+ * crash at any point leaves a snapshot plus the journals needed to
+ * reach the last commit.  A record torn by a crash fails its CRC
+ * and is dropped when the journal is next opened, as is a record whose
+ * length runs past the end of the file
+ * <p>
+ * A commit only marks the journal as dirty, since the commit listener
+ * is called with the write lock of the tree held.  The records are
+ * written by the appender thread, which takes a snapshot of the tree
+ * (the same one returned by {@link XmlRootHandle#getSnapshot(boolean)}),
+ * writes the delta between the base snapshot and that one and syncs it.
+ * Commits that happen while a record is being written are gathered
+ * into the next record.  {@link #flush()} waits for the appender to
+ * catch up
+ * <p>
+ * The base snapshot that the next delta is calculated against only
+ * moves forward once a record has been written and synced.  If an
+ * append fails the journal is truncated back to the end of the last
+ * good record, and the changes of the failed append are included in
+ * the next one.  If even that truncation fails no more records are
+ * appended to that journal file, since replay stops at the first bad
+ * record, until {@link #compact()} starts a new one
+ * 
+ * @author jwells
+ *
+ */
+public class PBufJournalImpl<T> implements PBufJournal<T>, XmlHandleCommitListener<T> {
+    private final static String SNAPSHOT_SUFFIX = ".snapshot";
+    private final static String TEMPORARY_SUFFIX = ".tmp";
+    private final static String JOURNAL_SUFFIX = ".journal.";
+    
+    private final static long DEFAULT_COMPACTION_THRESHOLD = 1024L * 1024L;
+    
+    /** The journal records never have the size header, they are framed by the journal */
+    private final static Map<String, Object> RECORD_OPTIONS = new HashMap<String, Object>();
+    
+    static {
+        RECORD_OPTIONS.put(PBufUtilities.PBUF_OPTION_INT32_HEADER, Boolean.FALSE);
+    }
+    
+    private final XmlRootHandle<T> handle;
+    private final PBufParser parser;
+    private final File directory;
+    private final String name;
+    private final long compactionThreshold;
+    private final boolean sync;
+    
+    private final Object journalLock = new Object();
+    private final ExecutorService appender;
+    private final ExecutorService compactor;
+    
+    /** These are only used on the appender thread (or before it starts) */
+    private FileOutputStream journalStream;
+    private XmlRootSnapshot<T> base;
+    
+    /** These are guarded by journalLock, which is never held while writing */
+    private long generation;
+    private long journalSize;
+    private boolean dirty;
+    private boolean appendScheduled;
+    private boolean compacting;
+    private IOException compactionError;
+    private IOException appendError;
+    private boolean closed;
+    
+    private final Runnable appendTask = new Runnable() {
+
+        @Override
+        public void run() {
+            try {
+                append();
+            }
+            catch (IOException ioe) {
+                // The changes stay dirty and go out with the next append, flush or close
+            }
+            catch (RuntimeException re) {
+                // As above
+            }
+        }
+        
+    };
+    
+    private PBufJournalImpl(XmlRootHandle<T> handle,
+            PBufParser parser,
+            File directory,
+            String name,
+            long generation,
+            Map<String, Object> options) throws IOException {
+        this.handle = handle;
+        this.parser = parser;
+        this.directory = directory;
+        this.name = name;
+        this.generation = generation;
+        
+        Long threshold = (options == null) ? null : (Long) options.get(PBufUtilities.PBUF_OPTION_JOURNAL_COMPACTION_THRESHOLD);
+        compactionThreshold = (threshold == null) ? DEFAULT_COMPACTION_THRESHOLD : threshold.longValue() ;
+        
+        Boolean doSync = (options == null) ? null : (Boolean) options.get(PBufUtilities.PBUF_OPTION_JOURNAL_SYNC);
+        sync = (doSync == null) ? true : doSync.booleanValue() ;
+        
+        appender = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread retVal = new Thread(r, "PBufJournalAppender-" + PBufJournalImpl.this.name);
+                retVal.setDaemon(true);
+                
+                return retVal;
+            }
+            
+        });
+        
+        compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread retVal = new Thread(r, "PBufJournalCompactor-" + PBufJournalImpl.this.name);
+                retVal.setDaemon(true);
+                
+                return retVal;
+            }
+            
+        });
+        
+        File journalFile = getJournalFile(generation);
+        journalSize = journalFile.length();
+        journalStream = new FileOutputStream(journalFile, true);
+        
+        base = handle.getSnapshot(false);
+    }
+    
+    /**
+     * Reads the snapshot, replays the journals and starts journaling
+     * every commit made to the resulting handle
+     */
+    public static <T> PBufJournal<T> open(XmlService xmlService,
+            PBufParser parser,
+            Class<T> rootClass,
+            File directory,
+            String name,
+            Map<String, Object> options) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the journal directory " + directory);
+        }
+        
+        File temporary = new File(directory, name + SNAPSHOT_SUFFIX + TEMPORARY_SUFFIX);
+        if (temporary.exists() && !temporary.delete()) {
+            throw new IOException("Could not delete the partially written snapshot " + temporary);
+        }
+        
+        XmlRootHandle<T> handle;
+        long generation;
+        
+        File snapshotFile = new File(directory, name + SNAPSHOT_SUFFIX);
+        if (snapshotFile.exists()) {
+            DataInputStream snapshotStream = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+            try {
+                generation = snapshotStream.readLong();
+                
+                handle = xmlService.unmarshal(snapshotStream, rootClass);
+            }
+            finally {
+                snapshotStream.close();
+            }
+        }
+        else {
+            generation = 0L;
+            
+            handle = xmlService.createEmptyHandle(rootClass);
+            handle.addRoot();
+        }
+        
+        TreeMap<Long, File> journals = findJournals(directory, name);
+        for (Map.Entry<Long, File> journal : journals.entrySet()) {
+            long journalGeneration = journal.getKey();
+            File journalFile = journal.getValue();
+            
+            if (journalGeneration < generation) {
+                // Already compacted into the snapshot
+                journalFile.delete();
+                continue;
+            }
+            
+            replay(handle, journalFile);
+            generation = journalGeneration;
+        }
+        
+        PBufJournalImpl<T> retVal = new PBufJournalImpl<T>(handle, parser, directory, name, generation, options);
+        handle.addCommitListener(retVal);
+        
+        return retVal;
+    }
+    
+    private static TreeMap<Long, File> findJournals(File directory, String name) {
+        TreeMap<Long, File> retVal = new TreeMap<Long, File>();
+        
+        String prefix = name + JOURNAL_SUFFIX;
+        String files[] = directory.list();
+        if (files == null) return retVal;
+        
+        for (String file : files) {
+            if (!file.startsWith(prefix)) continue;
+            
+            try {
+                retVal.put(Long.parseLong(file.substring(prefix.length())), new File(directory, file));
+            }
+            catch (NumberFormatException nfe) {
+                // Not one of ours
+            }
+        }
+        
+        return retVal;
+    }
+    
+    private static void replay(XmlRootHandle<?> handle, File journalFile) throws IOException {
+        long fileLength = journalFile.length();
+        long validLength = 0L;
+        boolean torn = false;
+        
+        DataInputStream journalStream = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+        try {
+            while (true) {
+                int length;
+                try {
+                    length = journalStream.readInt();
+                }
+                catch (EOFException eofe) {
+                    break;
+                }
+                
+                byte delta[];
+                try {
+                    long crc = journalStream.readLong();
+                    
+                    if (length < 0 || length > fileLength - (validLength + 4 + 8)) {
+                        // Never trust a length that could not have been written
+                        torn = true;
+                        break;
+                    }
+                    
+                    delta = new byte[length];
+                    journalStream.readFully(delta);
+                    
+                    if (crc != getCRC(delta)) {
+                        torn = true;
+                        break;
+                    }
+                }
+                catch (EOFException eofe) {
+                    torn = true;
+                    break;
+                }
+                
+                handle.applyDelta(new ByteArrayInputStream(delta), RECORD_OPTIONS);
+                
+                validLength += 4 + 8 + length;
+            }
+        }
+        finally {
+            journalStream.close();
+        }
+        
+        if (torn) {
+            // The last append never completed, remove it so new records follow the last good one
+            RandomAccessFile truncator = new RandomAccessFile(journalFile, "rw");
+            try {
+                truncator.setLength(validLength);
+            }
+            finally {
+                truncator.close();
+            }
+        }
+    }
+    
+    private static long getCRC(byte bytes[]) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        
+        return crc.getValue();
+    }
+    
+    private File getJournalFile(long journalGeneration) {
+        return new File(directory, name + JOURNAL_SUFFIX + journalGeneration);
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.api.XmlHandleCommitListener#afterCommit(org.glassfish.hk2.xml.api.XmlRootHandle)
+     */
+    @Override
+    public void afterCommit(XmlRootHandle<T> committed) {
+        // The write lock of the tree is held, so only note the change here
+        synchronized (journalLock) {
+            if (closed) return;
+            
+            if (appendError != null) {
+                throw new MultiException(new IOException("The journal " + this +
+                        " could not recover from a failed append and must be compacted", appendError));
+            }
+            
+            dirty = true;
+            if (appendScheduled) return;
+            
+            appendScheduled = true;
+            appender.execute(appendTask);
+        }
+    }
+    
+    /**
+     * Must be called on the appender thread.  Writes and syncs one
+     * record holding every change committed since the last append
+     */
+    private void append() throws IOException {
+        synchronized (journalLock) {
+            appendScheduled = false;
+            
+            if (!dirty) return;
+            dirty = false;
+            
+            if (appendError != null) {
+                dirty = true;
+                
+                throw new IOException("The journal " + this +
+                        " could not recover from a failed append and must be compacted", appendError);
+            }
+        }
+        
+        boolean success = false;
+        try {
+            // Takes the read lock, so commits wait only for the copy and never for the disk
+            XmlRootSnapshot<T> next = handle.getSnapshot(false);
+            
+            ByteArrayOutputStream deltaStream = new ByteArrayOutputStream();
+            next.marshalDelta(deltaStream, base, RECORD_OPTIONS);
+            byte delta[] = deltaStream.toByteArray();
+            
+            ByteArrayOutputStream recordStream = new ByteArrayOutputStream(delta.length + 12);
+            DataOutputStream record = new DataOutputStream(recordStream);
+            record.writeInt(delta.length);
+            record.writeLong(getCRC(delta));
+            record.write(delta);
+            record.close();
+            
+            long size;
+            synchronized (journalLock) {
+                size = journalSize;
+            }
+            
+            // One write so that a crash can only tear the last record
+            try {
+                journalStream.write(recordStream.toByteArray());
+                journalStream.flush();
+                if (sync) {
+                    journalStream.getFD().sync();
+                }
+            }
+            catch (IOException ioe) {
+                discardFailedAppend(size, ioe);
+                throw ioe;
+            }
+            
+            base = next;
+            
+            boolean compact;
+            synchronized (journalLock) {
+                journalSize += recordStream.size();
+                
+                compact = (journalSize >= compactionThreshold && !compacting);
+            }
+            
+            success = true;
+            
+            if (compact) {
+                startCompaction();
+            }
+        }
+        finally {
+            if (!success) {
+                synchronized (journalLock) {
+                    // base did not move, so the next append will carry these changes
+                    dirty = true;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Must be called on the appender thread.  Removes whatever part of
+     * a failed append reached the file so that the next record follows
+     * the last good one.  Otherwise replay would stop at the torn record
+     * and drop every good record appended after it
+     */
+    private void discardFailedAppend(long size, IOException appendFailure) {
+        try {
+            journalStream.getChannel().truncate(size);
+            if (sync) {
+                journalStream.getFD().sync();
+            }
+        }
+        catch (IOException ioe) {
+            synchronized (journalLock) {
+                appendError = appendFailure;
+            }
+        }
+    }
+    
+    /**
+     * Must be called on the appender thread.  Switches appends to a new
+     * journal generation and writes the snapshot of the current base on
+     * the compaction thread
+     */
+    private void startCompaction() throws IOException {
+        final XmlRootSnapshot<T> compactMe = base;
+        
+        final long newGeneration;
+        boolean failedJournal;
+        synchronized (journalLock) {
+            newGeneration = generation + 1;
+            failedJournal = (appendError != null);
+        }
+        
+        FileOutputStream newJournalStream = new FileOutputStream(getJournalFile(newGeneration), true);
+        
+        try {
+            journalStream.close();
+        }
+        catch (IOException ioe) {
+            if (!failedJournal) {
+                newJournalStream.close();
+                throw ioe;
+            }
+            
+            // The old journal had already failed and is no longer appended to
+        }
+        journalStream = newJournalStream;
+        
+        synchronized (journalLock) {
+            journalSize = 0L;
+            generation = newGeneration;
+            
+            // The new journal follows base, which never moved past the failed append
+            appendError = null;
+            
+            compacting = true;
+            compactionError = null;
+        }
+        
+        compactor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                IOException error = null;
+                try {
+                    writeSnapshot(compactMe, newGeneration);
+                }
+                catch (IOException ioe) {
+                    error = ioe;
+                }
+                catch (RuntimeException re) {
+                    error = new IOException(re);
+                }
+                finally {
+                    synchronized (journalLock) {
+                        compacting = false;
+                        compactionError = error;
+                        
+                        journalLock.notifyAll();
+                    }
+                }
+            }
+            
+        });
+    }
+    
+    /**
+     * Runs the given job on the appender thread and waits for it
+     */
+    private void runOnAppender(Callable<Void> job) throws IOException {
+        Future<Void> future;
+        try {
+            future = appender.submit(job);
+        }
+        catch (RejectedExecutionException ree) {
+            throw new IllegalStateException("The journal " + this + " has been closed");
+        }
+        
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    future.get();
+                    return;
+                }
+                catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+                catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    if (cause instanceof Error) throw (Error) cause;
+                    
+                    throw new IOException(cause);
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    private void writeSnapshot(XmlRootSnapshot<T> snapshot, long snapshotGeneration) throws IOException {
+        File snapshotFile = new File(directory, name + SNAPSHOT_SUFFIX);
+        File temporary = new File(directory, name + SNAPSHOT_SUFFIX + TEMPORARY_SUFFIX);
+        
+        FileOutputStream fileStream = new FileOutputStream(temporary);
+        try {
+            DataOutputStream snapshotStream = new DataOutputStream(fileStream);
+            snapshotStream.writeLong(snapshotGeneration);
+            
+            parser.marshalBean(snapshotStream, (XmlHk2ConfigurationBean) snapshot.getRoot(), null);
+            
+            snapshotStream.flush();
+            fileStream.getFD().sync();
+        }
+        finally {
+            fileStream.close();
+        }
+        
+        if (!temporary.renameTo(snapshotFile)) {
+            // Some platforms will not rename over an existing file
+            if (!snapshotFile.delete() || !temporary.renameTo(snapshotFile)) {
+                throw new IOException("Could not rename " + temporary + " to " + snapshotFile);
+            }
+        }
+        
+        for (Map.Entry<Long, File> journal : findJournals(directory, name).entrySet()) {
+            if (journal.getKey() >= snapshotGeneration) continue;
+            
+            journal.getValue().delete();
+        }
+    }
+    
+    /**
+     * journalLock must be held
+     */
+    private void waitForCompaction() {
+        boolean interrupted = false;
+        while (compacting) {
+            try {
+                journalLock.wait();
+            }
+            catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.pbuf.api.PBufJournal#getRootHandle()
+     */
+    @Override
+    public XmlRootHandle<T> getRootHandle() {
+        return handle;
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.pbuf.api.PBufJournal#getJournalSize()
+     */
+    @Override
+    public long getJournalSize() {
+        synchronized (journalLock) {
+            return journalSize;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.pbuf.api.PBufJournal#flush()
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (journalLock) {
+            if (closed) {
+                throw new IllegalStateException("The journal " + this + " has been closed");
+            }
+        }
+        
+        runOnAppender(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                append();
+                return null;
+            }
+            
+        });
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.pbuf.api.PBufJournal#compact()
+     */
+    @Override
+    public void compact() throws IOException {
+        synchronized (journalLock) {
+            if (closed) {
+                throw new IllegalStateException("The journal " + this + " has been closed");
+            }
+        }
+        
+        runOnAppender(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                synchronized (journalLock) {
+                    waitForCompaction();
+                }
+                
+                try {
+                    append();
+                }
+                catch (IOException ioe) {
+                    // base did not move, the changes go into the new journal instead
+                }
+                
+                startCompaction();
+                return null;
+            }
+            
+        });
+        
+        synchronized (journalLock) {
+            waitForCompaction();
+            
+            if (compactionError != null) {
+                throw compactionError;
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.pbuf.api.PBufJournal#close()
+     */
+    @Override
+    public void close() throws IOException {
+        // Must not hold the journal lock, a commit holding the tree lock may be waiting for it
+        handle.removeCommitListener(this);
+        
+        synchronized (journalLock) {
+            if (closed) return;
+            closed = true;
+        }
+        
+        try {
+            runOnAppender(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        append();
+                    }
+                    finally {
+                        journalStream.close();
+                    }
+                    
+                    return null;
+                }
+                
+            });
+        }
+        finally {
+            appender.shutdown();
+            
+            synchronized (journalLock) {
+                waitForCompaction();
+            }
+            
+            compactor.shutdown();
+        }
+        
+        synchronized (journalLock) {
+            if (compactionError != null) {
+                throw compactionError;
+            }
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "PBufJournalImpl(" + new File(directory, name) + "," + generation + "," + System.identityHashCode(this) + ")";
+    }
+}
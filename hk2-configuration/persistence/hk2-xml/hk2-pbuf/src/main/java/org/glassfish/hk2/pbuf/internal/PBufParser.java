@@ -79,6 +79,8 @@ import org.glassfish.hk2.xml.internal.ParentedModel;
 import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
 import org.glassfish.hk2.xml.spi.Model;
 import org.glassfish.hk2.xml.spi.PreGenerationRequirement;
+import org.glassfish.hk2.xml.spi.XmlDeltaNode;
+import org.glassfish.hk2.xml.spi.XmlServiceDeltaParser;
 import org.glassfish.hk2.xml.spi.XmlServiceParser;
 
 import com.google.protobuf.ByteString;
@@ -91,6 +93,7 @@ import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.Enum;
 import com.google.protobuf.EnumValue;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
 
 /**
  * The pbuf parser
@@ -100,10 +103,12 @@ import com.google.protobuf.InvalidProtocolBufferException;
 @Singleton
 @Named(PBufUtilities.PBUF_SERVICE_NAME)
 @Visibility(DescriptorVisibility.LOCAL)
-public class PBufParser implements XmlServiceParser {
+public class PBufParser implements XmlServiceParser, XmlServiceDeltaParser {
     private final HashMap<Class<?>, Descriptors.Descriptor> allProtos = new HashMap<Class<?>, Descriptors.Descriptor>();
     private final HashMap<Class<?>, Descriptors.EnumDescriptor> allEnums = new HashMap<Class<?>, Descriptors.EnumDescriptor>();
     
+    private final HashMap<Class<?>, FieldTable> fieldTables = new HashMap<Class<?>, FieldTable>();
+    
     private final WeakHashMap<OutputStream, CodedOutputStream> cosCache = new WeakHashMap<OutputStream, CodedOutputStream>();
     private final WeakHashMap<InputStream, CodedInputStream> cisCache = new WeakHashMap<InputStream, CodedInputStream>();
     
@@ -150,10 +155,9 @@ public class PBufParser implements XmlServiceParser {
         
         boolean useLength = getPrependSize(options);
         
-        byte[] rawBytes;
+        CodedInputStream cis;
         int size = -1;
         if (useLength) {
-            CodedInputStream cis;
             synchronized (cisCache) {
                 cis = cisCache.get(input);
                 if (cis == null) {
@@ -162,6 +166,9 @@ public class PBufParser implements XmlServiceParser {
                 }
             }
             
+            // Several messages can come down the same stream, each is counted separately
+            cis.resetSizeCounter();
+            
             try {
                 size = cis.readInt32();
             }
@@ -175,46 +182,36 @@ public class PBufParser implements XmlServiceParser {
             if (size <= 0) {
                 throw new AssertionError("Invalid size of protocol buffer on the wire: " + size);
             }
-            
-           rawBytes = cis.readRawBytes(size);
         }
         else {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            try {
-                byte buffer[] = new byte[1000];
+            // The stream ends when the protobuf ends, so it can be as large as it wants
+            cis = CodedInputStream.newInstance(input);
+            cis.setSizeLimit(Integer.MAX_VALUE);
+        }
+        
+        XmlHk2ConfigurationBean retVal;
+        try {
+            if (useLength) {
+                int oldLimit = cis.pushLimit(size);
                 
-                int readLength;
-                while ((readLength = input.read(buffer)) > 0) {
-                    baos.write(buffer, 0, readLength);
-                }
+                retVal = parseMessage((ModelImpl) rootModel, null, null, cis, listener);
+                checkEndOfMessage(cis);
+                
+                cis.popLimit(oldLimit);
             }
-            finally {
-                baos.close();
+            else {
+                retVal = parseMessage((ModelImpl) rootModel, null, null, cis, listener);
+                cis.checkLastTagWas(0);
             }
-            
-            rawBytes = baos.toByteArray();
-        }
-            
-        DynamicMessage message;
-        try {
-            message = internalUnmarshal((ModelImpl) rootModel, rawBytes);
         }
         catch (InvalidProtocolBufferException ipbe) {
             MultiException me = new MultiException(ipbe);
             if (markSupported) {
-                byte debugBytes[];
-                if (useLength) {
-                    input.reset();
-                    
-                    byte[] lengthBytes = getLengthBytes(input);
-                    
-                    debugBytes = new byte[lengthBytes.length + rawBytes.length];
-                    System.arraycopy(lengthBytes, 0, debugBytes, 0, lengthBytes.length);
-                    System.arraycopy(rawBytes, 0, debugBytes, lengthBytes.length, rawBytes.length);
-                }
-                else {
-                    debugBytes = rawBytes;
-                }
+                input.reset();
+                
+                int debugSize = (useLength) ?
+                        (CodedOutputStream.computeInt32SizeNoTag(size) + size) : Integer.MAX_VALUE;
+                byte debugBytes[] = getDebugBytes(input, debugSize);
                 
                 String inputAsString = GeneralUtilities.prettyPrintBytes(debugBytes);
                 
@@ -225,29 +222,26 @@ public class PBufParser implements XmlServiceParser {
             throw me;
         }
         
-        XmlHk2ConfigurationBean retVal = parseDynamicMessage((ModelImpl) rootModel,
-            null,
-            message,
-            listener);
-        
         return (T) retVal;
     }
     
-    private static byte[] getLengthBytes(InputStream input) throws IOException {
+    private static byte[] getDebugBytes(InputStream input, int maxBytes) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try {
-            int b = input.read();
-            baos.write(b);
+            byte buffer[] = new byte[1000];
             
-            if ((b & 0x80) == 0) {
-                return baos.toByteArray();
+            int readLength;
+            while (maxBytes > 0 &&
+                    (readLength = input.read(buffer, 0, Math.min(buffer.length, maxBytes))) > 0) {
+                baos.write(buffer, 0, readLength);
+                maxBytes -= readLength;
             }
         }
         finally {
             baos.close();
         }
         
-        throw new IOException("Reached end of stream without an end to the length!");
+        return baos.toByteArray();
     }
 
     /* (non-Javadoc)
@@ -267,7 +261,15 @@ public class PBufParser implements XmlServiceParser {
         T rootObject = root.getRoot();
         if (rootObject == null) return;
         
-        XmlHk2ConfigurationBean rootBean = (XmlHk2ConfigurationBean) rootObject;
+        marshalBean(outputStream, (XmlHk2ConfigurationBean) rootObject, options);
+    }
+    
+    /**
+     * Marshals the given bean as the root, which may also be
+     * the root of a snapshot rather than of a handle
+     */
+    /* package */ void marshalBean(OutputStream outputStream, XmlHk2ConfigurationBean rootBean, Map<String, Object> options)
+            throws IOException {
         ModelImpl model = rootBean._getModel();
         
         try {
@@ -308,121 +310,344 @@ public class PBufParser implements XmlServiceParser {
         }
     }
     
-    private XmlHk2ConfigurationBean parseDynamicMessage(ModelImpl model,
-            XmlHk2ConfigurationBean parent,
-            DynamicMessage message,
-            Listener listener) throws IOException {
-        BaseHK2JAXBBean bean = (BaseHK2JAXBBean) xmlService.get().createBean(model.getOriginalInterfaceAsClass());
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.spi.XmlServiceDeltaParser#marshalDelta(java.io.OutputStream, org.glassfish.hk2.xml.spi.XmlDeltaNode, java.util.Map)
+     */
+    @Override
+    public void marshalDelta(OutputStream outputStream, XmlDeltaNode delta, Map<String, Object> options) throws IOException {
+        CodedOutputStream cos;
+        synchronized (cosCache) {
+            cos = cosCache.get(outputStream);
         
-        Descriptors.Descriptor descriptor = message.getDescriptorForType();
+            if (cos == null) {
+                cos = CodedOutputStream.newInstance(outputStream);
+                cosCache.put(outputStream, cos);
+            }
+        }
         
-        listener.beforeUnmarshal(bean, parent);
+        try {
+            if (getPrependSize(options)) {
+                cos.writeInt32NoTag(computeDeltaNodeSize(delta));
+            }
+            
+            writeDeltaNode(cos, delta);
+        }
+        finally {
+            cos.flush();
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.spi.XmlServiceDeltaParser#parseDelta(java.io.InputStream, java.util.Map)
+     */
+    @Override
+    public XmlDeltaNode parseDelta(InputStream inputStream, Map<String, Object> options) throws IOException {
+        if (getPrependSize(options)) {
+            CodedInputStream cis;
+            synchronized (cisCache) {
+                cis = cisCache.get(inputStream);
+                if (cis == null) {
+                    cis = CodedInputStream.newInstance(inputStream);
+                    cisCache.put(inputStream, cis);
+                }
+            }
+            
+            cis.resetSizeCounter();
+            
+            int size = cis.readInt32();
+            int oldLimit = cis.pushLimit(size);
+            
+            XmlDeltaNode retVal = readDeltaNode(cis);
+            checkEndOfMessage(cis);
+            
+            cis.popLimit(oldLimit);
+            
+            return retVal;
+        }
         
-        for(Map.Entry<QName, ChildDescriptor> entry : model.getAllChildrenDescriptors().entrySet()) {
-            QName qname = entry.getKey();
-            ChildDescriptor childDescriptor = entry.getValue();
+        CodedInputStream cis = CodedInputStream.newInstance(inputStream);
+        cis.setSizeLimit(Integer.MAX_VALUE);
+        
+        XmlDeltaNode retVal = readDeltaNode(cis);
+        cis.checkLastTagWas(0);
+        
+        return retVal;
+    }
+    
+    /*
+     * A delta node is written as the message
+     * 
+     * message Node {
+     *   string name = 1;
+     *   repeated Attribute attributes = 2;
+     *   repeated Node children = 3;
+     * }
+     * 
+     * message Attribute {
+     *   string name = 1;
+     *   string value = 2; // absent when null
+     * }
+     */
+    private final static int DELTA_NAME_FIELD = 1;
+    private final static int DELTA_ATTRIBUTE_FIELD = 2;
+    private final static int DELTA_CHILD_FIELD = 3;
+    private final static int DELTA_ATTRIBUTE_NAME_FIELD = 1;
+    private final static int DELTA_ATTRIBUTE_VALUE_FIELD = 2;
+    
+    private static int computeDeltaNodeSize(XmlDeltaNode node) {
+        int retVal = CodedOutputStream.computeStringSize(DELTA_NAME_FIELD, node.getName());
+        
+        for (Map.Entry<String, String> attribute : node.getAttributes().entrySet()) {
+            int attributeSize = computeDeltaAttributeSize(attribute.getKey(), attribute.getValue());
             
-            String localPart = qname.getLocalPart();
-            String protoPart = PBUtilities.camelCaseToUnderscore(localPart);
+            retVal += CodedOutputStream.computeTagSize(DELTA_ATTRIBUTE_FIELD) +
+                    CodedOutputStream.computeUInt32SizeNoTag(attributeSize) + attributeSize;
+        }
+        
+        for (XmlDeltaNode child : node.getChildren()) {
+            int childSize = computeDeltaNodeSize(child);
             
-            Descriptors.FieldDescriptor fieldDescriptor = descriptor.findFieldByName(protoPart);
-            if (fieldDescriptor == null) {
-                throw new IOException("Unknown field " + protoPart + " in " + bean);
+            retVal += CodedOutputStream.computeTagSize(DELTA_CHILD_FIELD) +
+                    CodedOutputStream.computeUInt32SizeNoTag(childSize) + childSize;
+        }
+        
+        return retVal;
+    }
+    
+    private static int computeDeltaAttributeSize(String name, String value) {
+        int retVal = CodedOutputStream.computeStringSize(DELTA_ATTRIBUTE_NAME_FIELD, name);
+        if (value != null) {
+            retVal += CodedOutputStream.computeStringSize(DELTA_ATTRIBUTE_VALUE_FIELD, value);
+        }
+        
+        return retVal;
+    }
+    
+    private static void writeDeltaNode(CodedOutputStream cos, XmlDeltaNode node) throws IOException {
+        cos.writeString(DELTA_NAME_FIELD, node.getName());
+        
+        for (Map.Entry<String, String> attribute : node.getAttributes().entrySet()) {
+            cos.writeTag(DELTA_ATTRIBUTE_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            cos.writeUInt32NoTag(computeDeltaAttributeSize(attribute.getKey(), attribute.getValue()));
+            
+            cos.writeString(DELTA_ATTRIBUTE_NAME_FIELD, attribute.getKey());
+            if (attribute.getValue() != null) {
+                cos.writeString(DELTA_ATTRIBUTE_VALUE_FIELD, attribute.getValue());
             }
+        }
+        
+        for (XmlDeltaNode child : node.getChildren()) {
+            cos.writeTag(DELTA_CHILD_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            cos.writeUInt32NoTag(computeDeltaNodeSize(child));
             
-            ChildDataModel childDataModel = childDescriptor.getChildDataModel();
-            if (childDataModel != null) {
-                boolean fieldSet = message.hasField(fieldDescriptor);
-                if (!fieldSet) {
-                    continue;
+            writeDeltaNode(cos, child);
+        }
+    }
+    
+    private static XmlDeltaNode readDeltaNode(CodedInputStream cis) throws IOException {
+        String name = null;
+        List<String[]> attributes = new ArrayList<String[]>();
+        List<XmlDeltaNode> children = new ArrayList<XmlDeltaNode>();
+        
+        int tag;
+        while ((tag = cis.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+            case DELTA_NAME_FIELD:
+                name = cis.readString();
+                break;
+            case DELTA_ATTRIBUTE_FIELD:
+            {
+                int oldLimit = cis.pushLimit(cis.readRawVarint32());
+                
+                String attributeName = null;
+                String attributeValue = null;
+                
+                int attributeTag;
+                while ((attributeTag = cis.readTag()) != 0) {
+                    switch (WireFormat.getTagFieldNumber(attributeTag)) {
+                    case DELTA_ATTRIBUTE_NAME_FIELD:
+                        attributeName = cis.readString();
+                        break;
+                    case DELTA_ATTRIBUTE_VALUE_FIELD:
+                        attributeValue = cis.readString();
+                        break;
+                    default:
+                        cis.skipField(attributeTag);
+                    }
                 }
                 
-                Object value = message.getField(fieldDescriptor);
+                checkEndOfMessage(cis);
+                cis.popLimit(oldLimit);
                 
-                value = convertFieldForUnmarshal(value, childDataModel);
+                if (attributeName == null) {
+                    throw new InvalidProtocolBufferException("An attribute of a delta node has no name");
+                }
                 
-                bean._setProperty(qname, value);
+                attributes.add(new String[] { attributeName, attributeValue });
+                break;
             }
-            else {
-                ParentedModel parentedNode = childDescriptor.getParentedModel();
+            case DELTA_CHILD_FIELD:
+            {
+                int oldLimit = cis.pushLimit(cis.readRawVarint32());
                 
-                if (ChildType.DIRECT.equals(parentedNode.getChildType())) {
-                    // Cannot call hasField on repeated fields in pbuf
-                    boolean fieldSet = message.hasField(fieldDescriptor);
-                    if (!fieldSet) {
-                        continue;
-                    }
-                }
+                children.add(readDeltaNode(cis));
                 
-                Object value = message.getField(fieldDescriptor);
+                checkEndOfMessage(cis);
+                cis.popLimit(oldLimit);
+                break;
+            }
+            default:
+                cis.skipField(tag);
+            }
+        }
+        
+        if (name == null) {
+            throw new InvalidProtocolBufferException("A delta node has no name");
+        }
+        
+        XmlDeltaNode retVal = new XmlDeltaNode(name);
+        for (String[] attribute : attributes) {
+            retVal.setAttribute(attribute[0], attribute[1]);
+        }
+        for (XmlDeltaNode child : children) {
+            retVal.addChild(child);
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Reads the fields of one message directly from the stream into a new bean,
+     * or into the bean it is merged with.  Child messages are parsed recursively as they are encountered.  Fields are
+     * set on the bean in model order once the whole message has been read so that
+     * the bean sees the same sequence of calls regardless of wire order.
+     * <p>
+     * A child message that is not repeated but is found again on the wire is
+     * merged into the child already read, as protocol buffers do.  The listener
+     * is told about the merged child again once it is complete
+     * 
+     * @param merging The bean already read for this message, which the fields
+     * read now are merged into, or null if a new bean should be created
+     */
+    @SuppressWarnings("unchecked")
+    private XmlHk2ConfigurationBean parseMessage(ModelImpl model,
+            XmlHk2ConfigurationBean parent,
+            BaseHK2JAXBBean merging,
+            CodedInputStream cis,
+            Listener listener) throws IOException {
+        FieldTable table = getFieldTable(model);
+        
+        BaseHK2JAXBBean bean = (merging != null) ? merging :
+            (BaseHK2JAXBBean) xmlService.get().createBean(model.getOriginalInterfaceAsClass());
+        
+        listener.beforeUnmarshal(bean, parent);
+        
+        FieldInfo bySlot[] = table.bySlot;
+        Object values[] = new Object[bySlot.length];
+        boolean present[] = new boolean[bySlot.length];
+        
+        if (merging != null) {
+            getChildren(table, merging, values, present);
+        }
+        
+        while (true) {
+            int tag = cis.readTag();
+            if (tag == 0) break;
+            
+            int fieldNumber = WireFormat.getTagFieldNumber(tag);
+            FieldInfo info = (fieldNumber < table.byNumber.length) ? table.byNumber[fieldNumber] : null;
+            if (info == null || WireFormat.getTagWireType(tag) != info.wireType) {
+                // Unknown fields are dropped
+                if (!cis.skipField(tag)) break;
+                continue;
+            }
+            
+            if (info.childDataModel != null) {
+                Object value = readValue(cis, info.fieldDescriptor);
                 if (value == null) {
+                    // Unknown enumeration value, pbuf treats this as if the field were not set
                     continue;
                 }
                 
-                DynamicMessage dynamicChild = null;
-                XmlHk2ConfigurationBean child = null;
-                int repeatedFieldCount = 0;
+                values[info.slot] = convertFieldForUnmarshal(value, info.childDataModel);
+                setPresent(table, info, present);
+                continue;
+            }
+            
+            ParentedModel parentedNode = info.parentedModel;
+            
+            int length = cis.readRawVarint32();
+            int oldLimit = cis.pushLimit(length);
+            
+            boolean merge = ChildType.DIRECT.equals(parentedNode.getChildType()) && present[info.slot];
+            
+            XmlHk2ConfigurationBean child = parseMessage(parentedNode.getChildModel(),
+                    bean,
+                    merge ? (BaseHK2JAXBBean) values[info.slot] : null,
+                    cis,
+                    listener);
+            checkEndOfMessage(cis);
+            
+            cis.popLimit(oldLimit);
+            
+            switch (parentedNode.getChildType()) {
+            case DIRECT:
+                values[info.slot] = child;
+                setPresent(table, info, present);
+                break;
+            case LIST:
+            case ARRAY:
+                List<XmlHk2ConfigurationBean> children = (List<XmlHk2ConfigurationBean>) values[info.slot];
+                if (children == null) {
+                    children = new ArrayList<XmlHk2ConfigurationBean>();
+                    values[info.slot] = children;
+                }
                 
-                switch (parentedNode.getChildType()) {
-                case DIRECT:
-                    if (!(value instanceof DynamicMessage)) {
-                        throw new AssertionError("Do not know how to handle a non-dynamic direct message " + value);
-                    }
-                    dynamicChild = (DynamicMessage) value;
-                    
-                    child = parseDynamicMessage(parentedNode.getChildModel(),
-                            bean,
-                            dynamicChild,
-                            listener);
-                    
-                    bean._setProperty(qname, child);
-                    break;
-                case LIST:
-                    repeatedFieldCount = message.getRepeatedFieldCount(fieldDescriptor);
-                    ArrayList<XmlHk2ConfigurationBean> list = new ArrayList<XmlHk2ConfigurationBean>(repeatedFieldCount);
-                    
-                    for (int lcv = 0; lcv < repeatedFieldCount; lcv++) {
-                        Object childBean = message.getRepeatedField(fieldDescriptor, lcv);
-                        if (!(childBean instanceof DynamicMessage)) {
-                            throw new AssertionError("Do not know how to handle a non-dynamic list message " + childBean);
-                        }
-                        dynamicChild = (DynamicMessage) childBean;
-                        
-                        child = parseDynamicMessage(parentedNode.getChildModel(),
-                                bean,
-                                dynamicChild,
-                                listener);
-                        
-                        list.add(child);
-                    }
-                    
-                    bean._setProperty(qname, list);
-                    break;
-                case ARRAY:
-                    ModelImpl childModel = parentedNode.getChildModel();
-                    repeatedFieldCount = message.getRepeatedFieldCount(fieldDescriptor);
-                    Object array = Array.newInstance(childModel.getOriginalInterfaceAsClass(), repeatedFieldCount);
-                    
-                    for (int lcv = 0; lcv < repeatedFieldCount; lcv++) {
-                        Object childBean = message.getRepeatedField(fieldDescriptor, lcv);
-                        if (!(childBean instanceof DynamicMessage)) {
-                            throw new AssertionError("Do not know how to handle a non-dynamic array message " + childBean);
-                        }
-                        dynamicChild = (DynamicMessage) childBean;
-                        
-                        child = parseDynamicMessage(parentedNode.getChildModel(),
-                                bean,
-                                dynamicChild,
-                                listener);
-                        
-                        Array.set(array, lcv, child);
-                    }
-                    
-                    bean._setProperty(qname, array);
-                    break;
-                default:
-                    throw new IOException("Unknown child type: " + parentedNode.getChildType());
+                children.add(child);
+                break;
+            default:
+                throw new IOException("Unknown child type: " + parentedNode.getChildType());
+            }
+        }
+        
+        for (int slot = 0; slot < bySlot.length; slot++) {
+            FieldInfo info = bySlot[slot];
+            
+            if (info.childDataModel != null) {
+                if (!present[slot]) continue;
+                
+                bean._setProperty(info.qname, values[slot]);
+                continue;
+            }
+            
+            ParentedModel parentedNode = info.parentedModel;
+            switch (parentedNode.getChildType()) {
+            case DIRECT:
+                if (!present[slot]) continue;
+                
+                bean._setProperty(info.qname, values[slot]);
+                break;
+            case LIST:
+                List<XmlHk2ConfigurationBean> list = (List<XmlHk2ConfigurationBean>) values[slot];
+                if (list == null) {
+                    list = new ArrayList<XmlHk2ConfigurationBean>(0);
                 }
+                
+                bean._setProperty(info.qname, list);
+                break;
+            case ARRAY:
+                List<XmlHk2ConfigurationBean> asList = (List<XmlHk2ConfigurationBean>) values[slot];
+                int count = (asList == null) ? 0 : asList.size();
+                
+                Object array = Array.newInstance(parentedNode.getChildModel().getOriginalInterfaceAsClass(), count);
+                for (int lcv = 0; lcv < count; lcv++) {
+                    Array.set(array, lcv, asList.get(lcv));
+                }
+                
+                bean._setProperty(info.qname, array);
+                break;
+            default:
+                throw new IOException("Unknown child type: " + parentedNode.getChildType());
             }
         }
         
@@ -431,24 +656,147 @@ public class PBufParser implements XmlServiceParser {
         return bean;
     }
     
-    private DynamicMessage internalUnmarshal(ModelImpl model, byte[] bytes) throws Exception {
-        Class<?> originalAsClass = model.getOriginalInterfaceAsClass();
-        String originalInterface = model.getOriginalInterface();
-        String protoName = getSimpleName(originalInterface);
-        
-        Descriptors.Descriptor descriptor;
-        synchronized (allProtos) {
-            descriptor = allProtos.get(originalAsClass);
+    /**
+     * Reads the children the bean already has into the values that will
+     * be set on it, so that the children read from the wire are added to them
+     */
+    private static void getChildren(FieldTable table, BaseHK2JAXBBean bean, Object values[], boolean present[]) {
+        for (FieldInfo info : table.bySlot) {
+            if (info.parentedModel == null) continue;
+            
+            Object current = bean._getProperty(info.qname);
+            if (current == null) continue;
+            
+            switch (info.parentedModel.getChildType()) {
+            case DIRECT:
+                values[info.slot] = current;
+                present[info.slot] = true;
+                break;
+            case LIST:
+                values[info.slot] = new ArrayList<Object>((List<?>) current);
+                break;
+            case ARRAY:
+                int count = Array.getLength(current);
+                
+                List<Object> asList = new ArrayList<Object>(count);
+                for (int lcv = 0; lcv < count; lcv++) {
+                    asList.add(Array.get(current, lcv));
+                }
+                
+                values[info.slot] = asList;
+                break;
+            default:
+                break;
+            }
         }
-        if (descriptor == null) {
-            throw new IOException("Unknown model: " + originalInterface + " with protoName=" + protoName);
+    }
+    
+    /**
+     * Marks the field as present.  If the field is part of a oneof then
+     * the other fields in the oneof are no longer present, since the
+     * last one on the wire wins
+     */
+    private static void setPresent(FieldTable table, FieldInfo info, boolean present[]) {
+        Descriptors.OneofDescriptor oneOf = info.fieldDescriptor.getContainingOneof();
+        if (oneOf != null) {
+            for (int lcv = 0; lcv < oneOf.getFieldCount(); lcv++) {
+                FieldInfo other = table.byNumber[oneOf.getField(lcv).getNumber()];
+                present[other.slot] = false;
+            }
         }
         
-        DynamicMessage retVal = DynamicMessage.parseFrom(descriptor, bytes);
-        return retVal;
+        present[info.slot] = true;
+    }
+    
+    /**
+     * Reads a single non-message value in the same form that
+     * DynamicMessage would have returned it
+     * 
+     * @return The value read, or null if this was an unknown enumeration value
+     */
+    private static Object readValue(CodedInputStream cis, Descriptors.FieldDescriptor fieldDescriptor) throws IOException {
+        switch (fieldDescriptor.getType()) {
+        case STRING:
+            return cis.readString();
+        case INT32:
+            return cis.readInt32();
+        case INT64:
+            return cis.readInt64();
+        case BOOL:
+            return cis.readBool();
+        case DOUBLE:
+            return cis.readDouble();
+        case FLOAT:
+            return cis.readFloat();
+        case BYTES:
+            return cis.readBytes();
+        case ENUM:
+            return fieldDescriptor.getEnumType().findValueByNumber(cis.readEnum());
+        default:
+            throw new AssertionError("Unknown type to read " + fieldDescriptor.getType());
+        }
     }
     
+    /**
+     * Ensures that a length delimited message was fully read.  A stream that
+     * ends early looks like the end of the message to readTag, so it must
+     * be checked here
+     */
+    private static void checkEndOfMessage(CodedInputStream cis) throws IOException {
+        cis.checkLastTagWas(0);
+        
+        if (cis.getBytesUntilLimit() != 0) {
+            throw new InvalidProtocolBufferException("While parsing a protocol message, the input ended unexpectedly in the middle of a field");
+        }
+    }
     
+    private FieldTable getFieldTable(ModelImpl model) throws IOException {
+        Class<?> originalAsClass = model.getOriginalInterfaceAsClass();
+        
+        synchronized (allProtos) {
+            FieldTable retVal = fieldTables.get(originalAsClass);
+            if (retVal != null) return retVal;
+            
+            Descriptors.Descriptor descriptor = allProtos.get(originalAsClass);
+            if (descriptor == null) {
+                throw new IOException("Unknown model: " + model.getOriginalInterface());
+            }
+            
+            Map<QName, ChildDescriptor> allChildren = model.getAllChildrenDescriptors();
+            
+            FieldInfo bySlot[] = new FieldInfo[allChildren.size()];
+            int maxNumber = 0;
+            
+            int slot = 0;
+            for (Map.Entry<QName, ChildDescriptor> entry : allChildren.entrySet()) {
+                QName qname = entry.getKey();
+                ChildDescriptor childDescriptor = entry.getValue();
+                
+                String protoPart = PBUtilities.camelCaseToUnderscore(qname.getLocalPart());
+                
+                Descriptors.FieldDescriptor fieldDescriptor = descriptor.findFieldByName(protoPart);
+                if (fieldDescriptor == null) {
+                    throw new IOException("Unknown field " + protoPart + " in " + model);
+                }
+                
+                bySlot[slot] = new FieldInfo(slot, qname, fieldDescriptor,
+                        childDescriptor.getChildDataModel(), childDescriptor.getParentedModel());
+                slot++;
+                
+                maxNumber = Math.max(maxNumber, fieldDescriptor.getNumber());
+            }
+            
+            FieldInfo byNumber[] = new FieldInfo[maxNumber + 1];
+            for (FieldInfo info : bySlot) {
+                byNumber[info.fieldDescriptor.getNumber()] = info;
+            }
+            
+            retVal = new FieldTable(byNumber, bySlot);
+            fieldTables.put(originalAsClass, retVal);
+            
+            return retVal;
+        }
+    }
     
     @SuppressWarnings("unchecked")
     private <T>  DynamicMessage internalMarshal(XmlHk2ConfigurationBean bean) throws IOException {
@@ -1024,4 +1372,40 @@ public class PBufParser implements XmlServiceParser {
     public String toString() {
         return "PBufParser(" + System.identityHashCode(this) + ")";
     }
+    
+    /**
+     * The fields of one model, indexed both by
+     * protocol buffer field number and by model order
+     */
+    private static class FieldTable {
+        private final FieldInfo byNumber[];
+        private final FieldInfo bySlot[];
+        
+        private FieldTable(FieldInfo byNumber[], FieldInfo bySlot[]) {
+            this.byNumber = byNumber;
+            this.bySlot = bySlot;
+        }
+    }
+    
+    private static class FieldInfo {
+        private final int slot;
+        private final QName qname;
+        private final Descriptors.FieldDescriptor fieldDescriptor;
+        private final int wireType;
+        private final ChildDataModel childDataModel;
+        private final ParentedModel parentedModel;
+        
+        private FieldInfo(int slot,
+                QName qname,
+                Descriptors.FieldDescriptor fieldDescriptor,
+                ChildDataModel childDataModel,
+                ParentedModel parentedModel) {
+            this.slot = slot;
+            this.qname = qname;
+            this.fieldDescriptor = fieldDescriptor;
+            this.wireType = fieldDescriptor.getLiteType().getWireType();
+            this.childDataModel = childDataModel;
+            this.parentedModel = parentedModel;
+        }
+    }
 }
@@ -46,9 +46,16 @@ import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.glassfish.hk2.api.MultiException;
 import org.glassfish.hk2.api.ServiceLocator;
@@ -65,6 +72,7 @@ import org.glassfish.hk2.pbuf.test.beans.TypeBean;
 import org.glassfish.hk2.pbuf.test.utilities.Utilities;
 import org.glassfish.hk2.xml.api.XmlHk2ConfigurationBean;
 import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.api.XmlRootSnapshot;
 import org.glassfish.hk2.xml.api.XmlService;
 import org.junit.Assert;
 import org.junit.Test;
@@ -455,6 +463,82 @@ public class PBufParserTest {
         Assert.assertEquals(BOB, uChild.getServiceRecordID());
     }
     
+    /**
+     * Tests that a child that is not repeated but is found more than
+     * once on the wire is merged, as protocol buffers do, rather than
+     * the last one replacing the others
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testRepeatedDirectChildIsMerged() throws Exception {
+        ServiceLocator locator = Utilities.enableLocator();
+        
+        XmlService xmlService = locator.getService(XmlService.class, PBufUtilities.PBUF_SERVICE_NAME);
+        Assert.assertNotNull(xmlService);
+        
+        ServiceRecordBean first = xmlService.createBean(ServiceRecordBean.class);
+        first.setServiceRecordID(BOB);
+        first.setTeam(NFCWest.RAMS);
+        
+        CustomerBean firstCustomer = xmlService.createBean(CustomerBean.class);
+        firstCustomer.setCustomerName(ACME);
+        firstCustomer.setCustomerID(ACME_ID);
+        firstCustomer.setTeam(NFCEast.EAGLES);
+        first.setCustomer(firstCustomer);
+        
+        ServiceRecordBean second = xmlService.createBean(ServiceRecordBean.class);
+        second.setServiceRecordID(ALICE);
+        
+        CustomerBean secondCustomer = xmlService.createBean(CustomerBean.class);
+        secondCustomer.setCustomerName(BJS);
+        secondCustomer.setCustomerID(BJS_ID);
+        second.setCustomer(secondCustomer);
+        
+        // Without the size the concatenation of two messages is one message with the fields of both
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            for (ServiceRecordBean child : new ServiceRecordBean[] { first, second }) {
+                XmlRootHandle<AnotherRootBean> handle = xmlService.createEmptyHandle(AnotherRootBean.class);
+                handle.addRoot();
+                handle.getRoot().setSecondUsage(child);
+                
+                handle.marshal(baos, getOptions(false));
+            }
+        }
+        finally {
+            baos.close();
+        }
+        
+        ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+        XmlRootHandle<AnotherRootBean> uHandle = null;
+        try {
+            uHandle = xmlService.unmarshal(bais, AnotherRootBean.class, true, true, getOptions(false));
+        }
+        finally {
+            bais.close();
+        }
+        
+        ServiceRecordBean merged = uHandle.getRoot().getSecondUsage();
+        Assert.assertNotNull(merged);
+        
+        // Fields found in both take the last value, the others are kept
+        Assert.assertEquals(ALICE, merged.getServiceRecordID());
+        Assert.assertEquals(NFCWest.RAMS, merged.getTeam());
+        
+        CustomerBean mergedCustomer = merged.getCustomer();
+        Assert.assertNotNull(mergedCustomer);
+        Assert.assertEquals(BJS, mergedCustomer.getCustomerName());
+        Assert.assertEquals(BJS_ID, mergedCustomer.getCustomerID());
+        Assert.assertEquals(NFCEast.EAGLES, mergedCustomer.getTeam());
+        
+        // The merged child is still only advertised once
+        int advertised = 0;
+        for (ServiceRecordBean service : locator.getAllServices(ServiceRecordBean.class)) {
+            if (service == merged) advertised++;
+        }
+        Assert.assertEquals(1, advertised);
+    }
+    
     /**
      * Tests marshalling and unmarhsalling a bean with oneOfs
      */
@@ -638,6 +722,183 @@ public class PBufParserTest {
         }
     }
     
+    /**
+     * A stream that ends before the length given in the
+     * header must fail rather than returning a partial bean
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testFailureUnmarshalTruncatedStructuredBean() throws Exception {
+        ClassLoader cl = getClass().getClassLoader();
+        URL standardPbufURL = cl.getResource("standard.pbuf");
+        ServiceLocator locator = Utilities.enableLocator();
+        XmlService xmlService = locator.getService(XmlService.class, PBufUtilities.PBUF_SERVICE_NAME);
+        Assert.assertNotNull(xmlService);
+        
+        byte asBytes[];
+        InputStream is = standardPbufURL.openStream();
+        try {
+            asBytes = Utilities.readStreamFully(is);
+        }
+        finally {
+            is.close();
+        }
+        
+        byte truncated[] = new byte[asBytes.length - 5];
+        System.arraycopy(asBytes, 0, truncated, 0, truncated.length);
+        
+        ByteArrayInputStream bais = new ByteArrayInputStream(truncated);
+        try {
+            try {
+                xmlService.unmarshal(bais, ServiceRecordBlockBean.class);
+                Assert.fail("Should have failed with a truncated stream");
+            }
+            catch (MultiException me) {
+                checkMultiExceptionWithBadData(me);
+            }
+        }
+        finally {
+            bais.close();
+        }
+    }
+    
+    private final static String DOLLAR = "Dollar General";
+    private final static long DOLLAR_ID = 6000;
+    private final static String DOLLAR_HASH = "jjjkkklll";
+    
+    /**
+     * Changes made to one tree since a snapshot are written
+     * as a delta and applied to a second copy of the same tree
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testMarshalAndApplyDelta() throws Exception {
+        ServiceLocator locator = Utilities.enableLocator();
+        
+        XmlService xmlService = locator.getService(XmlService.class, PBufUtilities.PBUF_SERVICE_NAME);
+        Assert.assertNotNull(xmlService);
+        
+        XmlRootHandle<ServiceRecordBlockBean> source = getStandardTestBlock(xmlService);
+        XmlRootHandle<ServiceRecordBlockBean> destination = getStandardTestBlock(xmlService);
+        
+        XmlRootSnapshot<ServiceRecordBlockBean> snapshot = source.getSnapshot(false);
+        
+        ServiceRecordBlockBean sourceRoot = source.getRoot();
+        sourceRoot.setSequenceNumber(1L);
+        sourceRoot.lookupServiceRecord(BJS_HASH).setTeam(NFCWest.NINERS);
+        sourceRoot.removeServiceRecord(sourceRoot.lookupServiceRecord(ACME_HASH));
+        sourceRoot.addServiceRecord(createServiceRecordBean(xmlService,
+                createCustomerBean(xmlService, DOLLAR, DOLLAR_ID, NFCEast.COWBOYS), DOLLAR_HASH, NFCWest.RAMS));
+        
+        for (int lcv = 0; lcv < 2; lcv++) {
+            boolean withSize = (lcv == 0);
+            
+            XmlRootHandle<ServiceRecordBlockBean> target = (withSize) ? destination : getStandardTestBlock(xmlService) ;
+            
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            source.marshalDelta(baos, snapshot, getOptions(withSize));
+            baos.close();
+            
+            ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+            target.applyDelta(bais, getOptions(withSize));
+            bais.close();
+            
+            ServiceRecordBlockBean targetRoot = target.getRoot();
+            Assert.assertEquals(1L, targetRoot.getSequenceNumber());
+            
+            List<ServiceRecordBean> records = targetRoot.getServiceRecords();
+            Assert.assertEquals(3, records.size());
+            
+            validateServiceRecordBean(records.get(0), BJS, BJS_ID, BJS_HASH, NFCEast.GIANTS, NFCWest.NINERS);
+            validateServiceRecordBean(records.get(1), COSTCO, COSTCO_ID, COSTCO_HASH, NFCEast.REDSKINS, NFCWest.RAMS);
+            validateServiceRecordBean(records.get(2), DOLLAR, DOLLAR_ID, DOLLAR_HASH, NFCEast.COWBOYS, NFCWest.RAMS);
+        }
+    }
+    
+    private final static int DELTA_THREADS = 8;
+    private final static int DELTA_ROUNDS = 20;
+    
+    /**
+     * marshalDelta only holds the read lock, so several threads
+     * may calculate the cached subtree digests at the same time.
+     * Every one of them must produce the same delta, and that
+     * delta must still apply correctly, even as the tree is
+     * modified (and the digests invalidated) between rounds
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testConcurrentMarshalDelta() throws Exception {
+        ServiceLocator locator = Utilities.enableLocator();
+        
+        XmlService xmlService = locator.getService(XmlService.class, PBufUtilities.PBUF_SERVICE_NAME);
+        Assert.assertNotNull(xmlService);
+        
+        final XmlRootHandle<ServiceRecordBlockBean> source = getStandardTestBlock(xmlService);
+        final XmlRootSnapshot<ServiceRecordBlockBean> snapshot = source.getSnapshot(false);
+        
+        ServiceRecordBlockBean sourceRoot = source.getRoot();
+        
+        ExecutorService executor = Executors.newFixedThreadPool(DELTA_THREADS);
+        try {
+            for (int round = 1; round <= DELTA_ROUNDS; round++) {
+                sourceRoot.setSequenceNumber(round);
+                sourceRoot.lookupServiceRecord(BJS_HASH).setTeam((round % 2 == 0) ? NFCWest.NINERS : NFCWest.SEAHAWKS);
+                
+                final CountDownLatch start = new CountDownLatch(1);
+                List<Future<byte[]>> results = new ArrayList<Future<byte[]>>(DELTA_THREADS);
+                for (int lcv = 0; lcv < DELTA_THREADS; lcv++) {
+                    results.add(executor.submit(new Callable<byte[]>() {
+
+                        @Override
+                        public byte[] call() throws Exception {
+                            start.await();
+                            
+                            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                            source.marshalDelta(baos, snapshot, getOptions(false));
+                            baos.close();
+                            
+                            return baos.toByteArray();
+                        }
+                        
+                    }));
+                }
+                
+                start.countDown();
+                
+                byte[] expected = null;
+                for (Future<byte[]> result : results) {
+                    byte[] delta = result.get();
+                    if (expected == null) {
+                        expected = delta;
+                    }
+                    else {
+                        Assert.assertTrue("Concurrent deltas differ in round " + round, Arrays.equals(expected, delta));
+                    }
+                }
+                
+                XmlRootHandle<ServiceRecordBlockBean> target = getStandardTestBlock(xmlService);
+                
+                ByteArrayInputStream bais = new ByteArrayInputStream(expected);
+                target.applyDelta(bais, getOptions(false));
+                bais.close();
+                
+                ServiceRecordBlockBean targetRoot = target.getRoot();
+                Assert.assertEquals(round, targetRoot.getSequenceNumber());
+                Assert.assertEquals((round % 2 == 0) ? NFCWest.NINERS : NFCWest.SEAHAWKS,
+                        targetRoot.lookupServiceRecord(BJS_HASH).getTeam());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+    
     /**
      * Specialized multi-exception validator
      * 
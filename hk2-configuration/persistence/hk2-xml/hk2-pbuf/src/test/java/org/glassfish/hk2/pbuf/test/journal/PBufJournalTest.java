@@ -0,0 +1,514 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.pbuf.test.journal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.pbuf.api.PBufJournal;
+import org.glassfish.hk2.pbuf.api.PBufUtilities;
+import org.glassfish.hk2.pbuf.test.beans.CustomerBean;
+import org.glassfish.hk2.pbuf.test.beans.NFCEast;
+import org.glassfish.hk2.pbuf.test.beans.ServiceRecordBean;
+import org.glassfish.hk2.pbuf.test.beans.ServiceRecordBean.NFCWest;
+import org.glassfish.hk2.pbuf.test.beans.ServiceRecordBlockBean;
+import org.glassfish.hk2.pbuf.test.utilities.Utilities;
+import org.glassfish.hk2.xml.api.XmlService;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the pbuf journal
+ * 
+ * @author jwells
+ *
+ */
+public class PBufJournalTest {
+    private final static String JOURNAL_NAME = "records";
+    
+    private final static String ACME = "Acme";
+    private final static long ACME_ID = 3000;
+    private final static String ACME_HASH = "aaabbbccc";
+    
+    private final static String BJS = "BJs";
+    private final static long BJS_ID = 4000;
+    private final static String BJS_HASH = "dddeeefff";
+    
+    /**
+     * Changes committed to a journaled tree are
+     * there when the journal is opened again
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testJournalIsReplayed() throws Exception {
+        File directory = createDirectory();
+        try {
+            PBufJournal<ServiceRecordBlockBean> journal = openJournal(directory, null);
+            addRecords(journal);
+            
+            journal.flush();
+            Assert.assertTrue(journal.getJournalSize() > 0L);
+            journal.close();
+            
+            Assert.assertFalse(new File(directory, JOURNAL_NAME + ".snapshot").exists());
+            
+            PBufJournal<ServiceRecordBlockBean> reopened = openJournal(directory, null);
+            try {
+                validateRecords(reopened);
+            }
+            finally {
+                reopened.close();
+            }
+        }
+        finally {
+            delete(directory);
+        }
+    }
+    
+    /**
+     * Compacting writes a snapshot and an empty
+     * journal that together give the same tree
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testCompaction() throws Exception {
+        File directory = createDirectory();
+        try {
+            PBufJournal<ServiceRecordBlockBean> journal = openJournal(directory, null);
+            addRecords(journal);
+            
+            journal.compact();
+            Assert.assertEquals(0L, journal.getJournalSize());
+            Assert.assertTrue(new File(directory, JOURNAL_NAME + ".snapshot").exists());
+            Assert.assertFalse(new File(directory, JOURNAL_NAME + ".journal.0").exists());
+            
+            // One more change after the snapshot
+            journal.getRootHandle().getRoot().setSequenceNumber(2L);
+            journal.close();
+            
+            PBufJournal<ServiceRecordBlockBean> reopened = openJournal(directory, null);
+            try {
+                validateRecords(reopened);
+                Assert.assertEquals(2L, reopened.getRootHandle().getRoot().getSequenceNumber());
+            }
+            finally {
+                reopened.close();
+            }
+        }
+        finally {
+            delete(directory);
+        }
+    }
+    
+    /**
+     * With a tiny threshold the journal is compacted in the
+     * background after every commit
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testBackgroundCompaction() throws Exception {
+        File directory = createDirectory();
+        try {
+            Map<String, Object> options = new HashMap<String, Object>();
+            options.put(PBufUtilities.PBUF_OPTION_JOURNAL_COMPACTION_THRESHOLD, new Long(1L));
+            options.put(PBufUtilities.PBUF_OPTION_JOURNAL_SYNC, Boolean.FALSE);
+            
+            PBufJournal<ServiceRecordBlockBean> journal = openJournal(directory, options);
+            addRecords(journal);
+            
+            for (long lcv = 0; lcv < 10; lcv++) {
+                journal.getRootHandle().getRoot().setSequenceNumber(lcv);
+            }
+            
+            journal.close();
+            
+            PBufJournal<ServiceRecordBlockBean> reopened = openJournal(directory, options);
+            try {
+                validateRecords(reopened);
+                Assert.assertEquals(9L, reopened.getRootHandle().getRoot().getSequenceNumber());
+            }
+            finally {
+                reopened.close();
+            }
+        }
+        finally {
+            delete(directory);
+        }
+    }
+    
+    /**
+     * A record only partly written when the process died
+     * is dropped rather than failing the whole journal
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testTornRecordIsDropped() throws Exception {
+        File directory = createDirectory();
+        try {
+            PBufJournal<ServiceRecordBlockBean> journal = openJournal(directory, null);
+            addRecords(journal);
+            journal.close();
+            
+            File journalFile = new File(directory, JOURNAL_NAME + ".journal.0");
+            long goodLength = journalFile.length();
+            
+            FileOutputStream fos = new FileOutputStream(journalFile, true);
+            try {
+                fos.write(new byte[] { 0, 0, 0, 100, 1, 2, 3 });
+            }
+            finally {
+                fos.close();
+            }
+            
+            PBufJournal<ServiceRecordBlockBean> reopened = openJournal(directory, null);
+            try {
+                validateRecords(reopened);
+                Assert.assertEquals(goodLength, journalFile.length());
+            }
+            finally {
+                reopened.close();
+            }
+        }
+        finally {
+            delete(directory);
+        }
+    }
+    
+    /**
+     * A record whose length is larger than what is left of the
+     * file is treated as torn rather than being allocated
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testImpossibleLengthIsDropped() throws Exception {
+        File directory = createDirectory();
+        try {
+            PBufJournal<ServiceRecordBlockBean> journal = openJournal(directory, null);
+            addRecords(journal);
+            journal.close();
+            
+            File journalFile = new File(directory, JOURNAL_NAME + ".journal.0");
+            long goodLength = journalFile.length();
+            
+            FileOutputStream fos = new FileOutputStream(journalFile, true);
+            try {
+                // Integer.MAX_VALUE length, then a CRC and a few bytes
+                fos.write(new byte[] { 0x7f, -1, -1, -1, 0, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3 });
+            }
+            finally {
+                fos.close();
+            }
+            
+            PBufJournal<ServiceRecordBlockBean> reopened = openJournal(directory, null);
+            try {
+                validateRecords(reopened);
+                Assert.assertEquals(goodLength, journalFile.length());
+            }
+            finally {
+                reopened.close();
+            }
+        }
+        finally {
+            delete(directory);
+        }
+    }
+    
+    /**
+     * A commit returns while the record of an earlier commit
+     * is still being written, and both changes are persisted
+     * once the write completes
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testCommitDoesNotWaitForTheDisk() throws Exception {
+        File directory = createDirectory();
+        try {
+            PBufJournal<ServiceRecordBlockBean> journal = openJournal(directory, null);
+            addRecords(journal);
+            journal.flush();
+            
+            File journalFile = new File(directory, JOURNAL_NAME + ".journal.0");
+            Field streamField = journal.getClass().getDeclaredField("journalStream");
+            streamField.setAccessible(true);
+            ((FileOutputStream) streamField.get(journal)).close();
+            
+            BlockingOutputStream blocking = new BlockingOutputStream(journalFile);
+            streamField.set(journal, blocking);
+            
+            final ServiceRecordBlockBean root = journal.getRootHandle().getRoot();
+            Thread committer = new Thread() {
+                @Override
+                public void run() {
+                    root.setSequenceNumber(5L);
+                    root.setSequenceNumber(6L);
+                }
+            };
+            
+            try {
+                committer.start();
+                
+                Assert.assertTrue(blocking.writing.await(20, TimeUnit.SECONDS));
+                
+                committer.join(20L * 1000L);
+                Assert.assertFalse("A commit waited for the journal write", committer.isAlive());
+            }
+            finally {
+                blocking.release.countDown();
+            }
+            
+            journal.flush();
+            journal.close();
+            
+            PBufJournal<ServiceRecordBlockBean> reopened = openJournal(directory, null);
+            try {
+                validateRecords(reopened);
+                Assert.assertEquals(6L, reopened.getRootHandle().getRoot().getSequenceNumber());
+            }
+            finally {
+                reopened.close();
+            }
+        }
+        finally {
+            delete(directory);
+        }
+    }
+    
+    /**
+     * An append that fails part way through is removed from
+     * the journal, and the change it was writing is included
+     * in the next record rather than being lost
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testFailedAppendIsNotLost() throws Exception {
+        File directory = createDirectory();
+        try {
+            PBufJournal<ServiceRecordBlockBean> journal = openJournal(directory, null);
+            addRecords(journal);
+            journal.flush();
+            
+            long goodSize = journal.getJournalSize();
+            
+            File journalFile = new File(directory, JOURNAL_NAME + ".journal.0");
+            Field streamField = journal.getClass().getDeclaredField("journalStream");
+            streamField.setAccessible(true);
+            ((FileOutputStream) streamField.get(journal)).close();
+            FailOnceOutputStream failOnce = new FailOnceOutputStream(journalFile);
+            streamField.set(journal, failOnce);
+            
+            // The append of this commit fails in the background, the one of the flush succeeds
+            ServiceRecordBlockBean root = journal.getRootHandle().getRoot();
+            root.setSequenceNumber(5L);
+            journal.flush();
+            
+            Assert.assertTrue(failOnce.failed);
+            Assert.assertTrue(journal.getJournalSize() > goodSize);
+            Assert.assertEquals(journal.getJournalSize(), journalFile.length());
+            
+            root.lookupServiceRecord(BJS_HASH).getCustomer().setCustomerID(BJS_ID + 1);
+            journal.close();
+            
+            PBufJournal<ServiceRecordBlockBean> reopened = openJournal(directory, null);
+            try {
+                validateRecords(reopened);
+                
+                ServiceRecordBlockBean reopenedRoot = reopened.getRootHandle().getRoot();
+                Assert.assertEquals(5L, reopenedRoot.getSequenceNumber());
+                Assert.assertEquals(BJS_ID + 1, reopenedRoot.lookupServiceRecord(BJS_HASH).getCustomer().getCustomerID());
+            }
+            finally {
+                reopened.close();
+            }
+        }
+        finally {
+            delete(directory);
+        }
+    }
+    
+    private static PBufJournal<ServiceRecordBlockBean> openJournal(File directory, Map<String, Object> options) throws IOException {
+        ServiceLocator locator = Utilities.enableLocator();
+        
+        return PBufUtilities.openJournal(locator, ServiceRecordBlockBean.class, directory, JOURNAL_NAME, options);
+    }
+    
+    private static void addRecords(PBufJournal<ServiceRecordBlockBean> journal) {
+        ServiceLocator locator = Utilities.enableLocator();
+        XmlService xmlService = locator.getService(XmlService.class, PBufUtilities.PBUF_SERVICE_NAME);
+        
+        ServiceRecordBlockBean root = journal.getRootHandle().getRoot();
+        root.setSequenceNumber(1L);
+        
+        root.addServiceRecord(createServiceRecordBean(xmlService, ACME, ACME_ID, NFCEast.EAGLES, ACME_HASH, NFCWest.SEAHAWKS));
+        root.addServiceRecord(createServiceRecordBean(xmlService, BJS, BJS_ID, NFCEast.GIANTS, BJS_HASH, NFCWest.CARDINALS));
+        
+        root.lookupServiceRecord(ACME_HASH).setTeam(NFCWest.NINERS);
+    }
+    
+    private static void validateRecords(PBufJournal<ServiceRecordBlockBean> journal) {
+        ServiceRecordBlockBean root = journal.getRootHandle().getRoot();
+        Assert.assertNotNull(root);
+        
+        List<ServiceRecordBean> records = root.getServiceRecords();
+        Assert.assertEquals(2, records.size());
+        
+        Assert.assertEquals(ACME_HASH, records.get(0).getServiceRecordID());
+        Assert.assertEquals(NFCWest.NINERS, records.get(0).getTeam());
+        Assert.assertEquals(ACME, records.get(0).getCustomer().getCustomerName());
+        Assert.assertEquals(ACME_ID, records.get(0).getCustomer().getCustomerID());
+        
+        Assert.assertEquals(BJS_HASH, records.get(1).getServiceRecordID());
+        Assert.assertEquals(NFCWest.CARDINALS, records.get(1).getTeam());
+        Assert.assertEquals(BJS, records.get(1).getCustomer().getCustomerName());
+        Assert.assertEquals(NFCEast.GIANTS, records.get(1).getCustomer().getTeam());
+    }
+    
+    private static ServiceRecordBean createServiceRecordBean(XmlService xmlService, String companyName, long id, NFCEast eastTeam,
+            String hash, NFCWest westTeam) {
+        CustomerBean customer = xmlService.createBean(CustomerBean.class);
+        customer.setCustomerName(companyName);
+        customer.setCustomerID(id);
+        customer.setTeam(eastTeam);
+        
+        ServiceRecordBean retVal = xmlService.createBean(ServiceRecordBean.class);
+        retVal.setServiceRecordID(hash);
+        retVal.setCustomer(customer);
+        retVal.setTeam(westTeam);
+        
+        return retVal;
+    }
+    
+    /**
+     * Writes only half of the first record given to
+     * it and then fails, like a full disk would
+     * 
+     * @author jwells
+     *
+     */
+    private static class FailOnceOutputStream extends FileOutputStream {
+        private boolean failed;
+        
+        private FailOnceOutputStream(File file) throws IOException {
+            super(file, true);
+        }
+        
+        @Override
+        public void write(byte b[]) throws IOException {
+            if (failed) {
+                super.write(b);
+                return;
+            }
+            
+            failed = true;
+            super.write(b, 0, b.length / 2);
+            throw new IOException("No space left on device");
+        }
+    }
+    
+    /**
+     * Blocks the first write given to it until released
+     * 
+     * @author jwells
+     *
+     */
+    private static class BlockingOutputStream extends FileOutputStream {
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        
+        private BlockingOutputStream(File file) throws IOException {
+            super(file, true);
+        }
+        
+        @Override
+        public void write(byte b[]) throws IOException {
+            writing.countDown();
+            
+            try {
+                release.await();
+            }
+            catch (InterruptedException ie) {
+                throw new IOException(ie);
+            }
+            
+            super.write(b);
+        }
+    }
+    
+    private static File createDirectory() throws IOException {
+        File retVal = File.createTempFile("pbufJournal", "");
+        if (!retVal.delete() || !retVal.mkdirs()) {
+            throw new IOException("Could not create directory " + retVal);
+        }
+        
+        return retVal;
+    }
+    
+    private static void delete(File directory) {
+        File files[] = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        
+        directory.delete();
+    }
+}
@@ -42,6 +42,7 @@ package org.glassfish.hk2.xml.api;
 
 import java.beans.VetoableChangeListener;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.util.List;
@@ -114,6 +115,9 @@ public interface XmlRootHandle<T> {
      * to false is useful if this tree is to be used to marshall
      * back to XML, since JAXB will then not write the values back
      * out to the file
+     * <p>
+     * The returned tree is the root of the current
+     * {@link #getSnapshot(boolean)} and so its getters take no locks
      * 
      * @param representDefaults If true getters will return default values,
      * if false getters will return null (or zero/false for scalars)
@@ -122,6 +126,20 @@ public interface XmlRootHandle<T> {
      */
     public T getReadOnlyRoot(boolean representDefaults);
     
+    /**
+     * Returns an immutable snapshot of the current tree tagged with
+     * the revision of this handle at the time the snapshot was taken.
+     * The beans of the snapshot take no locks when read.  The same
+     * snapshot is returned to all callers until a change to this tree
+     * is committed, after which the next call will take a new snapshot
+     * 
+     * @param representDefaults If true getters will return default values,
+     * if false getters will return null (or zero/false for scalars)
+     * @return A non-null snapshot of this tree.  The root of the snapshot
+     * will be null if there is no current root for this handle
+     */
+    public XmlRootSnapshot<T> getSnapshot(boolean representDefaults);
+    
     /**
      * Creates a copy of this tree that is not advertised.
      * Modifications can be made to this copy and then
@@ -243,6 +261,25 @@ public interface XmlRootHandle<T> {
      */
     public List<VetoableChangeListener> getChangeListeners();
     
+    /**
+     * Adds a listener that will be called after every commit of a
+     * change to this tree, while the write lock is still held.  Listeners
+     * are run in the order in which they are added
+     * 
+     * @param listener non-null listener to be called after changes
+     * have been committed to this tree.  Must be suitable for storage
+     * in a HashSet
+     */
+    public void addCommitListener(XmlHandleCommitListener<T> listener);
+    
+    /**
+     * Removes a commit listener.  The listener must be suitable for
+     * lookup in a HashSet
+     * 
+     * @param listener non-null listener to be removed
+     */
+    public void removeCommitListener(XmlHandleCommitListener<T> listener);
+    
     /**
      * This method will lock the bean tree represented by
      * this XmlRootHandle and start a transaction.  Any changes
@@ -315,4 +352,37 @@ public interface XmlRootHandle<T> {
      * @throws IOException On any exception that might happen
      */
     public void marshal(OutputStream outputStream, Map<String, Object> options) throws IOException;
+    
+    /**
+     * Will marshal only the changes that have been made to this tree
+     * since the given snapshot was taken.  The changes are written
+     * with the format of the parser of the {@link XmlService} that
+     * created this handle, which must support deltas.  A handle that
+     * contains the same tree as the snapshot can apply the changes
+     * with {@link #applyDelta(InputStream, Map)}.  Will hold the read
+     * lock of this tree while it does so
+     *
+     * @param outputStream A non-closed output stream.  This method will
+     * not close the output stream
+     * @param since A snapshot taken from this handle with representDefaults
+     * set to false.  The snapshot and this handle must both have a root
+     * @param options optional (possibly null) options from the caller
+     * @throws IOException On any exception that might happen
+     * @throws UnsupportedOperationException if the parser of this handle
+     * does not support deltas
+     */
+    public void marshalDelta(OutputStream outputStream, XmlRootSnapshot<T> since, Map<String, Object> options) throws IOException;
+    
+    /**
+     * Reads changes written by {@link #marshalDelta(OutputStream, XmlRootSnapshot, Map)}
+     * and applies all of them to this tree in a single transaction.  This tree must
+     * be the same as the snapshot the changes were computed from
+     *
+     * @param inputStream A non-null input stream.  This stream will NOT be closed by this method
+     * @param options optional (possibly null) options from the caller
+     * @throws IOException On any exception that might happen
+     * @throws UnsupportedOperationException if the parser of this handle
+     * does not support deltas
+     */
+    public void applyDelta(InputStream inputStream, Map<String, Object> options) throws IOException;
 }
@@ -0,0 +1,129 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.xml.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * This represents an immutable copy of the tree of a
+ * {@link XmlRootHandle} as it existed at a particular
+ * revision.  The beans in a snapshot take no locks when
+ * their getters are called and so can be read by any
+ * number of threads without contending with threads
+ * that are modifying the parent tree.  Any method that would
+ * change a bean in a snapshot will fail, as will methods
+ * that are customized
+ * <p>
+ * A snapshot never changes.  When a change to the parent tree
+ * is committed the parent will give out a new snapshot the next
+ * time one is requested, while holders of the old snapshot continue
+ * to see the tree as it was at the old revision
+ * 
+ * @author jwells
+ *
+ */
+public interface XmlRootSnapshot<T> {
+    /**
+     * Gets the XmlRootHandle from which this snapshot was created
+     * 
+     * @return The non-null handle from which this snapshot was created
+     */
+    public XmlRootHandle<T> getParent();
+    
+    /**
+     * Gets the revision of the parent tree at the time
+     * this snapshot was taken
+     * 
+     * @return The revision of the parent at the time this
+     * snapshot was taken
+     */
+    public long getRevision();
+    
+    /**
+     * Gets the read-only root of the JavaBean tree
+     * 
+     * @return The read-only root of the JavaBean tree, or
+     * null if the parent had no root when this snapshot
+     * was taken
+     */
+    public T getRoot();
+    
+    /**
+     * Returns true if the getters of this snapshot return
+     * default values for unset properties
+     * 
+     * @return true if default values are represented,
+     * false if unset properties return null (or zero/false
+     * for scalars)
+     */
+    public boolean representsDefaults();
+    
+    /**
+     * Returns true if no change has been committed to the
+     * parent tree since this snapshot was taken
+     * 
+     * @return true if this snapshot still reflects the
+     * current state of the parent tree
+     */
+    public boolean isCurrent();
+    
+    /**
+     * Writes the changes needed to go from the since snapshot to
+     * this one, in the same format as
+     * {@link XmlRootHandle#marshalDelta(OutputStream, XmlRootSnapshot, Map)}.
+     * The changes can be applied with
+     * {@link XmlRootHandle#applyDelta(InputStream, Map)}.  Unlike the
+     * method on the handle this takes no lock of the parent tree
+     * 
+     * @param outputStream A non-closed output stream.  This method will
+     * not close the output stream
+     * @param since A snapshot taken from the same handle with representDefaults
+     * set to false.  The snapshot and this snapshot must both have a root
+     * @param options optional (possibly null) options from the caller
+     * @throws IOException On any exception that might happen
+     * @throws UnsupportedOperationException if the parser of the parent handle
+     * does not support deltas
+     */
+    public void marshalDelta(OutputStream outputStream, XmlRootSnapshot<T> since, Map<String, Object> options) throws IOException;
+}
@@ -61,6 +61,18 @@ import org.glassfish.hk2.xml.spi.XmlServiceParser;
  * @author jwells
  */
 public class XmlServiceUtilities {
+    /**
+     * This option can be given to the unmarshal methods of {@link XmlService}
+     * in order to be told about each bean, parents before children, as soon
+     * as its attributes have been read, along with the progress through the
+     * document and, if it asks for them, each complete subtree.  The beans
+     * given to the listener are read-only copies.  The value must
+     * be of type {@link XmlStreamingListener}.  This option is honored
+     * when unmarshalling from an XMLStreamReader or when using the
+     * stream-based parser enabled with {@link #enableDomXmlService(ServiceLocator)}
+     */
+    public final static String STREAMING_LISTENER_OPTION = "XmlStreamingListener";
+    
     private static boolean isDuplicateException(MultiException me) {
         for (Throwable th : me.getErrors()) {
             while (th != null) {
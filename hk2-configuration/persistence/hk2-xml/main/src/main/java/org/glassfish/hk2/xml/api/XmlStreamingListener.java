@@ -0,0 +1,140 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.api;
+
+/**
+ * A listener that can be given to the unmarshal methods of
+ * {@link XmlService} with the option
+ * {@link XmlServiceUtilities#STREAMING_LISTENER_OPTION}.  It
+ * is told about every bean in the document in document order
+ * (parents before their children) as soon as the attributes
+ * of that bean have been read, which allows the caller to start
+ * using the top-level parts of a very large document before the
+ * rest of the document has been parsed
+ * <p>
+ * The methods of this listener are called on the thread doing
+ * the unmarshalling.  The beans given to this listener are
+ * read-only copies of the beans being built by the parser and
+ * are not part of the tree returned in the {@link XmlRootHandle}.
+ * Any attempt to modify them will result in an
+ * {@link IllegalStateException}.  A copy given to
+ * {@link #beanUnmarshalled(Object, Object, int)} contains the attributes of
+ * the bean and any simple element values that appear in the document
+ * before the first child bean of that bean.  It does not contain
+ * children, references, or values that appear after the first child
+ * bean, all of which are available in the tree returned once the
+ * whole document has been read
+ * <p>
+ * A listener that needs whole parts of the document can ask, with
+ * {@link #getSubtreeDepth()}, to be given a read-only copy of every
+ * complete subtree rooted at the given depths.  Such a copy holds the
+ * bean with all of its children as soon as the end of that bean has
+ * been read
+ * 
+ * @author jwells
+ *
+ */
+public interface XmlStreamingListener {
+    /**
+     * Called once for every bean in the document.  A bean is
+     * always given to this method before any of its children,
+     * and so the root of the document will be the first bean
+     * given to this method
+     * 
+     * @param bean A non-null read-only copy of the bean that
+     * has been read
+     * @param parent The read-only copy of the parent of the bean
+     * that was previously given to this method, or null if this
+     * bean is the root of the document
+     * @param depth The depth of the bean in the tree, where
+     * the root of the document has depth zero
+     */
+    public void beanUnmarshalled(Object bean, Object parent, int depth);
+    
+    /**
+     * Called as the parser consumes the underlying stream.  This
+     * is only called when the document is being read from a
+     * URI or an InputStream, as there is no way to tell how
+     * far along an externally supplied XMLStreamReader is.  It
+     * is called at most once per bean and only when the
+     * number of bytes read has changed, and is called one final
+     * time once the whole document has been read
+     * 
+     * @param bytesRead The number of bytes consumed from the
+     * underlying stream so far.  Since parsers read ahead this
+     * may be further along than the last bean given to
+     * {@link #beanUnmarshalled(Object, Object, int)}
+     * @param totalBytes The total number of bytes in the
+     * document, or -1 if that is not known
+     */
+    public void progress(long bytesRead, long totalBytes);
+    
+    /**
+     * Returns the deepest level whose completed subtrees are given to
+     * {@link #subtreeUnmarshalled(Object, int)}.  Every bean from depth
+     * one (the children of the root) down to and including the returned
+     * depth is copied once its subtree is complete.  Returning one
+     * copies every bean of the document once.  Each level below that
+     * copies every bean below it once more, so deeper levels cost more.
+     * The complete root is never copied, since it is the
+     * tree returned by the unmarshal method.  This method is called
+     * once, before the document is read
+     * 
+     * @return The deepest level of completed subtrees to be given to
+     * this listener, or zero if this listener does not want any
+     */
+    public int getSubtreeDepth();
+    
+    /**
+     * Called once for every bean at a depth from one to
+     * {@link #getSubtreeDepth()} as soon as that bean and all of
+     * its children have been read.  This is always called after
+     * {@link #beanUnmarshalled(Object, Object, int)} has been called
+     * for the bean and for all of its children.  The subtree is a
+     * read-only copy that is not connected to a parent.  References
+     * between beans of the subtree are set in the copy, references
+     * to beans outside of the subtree are not
+     * 
+     * @param subtree A non-null read-only copy of the complete subtree
+     * @param depth The depth of the root of the subtree in the document
+     */
+    public void subtreeUnmarshalled(Object subtree, int depth);
+
+}
@@ -48,7 +48,12 @@ import java.lang.annotation.Target;
 
 /**
  * This annotation is placed on interfaces that should
- * have their implementations pre-generated at build time
+ * have their implementations pre-generated at build time.
+ * If {@link #includeChildren()} is true then all child
+ * interfaces reachable from the annotated interface that
+ * are part of the same compilation will also be pre-generated,
+ * which allows an entire model to be pre-generated by annotating
+ * only its root
  * 
  * @author jwells
  */
@@ -56,5 +61,12 @@ import java.lang.annotation.Target;
 @Retention(RUNTIME)
 @Target(TYPE)
 public @interface Hk2XmlPreGenerate {
-
+    /**
+     * If true then the implementations of all child interfaces
+     * reachable from this interface that are being compiled in
+     * the same compilation unit set will also be pre-generated
+     * 
+     * @return true if children should also be pre-generated
+     */
+    public boolean includeChildren() default false;
 }
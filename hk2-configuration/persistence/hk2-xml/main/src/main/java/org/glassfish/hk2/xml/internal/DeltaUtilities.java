@@ -0,0 +1,794 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.internal;
+
+import java.beans.PropertyChangeEvent;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.namespace.QName;
+
+import org.glassfish.hk2.xml.internal.Differences.AddData;
+import org.glassfish.hk2.xml.internal.Differences.AddRemoveData;
+import org.glassfish.hk2.xml.internal.Differences.AddRemoveMoveDifference;
+import org.glassfish.hk2.xml.internal.Differences.Difference;
+import org.glassfish.hk2.xml.internal.Differences.MoveData;
+import org.glassfish.hk2.xml.internal.Differences.RemoveData;
+import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
+import org.glassfish.hk2.xml.spi.XmlDeltaNode;
+
+/**
+ * Converts the {@link Differences} between a snapshot of a tree and
+ * the current tree into a format neutral tree of {@link XmlDeltaNode}
+ * and converts that tree back into {@link Differences} against
+ * another copy of the snapshot tree.  Beans are located by the
+ * path from the root, using keys for keyed children and indexes
+ * for unkeyed children, so the two trees need not share any
+ * generated identifiers
+ * 
+ * @author jwells
+ *
+ */
+public class DeltaUtilities {
+    private final static String DELTA = "delta";
+    private final static String DIFFERENCE = "difference";
+    private final static String PATH = "path";
+    private final static String SEGMENT = "segment";
+    private final static String SET = "set";
+    private final static String SET_LIST = "set-list";
+    private final static String ITEM = "item";
+    private final static String CHILD = "child";
+    private final static String ADD = "add";
+    private final static String REMOVE = "remove";
+    private final static String MOVE = "move";
+    private final static String REPLACE = "replace";
+    private final static String BEAN = "bean";
+    
+    private final static String TYPE_ATTRIBUTE = "type";
+    private final static String NAME_ATTRIBUTE = "name";
+    private final static String VALUE_ATTRIBUTE = "value";
+    private final static String PROPERTY_ATTRIBUTE = "property";
+    private final static String KEY_ATTRIBUTE = "key";
+    private final static String INDEX_ATTRIBUTE = "index";
+    private final static String FROM_ATTRIBUTE = "from";
+    private final static String TO_ATTRIBUTE = "to";
+    
+    /**
+     * Creates the delta node tree for the given differences
+     * 
+     * @param rootModel The model of the root of both trees
+     * @param differences The differences between the snapshot
+     * tree (the source) and the current tree
+     * @return The root of the delta tree
+     */
+    public static XmlDeltaNode createDelta(ModelImpl rootModel, Differences differences) {
+        XmlDeltaNode retVal = new XmlDeltaNode(DELTA);
+        retVal.setAttribute(TYPE_ATTRIBUTE, rootModel.getOriginalInterface());
+        
+        for (Difference difference : differences.getDifferences()) {
+            BaseHK2JAXBBean source = difference.getSource();
+            ModelImpl model = source._getModel();
+            
+            XmlDeltaNode differenceNode = retVal.addChild(new XmlDeltaNode(DIFFERENCE));
+            differenceNode.addChild(createPath(source));
+            
+            for (PropertyChangeEvent pce : difference.getNonChildChanges()) {
+                String propName = pce.getPropertyName();
+                
+                differenceNode.addChild(createSet(propName, pce.getNewValue(), getNonChildProperty(model, propName)));
+            }
+            
+            for (Map.Entry<String, AddRemoveMoveDifference> childEntry : difference.getChildChanges().entrySet()) {
+                AddRemoveMoveDifference childDiffs = childEntry.getValue();
+                
+                XmlDeltaNode childNode = differenceNode.addChild(new XmlDeltaNode(CHILD));
+                childNode.setAttribute(PROPERTY_ATTRIBUTE, childEntry.getKey());
+                
+                for (AddRemoveData ard : childDiffs.getDirectReplaces()) {
+                    XmlDeltaNode replaceNode = childNode.addChild(createRemove(REPLACE, ard.getRemove()));
+                    replaceNode.addChild(createBean(ard.getAdd().getToAdd()));
+                }
+                
+                for (AddData added : childDiffs.getAdds()) {
+                    XmlDeltaNode addNode = childNode.addChild(new XmlDeltaNode(ADD));
+                    addNode.setAttribute(INDEX_ATTRIBUTE, Integer.toString(added.getIndex()));
+                    addNode.addChild(createBean(added.getToAdd()));
+                }
+                
+                for (RemoveData removed : childDiffs.getRemoves()) {
+                    childNode.addChild(createRemove(REMOVE, removed));
+                }
+                
+                for (MoveData moved : childDiffs.getMoves()) {
+                    XmlDeltaNode moveNode = childNode.addChild(new XmlDeltaNode(MOVE));
+                    moveNode.setAttribute(FROM_ATTRIBUTE, Integer.toString(moved.getOldIndex()));
+                    moveNode.setAttribute(TO_ATTRIBUTE, Integer.toString(moved.getNewIndex()));
+                }
+            }
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Converts the delta node tree into differences against the given
+     * tree.  Every bean named in the delta is located before this method
+     * returns, so no part of the tree is modified if the delta does not
+     * match the tree
+     * 
+     * @param delta The root of the delta tree
+     * @param root The root of the tree the delta is to be applied to
+     * @return The differences that can be applied to the given tree
+     */
+    public static Differences readDelta(XmlDeltaNode delta, BaseHK2JAXBBean root) {
+        if (!DELTA.equals(delta.getName())) {
+            throw new IllegalArgumentException("The delta has an unknown root node " + delta.getName());
+        }
+        
+        ModelImpl rootModel = root._getModel();
+        String type = delta.getAttribute(TYPE_ATTRIBUTE);
+        if (!rootModel.getOriginalInterface().equals(type)) {
+            throw new IllegalArgumentException("The delta for type " + type + " can not be applied to a tree of type " +
+                rootModel.getOriginalInterface());
+        }
+        
+        ReadContext context = new ReadContext(root);
+        Differences retVal = new Differences();
+        
+        for (XmlDeltaNode differenceNode : delta.getChildren()) {
+            if (!DIFFERENCE.equals(differenceNode.getName())) {
+                throw new IllegalArgumentException("Unknown node in delta " + differenceNode.getName());
+            }
+            
+            List<XmlDeltaNode> children = differenceNode.getChildren();
+            if (children.isEmpty() || !PATH.equals(children.get(0).getName())) {
+                throw new IllegalArgumentException("A difference in the delta has no path " + differenceNode);
+            }
+            
+            BaseHK2JAXBBean source = resolvePath(root, children.get(0));
+            ModelImpl model = source._getModel();
+            
+            Difference difference = new Difference(source);
+            
+            for (int lcv = 1; lcv < children.size(); lcv++) {
+                XmlDeltaNode changeNode = children.get(lcv);
+                String changeName = changeNode.getName();
+                
+                if (SET.equals(changeName) || SET_LIST.equals(changeName)) {
+                    String propName = changeNode.getAttribute(NAME_ATTRIBUTE);
+                    ChildDataModel cdm = getNonChildProperty(model, propName);
+                    QName qName = getNonChildQName(model, propName);
+                    
+                    Object oldValue = source._getProperty(QNameUtilities.getNamespace(qName), propName);
+                    
+                    if (cdm.isReference() && changeNode.getAttribute(VALUE_ATTRIBUTE) != null) {
+                        // The event is added once the reference is resolved
+                        context.addReference(new UnresolvedDeltaReference(difference, source, qName, oldValue,
+                                cdm.getChildType(), changeNode.getAttribute(VALUE_ATTRIBUTE)));
+                        continue;
+                    }
+                    
+                    Object newValue = readValue(changeNode, cdm);
+                    
+                    difference.addNonChildChange(new PropertyChangeEvent(source, propName, oldValue, newValue));
+                }
+                else if (CHILD.equals(changeName)) {
+                    readChildChanges(source, changeNode, difference, context);
+                }
+                else {
+                    throw new IllegalArgumentException("Unknown node in delta " + changeName);
+                }
+            }
+            
+            retVal.addDifference(difference);
+        }
+        
+        context.resolveReferences();
+        
+        return retVal;
+    }
+    
+    private static void readChildChanges(BaseHK2JAXBBean source, XmlDeltaNode childNode, Difference difference, ReadContext context) {
+        String property = childNode.getAttribute(PROPERTY_ATTRIBUTE);
+        ParentedModel parentedModel = getChild(source._getModel(), property);
+        ModelImpl childModel = parentedModel.getChildModel();
+        
+        for (XmlDeltaNode change : childNode.getChildren()) {
+            String changeName = change.getName();
+            
+            if (ADD.equals(changeName)) {
+                int index = Integer.parseInt(change.getAttribute(INDEX_ATTRIBUTE));
+                BaseHK2JAXBBean toAdd = readBean(childModel, getBeanNode(change), context);
+                
+                difference.addAdd(property, new AddData(toAdd, index));
+            }
+            else if (REMOVE.equals(changeName)) {
+                difference.addRemove(property, readRemove(source, parentedModel, change));
+            }
+            else if (REPLACE.equals(changeName)) {
+                RemoveData removed = readRemove(source, parentedModel, change);
+                BaseHK2JAXBBean toAdd = readBean(childModel, getBeanNode(change), context);
+                
+                difference.addDirectReplace(property, toAdd, removed);
+            }
+            else if (MOVE.equals(changeName)) {
+                int from = Integer.parseInt(change.getAttribute(FROM_ATTRIBUTE));
+                int to = Integer.parseInt(change.getAttribute(TO_ATTRIBUTE));
+                
+                difference.addMove(property, new MoveData(from, to));
+            }
+            else {
+                throw new IllegalArgumentException("Unknown child change in delta " + changeName);
+            }
+        }
+    }
+    
+    private static XmlDeltaNode getBeanNode(XmlDeltaNode change) {
+        for (XmlDeltaNode child : change.getChildren()) {
+            if (BEAN.equals(child.getName())) return child;
+        }
+        
+        throw new IllegalArgumentException("The change " + change + " in the delta has no bean");
+    }
+    
+    private static RemoveData readRemove(BaseHK2JAXBBean source, ParentedModel parentedModel, XmlDeltaNode change) {
+        String property = parentedModel.getChildXmlTag();
+        String key = change.getAttribute(KEY_ATTRIBUTE);
+        String indexAsString = change.getAttribute(INDEX_ATTRIBUTE);
+        
+        BaseHK2JAXBBean child = findChild(source, parentedModel, key, indexAsString);
+        
+        if (key != null) {
+            return new RemoveData(property, key, child);
+        }
+        if (indexAsString != null) {
+            return new RemoveData(property, Integer.parseInt(indexAsString), child);
+        }
+        
+        return new RemoveData(property, child);
+    }
+    
+    private static XmlDeltaNode createRemove(String nodeName, RemoveData removed) {
+        XmlDeltaNode retVal = new XmlDeltaNode(nodeName);
+        
+        String key = removed.getChildKey();
+        
+        if (key != null) {
+            retVal.setAttribute(KEY_ATTRIBUTE, key);
+        }
+        if (removed.getIndex() >= 0) {
+            retVal.setAttribute(INDEX_ATTRIBUTE, Integer.toString(removed.getIndex()));
+        }
+        
+        return retVal;
+    }
+    
+    private static XmlDeltaNode createPath(BaseHK2JAXBBean bean) {
+        LinkedList<XmlDeltaNode> segments = new LinkedList<XmlDeltaNode>();
+        
+        BaseHK2JAXBBean current = bean;
+        BaseHK2JAXBBean parent = (BaseHK2JAXBBean) current._getParent();
+        while (parent != null) {
+            segments.addFirst(createSegment(parent, current));
+            
+            current = parent;
+            parent = (BaseHK2JAXBBean) current._getParent();
+        }
+        
+        XmlDeltaNode retVal = new XmlDeltaNode(PATH);
+        for (XmlDeltaNode segment : segments) {
+            retVal.addChild(segment);
+        }
+        
+        return retVal;
+    }
+    
+    private static XmlDeltaNode createSegment(BaseHK2JAXBBean parent, BaseHK2JAXBBean child) {
+        for (ParentedModel parentedModel : parent._getModel().getAllChildren()) {
+            Object value = parent._getProperty(parentedModel.getChildXmlNamespace(), parentedModel.getChildXmlTag());
+            if (value == null) continue;
+            
+            int index = indexOf(value, child);
+            if (index == NOT_FOUND) continue;
+            
+            XmlDeltaNode retVal = new XmlDeltaNode(SEGMENT);
+            retVal.setAttribute(PROPERTY_ATTRIBUTE, parentedModel.getChildXmlTag());
+            
+            // A direct child is found by its property alone, even if it has a key
+            if (index != DIRECT_INDEX) {
+                if (parentedModel.getChildModel().getKeyProperty() != null) {
+                    retVal.setAttribute(KEY_ATTRIBUTE, child._getKeyValue());
+                }
+                else {
+                    retVal.setAttribute(INDEX_ATTRIBUTE, Integer.toString(index));
+                }
+            }
+            
+            return retVal;
+        }
+        
+        throw new IllegalStateException("Could not find " + child + " in its parent " + parent);
+    }
+    
+    private final static int NOT_FOUND = -2;
+    private final static int DIRECT_INDEX = -1;
+    
+    private static int indexOf(Object listArrayOrBean, BaseHK2JAXBBean child) {
+        if (listArrayOrBean instanceof List) {
+            int lcv = 0;
+            for (Object item : (List<?>) listArrayOrBean) {
+                if (item == child) return lcv;
+                lcv++;
+            }
+            
+            return NOT_FOUND;
+        }
+        
+        if (listArrayOrBean.getClass().isArray()) {
+            int length = Array.getLength(listArrayOrBean);
+            for (int lcv = 0; lcv < length; lcv++) {
+                if (Array.get(listArrayOrBean, lcv) == child) return lcv;
+            }
+            
+            return NOT_FOUND;
+        }
+        
+        return (listArrayOrBean == child) ? DIRECT_INDEX : NOT_FOUND ;
+    }
+    
+    private static BaseHK2JAXBBean resolvePath(BaseHK2JAXBBean root, XmlDeltaNode path) {
+        BaseHK2JAXBBean current = root;
+        
+        for (XmlDeltaNode segment : path.getChildren()) {
+            ParentedModel parentedModel = getChild(current._getModel(), segment.getAttribute(PROPERTY_ATTRIBUTE));
+            
+            current = findChild(current, parentedModel,
+                    segment.getAttribute(KEY_ATTRIBUTE),
+                    segment.getAttribute(INDEX_ATTRIBUTE));
+        }
+        
+        return current;
+    }
+    
+    private static BaseHK2JAXBBean findChild(BaseHK2JAXBBean parent, ParentedModel parentedModel, String key, String indexAsString) {
+        String namespace = parentedModel.getChildXmlNamespace();
+        String property = parentedModel.getChildXmlTag();
+        
+        Object retVal;
+        if (ChildType.DIRECT.equals(parentedModel.getChildType())) {
+            // Keys are only looked up in lists and arrays of children
+            retVal = parent._getProperty(namespace, property);
+        }
+        else if (key != null) {
+            retVal = parent._lookupChild(namespace, property, key);
+        }
+        else {
+            Object value = parent._getProperty(namespace, property);
+            
+            if (indexAsString == null) {
+                retVal = value;
+            }
+            else {
+                int index = Integer.parseInt(indexAsString);
+                
+                if (value instanceof List) {
+                    List<?> asList = (List<?>) value;
+                    retVal = (index < asList.size()) ? asList.get(index) : null ;
+                }
+                else if (value != null && value.getClass().isArray()) {
+                    retVal = (index < Array.getLength(value)) ? Array.get(value, index) : null ;
+                }
+                else {
+                    retVal = null;
+                }
+            }
+        }
+        
+        if (retVal == null) {
+            throw new IllegalStateException("The child " + property + " with key " + key + " and index " + indexAsString +
+                    " of " + parent + " named in the delta could not be found");
+        }
+        
+        return (BaseHK2JAXBBean) retVal;
+    }
+    
+    private static XmlDeltaNode createBean(BaseHK2JAXBBean bean) {
+        XmlDeltaNode retVal = new XmlDeltaNode(BEAN);
+        ModelImpl model = bean._getModel();
+        
+        for (Map.Entry<QName, ChildDataModel> nonChild : model.getNonChildProperties().entrySet()) {
+            QName qName = nonChild.getKey();
+            
+            if (!bean._isSet(QNameUtilities.getNamespace(qName), qName.getLocalPart())) continue;
+            
+            Object value = bean._getProperty(QNameUtilities.getNamespace(qName), qName.getLocalPart());
+            
+            retVal.addChild(createSet(qName.getLocalPart(), value, nonChild.getValue()));
+        }
+        
+        for (ParentedModel parentedModel : model.getAllChildren()) {
+            Object value = bean._getProperty(parentedModel.getChildXmlNamespace(), parentedModel.getChildXmlTag());
+            if (value == null) continue;
+            
+            XmlDeltaNode childNode = retVal.addChild(new XmlDeltaNode(CHILD));
+            childNode.setAttribute(PROPERTY_ATTRIBUTE, parentedModel.getChildXmlTag());
+            
+            if (value instanceof List) {
+                for (Object child : (List<?>) value) {
+                    childNode.addChild(createBean((BaseHK2JAXBBean) child));
+                }
+            }
+            else if (value.getClass().isArray()) {
+                int length = Array.getLength(value);
+                for (int lcv = 0; lcv < length; lcv++) {
+                    childNode.addChild(createBean((BaseHK2JAXBBean) Array.get(value, lcv)));
+                }
+            }
+            else {
+                childNode.addChild(createBean((BaseHK2JAXBBean) value));
+            }
+        }
+        
+        return retVal;
+    }
+    
+    private static BaseHK2JAXBBean readBean(ModelImpl model, XmlDeltaNode beanNode, ReadContext context) {
+        BaseHK2JAXBBean retVal = Utilities.createBean(model.getProxyAsClass());
+        
+        for (XmlDeltaNode propertyNode : beanNode.getChildren()) {
+            String propertyNodeName = propertyNode.getName();
+            
+            if (SET.equals(propertyNodeName) || SET_LIST.equals(propertyNodeName)) {
+                String propName = propertyNode.getAttribute(NAME_ATTRIBUTE);
+                ChildDataModel cdm = getNonChildProperty(model, propName);
+                QName qName = getNonChildQName(model, propName);
+                
+                if (cdm.isReference()) {
+                    if (propertyNode.getAttribute(VALUE_ATTRIBUTE) != null) {
+                        context.addReference(new UnresolvedDeltaReference(null, retVal, qName, null,
+                                cdm.getChildType(), propertyNode.getAttribute(VALUE_ATTRIBUTE)));
+                    }
+                    
+                    continue;
+                }
+                
+                Object value = readValue(propertyNode, cdm);
+                if (value == null) continue;
+                
+                retVal._setProperty(QNameUtilities.getNamespace(qName), propName, value);
+            }
+            else if (CHILD.equals(propertyNodeName)) {
+                ParentedModel parentedModel = getChild(model, propertyNode.getAttribute(PROPERTY_ATTRIBUTE));
+                ModelImpl childModel = parentedModel.getChildModel();
+                
+                List<BaseHK2JAXBBean> children = new ArrayList<BaseHK2JAXBBean>(propertyNode.getChildren().size());
+                for (XmlDeltaNode childBeanNode : propertyNode.getChildren()) {
+                    BaseHK2JAXBBean child = readBean(childModel, childBeanNode, context);
+                    child._setParent(retVal);
+                    
+                    children.add(child);
+                }
+                
+                Object value;
+                switch (parentedModel.getChildType()) {
+                case LIST:
+                    value = children;
+                    break;
+                case ARRAY:
+                    value = Array.newInstance(childModel.getOriginalInterfaceAsClass(), children.size());
+                    for (int lcv = 0; lcv < children.size(); lcv++) {
+                        Array.set(value, lcv, children.get(lcv));
+                    }
+                    break;
+                case DIRECT:
+                default:
+                    value = children.isEmpty() ? null : children.get(0) ;
+                    break;
+                }
+                
+                retVal._setProperty(parentedModel.getChildXmlNamespace(), parentedModel.getChildXmlTag(), value);
+            }
+            else {
+                throw new IllegalArgumentException("Unknown node in bean of delta " + propertyNodeName);
+            }
+        }
+        
+        QName keyProperty = model.getKeyProperty();
+        if (keyProperty != null) {
+            String key = (String) retVal._getProperty(QNameUtilities.getNamespace(keyProperty), keyProperty.getLocalPart());
+            retVal._setKeyValue(key);
+            
+            if (key != null) {
+                context.addDetached(model, key, retVal);
+            }
+        }
+        
+        return retVal;
+    }
+    
+    private static XmlDeltaNode createSet(String propName, Object value, ChildDataModel cdm) {
+        if (value != null && (value instanceof List || (value.getClass().isArray() && !(value instanceof byte[])))) {
+            XmlDeltaNode retVal = new XmlDeltaNode(SET_LIST);
+            retVal.setAttribute(NAME_ATTRIBUTE, propName);
+            
+            if (value instanceof List) {
+                for (Object item : (List<?>) value) {
+                    XmlDeltaNode itemNode = retVal.addChild(new XmlDeltaNode(ITEM));
+                    itemNode.setAttribute(VALUE_ATTRIBUTE, valueToString(item, cdm));
+                }
+            }
+            else {
+                int length = Array.getLength(value);
+                for (int lcv = 0; lcv < length; lcv++) {
+                    XmlDeltaNode itemNode = retVal.addChild(new XmlDeltaNode(ITEM));
+                    itemNode.setAttribute(VALUE_ATTRIBUTE, valueToString(Array.get(value, lcv), cdm));
+                }
+            }
+            
+            return retVal;
+        }
+        
+        XmlDeltaNode retVal = new XmlDeltaNode(SET);
+        retVal.setAttribute(NAME_ATTRIBUTE, propName);
+        if (value != null) {
+            retVal.setAttribute(VALUE_ATTRIBUTE, valueToString(value, cdm));
+        }
+        
+        return retVal;
+    }
+    
+    private static String valueToString(Object value, ChildDataModel cdm) {
+        if (value == null) return null;
+        
+        if (cdm.isReference()) {
+            return ((BaseHK2JAXBBean) value)._getKeyValue();
+        }
+        if (value instanceof byte[]) {
+            return DatatypeConverter.printBase64Binary((byte[]) value);
+        }
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        
+        return value.toString();
+    }
+    
+    private static Object readValue(XmlDeltaNode setNode, ChildDataModel cdm) {
+        if (SET.equals(setNode.getName())) {
+            return stringToValue(setNode.getAttribute(VALUE_ATTRIBUTE), cdm.getChildTypeAsClass());
+        }
+        
+        Class<?> childType = cdm.getChildTypeAsClass();
+        List<XmlDeltaNode> items = setNode.getChildren();
+        
+        if (childType.isArray()) {
+            Class<?> componentType = childType.getComponentType();
+            
+            Object retVal = Array.newInstance(componentType, items.size());
+            for (int lcv = 0; lcv < items.size(); lcv++) {
+                Array.set(retVal, lcv, stringToValue(items.get(lcv).getAttribute(VALUE_ATTRIBUTE), componentType));
+            }
+            
+            return retVal;
+        }
+        
+        Class<?> itemType = cdm.getChildListTypeAsClass();
+        if (itemType == null) itemType = String.class;
+        
+        List<Object> retVal = new ArrayList<Object>(items.size());
+        for (XmlDeltaNode item : items) {
+            retVal.add(stringToValue(item.getAttribute(VALUE_ATTRIBUTE), itemType));
+        }
+        
+        return retVal;
+    }
+    
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object stringToValue(String value, Class<?> type) {
+        if (value == null) return null;
+        
+        if (String.class.equals(type) || Object.class.equals(type)) {
+            return value;
+        }
+        if (int.class.equals(type) || Integer.class.equals(type)) {
+            return Integer.valueOf(value);
+        }
+        if (long.class.equals(type) || Long.class.equals(type)) {
+            return Long.valueOf(value);
+        }
+        if (boolean.class.equals(type) || Boolean.class.equals(type)) {
+            return Boolean.valueOf(value);
+        }
+        if (short.class.equals(type) || Short.class.equals(type)) {
+            return Short.valueOf(value);
+        }
+        if (byte.class.equals(type) || Byte.class.equals(type)) {
+            return Byte.valueOf(value);
+        }
+        if (char.class.equals(type) || Character.class.equals(type)) {
+            return new Character(value.charAt(0));
+        }
+        if (float.class.equals(type) || Float.class.equals(type)) {
+            return Float.valueOf(value);
+        }
+        if (double.class.equals(type) || Double.class.equals(type)) {
+            return Double.valueOf(value);
+        }
+        if (byte[].class.equals(type)) {
+            return DatatypeConverter.parseBase64Binary(value);
+        }
+        if (type.isEnum()) {
+            return Enum.valueOf((Class<Enum>) type, value);
+        }
+        
+        throw new IllegalArgumentException("The type " + type.getName() + " of a value in the delta is not supported");
+    }
+    
+    private static ChildDataModel getNonChildProperty(ModelImpl model, String propName) {
+        return model.getNonChildProperties().get(getNonChildQName(model, propName));
+    }
+    
+    private static QName getNonChildQName(ModelImpl model, String propName) {
+        for (QName qName : model.getNonChildProperties().keySet()) {
+            if (qName.getLocalPart().equals(propName)) return qName;
+        }
+        
+        throw new IllegalArgumentException("The property " + propName + " named in the delta is not a property of " +
+            model.getOriginalInterface());
+    }
+    
+    private static ParentedModel getChild(ModelImpl model, String property) {
+        for (ParentedModel parentedModel : model.getAllChildren()) {
+            if (parentedModel.getChildXmlTag().equals(property)) return parentedModel;
+        }
+        
+        throw new IllegalArgumentException("The child " + property + " named in the delta is not a child of " +
+            model.getOriginalInterface());
+    }
+    
+    /**
+     * References may point to beans anywhere in the tree, including
+     * beans added by the delta itself, and so are resolved last
+     * 
+     * @author jwells
+     *
+     */
+    private static class ReadContext {
+        private final BaseHK2JAXBBean root;
+        private final Map<ReferenceKey, BaseHK2JAXBBean> detached = new HashMap<ReferenceKey, BaseHK2JAXBBean>();
+        private final List<UnresolvedDeltaReference> unresolved = new LinkedList<UnresolvedDeltaReference>();
+        private Map<ReferenceKey, BaseHK2JAXBBean> treeReferences;
+        
+        private ReadContext(BaseHK2JAXBBean root) {
+            this.root = root;
+        }
+        
+        private void addReference(UnresolvedDeltaReference reference) {
+            unresolved.add(reference);
+        }
+        
+        private void addDetached(ModelImpl model, String key, BaseHK2JAXBBean bean) {
+            detached.put(new ReferenceKey(model.getOriginalInterface(), key), bean);
+        }
+        
+        private void resolveReferences() {
+            for (UnresolvedDeltaReference reference : unresolved) {
+                ReferenceKey referenceKey = new ReferenceKey(reference.type, reference.key);
+                
+                BaseHK2JAXBBean resolved = getTreeReferences().get(referenceKey);
+                if (resolved == null) {
+                    resolved = detached.get(referenceKey);
+                }
+                if (resolved == null) {
+                    throw new IllegalStateException("The reference of type " + reference.type + " with key " + reference.key +
+                            " in the delta could not be found");
+                }
+                
+                String propName = reference.qName.getLocalPart();
+                if (reference.difference != null) {
+                    // A change to a bean already in the tree
+                    reference.difference.addNonChildChange(new PropertyChangeEvent(reference.bean, propName, reference.oldValue, resolved));
+                }
+                else {
+                    reference.bean._setProperty(QNameUtilities.getNamespace(reference.qName), propName, resolved);
+                }
+            }
+        }
+        
+        private Map<ReferenceKey, BaseHK2JAXBBean> getTreeReferences() {
+            if (treeReferences != null) return treeReferences;
+            
+            treeReferences = new HashMap<ReferenceKey, BaseHK2JAXBBean>();
+            addTreeReferences(root);
+            
+            return treeReferences;
+        }
+        
+        private void addTreeReferences(BaseHK2JAXBBean bean) {
+            ModelImpl model = bean._getModel();
+            if (model.getKeyProperty() != null && bean._getKeyValue() != null) {
+                treeReferences.put(new ReferenceKey(model.getOriginalInterface(), bean._getKeyValue()), bean);
+            }
+            
+            for (ParentedModel parentedModel : model.getAllChildren()) {
+                Object value = bean._getProperty(parentedModel.getChildXmlNamespace(), parentedModel.getChildXmlTag());
+                if (value == null) continue;
+                
+                if (value instanceof List) {
+                    for (Object child : (List<?>) value) {
+                        addTreeReferences((BaseHK2JAXBBean) child);
+                    }
+                }
+                else if (value.getClass().isArray()) {
+                    for (int lcv = 0; lcv < Array.getLength(value); lcv++) {
+                        addTreeReferences((BaseHK2JAXBBean) Array.get(value, lcv));
+                    }
+                }
+                else {
+                    addTreeReferences((BaseHK2JAXBBean) value);
+                }
+            }
+        }
+    }
+    
+    private static class UnresolvedDeltaReference {
+        /** Null if the bean is not yet in the tree */
+        private final Difference difference;
+        private final BaseHK2JAXBBean bean;
+        private final QName qName;
+        private final Object oldValue;
+        private final String type;
+        private final String key;
+        
+        private UnresolvedDeltaReference(Difference difference, BaseHK2JAXBBean bean, QName qName, Object oldValue, String type, String key) {
+            this.difference = difference;
+            this.bean = bean;
+            this.qName = qName;
+            this.oldValue = oldValue;
+            this.type = type;
+            this.key = key;
+        }
+    }
+}
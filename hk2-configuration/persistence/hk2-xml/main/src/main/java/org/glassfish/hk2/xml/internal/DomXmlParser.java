@@ -43,6 +43,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.net.URLConnection;
 import java.util.Map;
 
 import javax.inject.Inject;
@@ -57,6 +58,7 @@ import org.glassfish.hk2.api.DescriptorVisibility;
 import org.glassfish.hk2.api.Rank;
 import org.glassfish.hk2.api.Visibility;
 import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.api.XmlStreamingListener;
 import org.glassfish.hk2.xml.spi.Model;
 import org.glassfish.hk2.xml.spi.PreGenerationRequirement;
 import org.glassfish.hk2.xml.spi.XmlServiceParser;
@@ -81,9 +83,21 @@ public class DomXmlParser implements XmlServiceParser {
     @Override
     public <T> T parseRoot(Model rootModel, URI location, Listener listener, Map<String, Object> options)
             throws Exception {
-        InputStream urlStream = location.toURL().openStream();
+        XmlStreamingListener streamingListener = StreamingUnmarshallerListener.getStreamingListener(options);
+        if (streamingListener == null) {
+            InputStream urlStream = location.toURL().openStream();
+            try {
+                return parseRoot(rootModel, urlStream, listener, options);
+            }
+            finally {
+                urlStream.close();
+            }
+        }
+        
+        URLConnection connection = location.toURL().openConnection();
+        InputStream urlStream = connection.getInputStream();
         try {
-            return parseRoot(rootModel, urlStream, listener, options);
+            return parseRoot(rootModel, urlStream, listener, streamingListener, connection.getContentLength());
         }
         finally {
             urlStream.close();
@@ -94,6 +108,11 @@ public class DomXmlParser implements XmlServiceParser {
     @Override
     public <T> T parseRoot(Model rootModel, InputStream input, Listener listener, Map<String, Object> options)
             throws Exception {
+        XmlStreamingListener streamingListener = StreamingUnmarshallerListener.getStreamingListener(options);
+        if (streamingListener != null) {
+            return parseRoot(rootModel, input, listener, streamingListener, -1L);
+        }
+        
         XMLStreamReader xmlStreamReader = xif.createXMLStreamReader(input);
         try {
             return (T) XmlStreamImpl.parseRoot(xmlService.get(), rootModel, xmlStreamReader, listener);
@@ -102,6 +121,26 @@ public class DomXmlParser implements XmlServiceParser {
             xmlStreamReader.close();
         }
     }
+    
+    @SuppressWarnings("unchecked")
+    private <T> T parseRoot(Model rootModel, InputStream input, Listener listener,
+            XmlStreamingListener streamingListener, long totalBytes) throws Exception {
+        CountingInputStream counter = new CountingInputStream(input);
+        StreamingUnmarshallerListener streaming = new StreamingUnmarshallerListener(listener,
+                streamingListener, counter, totalBytes);
+        
+        XMLStreamReader xmlStreamReader = xif.createXMLStreamReader(counter);
+        try {
+            T retVal = (T) XmlStreamImpl.parseRoot(xmlService.get(), rootModel, xmlStreamReader, streaming);
+            
+            streaming.reportProgress();
+            
+            return retVal;
+        }
+        finally {
+            xmlStreamReader.close();
+        }
+    }
 
     /* (non-Javadoc)
      * @see org.glassfish.hk2.xml.spi.XmlServiceParser#getPreGenerationRequirement()
@@ -61,6 +61,7 @@ import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.configuration.hub.api.Hub;
 import org.glassfish.hk2.configuration.hub.api.WriteableBeanDatabase;
 import org.glassfish.hk2.utilities.general.ValidatorUtilities;
+import org.glassfish.hk2.xml.api.XmlHandleCommitListener;
 import org.glassfish.hk2.xml.api.XmlHubCommitMessage;
 import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
 
@@ -74,6 +75,14 @@ public class DynamicChangeInfo<T> {
     private final WriteLock writeTreeLock = treeLock.writeLock();
     private final ReadLock readTreeLock = treeLock.readLock();
     private long changeNumber = 0;
+    /**
+     * Unlike the change number, which decides whether an
+     * {@link org.glassfish.hk2.xml.api.XmlRootCopy} may still
+     * be merged, this changes on every committed change and
+     * when a root is added, and is the revision of the
+     * snapshots of the tree
+     */
+    private long snapshotRevision = 0;
     private final Hub hub;
     private final XmlServiceImpl idGenerator;
     private final boolean advertiseInLocator;
@@ -82,6 +91,7 @@ public class DynamicChangeInfo<T> {
     private final ServiceLocator locator;
     private final LinkedHashSet<VetoableChangeListener> listeners = new LinkedHashSet<VetoableChangeListener>();
     private final LinkedHashSet<BaseHK2JAXBBean> participants = new LinkedHashSet<BaseHK2JAXBBean>();
+    private final LinkedHashSet<XmlHandleCommitListener<T>> commitListeners = new LinkedHashSet<XmlHandleCommitListener<T>>();
     private XmlRootHandleImpl<T> root;
     
     private XmlDynamicChange dynamicChange = null;
@@ -138,6 +148,30 @@ public class DynamicChangeInfo<T> {
         }
     }
     
+    /**
+     * Makes the current snapshots of the tree stale without
+     * changing whether existing copies may be merged
+     */
+    public void incrementSnapshotRevision() {
+        writeTreeLock.lock();
+        try {
+            snapshotRevision++;
+        }
+        finally {
+            writeTreeLock.unlock();
+        }
+    }
+    
+    public long getSnapshotRevision() {
+        readTreeLock.lock();
+        try {
+            return snapshotRevision;
+        }
+        finally {
+            readTreeLock.unlock();
+        }
+    }
+    
     public JAUtilities getJAUtilities() {
         return jaUtilities;
     }
@@ -238,6 +272,30 @@ public class DynamicChangeInfo<T> {
             participant.__activateChange();
         }
         
+        if (!localParticipants.isEmpty()) {
+            snapshotRevision++;
+            
+            if (root != null) {
+                root.clearSnapshots();
+            }
+        }
+        
+        MultiException commitListenerErrors = null;
+        try {
+            commitExternally(localDynamicChange);
+        }
+        finally {
+            if (!localParticipants.isEmpty()) {
+                commitListenerErrors = invokeCommitListeners();
+            }
+        }
+        
+        if (commitListenerErrors != null) {
+            throw commitListenerErrors;
+        }
+    }
+    
+    private void commitExternally(XmlDynamicChange localDynamicChange) {
         DynamicConfiguration systemChange = localDynamicChange.getSystemDynamicConfiguration();
         WriteableBeanDatabase wbd = localDynamicChange.getBeanDatabase();
         
@@ -253,6 +311,32 @@ public class DynamicChangeInfo<T> {
         systemChange.commit();
     }
     
+    /**
+     * Write lock MUST be held!
+     * 
+     * @return Any errors from the listeners, or null if there were none
+     */
+    private MultiException invokeCommitListeners() {
+        if (root == null || commitListeners.isEmpty()) return null;
+        
+        MultiException retVal = null;
+        for (XmlHandleCommitListener<T> listener : new ArrayList<XmlHandleCommitListener<T>>(commitListeners)) {
+            try {
+                listener.afterCommit(root);
+            }
+            catch (Throwable th) {
+                if (retVal == null) {
+                    retVal = new MultiException(th);
+                }
+                else {
+                    retVal.addError(th);
+                }
+            }
+        }
+        
+        return retVal;
+    }
+    
     public ServiceLocator getServiceLocator() {
         return locator;
     }
@@ -286,6 +370,30 @@ public class DynamicChangeInfo<T> {
         }
     }
 
+    public void addCommitListener(XmlHandleCommitListener<T> listener) {
+        if (listener == null) return;
+        
+        writeTreeLock.lock();
+        try {
+            commitListeners.add(listener);
+        }
+        finally {
+            writeTreeLock.unlock();
+        }
+    }
+    
+    public void removeCommitListener(XmlHandleCommitListener<T> listener) {
+        if (listener == null) return;
+        
+        writeTreeLock.lock();
+        try {
+            commitListeners.remove(listener);
+        }
+        finally {
+            writeTreeLock.unlock();
+        }
+    }
+    
     public List<VetoableChangeListener> getChangeListeners() {
         readTreeLock.lock();
         try {
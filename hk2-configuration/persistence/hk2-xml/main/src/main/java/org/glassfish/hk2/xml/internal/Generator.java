@@ -121,6 +121,7 @@ public class Generator {
     public final static String JAXB_DEFAULT_DEFAULT = "\u0000";
     public final static String NO_CHILD_PACKAGE = "java.";
     public final static String STATIC_GET_MODEL_METHOD_NAME = "__getModel";
+    private final static String FIELD_PREFIX = "__hk2Field";
     private final static String QUOTE = "\"";
     
     private final static Set<String> NO_COPY_ANNOTATIONS = new HashSet<String>(Arrays.asList(new String[] {
@@ -220,6 +221,8 @@ public class Generator {
         
         Set<String> setters = new LinkedHashSet<String>();
         Map<String, MethodInformationI> getters = new LinkedHashMap<String, MethodInformationI>();
+        StringBuffer loadFields = new StringBuffer();
+        int fieldCount = 0;
         Map<String, GhostXmlElementData> elementsMethods = new LinkedHashMap<String, GhostXmlElementData>();
         for (AltMethod wrapper : allMethods) {
             MethodInformationI mi = Utilities.getMethodInformation(wrapper, xmlNameMap);
@@ -322,7 +325,16 @@ public class Generator {
                     cast = "(" + getCompilableClass(mi.getGetterSetterType()) + ") ";
                 }
                 
-                sb.append(") { return " + cast + "super." + superMethodName + "(\"" + miRepPropNamespace + "\",\"" + miRepProp + "\"); }");
+                String fieldName = FIELD_PREFIX + fieldCount++;
+                String superCall = cast + "super." + superMethodName + "(\"" + miRepPropNamespace + "\",\"" + miRepProp + "\")";
+                
+                CtField getterField = CtField.make("private transient volatile " +
+                        getCompilableClass(mi.getGetterSetterType()) + " " + fieldName + ";", targetCtClass);
+                targetCtClass.addField(getterField);
+                
+                loadFields.append(fieldName + " = " + superCall + ";\n");
+                
+                sb.append(") { if (super.__fieldsLoaded()) return " + fieldName + "; return " + superCall + "; }");
             }
             else if (MethodType.LOOKUP.equals(mi.getMethodType())) {
                 sb.append("java.lang.String arg0) { return (" + getCompilableClass(originalRetType) +
@@ -811,6 +823,13 @@ public class Generator {
             }
         }
         
+        String loadFieldsMethod = "protected void __loadFields() {\n" + loadFields + "}";
+        if (DEBUG_METHODS) {
+            Logger.getLogger().debug("Adding field loader for " + convertMe.getSimpleName() + " with implementation " + loadFieldsMethod);
+        }
+        
+        targetCtClass.addMethod(CtNewMethod.make(loadFieldsMethod, targetCtClass));
+        
         generateStaticModelFieldAndAbstractMethodImpl(targetCtClass,
                 compiledModel,
                 defaultClassPool);
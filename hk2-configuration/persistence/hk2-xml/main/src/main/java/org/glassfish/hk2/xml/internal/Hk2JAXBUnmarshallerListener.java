@@ -39,6 +39,7 @@
  */
 package org.glassfish.hk2.xml.internal;
 
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -70,6 +71,9 @@ public class Hk2JAXBUnmarshallerListener extends Unmarshaller.Listener {
 
     private final LinkedList<BaseHK2JAXBBean> allBeans = new LinkedList<BaseHK2JAXBBean>();
     
+    /** A parser may unmarshal the same bean again when it merges more of it, it is only added once */
+    private final IdentityHashMap<BaseHK2JAXBBean, Boolean> seen = new IdentityHashMap<BaseHK2JAXBBean, Boolean>();
+    
     private void setUserKey(BaseHK2JAXBBean bean, boolean listOrArray) {
         ModelImpl model = bean._getModel();
         
@@ -175,7 +179,9 @@ public class Hk2JAXBUnmarshallerListener extends Unmarshaller.Listener {
         BaseHK2JAXBBean parentBean = (BaseHK2JAXBBean) parent;
         ModelImpl targetNode = targetBean._getModel();
         
-        allBeans.add(targetBean);
+        if (seen.put(targetBean, Boolean.TRUE) == null) {
+            allBeans.add(targetBean);
+        }
         
         if (parentBean == null) {
             QName rootName = targetNode.getRootName();
@@ -100,8 +100,11 @@ public class JAUtilities {
     public final static String JAXB_DEFAULT_DEFAULT = "\u0000";
     
     private final ClassReflectionHelper classReflectionHelper;
-    private final ClassPool defaultClassPool;
-    private final CtClass superClazz;
+    private final Set<ClassLoader> classLoaders;
+    
+    /** Created on first generation, a fully pre-generated model never uses javassist */
+    private ClassPool defaultClassPool;
+    private CtClass superClazz;
     
     private final Computer computer;
     private final LRUHybridCache<Class<?>, ModelImpl> interface2ModelCache;
@@ -130,19 +133,9 @@ public class JAUtilities {
     }
     
     /* package */ JAUtilities(ClassReflectionHelper classReflectionHelper) {
-        defaultClassPool = ClassPool.getDefault();
-        
-        for (ClassLoader cl : getClassLoaders(this.getClass())) {
-            defaultClassPool.appendClassPath(new LoaderClassPath(cl));
-        }
+        classLoaders = getClassLoaders(this.getClass());
         
         this.classReflectionHelper = classReflectionHelper;
-        try {
-            superClazz = defaultClassPool.get(BaseHK2JAXBBean.class.getName());
-        }
-        catch (NotFoundException e) {
-            throw new MultiException(e);
-        }
         
         computer = new Computer(this);
         interface2ModelCache = new LRUHybridCache<Class<?>, ModelImpl>(Integer.MAX_VALUE - 1, computer);
@@ -216,11 +209,34 @@ public class JAUtilities {
         }
     }
     
-    private CtClass getBaseClass() {
+    private synchronized void initializeClassPool() {
+        if (defaultClassPool != null) return;
+        
+        ClassPool classPool = ClassPool.getDefault();
+        
+        for (ClassLoader cl : classLoaders) {
+            classPool.appendClassPath(new LoaderClassPath(cl));
+        }
+        
+        try {
+            superClazz = classPool.get(BaseHK2JAXBBean.class.getName());
+        }
+        catch (NotFoundException e) {
+            throw new MultiException(e);
+        }
+        
+        defaultClassPool = classPool;
+    }
+    
+    private synchronized CtClass getBaseClass() {
+        initializeClassPool();
+        
         return superClazz;
     }
     
-    private ClassPool getClassPool() {
+    private synchronized ClassPool getClassPool() {
+        initializeClassPool();
+        
         return defaultClassPool;
     }
     
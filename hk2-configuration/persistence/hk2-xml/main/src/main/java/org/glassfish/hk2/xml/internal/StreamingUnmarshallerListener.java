@@ -0,0 +1,233 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.internal;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.Unmarshaller;
+
+import org.glassfish.hk2.xml.api.XmlServiceUtilities;
+import org.glassfish.hk2.xml.api.XmlStreamingListener;
+import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
+
+/**
+ * Wraps the listener used while unmarshalling in order to
+ * tell an {@link XmlStreamingListener} about each bean as
+ * soon as its attributes have been read, and about each
+ * subtree it asked for as soon as that subtree is complete.
+ * The streaming listener is given read-only copies of the
+ * beans, so that it never sees (or can modify) the beans
+ * the parser is still building
+ * 
+ * @author jwells
+ *
+ */
+public class StreamingUnmarshallerListener extends Unmarshaller.Listener {
+    private final Unmarshaller.Listener delegate;
+    private final XmlStreamingListener streamingListener;
+    private final CountingInputStream counter;
+    private final long totalBytes;
+    private final int subtreeDepth;
+    
+    private int depth = -1;
+    private long lastReported = -1L;
+    
+    /** Beans currently being parsed mapped to the copies given to the streaming listener */
+    private final IdentityHashMap<Object, BaseHK2JAXBBean> copies = new IdentityHashMap<Object, BaseHK2JAXBBean>();
+    
+    /**
+     * @param delegate The non-null listener that does the real work
+     * @param streamingListener The non-null listener to inform of completed beans
+     * @param counter The stream the document is being read from, or null if
+     * progress should not be reported
+     * @param totalBytes The total number of bytes in the document, or -1 if unknown
+     */
+    public StreamingUnmarshallerListener(Unmarshaller.Listener delegate,
+            XmlStreamingListener streamingListener,
+            CountingInputStream counter,
+            long totalBytes) {
+        this.delegate = delegate;
+        this.streamingListener = streamingListener;
+        this.counter = counter;
+        this.totalBytes = totalBytes;
+        this.subtreeDepth = streamingListener.getSubtreeDepth();
+    }
+    
+    /* (non-Javadoc)
+     * @see javax.xml.bind.Unmarshaller.Listener#beforeUnmarshal(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public void beforeUnmarshal(Object target, Object parent) {
+        depth++;
+        
+        delegate.beforeUnmarshal(target, parent);
+    }
+    
+    /* (non-Javadoc)
+     * @see javax.xml.bind.Unmarshaller.Listener#afterUnmarshal(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public void afterUnmarshal(Object target, Object parent) {
+        delegate.afterUnmarshal(target, parent);
+        
+        beanRead(target, parent);
+        copies.remove(target);
+        
+        if (depth > 0 && depth <= subtreeDepth && (target instanceof BaseHK2JAXBBean)) {
+            streamingListener.subtreeUnmarshalled(copySubtree((BaseHK2JAXBBean) target), depth);
+        }
+        
+        depth--;
+        
+        reportProgress();
+    }
+    
+    /**
+     * Called by the parser once the attributes of the bean
+     * currently being parsed have been read, and before any
+     * of its children are parsed.  Gives a read-only copy of the
+     * bean to the streaming listener.  Only the first call for a
+     * given bean has any effect
+     * 
+     * @param target The bean currently being parsed
+     * @param parent The parent of the bean currently being parsed,
+     * or null if this is the root
+     */
+    public void beanRead(Object target, Object parent) {
+        if (!(target instanceof BaseHK2JAXBBean)) return;
+        if (copies.containsKey(target)) return;
+        
+        BaseHK2JAXBBean bean = (BaseHK2JAXBBean) target;
+        
+        BaseHK2JAXBBean copy = Utilities.createBean(bean.getClass());
+        copy._shallowCopyFrom(bean, false);
+        copy.__setReadOnly(true);
+        
+        copies.put(target, copy);
+        
+        BaseHK2JAXBBean parentCopy = (parent == null) ? null : copies.get(parent);
+        
+        streamingListener.beanUnmarshalled(copy, parentCopy, depth);
+        
+        reportProgress();
+    }
+    
+    /**
+     * Makes a read-only deep copy of a completed subtree.  References
+     * between beans of the subtree are kept, references to beans outside
+     * of the subtree are not set in the copy, since those beans may not
+     * have been read yet
+     * 
+     * @param subtree The root of the completed subtree
+     * @return A read-only copy of the subtree, not connected to any parent
+     */
+    private static BaseHK2JAXBBean copySubtree(BaseHK2JAXBBean subtree) {
+        Map<ReferenceKey, BaseHK2JAXBBean> referenceMap = new HashMap<ReferenceKey, BaseHK2JAXBBean>();
+        List<UnresolvedReference> unresolved = new LinkedList<UnresolvedReference>();
+        
+        BaseHK2JAXBBean retVal;
+        try {
+            retVal = Utilities.doCopy(subtree, null, null, null, referenceMap, unresolved);
+        }
+        catch (RuntimeException re) {
+            throw re;
+        }
+        catch (Throwable th) {
+            throw new RuntimeException(th);
+        }
+        
+        for (UnresolvedReference unresolvedRef : unresolved) {
+            BaseHK2JAXBBean reference = referenceMap.get(new ReferenceKey(unresolvedRef.getType(), unresolvedRef.getXmlID()));
+            if (reference == null) continue;
+            
+            unresolvedRef.getUnfinished()._setProperty(unresolvedRef.getPropertyNamespace(),
+                    unresolvedRef.getPropertyName(), reference);
+        }
+        
+        Utilities.makeReadOnly(retVal, true);
+        
+        return retVal;
+    }
+    
+    /**
+     * Tells the streaming listener how much of the underlying
+     * stream has been read, if that has changed since the
+     * last time progress was reported
+     */
+    public void reportProgress() {
+        if (counter == null) return;
+        
+        long current = counter.getCount();
+        if (current == lastReported) return;
+        lastReported = current;
+        
+        streamingListener.progress(current, totalBytes);
+    }
+    
+    /**
+     * Gets the streaming listener from the options passed
+     * to the parser
+     * 
+     * @param options The possibly null options passed to the parser
+     * @return The streaming listener from the options, or null if
+     * there is none
+     */
+    public static XmlStreamingListener getStreamingListener(Map<String, Object> options) {
+        if (options == null) return null;
+        
+        Object raw = options.get(XmlServiceUtilities.STREAMING_LISTENER_OPTION);
+        if (raw == null) return null;
+        if (!(raw instanceof XmlStreamingListener)) {
+            throw new IllegalArgumentException("The option " + XmlServiceUtilities.STREAMING_LISTENER_OPTION +
+                    " must be of type " + XmlStreamingListener.class.getName() + " but is " + raw.getClass().getName());
+        }
+        
+        return (XmlStreamingListener) raw;
+    }
+    
+    @Override
+    public String toString() {
+        return "StreamingUnmarshallerListener(" + depth + "," + subtreeDepth + "," + lastReported + "," + totalBytes + "," + System.identityHashCode(this) + ")";
+    }
+}
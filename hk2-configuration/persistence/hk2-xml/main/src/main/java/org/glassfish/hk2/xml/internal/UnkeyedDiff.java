@@ -45,6 +45,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -72,6 +74,15 @@ public class UnkeyedDiff {
         }   
     });
     
+    /**
+     * If the product of the sizes of the two lists is at or below this
+     * limit then every unused legacy bean is considered as a candidate
+     * for every proposed bean that has no exact match.  Above this limit
+     * candidates are restricted to the gap between the surrounding beans
+     * that are part of the longest common subsequence of exact matches
+     */
+    private final static long FULL_SEARCH_LIMIT = 128L * 128L;
+    
     private final List<BaseHK2JAXBBean> legacyList;
     private final List<BaseHK2JAXBBean> proposedList;
     private final ParentedModel parentModel;
@@ -83,8 +94,12 @@ public class UnkeyedDiff {
     private HashMap<Integer, Differences> solution;
     private HashSet<Integer> usedLegacy;
     private HashSet<Integer> unusedLegacy;
+    private HashMap<Integer, Integer> matchedLegacy;
     private HashMap<Integer, Differences> proposedAdds;
     private HashMap<Integer, SchrodingerSolution> quantumSolutions;
+    private HashMap<Long, LinkedList<Integer>> legacyByDigest;
+    private long legacyDigests[];
+    private long proposedDigests[];
     
     public UnkeyedDiff(List<BaseHK2JAXBBean> legacy, List<BaseHK2JAXBBean> proposed, BaseHK2JAXBBean parent, ParentedModel parentModel) {
         if (legacy == null) legacy = Collections.emptyList();
@@ -136,6 +151,8 @@ public class UnkeyedDiff {
         
         boolean needsChangeOfList = false;
         
+        calculateDigests();
+        
         DifferenceTable table = new DifferenceTable();
         
         // First step, calculate the diagonal
@@ -178,14 +195,17 @@ public class UnkeyedDiff {
         
         // Step one, find all diagonals that are exact, always prefer them over anything else
         for (int lcv = 0; lcv < table.getDiagonalSize(); lcv++) {
-            Differences differences = table.getDiff(lcv, lcv);
-            
-            if (differences.getDifferences().isEmpty()) {
+            if (table.isExact(lcv, lcv)) {
                 // This is the best solution for this slot
-                addSolution(lcv, lcv, differences);
+                addSolution(lcv, lcv, new Differences());
             }
         }
         
+        indexLegacyByDigest();
+        
+        boolean fullSearch = (((long) legacyList.size()) * ((long) proposedList.size())) <= FULL_SEARCH_LIMIT;
+        List<Integer> inexact = new LinkedList<Integer>();
+        
         // Step two, match up any other exact matches
         for (int proposedIndex = 0; proposedIndex < proposedList.size(); proposedIndex++) {
             if (solution.containsKey(proposedIndex)) {
@@ -196,74 +216,52 @@ public class UnkeyedDiff {
                 continue;
             }
             
-            int currentBestDiffIndex = -1;
-            Differences currentBestDiffs = null;
-            for (int legacyIndex = 0; legacyIndex < legacyList.size(); legacyIndex++) {
-                if (usedLegacy.contains(legacyIndex)) {
-                    if (UNKEYED_DEBUG) {
-                        Logger.getLogger().debug("Skipping legacyIndex " + legacyIndex + " for proposedIndex " +
-                                proposedIndex + " since it has already has already been used");
-                    }
-                    
-                    continue;
-                }
+            int exactLegacyIndex = findExactLegacy(table, proposedIndex);
+            if (exactLegacyIndex >= 0) {
+                // Will never get better than a move
+                needsChangeOfList = true;
                 
-                Differences currentDiffs = table.getDiff(legacyIndex, proposedIndex);
+                Differences moveMeDifferences = new Differences();
+                Difference difference = new Difference(parent);
+                difference.addMove(parentModel.getChildXmlTag(), new MoveData(exactLegacyIndex, proposedIndex));
                 
-                if (currentBestDiffs == null || (currentBestDiffs.getDifferenceCost() > currentDiffs.getDifferenceCost())) {
-                    currentBestDiffs = currentDiffs;
-                    currentBestDiffIndex = legacyIndex;
-                    
-                    if (currentDiffs.getDifferences().isEmpty()) {
-                        needsChangeOfList = true;
-                        break;
-                    }
+                moveMeDifferences.addDifference(difference);
+                
+                addSolution(exactLegacyIndex, proposedIndex, moveMeDifferences);
+                
+                continue;
+            }
+            
+            if (fullSearch) {
+                if (findBestInexact(table, proposedIndex, 0, legacyList.size())) {
+                    needsChangeOfList = true;
                 }
             }
+            else {
+                inexact.add(proposedIndex);
+            }
+        }
+        
+        if (!inexact.isEmpty()) {
+            // All exact matches are known, so the inexact ones need only be
+            // compared to the legacy beans lying between the same anchors
+            int anchors[] = getAnchors();
             
-            if (currentBestDiffs == null) {
-                // We need to add this proposed bean
-                Differences addMeDifference = new Differences();
-                Difference difference = new Difference(parent);
-                difference.addAdd(parentModel.getChildXmlTag(), new AddData(proposedList.get(proposedIndex), proposedIndex));
+            int previousAnchor = -1;
+            int nextAnchorIndex = 0;
+            for (int proposedIndex : inexact) {
+                while (nextAnchorIndex < anchors.length && anchors[nextAnchorIndex] < proposedIndex) {
+                    previousAnchor = anchors[nextAnchorIndex];
+                    nextAnchorIndex++;
+                }
                 
-                addMeDifference.addDifference(difference);
+                int legacyStart = (previousAnchor < 0) ? 0 : (getLegacyIndex(previousAnchor) + 1);
+                int legacyEnd = (nextAnchorIndex < anchors.length) ? getLegacyIndex(anchors[nextAnchorIndex]) : legacyList.size();
                 
-                needsChangeOfList = true;
-                addSolution(-1, proposedIndex, addMeDifference);
-            }
-            else {
-                if (currentBestDiffs.getDifferences().isEmpty()) {
-                    // Will never get better than a move
+                if (findBestInexact(table, proposedIndex, legacyStart, legacyEnd)) {
                     needsChangeOfList = true;
-                    
-                    Differences moveMeDifferences = new Differences();
-                    Difference difference = new Difference(parent);
-                    difference.addMove(parentModel.getChildXmlTag(), new MoveData(currentBestDiffIndex, proposedIndex));
-                    
-                    moveMeDifferences.addDifference(difference);
-                    
-                    addSolution(currentBestDiffIndex, proposedIndex, moveMeDifferences);
-                }
-                else {
-                    BaseHK2JAXBBean currentProposed = proposedList.get(proposedIndex);
-                    
-                    Differences proposedAdd = proposedAdds.get(proposedIndex);
-                    if (proposedAdd == null) {
-                        proposedAdd = new Differences();
-                        Difference d = new Difference(parent);
-                        d.addAdd(parentModel.getChildXmlTag(), new AddData(currentProposed, proposedIndex));
-                        
-                        proposedAdd.addDifference(d);
-                        
-                        proposedAdds.put(proposedIndex, proposedAdd);
-                    }
-                    
-                    SchrodingerSolution sd = new SchrodingerSolution(currentBestDiffIndex, currentBestDiffs, proposedAdd);
-                    quantumSolutions.put(proposedIndex, sd);
                 }
             }
-            
         }
         
         for (Map.Entry<Integer, SchrodingerSolution> entry : quantumSolutions.entrySet()) {
@@ -286,7 +284,21 @@ public class UnkeyedDiff {
                 
                 if (totalAddCost >= sd.legacyDifference.getDifferenceCost()) {
                     // Change is better
-                    addSolution(legacyIndex, proposedIndex, sd.legacyDifference);
+                    Differences changeDifferences = sd.legacyDifference;
+                    if (legacyIndex != proposedIndex) {
+                        // The changed bean must also end up in its new place
+                        needsChangeOfList = true;
+                        
+                        changeDifferences = new Differences();
+                        changeDifferences.merge(sd.legacyDifference);
+                        
+                        Difference difference = new Difference(parent);
+                        difference.addMove(parentModel.getChildXmlTag(), new MoveData(legacyIndex, proposedIndex));
+                        
+                        changeDifferences.addDifference(difference);
+                    }
+                    
+                    addSolution(legacyIndex, proposedIndex, changeDifferences);
                 }
                 else {
                     needsChangeOfList = true;
@@ -321,6 +333,198 @@ public class UnkeyedDiff {
         return retVal;
     }
     
+    /**
+     * Looks for the best match for the given proposed bean amongst the
+     * unused legacy beans in the range [legacyStart, legacyEnd)
+     * 
+     * @return true if the list will need to be changed
+     */
+    private boolean findBestInexact(DifferenceTable table, int proposedIndex, int legacyStart, int legacyEnd) {
+        boolean needsChangeOfList = false;
+        
+        int currentBestDiffIndex = -1;
+        Differences currentBestDiffs = null;
+        for (int legacyIndex = legacyStart; legacyIndex < legacyEnd; legacyIndex++) {
+            if (usedLegacy.contains(legacyIndex)) {
+                if (UNKEYED_DEBUG) {
+                    Logger.getLogger().debug("Skipping legacyIndex " + legacyIndex + " for proposedIndex " +
+                            proposedIndex + " since it has already has already been used");
+                }
+                
+                continue;
+            }
+            
+            Differences currentDiffs = table.getDiff(legacyIndex, proposedIndex);
+            
+            if (currentBestDiffs == null || (currentBestDiffs.getDifferenceCost() > currentDiffs.getDifferenceCost())) {
+                currentBestDiffs = currentDiffs;
+                currentBestDiffIndex = legacyIndex;
+                
+                if (currentDiffs.getDifferences().isEmpty()) {
+                    needsChangeOfList = true;
+                    break;
+                }
+            }
+        }
+        
+        if (currentBestDiffs == null) {
+            // We need to add this proposed bean
+            Differences addMeDifference = new Differences();
+            Difference difference = new Difference(parent);
+            difference.addAdd(parentModel.getChildXmlTag(), new AddData(proposedList.get(proposedIndex), proposedIndex));
+            
+            addMeDifference.addDifference(difference);
+            
+            needsChangeOfList = true;
+            addSolution(-1, proposedIndex, addMeDifference);
+        }
+        else {
+            if (currentBestDiffs.getDifferences().isEmpty()) {
+                // Will never get better than a move
+                needsChangeOfList = true;
+                
+                Differences moveMeDifferences = new Differences();
+                Difference difference = new Difference(parent);
+                difference.addMove(parentModel.getChildXmlTag(), new MoveData(currentBestDiffIndex, proposedIndex));
+                
+                moveMeDifferences.addDifference(difference);
+                
+                addSolution(currentBestDiffIndex, proposedIndex, moveMeDifferences);
+            }
+            else {
+                BaseHK2JAXBBean currentProposed = proposedList.get(proposedIndex);
+                
+                Differences proposedAdd = proposedAdds.get(proposedIndex);
+                if (proposedAdd == null) {
+                    proposedAdd = new Differences();
+                    Difference d = new Difference(parent);
+                    d.addAdd(parentModel.getChildXmlTag(), new AddData(currentProposed, proposedIndex));
+                    
+                    proposedAdd.addDifference(d);
+                    
+                    proposedAdds.put(proposedIndex, proposedAdd);
+                }
+                
+                SchrodingerSolution sd = new SchrodingerSolution(currentBestDiffIndex, currentBestDiffs, proposedAdd);
+                quantumSolutions.put(proposedIndex, sd);
+            }
+        }
+        
+        return needsChangeOfList;
+    }
+    
+    private void calculateDigests() {
+        legacyDigests = new long[legacyList.size()];
+        for (int lcv = 0; lcv < legacyDigests.length; lcv++) {
+            legacyDigests[lcv] = Utilities.calculateDigest(legacyList.get(lcv));
+        }
+        
+        proposedDigests = new long[proposedList.size()];
+        for (int lcv = 0; lcv < proposedDigests.length; lcv++) {
+            proposedDigests[lcv] = Utilities.calculateDigest(proposedList.get(lcv));
+        }
+    }
+    
+    private void indexLegacyByDigest() {
+        legacyByDigest = new HashMap<Long, LinkedList<Integer>>();
+        
+        for (int legacyIndex = 0; legacyIndex < legacyDigests.length; legacyIndex++) {
+            if (usedLegacy.contains(legacyIndex)) continue;
+            
+            LinkedList<Integer> sameDigest = legacyByDigest.get(legacyDigests[legacyIndex]);
+            if (sameDigest == null) {
+                sameDigest = new LinkedList<Integer>();
+                legacyByDigest.put(legacyDigests[legacyIndex], sameDigest);
+            }
+            
+            sameDigest.add(legacyIndex);
+        }
+    }
+    
+    /**
+     * Finds the lowest unused legacy index whose bean is exactly the
+     * same as the given proposed bean.  The digest index only gives
+     * the candidates, each candidate is confirmed with a full diff
+     * 
+     * @return The legacy index, or -1 if there is no exact match
+     */
+    private int findExactLegacy(DifferenceTable table, int proposedIndex) {
+        LinkedList<Integer> sameDigest = legacyByDigest.get(proposedDigests[proposedIndex]);
+        if (sameDigest == null) return -1;
+        
+        Iterator<Integer> candidates = sameDigest.iterator();
+        while (candidates.hasNext()) {
+            int legacyIndex = candidates.next();
+            
+            if (usedLegacy.contains(legacyIndex)) {
+                candidates.remove();
+                continue;
+            }
+            
+            if (table.isExact(legacyIndex, proposedIndex)) {
+                candidates.remove();
+                return legacyIndex;
+            }
+        }
+        
+        return -1;
+    }
+    
+    private int getLegacyIndex(int proposedIndex) {
+        return matchedLegacy.get(proposedIndex);
+    }
+    
+    /**
+     * Finds the longest run of exactly matched proposed beans whose
+     * legacy indices are also increasing (the longest common subsequence
+     * of the two lists), in O(n log n)
+     * 
+     * @return The proposed indices of the anchors, in increasing order
+     */
+    private int[] getAnchors() {
+        int matchedProposed[] = new int[matchedLegacy.size()];
+        int numMatched = 0;
+        for (int proposedIndex = 0; proposedIndex < proposedList.size(); proposedIndex++) {
+            if (matchedLegacy.containsKey(proposedIndex)) {
+                matchedProposed[numMatched++] = proposedIndex;
+            }
+        }
+        
+        // tails[len] is the position in matchedProposed ending the best run of length len + 1
+        int tails[] = new int[numMatched];
+        int previous[] = new int[numMatched];
+        int length = 0;
+        
+        for (int lcv = 0; lcv < numMatched; lcv++) {
+            int legacyIndex = getLegacyIndex(matchedProposed[lcv]);
+            
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (getLegacyIndex(matchedProposed[tails[mid]]) < legacyIndex) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            
+            previous[lcv] = (low > 0) ? tails[low - 1] : -1;
+            tails[low] = lcv;
+            if (low == length) length++;
+        }
+        
+        int retVal[] = new int[length];
+        int current = (length > 0) ? tails[length - 1] : -1;
+        for (int lcv = length - 1; lcv >= 0; lcv--) {
+            retVal[lcv] = matchedProposed[current];
+            current = previous[current];
+        }
+        
+        return retVal;
+    }
+    
     private void initializeSolution() {
         solution = new HashMap<Integer, Differences>();
         usedLegacy = new HashSet<Integer>();
@@ -329,6 +533,7 @@ public class UnkeyedDiff {
             unusedLegacy.add(lcv);
         }
         
+        matchedLegacy = new HashMap<Integer, Integer>();
         proposedAdds = new HashMap<Integer, Differences>();
         quantumSolutions = new HashMap<Integer, SchrodingerSolution>();
     }
@@ -336,6 +541,7 @@ public class UnkeyedDiff {
     private void addSolution(int legacyIndex, int proposedIndex, Differences minimum) {
         solution.put(proposedIndex, minimum);
         if (legacyIndex >= 0) {
+            matchedLegacy.put(proposedIndex, legacyIndex);
             usedLegacy.add(legacyIndex);
             unusedLegacy.remove(legacyIndex);
         }
@@ -359,11 +565,9 @@ public class UnkeyedDiff {
             boolean theSame = true;
             
             for (int lcv = 0; lcv < min; lcv++) {
-                TableKey diagonalKey = new TableKey(lcv, lcv);
-                
-                Differences differences = table.compute(diagonalKey);
-                if (!differences.getDifferences().isEmpty()) {
+                if (!isExact(lcv, lcv)) {
                     theSame = false;
+                    break;
                 }
             }
             
@@ -374,6 +578,17 @@ public class UnkeyedDiff {
             return table.compute(new TableKey(legacyIndex, proposedIndex));
         }
         
+        /**
+         * A different digest rules out an exact match cheaply, the
+         * same digest must be confirmed by the full diff since the
+         * digests may collide
+         */
+        private boolean isExact(int legacyIndex, int proposedIndex) {
+            if (legacyDigests[legacyIndex] != proposedDigests[proposedIndex]) return false;
+            
+            return getDiff(legacyIndex, proposedIndex).getDifferences().isEmpty();
+        }
+        
         private int getDiagonalSize() {
             return min;
         }
@@ -410,7 +625,7 @@ public class UnkeyedDiff {
         private TableKey(int legacyIndex, int proposedIndex) {
             this.legacyIndex = legacyIndex;
             this.proposedIndex = proposedIndex;
-            hash = legacyIndex ^ proposedIndex;
+            hash = (31 * legacyIndex) + proposedIndex;
         }
         
         @Override
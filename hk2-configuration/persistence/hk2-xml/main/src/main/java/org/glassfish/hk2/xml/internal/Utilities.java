@@ -123,6 +123,9 @@ public class Utilities {
     
     private final static String EMPTY_STRING = "";
     
+    private final static long DIGEST_SEED = 0x5bd1e995L;
+    private final static long DIGEST_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    
     /* package */ static String convertXmlRootElementName(XmlRootElement root, Class<?> clazz) {
         if (!"##default".equals(root.name())) return root.name();
         
@@ -1265,6 +1268,39 @@ public class Utilities {
         }
     }
     
+    /**
+     * Marks the given bean and all of its children as read-only
+     * members of an immutable snapshot
+     * 
+     * @param bean The non-null bean to mark, normally the root of
+     * a copy that has not yet been made visible to other threads
+     * @param representDefaults true if the read-only beans should
+     * return default values for unset properties
+     */
+    public static void makeReadOnly(BaseHK2JAXBBean bean, boolean representDefaults) {
+        for (QName childProp : bean._getChildrenXmlTags()) {
+            Object child = bean._getProperty(QNameUtilities.getNamespace(childProp), childProp.getLocalPart());
+            if (child == null) continue;
+            
+            if (child instanceof List) {
+                for (Object subChild : (List<?>) child) {
+                    makeReadOnly((BaseHK2JAXBBean) subChild, representDefaults);
+                }
+            }
+            else if (child.getClass().isArray()) {
+                int length = Array.getLength(child);
+                for (int lcv = 0; lcv < length; lcv++) {
+                    makeReadOnly((BaseHK2JAXBBean) Array.get(child, lcv), representDefaults);
+                }
+            }
+            else {
+                makeReadOnly((BaseHK2JAXBBean) child, representDefaults);
+            }
+        }
+        
+        bean.__setReadOnly(representDefaults);
+    }
+    
     public static Method findSuitableCustomizerMethod(Class<?> cClass, String methodName, Class<?>[] params, Class<?> topInterface) {
         try {
             return cClass.getMethod(methodName, params);
@@ -1983,6 +2019,126 @@ public class Utilities {
         return retVal;
     }
     
+    /**
+     * Calculates and sets the digest for the given bean and
+     * all of its children.  The digest covers everything that
+     * {@link #getDiff(BaseHK2JAXBBean, BaseHK2JAXBBean)} compares,
+     * so two beans with different digests are very likely to be
+     * different.  Two beans with the same digest are only candidates
+     * for being the same, since the 64 bit digest can collide, and
+     * must still be compared with getDiff.  Like the add cost the digest is cached
+     * on the bean, but it is invalidated whenever the bean or
+     * any of its children are modified
+     * 
+     * @param bean The bean to calculate the digest of
+     * @return The digest of the bean, or zero if the bean is null
+     */
+    @SuppressWarnings("unchecked")
+    public static long calculateDigest(BaseHK2JAXBBean bean) {
+        if (bean == null) return 0L;
+        
+        Long cached = bean.__getDigest();
+        if (cached != null) return cached.longValue();
+        
+        ModelImpl model = bean._getModel();
+        Map<QName, Object> beanMap = bean._getQNameMap();
+        
+        long retVal = mixDigest(DIGEST_SEED, digestString(model.getOriginalInterface()));
+        
+        for (Map.Entry<QName, ChildDataModel> nonChildEntry : model.getNonChildProperties().entrySet()) {
+            QName nonChildProperty = nonChildEntry.getKey();
+            Object value = beanMap.get(nonChildProperty);
+            
+            retVal = mixDigest(retVal, digestString(nonChildProperty.toString()));
+            
+            if (value == null) {
+                retVal = mixDigest(retVal, 0L);
+            }
+            else if (nonChildEntry.getValue().isReference()) {
+                // References are compared by the key of the referenced bean
+                retVal = mixDigest(retVal, digestString(((BaseHK2JAXBBean) value)._getKeyValue()));
+            }
+            else {
+                retVal = mixDigest(retVal, digestString(value.getClass().getName()));
+                
+                String valueString;
+                if (value.getClass().isArray()) {
+                    valueString = Arrays.deepToString(new Object[] { value });
+                }
+                else {
+                    valueString = value.toString();
+                }
+                
+                retVal = mixDigest(retVal, digestString(valueString));
+            }
+        }
+        
+        for (Map.Entry<QName, ParentedModel> childEntry : model.getChildrenByName().entrySet()) {
+            QName xmlTag = childEntry.getKey();
+            Object rawChild = beanMap.get(xmlTag);
+            
+            retVal = mixDigest(retVal, digestString(xmlTag.toString()));
+            if (rawChild == null) {
+                retVal = mixDigest(retVal, 0L);
+                continue;
+            }
+            
+            switch (childEntry.getValue().getChildType()) {
+            case DIRECT:
+                retVal = mixDigest(retVal, calculateDigest((BaseHK2JAXBBean) rawChild));
+                break;
+            case LIST:
+                List<BaseHK2JAXBBean> childList = (List<BaseHK2JAXBBean>) rawChild;
+                
+                retVal = mixDigest(retVal, childList.size());
+                for (BaseHK2JAXBBean child : childList) {
+                    retVal = mixDigest(retVal, calculateDigest(child));
+                }
+                break;
+            case ARRAY:
+                int length = Array.getLength(rawChild);
+                
+                retVal = mixDigest(retVal, length);
+                for (int lcv = 0; lcv < length; lcv++) {
+                    retVal = mixDigest(retVal, calculateDigest((BaseHK2JAXBBean) Array.get(rawChild, lcv)));
+                }
+                break;
+            default:
+                throw new AssertionError("Unknown child type " + childEntry.getValue().getChildType());
+            }
+        }
+        
+        bean.__setDigest(retVal);
+        return retVal;
+    }
+    
+    private static long digestString(String value) {
+        if (value == null) return 0L;
+        
+        // FNV-1a, 64 bit
+        long retVal = 0xcbf29ce484222325L;
+        int length = value.length();
+        for (int lcv = 0; lcv < length; lcv++) {
+            retVal ^= value.charAt(lcv);
+            retVal *= 0x100000001b3L;
+        }
+        
+        return retVal;
+    }
+    
+    private static long mixDigest(long digest, long value) {
+        // The finalizer of MurmurHash3, so that order matters
+        long retVal = (digest * DIGEST_MULTIPLIER) + value;
+        
+        retVal ^= (retVal >>> 33);
+        retVal *= 0xff51afd7ed558ccdL;
+        retVal ^= (retVal >>> 33);
+        retVal *= 0xc4ceb9fe1a85ec53L;
+        retVal ^= (retVal >>> 33);
+        
+        return retVal;
+    }
+    
     public static List<AltMethod> prioritizeMethods(List<AltMethod> methods, String specifiedOrdering[], NameInformation xmlMap) {
         if (specifiedOrdering == null || specifiedOrdering.length <= 0) {
             return methods;
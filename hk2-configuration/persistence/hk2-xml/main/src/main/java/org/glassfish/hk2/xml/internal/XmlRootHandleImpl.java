@@ -42,6 +42,7 @@ package org.glassfish.hk2.xml.internal;
 
 import java.beans.VetoableChangeListener;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.util.HashMap;
@@ -59,11 +60,15 @@ import org.glassfish.hk2.api.DynamicConfiguration;
 import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.configuration.hub.api.Hub;
 import org.glassfish.hk2.configuration.hub.api.WriteableBeanDatabase;
+import org.glassfish.hk2.xml.api.XmlHandleCommitListener;
 import org.glassfish.hk2.xml.api.XmlHandleTransaction;
 import org.glassfish.hk2.xml.api.XmlHubCommitMessage;
 import org.glassfish.hk2.xml.api.XmlRootCopy;
 import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.api.XmlRootSnapshot;
 import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
+import org.glassfish.hk2.xml.spi.XmlDeltaNode;
+import org.glassfish.hk2.xml.spi.XmlServiceDeltaParser;
 import org.glassfish.hk2.xml.spi.XmlServiceParser;
 
 /**
@@ -79,6 +84,9 @@ public class XmlRootHandleImpl<T> implements XmlRootHandle<T> {
     private final boolean advertised;
     private final boolean advertisedInHub;
     private final DynamicChangeInfo<T> changeControl;
+    private final Object snapshotLock = new Object();
+    private volatile XmlRootSnapshotImpl<T> defaultedSnapshot;
+    private volatile XmlRootSnapshotImpl<T> rawSnapshot;
     
     /* package */ XmlRootHandleImpl(
             XmlServiceImpl parent,
@@ -246,6 +254,10 @@ public class XmlRootHandleImpl<T> implements XmlRootHandle<T> {
     /* package */ long getRevision() {
         return changeControl.getChangeNumber();
     }
+    
+    /* package */ long getSnapshotRevision() {
+        return changeControl.getSnapshotRevision();
+    }
 
     /* (non-Javadoc)
      * @see org.glassfish.hk2.xml.api.XmlRootHandle#addRoot(java.lang.Object)
@@ -292,6 +304,9 @@ public class XmlRootHandleImpl<T> implements XmlRootHandle<T> {
             
             root = (T) copiedRoot;
             
+            changeControl.incrementSnapshotRevision();
+            clearSnapshots();
+            
             ServiceLocator locator = parent.getServiceLocator();
             for (ActiveDescriptor<?> added : addedServices) {
                 // Ensures that the defaulters will run right away
@@ -325,7 +340,75 @@ public class XmlRootHandleImpl<T> implements XmlRootHandle<T> {
      */
     @Override
     public T getReadOnlyRoot(boolean representDefaults) {
-        throw new AssertionError("getReadOnlyRoot not implemented");
+        return getSnapshot(representDefaults).getRoot();
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.api.XmlRootHandle#getSnapshot(boolean)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public XmlRootSnapshot<T> getSnapshot(boolean representDefaults) {
+        XmlRootSnapshotImpl<T> retVal = representDefaults ? defaultedSnapshot : rawSnapshot ;
+        if (retVal != null) return retVal;
+        
+        if (changeControl == null) {
+            throw new IllegalStateException("getSnapshot may only be called on a fully initialized root handle " + this);
+        }
+        
+        changeControl.getReadLock().lock();
+        try {
+            synchronized (snapshotLock) {
+                retVal = representDefaults ? defaultedSnapshot : rawSnapshot ;
+                if (retVal != null) return retVal;
+                
+                BaseHK2JAXBBean copy = null;
+                BaseHK2JAXBBean bean = (BaseHK2JAXBBean) root;
+                if (bean != null) {
+                    try {
+                        Map<ReferenceKey, BaseHK2JAXBBean> referenceMap = new HashMap<ReferenceKey, BaseHK2JAXBBean>();
+                        List<UnresolvedReference> unresolved = new LinkedList<UnresolvedReference>();
+                    
+                        copy = Utilities.doCopy(bean, null, null, this, referenceMap, unresolved);
+                    
+                        Utilities.fillInUnfinishedReferences(referenceMap, unresolved);
+                    }
+                    catch (RuntimeException re) {
+                        throw re;
+                    }
+                    catch (Throwable th) {
+                        throw new RuntimeException(th);
+                    }
+                    
+                    Utilities.makeReadOnly(copy, representDefaults);
+                }
+                
+                retVal = new XmlRootSnapshotImpl<T>(this, changeControl.getSnapshotRevision(), (T) copy, representDefaults);
+                
+                // Publishing through the volatile field makes the fully built copy visible
+                if (representDefaults) {
+                    defaultedSnapshot = retVal;
+                }
+                else {
+                    rawSnapshot = retVal;
+                }
+                
+                return retVal;
+            }
+        }
+        finally {
+            changeControl.getReadLock().unlock();
+        }
+    }
+    
+    /**
+     * Called with the write lock held when a change to
+     * this tree has been committed.  The next request
+     * for a snapshot will create a new one
+     */
+    /* package */ void clearSnapshots() {
+        defaultedSnapshot = null;
+        rawSnapshot = null;
     }
     
     /* package */ DynamicChangeInfo<T> getChangeInfo() {
@@ -348,6 +431,22 @@ public class XmlRootHandleImpl<T> implements XmlRootHandle<T> {
         changeControl.removeChangeListener(listeners);
     }
 
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.api.XmlRootHandle#addCommitListener(org.glassfish.hk2.xml.api.XmlHandleCommitListener)
+     */
+    @Override
+    public void addCommitListener(XmlHandleCommitListener<T> listener) {
+        changeControl.addCommitListener(listener);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.api.XmlRootHandle#removeCommitListener(org.glassfish.hk2.xml.api.XmlHandleCommitListener)
+     */
+    @Override
+    public void removeCommitListener(XmlHandleCommitListener<T> listener) {
+        changeControl.removeCommitListener(listener);
+    }
+    
     /* (non-Javadoc)
      * @see org.glassfish.hk2.xml.api.XmlRootHandle#getChangeListeners()
      */
@@ -429,6 +528,99 @@ public class XmlRootHandleImpl<T> implements XmlRootHandle<T> {
         }
     }
     
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.api.XmlRootHandle#marshalDelta(java.io.OutputStream, org.glassfish.hk2.xml.api.XmlRootSnapshot, java.util.Map)
+     */
+    @Override
+    public void marshalDelta(OutputStream outputStream, XmlRootSnapshot<T> since, Map<String, Object> options) throws IOException {
+        if (changeControl == null) {
+            throw new IllegalStateException("marshalDelta May only be called on a fully initialized root handle " + this);
+        }
+        
+        changeControl.getReadLock().lock();
+        try {
+            marshalDelta(outputStream, since, root, options);
+        }
+        finally {
+            changeControl.getReadLock().unlock();
+        }
+    }
+    
+    /**
+     * Writes the changes from since to the given tree, which is either
+     * the live root (with the read lock held) or the root of a later snapshot
+     */
+    /* package */ void marshalDelta(OutputStream outputStream, XmlRootSnapshot<T> since, T to, Map<String, Object> options) throws IOException {
+        if (since == null || since.getParent() != this) {
+            throw new IllegalArgumentException("The snapshot given to marshalDelta must have been taken from this root handle " + this);
+        }
+        if (since.representsDefaults()) {
+            throw new IllegalArgumentException("The snapshot given to marshalDelta must not represent defaults");
+        }
+        
+        XmlServiceDeltaParser deltaParser = getDeltaParser();
+        
+        T sinceRoot = since.getRoot();
+        if (sinceRoot == null || to == null) {
+            throw new IllegalStateException("Both the snapshot and this XmlRootHandle must have a root to marshal a delta");
+        }
+        
+        Differences differences = Utilities.getDiff((BaseHK2JAXBBean) sinceRoot, (BaseHK2JAXBBean) to);
+        
+        XmlDeltaNode delta = DeltaUtilities.createDelta(rootNode, differences);
+        
+        deltaParser.marshalDelta(outputStream, delta, options);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.api.XmlRootHandle#applyDelta(java.io.InputStream, java.util.Map)
+     */
+    @Override
+    public void applyDelta(InputStream inputStream, Map<String, Object> options) throws IOException {
+        if (changeControl == null) {
+            throw new IllegalStateException("applyDelta May only be called on a fully initialized root handle " + this);
+        }
+        
+        XmlServiceDeltaParser deltaParser = getDeltaParser();
+        
+        // Reading the delta does not need any locks
+        XmlDeltaNode delta = deltaParser.parseDelta(inputStream, options);
+        
+        boolean success = false;
+        XmlHandleTransaction<T> handle = lockForTransaction();
+        try {
+            if (root == null) {
+                throw new IllegalStateException("This XmlRootHandle must have a root to apply a delta");
+            }
+            
+            // All paths are resolved before any change is made
+            Differences differences = DeltaUtilities.readDelta(delta, (BaseHK2JAXBBean) root);
+            
+            if (!differences.getDifferences().isEmpty()) {
+                Utilities.applyDiff(differences, changeControl);
+            }
+            
+            success = true;
+        }
+        finally {
+            if (success) {
+                handle.commit();
+            }
+            else {
+                handle.abandon();
+            }
+        }
+    }
+    
+    private XmlServiceDeltaParser getDeltaParser() {
+        XmlServiceParser parser = parent.getParser();
+        if (!(parser instanceof XmlServiceDeltaParser)) {
+            throw new UnsupportedOperationException("The parser " + parser + " of root handle " + this + " does not support deltas");
+        }
+        
+        return (XmlServiceDeltaParser) parser;
+    }
+    
     public Map<String, String> getPackageNamespace(Class<?> clazz) {
         return parent.getPackageNamespace(clazz);
     }
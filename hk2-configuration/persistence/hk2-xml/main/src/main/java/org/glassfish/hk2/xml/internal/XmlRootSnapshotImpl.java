@@ -0,0 +1,124 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package org.glassfish.hk2.xml.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.api.XmlRootSnapshot;
+
+/**
+ * @author jwells
+ *
+ */
+public class XmlRootSnapshotImpl<T> implements XmlRootSnapshot<T> {
+    private final XmlRootHandleImpl<T> parent;
+    private final long revision;
+    private final T root;
+    private final boolean representDefaults;
+    
+    /* package */ XmlRootSnapshotImpl(XmlRootHandleImpl<T> parent, long revision, T root, boolean representDefaults) {
+        this.parent = parent;
+        this.revision = revision;
+        this.root = root;
+        this.representDefaults = representDefaults;
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.api.XmlRootSnapshot#getParent()
+     */
+    @Override
+    public XmlRootHandle<T> getParent() {
+        return parent;
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.api.XmlRootSnapshot#getRevision()
+     */
+    @Override
+    public long getRevision() {
+        return revision;
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.api.XmlRootSnapshot#getRoot()
+     */
+    @Override
+    public T getRoot() {
+        return root;
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.api.XmlRootSnapshot#representsDefaults()
+     */
+    @Override
+    public boolean representsDefaults() {
+        return representDefaults;
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.api.XmlRootSnapshot#isCurrent()
+     */
+    @Override
+    public boolean isCurrent() {
+        return (parent.getSnapshotRevision() == revision);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.xml.api.XmlRootSnapshot#marshalDelta(java.io.OutputStream, org.glassfish.hk2.xml.api.XmlRootSnapshot, java.util.Map)
+     */
+    @Override
+    public void marshalDelta(OutputStream outputStream, XmlRootSnapshot<T> since, Map<String, Object> options) throws IOException {
+        if (representDefaults) {
+            throw new IllegalStateException("marshalDelta may not be called on a snapshot that represents defaults " + this);
+        }
+        
+        // Both trees are read-only, so no lock of the parent is needed
+        parent.marshalDelta(outputStream, since, root, options);
+    }
+    
+    @Override
+    public String toString() {
+        return "XmlRootSnapshotImpl(" + parent + "," + revision + "," + representDefaults + "," + System.identityHashCode(this) + ")";
+    }
+}
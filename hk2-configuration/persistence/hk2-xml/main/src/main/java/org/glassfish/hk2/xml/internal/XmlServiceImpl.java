@@ -75,6 +75,7 @@ import org.glassfish.hk2.utilities.reflection.internal.ClassReflectionHelperImpl
 import org.glassfish.hk2.xml.api.XmlHubCommitMessage;
 import org.glassfish.hk2.xml.api.XmlRootHandle;
 import org.glassfish.hk2.xml.api.XmlService;
+import org.glassfish.hk2.xml.api.XmlStreamingListener;
 import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
 import org.glassfish.hk2.xml.spi.PreGenerationRequirement;
 import org.glassfish.hk2.xml.spi.XmlServiceParser;
@@ -284,7 +285,14 @@ public class XmlServiceImpl implements XmlService {
             }
         }
         else {
-            root = XmlStreamImpl.parseRoot(this, model, reader, listener);
+            XmlStreamingListener streamingListener = StreamingUnmarshallerListener.getStreamingListener(options);
+            if (streamingListener == null) {
+                root = XmlStreamImpl.parseRoot(this, model, reader, listener);
+            }
+            else {
+                root = XmlStreamImpl.parseRoot(this, model, reader,
+                        new StreamingUnmarshallerListener(listener, streamingListener, null, -1L));
+            }
         }
         
         long elapsedJAXBToAdvertisement = 0;
@@ -323,6 +323,8 @@ public class XmlStreamImpl {
                 
                 ParentedModel informedChild = childProperties.get(elementTagQName);
                 if (informedChild != null) {
+                    beanRead(target, parent, listener);
+                    
                     ModelImpl grandChild = informedChild.getChildModel();
                     
                     BaseHK2JAXBBean hk2Root = Utilities.createBean(grandChild.getProxyAsClass());
@@ -374,6 +376,8 @@ public class XmlStreamImpl {
                 }
                 
                 if (allWrappers.contains(elementTag)) {
+                    beanRead(target, parent, listener);
+                    
                     skipWrapperElement(target,
                             parent,
                             reader,
@@ -492,6 +496,17 @@ public class XmlStreamImpl {
         
     }
     
+    /**
+     * Tells a streaming listener (if there is one) that the attributes
+     * of the target have been read and that its children are about to be
+     * parsed
+     */
+    private static void beanRead(BaseHK2JAXBBean target, BaseHK2JAXBBean parent, Listener listener) {
+        if (!(listener instanceof StreamingUnmarshallerListener)) return;
+        
+        ((StreamingUnmarshallerListener) listener).beanRead(target, parent);
+    }
+    
     private static String advanceNonChildElement(XMLStreamReader reader, String outerTag) throws Exception {
         String retVal = null;
         
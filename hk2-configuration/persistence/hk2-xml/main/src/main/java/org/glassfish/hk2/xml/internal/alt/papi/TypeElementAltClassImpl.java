@@ -307,6 +307,15 @@ public class TypeElementAltClassImpl implements AltClass {
         return null;
     }
     
+    /**
+     * Gets the underlying element of this class
+     * 
+     * @return The type element this class represents
+     */
+    public TypeElement getTypeElement() {
+        return clazz;
+    }
+    
     @Override
     public int hashCode() {
         return getName().hashCode();
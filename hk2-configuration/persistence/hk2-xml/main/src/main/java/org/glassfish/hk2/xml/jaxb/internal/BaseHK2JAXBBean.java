@@ -156,6 +156,28 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
      */
     private volatile transient XmlRootHandleImpl<?> root;
     
+    /**
+     * If true the typed fields of the generated subclass hold the
+     * committed values of all properties and the generated getters
+     * may return them without taking the tree lock.  This is only
+     * ever set to true while the read lock of the tree is held, and is
+     * set to false prior to any modification of nBeanLikeMap
+     */
+    private volatile transient boolean fieldsLoaded = false;
+    
+    /**
+     * If true this bean is part of an immutable snapshot of a
+     * tree and may not be modified.  Read-only beans take no locks
+     */
+    private transient boolean readOnly = false;
+    
+    /**
+     * If true this read-only bean will return default values for
+     * unset properties, otherwise unset properties return null
+     * (or zero/false for scalars)
+     */
+    private transient boolean readOnlyDefaults = false;
+    
     /**
      * If true this bean has been given to the user to
      * add/remove or call getters or setters.  This can
@@ -176,7 +198,22 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
      * locks and may not be accurate after intended use.
      * The add cost and the remove cost are the same
      */
-    private transient int addCost = -1;
+    private transient volatile int addCost = -1;
+    
+    /**
+     * A digest of the values of this bean and of all of
+     * its children, used when diffing two trees in order
+     * to skip subtrees that are the same.  Like the add
+     * cost it is invalidated in this bean and in all of
+     * its parents whenever this bean is modified (under
+     * the write lock), but it is calculated lazily by
+     * readers that may be running concurrently under the
+     * read lock.  It is therefore published as a single
+     * volatile reference, where null means that the digest
+     * has not been calculated, so that a reader can never
+     * see a valid digest with a stale value
+     */
+    private transient volatile Long digest;
     
     /**
      * A map from the namespace prefix to the namespace URI
@@ -227,6 +264,7 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
     public void _setProperty(String propNamespace, String propName, Object propValue, boolean changeInHub, boolean rawSet) {
         if (propNamespace == null || propName == null) throw new IllegalArgumentException(
                 "properyName or propertyNamespace may not be null");
+        checkNotReadOnly();
         
         if (DEBUG_GETS_AND_SETS) {
             // Hidden behind static because of potential expensive toString costs
@@ -244,6 +282,9 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
         }
         
         if (changeControl == null) {
+            fieldsLoaded = false;
+            invalidateDigest();
+            
             if (active) {
                 synchronized (this) {
                     nBeanLikeMap.setValue(propNamespace, propName, propValue);
@@ -382,7 +423,9 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
                     }
                     
                     nBeanLikeMap.backup();
-                
+                    
+                    fieldsLoaded = false;
+                    invalidateDigest();
                     nBeanLikeMap.setValue(propNamespace, propName, propValue);
                     
                     success = true;
@@ -445,6 +488,50 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
         _setProperty(propNamespace, propName, (Double) propValue);
     }
     
+    /**
+     * Called by proxy getters prior to returning the value of
+     * a generated field.  If the fields are not currently loaded
+     * and this bean is part of a tree this will load them under
+     * the read lock of the tree.  Fields are never loaded by a thread
+     * holding the write lock, since in that case the map may contain
+     * values that have not yet been committed
+     * 
+     * @return true if the generated fields contain the current
+     * values of all properties, false if the caller must use
+     * the _getProperty methods
+     */
+    public boolean __fieldsLoaded() {
+        if (fieldsLoaded) return true;
+        
+        DynamicChangeInfo<?> localChangeControl = changeControl;
+        if (localChangeControl == null) return false;
+        if (localChangeControl.getWriteLock().isHeldByCurrentThread()) return false;
+        
+        localChangeControl.getReadLock().lock();
+        try {
+            if (localChangeControl != changeControl) return false;
+            
+            if (!fieldsLoaded) {
+                __loadFields();
+                
+                fieldsLoaded = true;
+            }
+        }
+        finally {
+            localChangeControl.getReadLock().unlock();
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Implemented by the generated proxy, which copies the value
+     * of every property into its corresponding typed field.  Read
+     * lock must be held
+     */
+    protected void __loadFields() {
+    }
+    
     private Object _getProperty(String propNamespace, String propName, Class<?> expectedClass) {
         return _getProperty(propNamespace, propName, expectedClass, null);
     }
@@ -456,7 +543,23 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
         Object retVal;
         boolean doDefaulting = active ? true : false;
         
-        if (changeControl == null) {
+        if (readOnly) {
+            // Snapshot beans are never modified, so no locking is needed
+            isSet = nBeanLikeMap.isSet(propNamespace, propName);
+            retVal = nBeanLikeMap.getValue(propNamespace, propName);
+            
+            if (!readOnlyDefaults) {
+                if (retVal == null && expectedClass != null && expectedClass.isPrimitive()) {
+                    // Scalars get zero (or false) rather than their defaults
+                    retVal = Utilities.getDefaultValue(null, expectedClass, prefixToNamespaceMap);
+                }
+                
+                return retVal;
+            }
+            
+            doDefaulting = true;
+        }
+        else if (changeControl == null) {
             if (active) {
                 synchronized (this) {
                     isSet = nBeanLikeMap.isSet(propNamespace, propName);
@@ -714,6 +817,8 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
     }
     
     public Object _doAdd(String propNamespace, String childProperty, Object rawChild, String childKey, int index, boolean changeList) {
+        checkNotReadOnly();
+        
         if (changeControl == null) {
             return Utilities.internalAdd(this, propNamespace, childProperty, rawChild, childKey, index, null, XmlDynamicChange.EMPTY, new LinkedList<ActiveDescriptor<?>>(), changeList);
         }
@@ -779,6 +884,8 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
     }
     
     public Object _invokeCustomizedMethod(String methodName, Class<?>[] params, Object[] values) {
+        checkNotReadOnly();
+        
         if (DEBUG_GETS_AND_SETS) {
             // Hidden behind static because of potential expensive toString costs
             Logger.getLogger().debug("XmlService invoking customized method " + methodName +
@@ -904,6 +1011,8 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
     }
     
     public Object _doRemove(String propNamespace, String childProperty, String childKey, int index, Object child, boolean changeList) {
+        checkNotReadOnly();
+        
         QName childPropQName = QNameUtilities.createQName(propNamespace, childProperty);
         
         if (changeControl == null) {
@@ -1124,6 +1233,8 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
             xmlPath = calculateXmlPath(this);
         }
         
+        fieldsLoaded = false;
+        
         changeControl = change;
         this.root = root;
         
@@ -1145,6 +1256,40 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
         active = true;
     }
     
+    /**
+     * Makes this bean part of an immutable snapshot.  After this
+     * is called all attempts to modify this bean or to invoke
+     * customized methods will fail, and no locks will be taken
+     * when reading properties.  Must be called before the
+     * bean is made visible to other threads
+     * 
+     * @param representDefaults if true getters for unset properties
+     * will return the default value, otherwise they will return
+     * null (or zero/false for scalars)
+     */
+    public void __setReadOnly(boolean representDefaults) {
+        readOnly = true;
+        readOnlyDefaults = representDefaults;
+        
+        __loadFields();
+        fieldsLoaded = true;
+    }
+    
+    /**
+     * Returns true if this bean is part of an immutable snapshot
+     * 
+     * @return true if this bean may not be modified
+     */
+    public boolean __isReadOnly() {
+        return readOnly;
+    }
+    
+    private void checkNotReadOnly() {
+        if (readOnly) {
+            throw new IllegalStateException("The bean " + this + " is read-only and may not be modified");
+        }
+    }
+    
     /**
      * Read lock must be held
      * 
@@ -1174,6 +1319,8 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
         keyValue = copyMe.keyValue;
         xmlPath = copyMe.xmlPath;
         
+        fieldsLoaded = false;
+        digest = null;
         nBeanLikeMap.shallowCopy(copyMe.nBeanLikeMap, copyMe._getModel(), copyReferences);
     }
     
@@ -1294,12 +1441,15 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
     public void __activateChange() {
         nBeanLikeMap.restoreBackup(true);
         addCost = -1;
+        invalidateDigest();
     }
     
     /**
      * Write lock must be held
      */
     public void __rollbackChange() {
+        fieldsLoaded = false;
+        invalidateDigest();
         nBeanLikeMap.restoreBackup(false);
     }
     
@@ -1350,6 +1500,38 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
         return addCost;
     }
     
+    public void __setDigest(long digest) {
+        this.digest = Long.valueOf(digest);
+    }
+    
+    /**
+     * Returns the cached digest of this bean
+     * 
+     * @return The cached digest, or null if the digest has not
+     * been calculated since this bean (or one of its children)
+     * was last modified
+     */
+    public Long __getDigest() {
+        return digest;
+    }
+    
+    /**
+     * The digest of a bean covers all of its children,
+     * so a change to this bean must also invalidate the
+     * digest of every parent up to the root
+     */
+    private void invalidateDigest() {
+        BaseHK2JAXBBean current = this;
+        while (current != null) {
+            current.digest = null;
+            
+            XmlHk2ConfigurationBean currentParent = current.parent;
+            if (!(currentParent instanceof BaseHK2JAXBBean)) return;
+            
+            current = (BaseHK2JAXBBean) currentParent;
+        }
+    }
+    
     @SuppressWarnings("unchecked")
     public void __fixAlias(String propNamespace, String propName, String baseName) {
         Object propNameValueRaw = nBeanLikeMap.getValue(propNamespace, propName);
@@ -1361,6 +1543,9 @@ public abstract class BaseHK2JAXBBean implements XmlHk2ConfigurationBean, Serial
         List<Object> propNameValue = (List<Object>) propNameValueRaw;
         if (propNameValue.isEmpty()) return;
         
+        fieldsLoaded = false;
+        invalidateDigest();
+        
         Object baseNamePropertyRaw = nBeanLikeMap.getValue(propNamespace, baseName);
         if (baseNamePropertyRaw == null) {
             baseNamePropertyRaw = new ArrayList<Object>(propNameValue.size());
@@ -0,0 +1,150 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.spi;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A format neutral node in the encoding of a set of changes
+ * to an {@link org.glassfish.hk2.xml.api.XmlRootHandle}.  A
+ * node has a name, an ordered set of string attributes (whose
+ * values may be null) and an ordered list of children.  A
+ * {@link XmlServiceDeltaParser} need only be able to write
+ * and read back a tree of these nodes
+ * 
+ * @author jwells
+ *
+ */
+public class XmlDeltaNode {
+    private final String name;
+    private final LinkedHashMap<String, String> attributes = new LinkedHashMap<String, String>();
+    private final List<XmlDeltaNode> children = new ArrayList<XmlDeltaNode>();
+    
+    /**
+     * Creates a node with the given name
+     * 
+     * @param name The non-null name of this node
+     */
+    public XmlDeltaNode(String name) {
+        if (name == null) throw new IllegalArgumentException();
+        
+        this.name = name;
+    }
+    
+    /**
+     * Gets the name of this node
+     * 
+     * @return The non-null name of this node
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Sets an attribute of this node
+     * 
+     * @param attributeName The non-null name of the attribute
+     * @param value The possibly null value of the attribute
+     */
+    public void setAttribute(String attributeName, String value) {
+        attributes.put(attributeName, value);
+    }
+    
+    /**
+     * Gets the value of an attribute of this node
+     * 
+     * @param attributeName The non-null name of the attribute
+     * @return The value of the attribute, which is null if the
+     * attribute is not set or was set to null
+     */
+    public String getAttribute(String attributeName) {
+        return attributes.get(attributeName);
+    }
+    
+    /**
+     * Returns true if the given attribute was set on this
+     * node, even if it was set to null
+     * 
+     * @param attributeName The non-null name of the attribute
+     * @return true if the attribute has been set
+     */
+    public boolean hasAttribute(String attributeName) {
+        return attributes.containsKey(attributeName);
+    }
+    
+    /**
+     * Gets all the attributes of this node in the
+     * order in which they were set
+     * 
+     * @return The live map of attributes of this node
+     */
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+    
+    /**
+     * Adds a child to the end of the children of this node
+     * 
+     * @param child The non-null child to add
+     * @return The child that was added
+     */
+    public XmlDeltaNode addChild(XmlDeltaNode child) {
+        children.add(child);
+        
+        return child;
+    }
+    
+    /**
+     * Gets the children of this node in order
+     * 
+     * @return The live list of children of this node
+     */
+    public List<XmlDeltaNode> getChildren() {
+        return children;
+    }
+    
+    @Override
+    public String toString() {
+        return "XmlDeltaNode(" + name + "," + attributes + "," + children.size() + "," + System.identityHashCode(this) + ")";
+    }
+}
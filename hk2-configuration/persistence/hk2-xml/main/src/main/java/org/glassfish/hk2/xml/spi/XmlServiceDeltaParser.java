@@ -0,0 +1,81 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.spi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * An {@link XmlServiceParser} may also implement this interface
+ * in order to support writing and reading the changes made to an
+ * {@link org.glassfish.hk2.xml.api.XmlRootHandle} rather than the
+ * entire tree.  The changes are given to the parser as a tree of
+ * {@link XmlDeltaNode}, which the parser must be able to write out
+ * and read back in exactly
+ * 
+ * @author jwells
+ *
+ */
+public interface XmlServiceDeltaParser {
+    /**
+     * Writes the given delta to the output stream
+     * 
+     * @param outputStream A non-closed output stream.  This method will
+     * not close the output stream
+     * @param delta The non-null root node of the delta to write
+     * @param options optional (possibly null) options from the caller
+     * @throws IOException On any exception that might happen
+     */
+    public void marshalDelta(OutputStream outputStream, XmlDeltaNode delta, Map<String, Object> options) throws IOException;
+    
+    /**
+     * Reads a delta previously written with
+     * {@link #marshalDelta(OutputStream, XmlDeltaNode, Map)}
+     * 
+     * @param inputStream A non-null input stream.  This stream will NOT be closed by this method
+     * @param options optional (possibly null) options from the caller
+     * @return The non-null root node of the delta that was read
+     * @throws IOException On any exception that might happen
+     */
+    public XmlDeltaNode parseDelta(InputStream inputStream, Map<String, Object> options) throws IOException;
+
+}
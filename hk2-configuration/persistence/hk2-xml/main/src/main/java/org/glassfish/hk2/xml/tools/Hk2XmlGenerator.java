@@ -46,6 +46,9 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.Set;
 
 import javassist.ClassPool;
@@ -56,25 +59,54 @@ import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.Filer;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
 import javax.lang.model.element.TypeElement;
 import javax.tools.Diagnostic.Kind;
 import javax.tools.JavaFileObject;
 
+import org.glassfish.hk2.xml.api.annotations.Hk2XmlPreGenerate;
 import org.glassfish.hk2.xml.internal.Generator;
+import org.glassfish.hk2.xml.internal.GeneratorUtilities;
+import org.glassfish.hk2.xml.internal.MethodType;
+import org.glassfish.hk2.xml.internal.NameInformation;
+import org.glassfish.hk2.xml.internal.Utilities;
+import org.glassfish.hk2.xml.internal.alt.AltClass;
+import org.glassfish.hk2.xml.internal.alt.AltMethod;
+import org.glassfish.hk2.xml.internal.alt.MethodInformationI;
 import org.glassfish.hk2.xml.internal.alt.papi.TypeElementAltClassImpl;
 
 /**
+ * Generates the implementations of interfaces annotated with
+ * {@link Hk2XmlPreGenerate} at build time.  If the annotation has
+ * includeChildren set to true (or the {@link #INCLUDE_CHILDREN_OPTION}
+ * processor option is set to true) then all child interfaces reachable
+ * from the annotated interface that are part of the current compilation
+ * are also generated, so that the XmlService need not generate any
+ * classes at runtime for that model
+ * 
  * @author jwells
  *
  */
 @SupportedAnnotationTypes("org.glassfish.hk2.xml.api.annotations.Hk2XmlPreGenerate")
+@SupportedOptions(Hk2XmlGenerator.INCLUDE_CHILDREN_OPTION)
 public class Hk2XmlGenerator extends AbstractProcessor {
+    /**
+     * If this processor option is set to true then every interface
+     * annotated with {@link Hk2XmlPreGenerate} is treated as if
+     * includeChildren were set to true
+     */
+    public final static String INCLUDE_CHILDREN_OPTION = "org.glassfish.hk2.xml.pregenerate.children";
+    
     private volatile boolean initialized;
     private ClassPool defaultClassPool;
     private CtClass superClazz;
     
+    /** The names of all interfaces already generated by this processor */
+    private final Set<String> generated = new HashSet<String>();
+    
     /**
      * Gets rid of warnings and this code should work with all source versions
      */
@@ -136,6 +168,8 @@ public class Hk2XmlGenerator extends AbstractProcessor {
     public boolean process(Set<? extends TypeElement> annotations,
             RoundEnvironment roundEnv) {
         Filer filer = processingEnv.getFiler();
+        Set<? extends Element> rootElements = roundEnv.getRootElements();
+        boolean allIncludeChildren = Boolean.parseBoolean(processingEnv.getOptions().get(INCLUDE_CHILDREN_OPTION));
         
         for (TypeElement annotation : annotations) {
             Set<? extends Element> clazzes = roundEnv.getElementsAnnotatedWith(annotation);
@@ -147,41 +181,114 @@ public class Hk2XmlGenerator extends AbstractProcessor {
                 
                 TypeElement clazz = (TypeElement) clazzElement;
                 
-                TypeElementAltClassImpl altClass = new TypeElementAltClassImpl(clazz, processingEnv);
+                Hk2XmlPreGenerate preGenerate = clazz.getAnnotation(Hk2XmlPreGenerate.class);
+                boolean includeChildren = allIncludeChildren ||
+                        ((preGenerate != null) && preGenerate.includeChildren());
                 
-                try {
-                    CtClass ctClass = Generator.generate(altClass, superClazz, defaultClassPool);
+                Set<String> visited = new HashSet<String>();
+                LinkedList<TypeElementAltClassImpl> toGenerate = new LinkedList<TypeElementAltClassImpl>();
+                toGenerate.add(new TypeElementAltClassImpl(clazz, processingEnv));
+                
+                while (!toGenerate.isEmpty()) {
+                    TypeElementAltClassImpl altClass = toGenerate.removeFirst();
                     
-                    String ctClassName = ctClass.getName();
+                    String altClassName = altClass.getName();
+                    if (!visited.add(altClassName)) continue;
                     
-                    JavaFileObject jfo = filer.createClassFile(ctClassName, clazzElement);
+                    if (generated.add(altClassName)) {
+                        if (!generate(filer, altClass, clazzElement)) continue;
+                    }
                     
-                    OutputStream outputStream = jfo.openOutputStream();
-                    DataOutputStream dataOutputStream = null;
-                    try {
-                        dataOutputStream = new DataOutputStream(outputStream);
+                    if (!includeChildren) continue;
                     
-                        ctClass.toBytecode(dataOutputStream);
-                    }
-                    finally {
-                        if (dataOutputStream != null) {
-                            dataOutputStream.close();
-                        }
+                    for (TypeElementAltClassImpl child : getChildren(altClass)) {
+                        if (!isInCompilation(child.getTypeElement(), rootElements)) continue;
                         
-                        outputStream.close();
+                        toGenerate.add(child);
                     }
                 }
-                catch (Throwable e) {
-                    String msg = e.getMessage();
-                    if (msg == null) msg = "Exception of type " + e.getClass().getName();
-                
-                    processingEnv.getMessager().printMessage(Kind.ERROR, "While processing class: " + clazz.getQualifiedName() + " got exeption: " + msg);
-                    e.printStackTrace();
-                }
             }
         }
         
         return true;
     }
+    
+    private boolean generate(Filer filer, TypeElementAltClassImpl altClass, Element originatingElement) {
+        try {
+            CtClass ctClass = Generator.generate(altClass, superClazz, defaultClassPool);
+            
+            String ctClassName = ctClass.getName();
+            
+            JavaFileObject jfo = filer.createClassFile(ctClassName, originatingElement);
+            
+            OutputStream outputStream = jfo.openOutputStream();
+            DataOutputStream dataOutputStream = null;
+            try {
+                dataOutputStream = new DataOutputStream(outputStream);
+            
+                ctClass.toBytecode(dataOutputStream);
+            }
+            finally {
+                if (dataOutputStream != null) {
+                    dataOutputStream.close();
+                }
+                
+                outputStream.close();
+            }
+            
+            return true;
+        }
+        catch (Throwable e) {
+            String msg = e.getMessage();
+            if (msg == null) msg = "Exception of type " + e.getClass().getName();
+        
+            processingEnv.getMessager().printMessage(Kind.ERROR, "While processing class: " + altClass.getTypeElement().getQualifiedName() + " got exeption: " + msg);
+            e.printStackTrace();
+            
+            return false;
+        }
+    }
+    
+    /**
+     * Gets the child interfaces of the given interface, which
+     * are the types of the getters and setters of child properties
+     * 
+     * @param altClass The interface to get the children of
+     * @return The set of child interfaces, in method order
+     */
+    private static Set<TypeElementAltClassImpl> getChildren(TypeElementAltClassImpl altClass) {
+        Set<TypeElementAltClassImpl> retVal = new LinkedHashSet<TypeElementAltClassImpl>();
+        
+        NameInformation xmlNameMap = GeneratorUtilities.getXmlNameMap(altClass);
+        for (AltMethod method : altClass.getMethods()) {
+            MethodInformationI mi = Utilities.getMethodInformation(method, xmlNameMap);
+            if (!MethodType.GETTER.equals(mi.getMethodType()) &&
+                    !MethodType.SETTER.equals(mi.getMethodType())) {
+                continue;
+            }
+            
+            AltClass childType = mi.getBaseChildType();
+            if (!(childType instanceof TypeElementAltClassImpl)) continue;
+            
+            retVal.add((TypeElementAltClassImpl) childType);
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Only types whose outermost class is being compiled in this
+     * round can be generated, since types coming from dependencies
+     * should be generated by the build of the dependency
+     */
+    private static boolean isInCompilation(TypeElement type, Set<? extends Element> rootElements) {
+        Element outermost = type;
+        while (outermost.getEnclosingElement() != null &&
+                !(outermost.getEnclosingElement() instanceof PackageElement)) {
+            outermost = outermost.getEnclosingElement();
+        }
+        
+        return rootElements.contains(outermost);
+    }
 
 }
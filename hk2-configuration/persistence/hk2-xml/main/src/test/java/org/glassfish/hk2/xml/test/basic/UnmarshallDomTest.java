@@ -39,12 +39,25 @@
  */
 package org.glassfish.hk2.xml.test.basic;
 
+import java.io.File;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.api.XmlService;
+import org.glassfish.hk2.xml.api.XmlServiceUtilities;
+import org.glassfish.hk2.xml.api.XmlStreamingListener;
 import org.glassfish.hk2.xml.test.basic.beans.Commons;
+import org.glassfish.hk2.xml.test.basic.beans.Employee;
+import org.glassfish.hk2.xml.test.basic.beans.Employees;
+import org.glassfish.hk2.xml.test.basic.beans.Financials;
 import org.glassfish.hk2.xml.test.utilities.Utilities;
+import org.junit.Assert;
 import org.junit.Test;
 
 /**
@@ -289,4 +302,136 @@ public class UnmarshallDomTest {
         
         Commons.testXmlJavaTypeAdapter(locator, uri);
     }
+    
+    /**
+     * Tests that the streaming listener is told about every
+     * bean as it starts, parents before children, about every
+     * completed subtree of the root, and that progress is
+     * reported through the whole document
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testStreamingListener() throws Exception {
+        ServiceLocator locator = Utilities.createDomLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        URL url = getClass().getClassLoader().getResource(Commons.ACME1_FILE);
+        
+        final List<Object> completed = new ArrayList<Object>();
+        final List<Object> parents = new ArrayList<Object>();
+        final List<Integer> depths = new ArrayList<Integer>();
+        final List<String> employeeNames = new ArrayList<String>();
+        final List<String> companyNames = new ArrayList<String>();
+        final List<Object> subtrees = new ArrayList<Object>();
+        final long lastProgress[] = new long[] { -1L, -2L };
+        
+        XmlStreamingListener streamingListener = new XmlStreamingListener() {
+
+            @Override
+            public void beanUnmarshalled(Object bean, Object parent, int depth) {
+                completed.add(bean);
+                parents.add(parent);
+                depths.add(depth);
+                
+                if (bean instanceof Employee) {
+                    // Leaf beans are complete when handed over
+                    employeeNames.add(((Employee) bean).getName());
+                }
+                
+                if (bean instanceof Employees) {
+                    // Values before the first child are available to the root
+                    companyNames.add(((Employees) bean).getCompanyName());
+                }
+            }
+
+            @Override
+            public void progress(long bytesRead, long totalBytes) {
+                Assert.assertTrue(bytesRead > lastProgress[0]);
+                
+                lastProgress[0] = bytesRead;
+                lastProgress[1] = totalBytes;
+            }
+
+            @Override
+            public int getSubtreeDepth() {
+                return 1;
+            }
+
+            @Override
+            public void subtreeUnmarshalled(Object subtree, int depth) {
+                Assert.assertEquals(1, depth);
+                
+                // Every bean of the subtree has been started before it is complete
+                Assert.assertEquals(subtrees.size() + 2, completed.size());
+                
+                subtrees.add(subtree);
+            }
+            
+        };
+        
+        Map<String, Object> options = new HashMap<String, Object>();
+        options.put(XmlServiceUtilities.STREAMING_LISTENER_OPTION, streamingListener);
+        
+        XmlRootHandle<Employees> rootHandle = xmlService.unmarshal(url.toURI(), Employees.class, false, false, options);
+        Employees employees = rootHandle.getRoot();
+        
+        // The root first, then financials and the two employees
+        Assert.assertEquals(4, completed.size());
+        Assert.assertTrue(completed.get(0) instanceof Employees);
+        Assert.assertEquals(0, depths.get(0).intValue());
+        Assert.assertNull(parents.get(0));
+        for (int lcv = 1; lcv < 4; lcv++) {
+            Assert.assertEquals(1, depths.get(lcv).intValue());
+            Assert.assertSame(completed.get(0), parents.get(lcv));
+        }
+        
+        Assert.assertEquals(1, companyNames.size());
+        Assert.assertEquals(Commons.ACME, companyNames.get(0));
+        
+        Assert.assertEquals(2, employeeNames.size());
+        Assert.assertEquals(Commons.BOB, employeeNames.get(0));
+        Assert.assertEquals(Commons.CAROL, employeeNames.get(1));
+        
+        // The listener is given copies, which are not part of the tree
+        Employees streamedRoot = (Employees) completed.get(0);
+        Assert.assertNotSame(employees, streamedRoot);
+        Assert.assertNull(streamedRoot.getFinancials());
+        Assert.assertTrue(streamedRoot.getEmployees().isEmpty());
+        
+        Employee streamedBob = (Employee) completed.get(2);
+        Assert.assertNotSame(employees.getEmployees().get(0), streamedBob);
+        
+        try {
+            streamedBob.setName(Commons.CAROL);
+            Assert.fail("A bean given to the streaming listener must be read-only");
+        }
+        catch (IllegalStateException ise) {
+            // expected
+        }
+        
+        Assert.assertEquals(Commons.BOB, employees.getEmployees().get(0).getName());
+        
+        // The completed subtrees of the root, in document order
+        Assert.assertEquals(3, subtrees.size());
+        Assert.assertTrue(subtrees.get(0) instanceof Financials);
+        Assert.assertEquals(Commons.ACME_SYMBOL, ((Financials) subtrees.get(0)).getSymbol());
+        
+        Employee completedBob = (Employee) subtrees.get(1);
+        Assert.assertNotSame(employees.getEmployees().get(0), completedBob);
+        Assert.assertEquals(Commons.BOB, completedBob.getName());
+        Assert.assertEquals(Commons.CAROL, ((Employee) subtrees.get(2)).getName());
+        
+        try {
+            completedBob.setName(Commons.CAROL);
+            Assert.fail("A subtree given to the streaming listener must be read-only");
+        }
+        catch (IllegalStateException ise) {
+            // expected
+        }
+        
+        long fileLength = new File(url.toURI()).length();
+        Assert.assertEquals(fileLength, lastProgress[0]);
+        Assert.assertEquals(fileLength, lastProgress[1]);
+    }
 }
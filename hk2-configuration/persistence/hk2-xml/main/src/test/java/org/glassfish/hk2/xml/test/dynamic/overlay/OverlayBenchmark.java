@@ -0,0 +1,134 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.xml.test.dynamic.overlay;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.api.XmlService;
+import org.glassfish.hk2.xml.test.utilities.Utilities;
+
+/**
+ * Times the overlay of large unkeyed lists.  This is not a test, it is
+ * run by hand with the main method and prints the average time of an
+ * overlay for each list size, both for an unchanged list and for a list
+ * with a few removes, adds and modifications
+ * 
+ * @author jwells
+ *
+ */
+public class OverlayBenchmark {
+    private final static int SIZES[] = { 1000, 2000, 4000 };
+    private final static int WARM_UP_ROUNDS = 3;
+    private final static int ROUNDS = 10;
+    
+    private static List<String> getNames(int size) {
+        List<String> retVal = new ArrayList<String>(size);
+        for (int lcv = 0; lcv < size; lcv++) {
+            retVal.add("L" + lcv);
+        }
+        
+        return retVal;
+    }
+    
+    private static List<String> getEditedNames(List<String> names) {
+        int size = names.size();
+        
+        List<String> retVal = new ArrayList<String>(names);
+        retVal.remove(size / 100);
+        retVal.set(size / 4, "M" + (size / 4));
+        retVal.add(size / 2, "N" + (size / 2));
+        retVal.set((3 * size) / 4, retVal.get(((3 * size) / 4) + 1));
+        retVal.add("Z");
+        
+        return retVal;
+    }
+    
+    private static XmlRootHandle<OverlayRootABean> createHandle(XmlService xmlService, List<String> names) {
+        XmlRootHandle<OverlayRootABean> retVal = xmlService.createEmptyHandle(OverlayRootABean.class, false, false);
+        retVal.addRoot();
+        
+        OverlayRootABean root = retVal.getRoot();
+        for (String name : names) {
+            root.addUnkeyedLeafList().setName(name);
+        }
+        
+        return retVal;
+    }
+    
+    private static long timeOverlay(XmlService xmlService, List<String> original, List<String> overlay) {
+        XmlRootHandle<OverlayRootABean> originalHandle = createHandle(xmlService, original);
+        XmlRootHandle<OverlayRootABean> overlayHandle = createHandle(xmlService, overlay);
+        
+        long start = System.nanoTime();
+        originalHandle.overlay(overlayHandle);
+        return System.nanoTime() - start;
+    }
+    
+    private static long averageMicros(XmlService xmlService, List<String> original, List<String> overlay) {
+        for (int lcv = 0; lcv < WARM_UP_ROUNDS; lcv++) {
+            timeOverlay(xmlService, original, overlay);
+        }
+        
+        long total = 0;
+        for (int lcv = 0; lcv < ROUNDS; lcv++) {
+            total += timeOverlay(xmlService, original, overlay);
+        }
+        
+        return TimeUnit.NANOSECONDS.toMicros(total / ROUNDS);
+    }
+    
+    public static void main(String[] args) {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        for (int size : SIZES) {
+            List<String> names = getNames(size);
+            
+            long unchanged = averageMicros(xmlService, names, names);
+            long edited = averageMicros(xmlService, names, getEditedNames(names));
+            
+            System.out.println("size=" + size + " unchanged=" + unchanged + "us edited=" + edited + "us");
+        }
+    }
+}
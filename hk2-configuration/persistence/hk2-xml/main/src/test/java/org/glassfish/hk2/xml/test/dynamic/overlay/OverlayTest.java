@@ -40,6 +40,7 @@
 package org.glassfish.hk2.xml.test.dynamic.overlay;
 
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -53,6 +54,7 @@ import org.glassfish.hk2.configuration.hub.api.Type;
 import org.glassfish.hk2.xml.api.XmlHk2ConfigurationBean;
 import org.glassfish.hk2.xml.api.XmlRootHandle;
 import org.glassfish.hk2.xml.api.XmlService;
+import org.glassfish.hk2.xml.jaxb.internal.BaseHK2JAXBBean;
 import org.glassfish.hk2.xml.test.basic.beans.Commons;
 import org.glassfish.hk2.xml.test.basic.beans.Museum;
 import org.glassfish.hk2.xml.test.dynamic.rawsets.RawSetsTest;
@@ -644,4 +646,105 @@ public class OverlayTest {
                   )        
          );
     }
+    
+    private final static int LARGE_LIST_SIZE = 2000;
+    
+    private static List<String> getLargeNames() {
+        List<String> retVal = new ArrayList<String>(LARGE_LIST_SIZE);
+        for (int lcv = 0; lcv < LARGE_LIST_SIZE; lcv++) {
+            retVal.add("L" + lcv);
+        }
+        
+        return retVal;
+    }
+    
+    private static XmlRootHandle<OverlayRootABean> createLargeHandle(XmlService xmlService, List<String> names) {
+        XmlRootHandle<OverlayRootABean> retVal = xmlService.createEmptyHandle(OverlayRootABean.class, false, false);
+        retVal.addRoot();
+        
+        OverlayRootABean root = retVal.getRoot();
+        for (String name : names) {
+            root.addUnkeyedLeafList().setName(name);
+        }
+        
+        return retVal;
+    }
+    
+    private static List<String> getListNames(XmlRootHandle<OverlayRootABean> handle) {
+        List<String> retVal = new ArrayList<String>();
+        for (UnkeyedLeafBean leaf : handle.getRoot().getUnkeyedLeafList()) {
+            retVal.add(leaf.getName());
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Overlays a large unkeyed list with a few removes, adds and
+     * modifications, and then overlays the original back on top
+     * of the result after the tree has been changed directly, which
+     * makes sure that cached digests are invalidated by changes
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testLargeUnkeyedListOverlay() throws Exception {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        List<String> originalNames = getLargeNames();
+        XmlRootHandle<OverlayRootABean> originalHandle = createLargeHandle(xmlService, originalNames);
+        
+        List<String> overlayNames = new ArrayList<String>(originalNames);
+        overlayNames.remove(10);
+        overlayNames.set(500, "M500");
+        overlayNames.add(1000, "N1000");
+        overlayNames.set(1500, overlayNames.get(1501));
+        overlayNames.add("Z");
+        
+        originalHandle.overlay(createLargeHandle(xmlService, overlayNames));
+        Assert.assertEquals(overlayNames, getListNames(originalHandle));
+        
+        originalHandle.getRoot().getUnkeyedLeafList().get(700).setName("D700");
+        overlayNames.set(700, "D700");
+        Assert.assertEquals(overlayNames, getListNames(originalHandle));
+        
+        originalHandle.overlay(createLargeHandle(xmlService, originalNames));
+        Assert.assertEquals(originalNames, getListNames(originalHandle));
+    }
+    
+    private static void forceDigests(XmlRootHandle<OverlayRootABean> handle, long digest) {
+        for (UnkeyedLeafBean leaf : handle.getRoot().getUnkeyedLeafList()) {
+            ((BaseHK2JAXBBean) leaf).__setDigest(digest);
+        }
+    }
+    
+    /**
+     * Gives every bean of both lists the same digest, as if they
+     * all collided, and makes sure that the overlay still finds
+     * the beans that are different
+     * 
+     * @throws Exception
+     */
+    @Test
+    // @org.junit.Ignore
+    public void testCollidingDigestsAreNotTakenAsEqual() throws Exception {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        List<String> originalNames = getLargeNames();
+        XmlRootHandle<OverlayRootABean> originalHandle = createLargeHandle(xmlService, originalNames);
+        
+        List<String> overlayNames = new ArrayList<String>(originalNames);
+        overlayNames.set(5, "M5");
+        overlayNames.set(1200, "M1200");
+        XmlRootHandle<OverlayRootABean> overlayHandle = createLargeHandle(xmlService, overlayNames);
+        
+        forceDigests(originalHandle, 0L);
+        forceDigests(overlayHandle, 0L);
+        
+        originalHandle.overlay(overlayHandle);
+        Assert.assertEquals(overlayNames, getListNames(originalHandle));
+    }
 }
@@ -310,6 +310,54 @@ public class TransactionTest {
         }
     }
     
+    /**
+     * Ensures that getters called by the thread holding the
+     * transaction see the uncommitted values, and that getters
+     * called after the transaction is complete see only the
+     * committed values
+     * 
+     * @throws Exception
+     */
+    @Test 
+    // @org.junit.Ignore
+    public void testGettersDuringAndAfterTransaction() throws Exception {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        URL url = getClass().getClassLoader().getResource(MergeTest.DOMAIN1_FILE);
+        
+        XmlRootHandle<DomainBean> rootHandle = xmlService.unmarshal(url.toURI(), DomainBean.class);
+        
+        DomainBean domain = rootHandle.getRoot();
+        Assert.assertEquals(MergeTest.DEFAULT_SUBNET, domain.getSubnetwork());
+        
+        XmlHandleTransaction<DomainBean> transaction = rootHandle.lockForTransaction();
+        try {
+            domain.setSubnetwork(ALT_SUBNET);
+            
+            Assert.assertEquals(ALT_SUBNET, domain.getSubnetwork());
+        }
+        finally {
+            transaction.abandon();
+        }
+        
+        Assert.assertEquals(MergeTest.DEFAULT_SUBNET, domain.getSubnetwork());
+        
+        transaction = rootHandle.lockForTransaction();
+        try {
+            domain.setSubnetwork(ALT_SUBNET);
+        }
+        finally {
+            transaction.commit();
+        }
+        
+        Assert.assertEquals(ALT_SUBNET, domain.getSubnetwork());
+        
+        domain.setSubnetwork(MergeTest.DEFAULT_SUBNET);
+        
+        Assert.assertEquals(MergeTest.DEFAULT_SUBNET, domain.getSubnetwork());
+    }
+    
     /**
      * Does this from the original state
      * 
@@ -42,8 +42,13 @@ package org.glassfish.hk2.xml.test.readonly;
 import java.net.URL;
 
 import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.xml.api.XmlHk2ConfigurationBean;
+import org.glassfish.hk2.xml.api.XmlRootCopy;
 import org.glassfish.hk2.xml.api.XmlRootHandle;
+import org.glassfish.hk2.xml.api.XmlRootSnapshot;
 import org.glassfish.hk2.xml.api.XmlService;
+import org.glassfish.hk2.xml.test.beans.DomainBean;
+import org.glassfish.hk2.xml.test.dynamic.merge.MergeTest;
 import org.glassfish.hk2.xml.test.utilities.Utilities;
 import org.junit.Assert;
 import org.junit.Test;
@@ -76,6 +81,9 @@ public class ReadOnlyTest {
     private final static String SCIENTIFIC_AMERICAN = "Scientific American";
     private final static String GAME_INFORMER = "Game Informer";
     
+    private final static String ALT_SUBNET = "0.0.255.255";
+    private final static String DOMAIN1_NAME = "domain1";
+    
     /**
      * Tests that we can add a read-only bean
      * 
@@ -123,4 +131,138 @@ public class ReadOnlyTest {
         Assert.assertEquals(ZIP, address.getZipCode());
     }
 
+    /**
+     * Tests that the read-only root has the same values as the
+     * original tree and that it cannot be modified
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testGetReadOnlyRoot() throws Exception {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        URL url = getClass().getClassLoader().getResource(LIBRARY1_FILE);
+        
+        XmlRootHandle<LibraryBean> rootHandle = xmlService.unmarshal(url.toURI(), LibraryBean.class);
+        LibraryBean library = rootHandle.getReadOnlyRoot(true);
+        
+        Assert.assertNotSame(rootHandle.getRoot(), library);
+        
+        Assert.assertEquals(LIBRARY_NAME, library.getName());
+        Assert.assertEquals(GEEK_SUBLIME_ISBN, library.getBooks().get(0).getISBN());
+        Assert.assertEquals(WOODS_NAME, library.getMovies().get(2).getName());
+        Assert.assertEquals(GAME_INFORMER, library.getMagazines()[1].getName());
+        Assert.assertEquals(ZIP, library.getAddress().getZipCode());
+        
+        try {
+            ((XmlHk2ConfigurationBean) library)._setProperty("name", ALIEN_NAME);
+            Assert.fail("Should not be able to modify a read-only bean");
+        }
+        catch (IllegalStateException ise) {
+            // expected
+        }
+        
+        Assert.assertEquals(LIBRARY_NAME, library.getName());
+    }
+    
+    /**
+     * Tests that snapshots are shared until a change is committed
+     * and that old snapshots are not affected by the change
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testSnapshotRevisions() throws Exception {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        URL url = getClass().getClassLoader().getResource(MergeTest.DOMAIN1_FILE);
+        
+        XmlRootHandle<DomainBean> rootHandle = xmlService.unmarshal(url.toURI(), DomainBean.class);
+        
+        XmlRootSnapshot<DomainBean> snapshot = rootHandle.getSnapshot(true);
+        Assert.assertSame(snapshot, rootHandle.getSnapshot(true));
+        Assert.assertTrue(snapshot.isCurrent());
+        Assert.assertTrue(snapshot.representsDefaults());
+        Assert.assertEquals(rootHandle, snapshot.getParent());
+        
+        Assert.assertEquals(DOMAIN1_NAME, snapshot.getRoot().getName());
+        Assert.assertEquals(MergeTest.DEFAULT_SUBNET, snapshot.getRoot().getSubnetwork());
+        
+        XmlRootSnapshot<DomainBean> rawSnapshot = rootHandle.getSnapshot(false);
+        Assert.assertFalse(rawSnapshot.representsDefaults());
+        Assert.assertNull(rawSnapshot.getRoot().getSubnetwork());
+        
+        rootHandle.getRoot().setSubnetwork(ALT_SUBNET);
+        
+        Assert.assertFalse(snapshot.isCurrent());
+        Assert.assertEquals(MergeTest.DEFAULT_SUBNET, snapshot.getRoot().getSubnetwork());
+        
+        XmlRootSnapshot<DomainBean> newSnapshot = rootHandle.getSnapshot(true);
+        Assert.assertNotSame(snapshot, newSnapshot);
+        Assert.assertTrue(newSnapshot.getRevision() > snapshot.getRevision());
+        Assert.assertEquals(ALT_SUBNET, newSnapshot.getRoot().getSubnetwork());
+        Assert.assertEquals(ALT_SUBNET, rootHandle.getSnapshot(false).getRoot().getSubnetwork());
+    }
+    
+    /**
+     * Tests that the revisions of snapshots are kept apart from
+     * the change number of the handle, so that committing a change
+     * does not change whether an existing copy can be merged
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testSnapshotRevisionDoesNotAffectCopies() throws Exception {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        URL url = getClass().getClassLoader().getResource(MergeTest.DOMAIN1_FILE);
+        
+        XmlRootHandle<DomainBean> rootHandle = xmlService.unmarshal(url.toURI(), DomainBean.class);
+        
+        XmlRootCopy<DomainBean> copy = rootHandle.getXmlRootCopy();
+        XmlRootSnapshot<DomainBean> snapshot = rootHandle.getSnapshot(false);
+        
+        Assert.assertTrue(copy.isMergeable());
+        Assert.assertTrue(snapshot.isCurrent());
+        
+        rootHandle.getRoot().setSubnetwork(ALT_SUBNET);
+        
+        Assert.assertFalse(snapshot.isCurrent());
+        Assert.assertTrue(copy.isMergeable());
+    }
+    
+    /**
+     * Tests that adding a root makes the snapshots stale, and that
+     * a copy taken once the root is added can be changed and merged
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testAddRootMakesSnapshotsStale() throws Exception {
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        XmlRootHandle<DomainBean> rootHandle = xmlService.createEmptyHandle(DomainBean.class);
+        
+        XmlRootSnapshot<DomainBean> snapshot = rootHandle.getSnapshot(false);
+        Assert.assertNull(snapshot.getRoot());
+        
+        rootHandle.addRoot();
+        
+        Assert.assertFalse(snapshot.isCurrent());
+        Assert.assertNotNull(rootHandle.getSnapshot(false).getRoot());
+        
+        XmlRootCopy<DomainBean> copy = rootHandle.getXmlRootCopy();
+        copy.getChildRoot().setSubnetwork(ALT_SUBNET);
+        
+        Assert.assertTrue(copy.isMergeable());
+        copy.merge();
+        
+        Assert.assertEquals(ALT_SUBNET, rootHandle.getRoot().getSubnetwork());
+        Assert.assertEquals(ALT_SUBNET, rootHandle.getSnapshot(false).getRoot().getSubnetwork());
+    }
+
 }
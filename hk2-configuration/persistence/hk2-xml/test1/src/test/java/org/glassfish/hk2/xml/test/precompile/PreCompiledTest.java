@@ -60,6 +60,7 @@ public class PreCompiledTest {
     private final static String CLASS_ADD_ON_NAME = "_Hk2_Jaxb";
     private final static String PRE_COMPILED_FILE = "pre-compiled.xml";
     private final static String SIMPLE_FILE = "simple.xml";
+    private final static String MODEL_FILE = "pre-compiled-model.xml";
     private final static String ALICE = "Alice";
     private final static String BOB = "Bob";
     private final static String CAROL = "Carol";
@@ -239,6 +240,48 @@ public class PreCompiledTest {
         Assert.assertEquals(14, worker.returnFourteen());
     }
     
+    /**
+     * Only the root of this model is annotated, but includeChildren
+     * should cause all of the children to be pre-generated
+     * 
+     * @throws Exception
+     */
+    @Test // @org.junit.Ignore
+    public void testIncludeChildrenPreGeneratesWholeModel() throws Exception {
+        Assert.assertNotNull(getAssociatedClass(ModelRootBean.class));
+        Assert.assertNotNull(getAssociatedClass(ModelChildBean.class));
+        Assert.assertNotNull(getAssociatedClass(ModelGrandchildBean.class));
+        
+        ServiceLocator locator = Utilities.createLocator();
+        XmlService xmlService = locator.getService(XmlService.class);
+        
+        URL url = getClass().getClassLoader().getResource(MODEL_FILE);
+        
+        XmlRootHandle<ModelRootBean> rootHandle = xmlService.unmarshal(url.toURI(), ModelRootBean.class);
+        ModelRootBean root = rootHandle.getRoot();
+        
+        Assert.assertEquals(ALICE, root.getName());
+        Assert.assertEquals(1, root.getModelChild().size());
+        
+        ModelChildBean child = root.getModelChild().get(0);
+        Assert.assertEquals(BOB, child.getName());
+        Assert.assertEquals(13, child.getModelGrandchild().getValue());
+        
+        // The beans must be instances of the pre-generated classes, not of classes made by javassist
+        assertPreGenerated(ModelRootBean.class, root);
+        assertPreGenerated(ModelChildBean.class, child);
+        assertPreGenerated(ModelGrandchildBean.class, child.getModelGrandchild());
+    }
+    
+    private static void assertPreGenerated(Class<?> forInterface, Object bean) {
+        Class<?> preGenerated = getAssociatedClass(forInterface);
+        Assert.assertSame(preGenerated, bean.getClass());
+        
+        // Classes generated at runtime have no class file
+        String classFile = preGenerated.getName().replace('.', '/') + ".class";
+        Assert.assertNotNull(preGenerated.getClassLoader().getResource(classFile));
+    }
+    
     private static class BeanListenerInterfaceImpl implements BeanListenerInterface {
         private boolean called;
 
@@ -39,6 +39,7 @@
  */
 package org.glassfish.hk2.configuration.persistence.properties;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Properties;
 
@@ -68,6 +69,23 @@ public interface PropertyFileHandle {
      */
     public void readProperties(Properties properties);
     
+    /**
+     * Reads the given property file with {@link #readProperties(Properties)}
+     * and then checks the file for changes every pollInterval milliseconds.
+     * Whenever the modification time or size of the file changes it is read
+     * again.  Only the instances whose properties have changed are converted
+     * again and updated in the hub, in a single hub transaction.  If a later
+     * read fails (for example because the file is being written) the values
+     * in the hub are left alone and the file is read again on the next check.
+     * A handle can watch only one file, and stops watching it when
+     * {@link #dispose()} is called
+     * 
+     * @param file The non-null property file to read and watch
+     * @param pollInterval The number of milliseconds between checks, must be positive
+     * @throws IOException if the file could not be read the first time
+     */
+    public void watchFile(File file, long pollInterval) throws IOException;
+    
     /**
      * Returns the specific type associated with this handle
      * 
@@ -39,6 +39,9 @@
  */
 package org.glassfish.hk2.configuration.persistence.properties.internal;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -49,6 +52,8 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import org.glassfish.hk2.configuration.hub.api.Hub;
 import org.glassfish.hk2.configuration.hub.api.Instance;
@@ -58,6 +63,7 @@ import org.glassfish.hk2.configuration.persistence.properties.PropertyFileBean;
 import org.glassfish.hk2.configuration.persistence.properties.PropertyFileHandle;
 import org.glassfish.hk2.configuration.persistence.properties.PropertyFileService;
 import org.glassfish.hk2.utilities.reflection.ClassReflectionHelper;
+import org.glassfish.hk2.utilities.reflection.Logger;
 import org.glassfish.hk2.utilities.reflection.MethodWrapper;
 import org.glassfish.hk2.utilities.reflection.Pretty;
 import org.glassfish.hk2.utilities.reflection.internal.ClassReflectionHelperImpl;
@@ -74,8 +80,17 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
     
     private final Object lock = new Object();
     private HashMap<TypeData, Map<String, String>> lastRead = new HashMap<TypeData, Map<String, String>>();
+    private HashMap<TypeData, ConvertedBean> lastConverted = new HashMap<TypeData, ConvertedBean>();
+    private final HashMap<Class<?>, Map<String, Method>> setterCache = new HashMap<Class<?>, Map<String, Method>>();
     private boolean open = true;
     
+    private Timer watcher;
+    private File watchedFile;
+    private long watchedLastModified;
+    private long watchedLength;
+    private long failedLastModified = -1L;
+    private long failedLength = -1L;
+    
     private final String specificType;
     private final String defaultType;
     private final String defaultInstanceName;
@@ -168,7 +183,9 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
         addMultiValue(buildMe, td, propName, value);
     }
     
-    private void removeInstances(WriteableBeanDatabase wbd, HashMap<TypeData, Map<String, String>> allBeans) {
+    private boolean removeInstances(WriteableBeanDatabase wbd, HashMap<TypeData, Map<String, String>> allBeans) {
+        boolean retVal = false;
+        
         HashSet<String> newReadTypes = getTypes(allBeans);
         HashSet<String> oldReadTypes = getTypes(lastRead);
         
@@ -182,7 +199,7 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
             
             HashSet<String> instances = getInstances(removeType, lastRead);
             for (String instance : instances) {
-                wt.removeInstance(instance);
+                if (wt.removeInstance(instance) != null) retVal = true;
             }
         }
         
@@ -199,9 +216,11 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
             // removeOldInstances now contains the set of instances that need to be removed completely
             
             for (String instance : removeOldInstances) {
-                wt.removeInstance(instance);
+                if (wt.removeInstance(instance) != null) retVal = true;
             }
         }
+        
+        return retVal;
     }
     
     private static String SET = "set";
@@ -256,6 +275,30 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
         return null;
     }
     
+    /**
+     * lock must be held.  Setters are looked up once per class and property
+     */
+    private Method findSetter(Class<?> clazz, String key) {
+        Map<String, Method> setters = setterCache.get(clazz);
+        if (setters == null) {
+            setters = new HashMap<String, Method>();
+            setterCache.put(clazz, setters);
+        }
+        
+        Method retVal = setters.get(key);
+        if (retVal != null) return retVal;
+        
+        // Could be two of them
+        Set<String> possibleSetterNames = getPossibleSetterNames(key);
+        retVal = findMethod(clazz, possibleSetterNames);
+        if (retVal == null) {
+            throw new IllegalArgumentException("Could not find a setter for property names " + Pretty.collection(possibleSetterNames));
+        }
+        
+        setters.put(key, retVal);
+        return retVal;
+    }
+    
     private Object convertValue(String value, Class<?> intoMe) {
         if (value == null) return value;
         
@@ -313,14 +356,15 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
         }
     }
     
-    private Object convertBean(String typeName, Map<String, String> rawBean) {
+    private PropertyFileBean getPropertyFileBean() {
         Instance instance = hub.getCurrentDatabase().getInstance(
                 PropertyFileBean.TYPE_NAME,
                 PropertyFileBean.INSTANCE_NAME);
-        PropertyFileBean propertyFileBean = (PropertyFileBean) ((instance == null) ? null : instance.getBean());
-        if (propertyFileBean == null) return rawBean;
         
-        Class<?> beanClass = propertyFileBean.getTypeMapping(typeName);
+        return (PropertyFileBean) ((instance == null) ? null : instance.getBean());
+    }
+    
+    private Object convertBean(Class<?> beanClass, Map<String, String> rawBean) {
         if (beanClass == null) return rawBean;
         
         // OK, at this point we need to convert the map to a real bean
@@ -328,14 +372,7 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
             Object target = beanClass.newInstance();
             
             for (Map.Entry<String, String> entry : rawBean.entrySet()) {
-                String key = entry.getKey();
-                
-                // Could be two of them
-                Set<String> possibleSetterNames = getPossibleSetterNames(key);
-                Method method = findMethod(beanClass, possibleSetterNames);
-                if (method == null) {
-                    throw new IllegalArgumentException("Could not find a setter for property names " + Pretty.collection(possibleSetterNames));
-                }
+                Method method = findSetter(beanClass, entry.getKey());
                 
                 Class<?> methodParamType = method.getParameterTypes()[0];
                 
@@ -350,44 +387,61 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
         catch (Throwable th) {
             throw new IllegalArgumentException("Error converting to bean type " + beanClass.getName(), th);
         }
-        
-        
     }
     
-    private void modifyValues(WriteableBeanDatabase wbd, HashMap<TypeData, Map<String, String>> allBeans) {
-        for (Map.Entry<TypeData, Map<String, String>> entry : lastRead.entrySet()) {
-            TypeData oldKey = entry.getKey();
-            if (!allBeans.containsKey(oldKey)) return;
-            
-            Map<String, String> newBean = allBeans.get(oldKey);
-            
-            String type = oldKey.typeName;
-            String instance = oldKey.instanceName;
+    /**
+     * lock must be held.  Converts the raw beans, re-using the bean
+     * converted by the last read for any raw bean whose values and
+     * bean class have not changed
+     * 
+     * @param allBeans The raw beans that were just read
+     * @param changed Filled in with the beans that were converted again
+     * @return The converted beans
+     */
+    private HashMap<TypeData, ConvertedBean> convertBeans(HashMap<TypeData, Map<String, String>> allBeans, Set<TypeData> changed) {
+        PropertyFileBean propertyFileBean = getPropertyFileBean();
+        
+        HashMap<TypeData, ConvertedBean> retVal = new HashMap<TypeData, ConvertedBean>();
+        for (Map.Entry<TypeData, Map<String, String>> entry : allBeans.entrySet()) {
+            TypeData key = entry.getKey();
+            Map<String, String> rawBean = entry.getValue();
             
-            Object convertedNewBean = convertBean(type, newBean);
+            Class<?> beanClass = (propertyFileBean == null) ? null : propertyFileBean.getTypeMapping(key.typeName) ;
             
-            WriteableType wt = wbd.findOrAddWriteableType(type);
-            if (wt.getInstance(instance) == null) {
-                wt.addInstance(instance, convertedNewBean);
-            }
-            else {
-                wt.modifyInstance(instance, convertedNewBean);
+            ConvertedBean previous = lastConverted.get(key);
+            if (previous != null && previous.beanClass == beanClass && rawBean.equals(lastRead.get(key))) {
+                retVal.put(key, previous);
+                continue;
             }
+            
+            retVal.put(key, new ConvertedBean(beanClass, convertBean(beanClass, rawBean)));
+            changed.add(key);
         }
+        
+        return retVal;
     }
     
-    private void addValues(WriteableBeanDatabase wbd, HashMap<TypeData, Map<String, String>> allBeans) {
-        for (Map.Entry<TypeData, Map<String, String>> entry : allBeans.entrySet()) {
-            TypeData newKey = entry.getKey();
-            if (lastRead.containsKey(newKey)) {
-                // This was a modification, not an add
-                continue;
-            }
+    /**
+     * Adds or modifies the changed beans.  Unchanged beans are only
+     * added back if they have been removed from the hub by someone else
+     * 
+     * @return true if anything was changed in the database
+     */
+    private static boolean addOrModifyValues(WriteableBeanDatabase wbd, HashMap<TypeData, ConvertedBean> converted, Set<TypeData> changed) {
+        boolean retVal = false;
+        
+        for (Map.Entry<TypeData, ConvertedBean> entry : converted.entrySet()) {
+            TypeData key = entry.getKey();
+            
+            String typeName = key.typeName;
+            String instanceName = key.instanceName;
             
-            String typeName = newKey.typeName;
-            String instanceName = newKey.instanceName;
+            if (!changed.contains(key)) {
+                WriteableType wt = wbd.getWriteableType(typeName);
+                if (wt != null && wt.getInstance(instanceName) != null) continue;
+            }
             
-            Object convertedNewBean = convertBean(typeName, entry.getValue());
+            Object convertedNewBean = entry.getValue().bean;
             
             WriteableType wt = wbd.findOrAddWriteableType(typeName);
             if (wt.getInstance(instanceName) != null) {
@@ -396,7 +450,11 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
             else {
                 wt.addInstance(instanceName, convertedNewBean);
             }
+            
+            retVal = true;
         }
+        
+        return retVal;
     }
 
     /* (non-Javadoc)
@@ -420,15 +478,25 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
                 throw new IllegalStateException("This handle has been closed");
             }
             
+            // Only the beans whose raw values changed are converted again
+            HashSet<TypeData> changed = new HashSet<TypeData>();
+            HashMap<TypeData, ConvertedBean> converted = convertBeans(allBeans, changed);
+            
             boolean success = false;
             for (int lcv = 0; lcv < MAX_TRIES; lcv++) {
                 WriteableBeanDatabase wbd = hub.getWriteableDatabaseCopy();
             
-                removeInstances(wbd, allBeans);
-            
-                modifyValues(wbd, allBeans);
+                boolean modified = removeInstances(wbd, allBeans);
             
-                addValues(wbd, allBeans);
+                if (addOrModifyValues(wbd, converted, changed)) {
+                    modified = true;
+                }
+                
+                if (!modified) {
+                    // Nothing changed, no need for a hub transaction
+                    success = true;
+                    break;
+                }
             
                 try {
                     wbd.commit();
@@ -445,6 +513,110 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
             }
             
             lastRead = allBeans;
+            lastConverted = converted;
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.configuration.persistence.properties.PropertyFileHandle#watchFile(java.io.File, long)
+     */
+    @Override
+    public void watchFile(File file, long pollInterval) throws IOException {
+        if (file == null || pollInterval <= 0) throw new IllegalArgumentException();
+        
+        synchronized (lock) {
+            if (!open) {
+                throw new IllegalStateException("This handle has been closed");
+            }
+            if (watchedFile != null) {
+                throw new IllegalStateException("This handle is already watching " + watchedFile);
+            }
+            
+            watchedFile = file;
+        }
+        
+        boolean success = false;
+        try {
+            readFile(file);
+            success = true;
+        }
+        finally {
+            if (!success) {
+                synchronized (lock) {
+                    watchedFile = null;
+                }
+            }
+        }
+        
+        synchronized (lock) {
+            if (!open) return;
+            
+            watcher = new Timer("PropertyFileWatcher-" + file.getName(), true);
+            watcher.schedule(new TimerTask() {
+                
+                @Override
+                public void run() {
+                    checkWatchedFile();
+                }
+                
+            }, pollInterval, pollInterval);
+        }
+    }
+    
+    private void readFile(File file) throws IOException {
+        // Taken before reading so a change made while reading is seen on the next check
+        long lastModified = file.lastModified();
+        long length = file.length();
+        
+        Properties properties = new Properties();
+        
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            properties.load(fis);
+        }
+        finally {
+            fis.close();
+        }
+        
+        readProperties(properties);
+        
+        synchronized (lock) {
+            watchedLastModified = lastModified;
+            watchedLength = length;
+        }
+    }
+    
+    private void checkWatchedFile() {
+        File file;
+        long lastModified;
+        long length;
+        synchronized (lock) {
+            if (!open || watchedFile == null) return;
+            
+            file = watchedFile;
+            lastModified = file.lastModified();
+            length = file.length();
+            
+            if (lastModified == watchedLastModified && length == watchedLength) return;
+            
+            // This version of the file has already failed, wait for it to change again
+            if (lastModified == failedLastModified && length == failedLength) return;
+        }
+        
+        try {
+            readFile(file);
+        }
+        catch (Exception e) {
+            // The file may be in the middle of being written or may have
+            // a value that cannot be converted.  The hub keeps the last
+            // good values and the file is read again once it changes
+            synchronized (lock) {
+                failedLastModified = lastModified;
+                failedLength = length;
+            }
+            
+            Logger.getLogger().warning("Could not read the changed property file " + file +
+                    ", keeping the previous values until it changes again", e);
         }
     }
     
@@ -503,7 +675,14 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
             if (!open) return;
             open = false;
             
+            if (watcher != null) {
+                watcher.cancel();
+                watcher = null;
+            }
+            watchedFile = null;
+            
             reflectionHelper.dispose();
+            setterCache.clear();
             
             HashMap<TypeData, Map<String, String>> allBeans = new HashMap<TypeData, Map<String, String>>();
             
@@ -523,10 +702,22 @@ public class PropertyFileHandleImpl implements PropertyFileHandle {
             
             // success or not
             lastRead = allBeans;
+            lastConverted = new HashMap<TypeData, ConvertedBean>();
         }
 
     }
     
+    private static class ConvertedBean {
+        /** The class the bean was converted to, or null if left as a map */
+        private final Class<?> beanClass;
+        private final Object bean;
+        
+        private ConvertedBean(Class<?> beanClass, Object bean) {
+            this.beanClass = beanClass;
+            this.bean = bean;
+        }
+    }
+    
     private static class TypeData {
         private final String typeName;
         private final String instanceName;
@@ -40,6 +40,7 @@
 package org.glassfish.hk2.configuration.properties.test;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -427,5 +428,128 @@ public class PropertiesTest extends HK2Runner {
             removeType(TYPE4);
         }
     }
+    
+    private static void writeProperties(File file, Properties p) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            p.store(fos, null);
+        }
+        finally {
+            fos.close();
+        }
+    }
+    
+    /**
+     * Tests that a watched file is read again when it changes, and
+     * that only the instances that changed are updated in the hub
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testWatchedFileOnlyUpdatesChangedInstances() throws Exception {
+        removeType(TYPE4);
+        
+        File file = File.createTempFile("watched", ".properties");
+        file.deleteOnExit();
+        
+        Properties p = new Properties();
+        p.put(instanceAndParamKey(ALICE, OTHER), OTHER_VALUE1);
+        p.put(instanceAndParamKey(BOB, OTHER), OTHER_VALUE1);
+        writeProperties(file, p);
+        
+        PropertyFileService pfs = testLocator.getService(PropertyFileService.class);
+        PropertyFileHandle pfh = pfs.createPropertyHandleOfAnyType(TYPE4, CAROL);
+        
+        try {
+            pfh.watchFile(file, 10L);
+            
+            Assert.assertEquals(OTHER_VALUE1, getHubValue(TYPE4, ALICE, OTHER));
+            Assert.assertEquals(OTHER_VALUE1, getHubValue(TYPE4, BOB, OTHER));
+            
+            Object bobBean = hub.getCurrentDatabase().getInstance(TYPE4, BOB).getBean();
+            
+            // The new value has a different length so the change is seen
+            // even if the file system has a coarse modification time
+            String newValue = OTHER_VALUE2 + OTHER_VALUE2;
+            p.put(instanceAndParamKey(ALICE, OTHER), newValue);
+            writeProperties(file, p);
+            
+            long giveUp = System.currentTimeMillis() + 20000L;
+            while (!newValue.equals(getHubValue(TYPE4, ALICE, OTHER)) &&
+                    System.currentTimeMillis() < giveUp) {
+                Thread.sleep(10L);
+            }
+            
+            Assert.assertEquals(newValue, getHubValue(TYPE4, ALICE, OTHER));
+            
+            // Bob did not change, so the bean in the hub was left alone
+            Assert.assertSame(bobBean, hub.getCurrentDatabase().getInstance(TYPE4, BOB).getBean());
+        }
+        finally {
+            pfh.dispose();
+            
+            removeType(TYPE4);
+            file.delete();
+        }
+    }
+    
+    /**
+     * Tests that a watched file that cannot be read keeps the last
+     * good values in the hub, and that the file is read again once
+     * it has been fixed
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testWatchedFileRecoversFromBadFile() throws Exception {
+        removeType(TYPE4);
+        
+        File file = File.createTempFile("watched", ".properties");
+        file.deleteOnExit();
+        
+        Properties p = new Properties();
+        p.put(instanceAndParamKey(ALICE, OTHER), OTHER_VALUE1);
+        writeProperties(file, p);
+        
+        PropertyFileService pfs = testLocator.getService(PropertyFileService.class);
+        PropertyFileHandle pfh = pfs.createPropertyHandleOfAnyType(TYPE4, CAROL);
+        
+        try {
+            pfh.watchFile(file, 10L);
+            
+            Assert.assertEquals(OTHER_VALUE1, getHubValue(TYPE4, ALICE, OTHER));
+            
+            // A malformed unicode escape makes Properties.load fail
+            FileOutputStream fos = new FileOutputStream(file);
+            try {
+                fos.write((instanceAndParamKey(ALICE, OTHER) + "=\\uZZZZ\n").getBytes("ISO-8859-1"));
+            }
+            finally {
+                fos.close();
+            }
+            
+            // Several polls go by with the bad file in place
+            Thread.sleep(200L);
+            Assert.assertEquals(OTHER_VALUE1, getHubValue(TYPE4, ALICE, OTHER));
+            
+            String newValue = OTHER_VALUE2 + OTHER_VALUE2 + OTHER_VALUE2;
+            p.put(instanceAndParamKey(ALICE, OTHER), newValue);
+            writeProperties(file, p);
+            
+            long giveUp = System.currentTimeMillis() + 20000L;
+            while (!newValue.equals(getHubValue(TYPE4, ALICE, OTHER)) &&
+                    System.currentTimeMillis() < giveUp) {
+                Thread.sleep(10L);
+            }
+            
+            Assert.assertEquals(newValue, getHubValue(TYPE4, ALICE, OTHER));
+        }
+        finally {
+            pfh.dispose();
+            
+            removeType(TYPE4);
+            file.delete();
+        }
+    }
 
 }
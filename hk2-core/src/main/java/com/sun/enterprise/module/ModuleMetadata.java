@@ -108,7 +108,7 @@ public final class ModuleMetadata implements Serializable {
                  * on each line all characters following the first comment
                  * character are ignored. The file must be encoded in UTF-8.
                  */
-                Scanner scanner = new Scanner(is);
+                Scanner scanner = new Scanner(is, "UTF-8");
                 final String commentPattern = "#"; // NOI18N
                 while (scanner.hasNextLine()) {
                     String line = scanner.nextLine();
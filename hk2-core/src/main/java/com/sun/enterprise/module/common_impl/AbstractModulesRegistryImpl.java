@@ -118,6 +118,13 @@ public abstract class AbstractModulesRegistryImpl implements ModulesRegistry {
     private Map<ServiceLocator, String> habitats = new Hashtable<ServiceLocator, String>();
 
     Map<Module, Map<ServiceLocator, List<ActiveDescriptor>>> moduleDescriptors = new ConcurrentHashMap<Module, Map<ServiceLocator, List<ActiveDescriptor>>>();
+
+    /**
+     * Modules whose inhabitants have not been added yet, per service locator
+     */
+    private final Map<ServiceLocator, OnDemandPopulator> onDemandPopulators = new ConcurrentHashMap<ServiceLocator, OnDemandPopulator>();
+
+    private volatile boolean onDemandPopulation = Boolean.getBoolean("hk2.module.ondemand");
     
     protected AbstractModulesRegistryImpl(ModulesRegistry parent) {
         this.parent = parent;
@@ -173,8 +180,18 @@ public abstract class AbstractModulesRegistryImpl implements ModulesRegistry {
      * @param postProcessors
      */
      public void populateServiceLocator(String name, ServiceLocator serviceLocator, List<PopulatorPostProcessor> postProcessors) throws MultiException {
+         OnDemandPopulator onDemandPopulator = onDemandPopulation ?
+                 new OnDemandPopulator(this, name, serviceLocator, postProcessors) : null;
          try {
              for (final Module module : getModules()) { 
+                 if (onDemandPopulator != null) {
+                     Collection<String> contracts = getInhabitantContracts(module, name);
+                     if (contracts != null) {
+                         onDemandPopulator.addModule(module, contracts);
+                         continue;
+                     }
+                 }
+                 
             	   // TODO: should get the inhabitantsParser out of Main instead since
                  // this could have been overridden
              	List<ActiveDescriptor> allDescriptors =
@@ -182,29 +199,112 @@ public abstract class AbstractModulesRegistryImpl implements ModulesRegistry {
              	if (allDescriptors == null) continue;
              	if (allDescriptors.isEmpty()) continue;
              	
-             	Map<ServiceLocator, List<ActiveDescriptor>> descriptorByServiceLocator = moduleDescriptors.get(module);
-             	if (descriptorByServiceLocator == null) {
-             	    descriptorByServiceLocator = new HashMap<ServiceLocator, List<ActiveDescriptor>>();
-             	    
-             	   moduleDescriptors.put(module, descriptorByServiceLocator);
-             	}
-             	
-             	List<ActiveDescriptor> foundDs = descriptorByServiceLocator.get(serviceLocator);
-             	if (foundDs == null) {
-             	    foundDs = new LinkedList<ActiveDescriptor>();
-             	    
-             	    descriptorByServiceLocator.put(serviceLocator, foundDs);
-             	}
-             	
-             	foundDs.addAll(allDescriptors);
+             	addModuleDescriptors(module, serviceLocator, allDescriptors);
              }
          } catch (Exception e) {
              throw new MultiException(e);
          }
+         if (onDemandPopulator != null) {
+             // a lookup of a contract that already has a service would never get to them
+             onDemandPopulator.populateProvidedContracts();
+         }
+         if (onDemandPopulator != null && !onDemandPopulator.isEmpty()) {
+             ServiceLocatorUtilities.addOneConstant(serviceLocator, onDemandPopulator);
+             onDemandPopulators.put(serviceLocator, onDemandPopulator);
+         }
          // From now on, we will keep this service registry up-to-date with module system state
-         habitats.put(serviceLocator, name);
+         addServiceLocator(serviceLocator, name);
      }
 
+    /**
+     * When set, {@link #populateServiceLocator} only adds the inhabitants of a
+     * module once a lookup needs one of the contracts they advertise.  Modules
+     * for which {@link #getInhabitantContracts} cannot tell the contracts are
+     * still populated right away.
+     * <p>
+     * So that the ranking of services is the same as without this mode, all
+     * the modules advertising a contract are populated as soon as the contract
+     * has a service in the service locator, either because it is looked up or
+     * because a module that is populated right away (or a module populated for
+     * another one of its contracts) provides it.  Services of those contracts
+     * added to the service locator by other means do not cause the modules to be
+     * populated.  Lookups of all the services of a contract, with getAllServices,
+     * getAllServiceHandles or an IterableProvider, populate the modules like any
+     * other lookup.  Lookups with a Filter or by qualifier alone never populate a
+     * module, since they do not name the contract class, so a contract
+     * that is looked up that way must be looked up by its class first.
+     * Defaults to the hk2.module.ondemand system property
+     *
+     * @param onDemandPopulation true if modules should be populated on demand
+     */
+    public void setOnDemandPopulation(boolean onDemandPopulation) {
+        this.onDemandPopulation = onDemandPopulation;
+    }
+
+    /**
+     * @return true if modules are populated on demand
+     */
+    public boolean isOnDemandPopulation() {
+        return onDemandPopulation;
+    }
+
+    /**
+     * Returns the contracts advertised by the inhabitants of the given name in the
+     * given module, without adding them anywhere.  This implementation uses the
+     * descriptors already present in the module metadata
+     *
+     * @param module the module
+     * @param name the name of the inhabitants
+     * @return the contract names, or null if they are not known without parsing the module
+     */
+    protected Collection<String> getInhabitantContracts(Module module, String name) {
+        List<Descriptor> descriptors = module.getMetadata().getDescriptors().get(name);
+        if (descriptors == null) return null;
+
+        Set<String> contracts = new HashSet<String>();
+        for (Descriptor descriptor : descriptors) {
+            contracts.addAll(descriptor.getAdvertisedContracts());
+        }
+        return contracts;
+    }
+
+    /**
+     * Remembers the descriptors a module added to a service locator, so that
+     * they can be removed again when the module is removed
+     *
+     * @param module the module the descriptors came from
+     * @param serviceLocator the service locator they were added to
+     * @param descriptors the descriptors that were added
+     */
+    protected void addModuleDescriptors(Module module, ServiceLocator serviceLocator, List<ActiveDescriptor> descriptors) {
+        Map<ServiceLocator, List<ActiveDescriptor>> descriptorByServiceLocator = moduleDescriptors.get(module);
+        if (descriptorByServiceLocator == null) {
+            descriptorByServiceLocator = new HashMap<ServiceLocator, List<ActiveDescriptor>>();
+
+            moduleDescriptors.put(module, descriptorByServiceLocator);
+        }
+
+        List<ActiveDescriptor> foundDs = descriptorByServiceLocator.get(serviceLocator);
+        if (foundDs == null) {
+            foundDs = new LinkedList<ActiveDescriptor>();
+
+            descriptorByServiceLocator.put(serviceLocator, foundDs);
+        }
+
+        foundDs.addAll(descriptors);
+    }
+
+    /**
+     * Registers a populated service locator so that the inhabitants of modules
+     * added from now on are added to it as well
+     *
+     * @param serviceLocator the populated service locator
+     * @param name the name of the inhabitants it was populated with
+     */
+    protected void addServiceLocator(ServiceLocator serviceLocator, String name) {
+        habitats.put(serviceLocator, name);
+    }
+
     @Override
 	public void populateConfig(ServiceLocator serviceLocator) {
     	try {
@@ -418,14 +518,24 @@ public abstract class AbstractModulesRegistryImpl implements ModulesRegistry {
         for (Map.Entry<ServiceLocator, String> entry : habitats.entrySet()) {
             String name = entry.getValue();
             ServiceLocator serviceLocator = entry.getKey();
+            List<ActiveDescriptor> descriptors;
             try
             {
-                parseInhabitants(newModule, name, serviceLocator, new ArrayList<PopulatorPostProcessor>());
+                descriptors = parseInhabitants(newModule, name, serviceLocator, new ArrayList<PopulatorPostProcessor>());
             }
             catch (Exception e)
             {
                 throw new RuntimeException("Not able to parse inhabitants information");
             }
+            
+            OnDemandPopulator onDemandPopulator = onDemandPopulators.get(serviceLocator);
+            if (onDemandPopulator != null && descriptors != null) {
+                Set<String> contracts = new HashSet<String>();
+                for (ActiveDescriptor<?> descriptor : descriptors) {
+                    contracts.addAll(descriptor.getAdvertisedContracts());
+                }
+                onDemandPopulator.contractsAdded(contracts);
+            }
           
         }
     }
@@ -442,6 +552,12 @@ public abstract class AbstractModulesRegistryImpl implements ModulesRegistry {
                 habitats.remove(key);
             }
         }
+
+        for (ServiceLocator key : new HashSet<ServiceLocator>(onDemandPopulators.keySet())) {
+            if (!ServiceLocatorState.SHUTDOWN.equals(key.getState())) continue;
+
+            onDemandPopulators.remove(key);
+        }
    
         
     }
@@ -464,6 +580,10 @@ public abstract class AbstractModulesRegistryImpl implements ModulesRegistry {
 		// TODO: modules comes right back when getModules() is called.
 		// the modeling is incorrect
 
+		for (OnDemandPopulator onDemandPopulator : onDemandPopulators.values()) {
+			onDemandPopulator.removeModule(module);
+		}
+
 		Map<ServiceLocator, List<ActiveDescriptor>> descriptorsByServiceLocator = moduleDescriptors
 				.get(module);
 
@@ -0,0 +1,216 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.module.common_impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.Injectee;
+import org.glassfish.hk2.api.JustInTimeInjectionResolver;
+import org.glassfish.hk2.api.MultiException;
+import org.glassfish.hk2.api.PopulatorPostProcessor;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.utilities.BuilderHelper;
+import org.glassfish.hk2.utilities.reflection.ReflectionHelper;
+
+import com.sun.enterprise.module.Module;
+
+/**
+ * Adds the inhabitants of a module to a service locator the first time
+ * a lookup in that service locator needs one of the contracts the module
+ * advertises.  Until then the module is only known by the names of its contracts
+ * <p>
+ * A lookup of a contract that already has a service never reaches this resolver,
+ * so a pending module must not be left behind once some other service of one of
+ * its contracts is present, or it would never be considered.  Therefore all the
+ * pending modules advertising a contract are added together, and adding a module
+ * also adds the pending modules advertising any of its other contracts
+ * <p>
+ * The service locator calls this resolver for lookups of one service, and for
+ * lookups of all the services of a type that find none.  It is not called for
+ * lookups with a Filter
+ * 
+ * @author jwells
+ */
+class OnDemandPopulator implements JustInTimeInjectionResolver {
+    private final AbstractModulesRegistryImpl registry;
+    private final String name;
+    private final ServiceLocator serviceLocator;
+    private final List<PopulatorPostProcessor> postProcessors;
+    
+    private final Map<String, List<Module>> modulesByContract = new HashMap<String, List<Module>>();
+    private final Map<Module, Collection<String>> contractsByModule = new HashMap<Module, Collection<String>>();
+    private final Set<Module> pending = new LinkedHashSet<Module>();
+    
+    OnDemandPopulator(AbstractModulesRegistryImpl registry, String name,
+            ServiceLocator serviceLocator, List<PopulatorPostProcessor> postProcessors) {
+        this.registry = registry;
+        this.name = name;
+        this.serviceLocator = serviceLocator;
+        this.postProcessors = postProcessors;
+    }
+    
+    /**
+     * Registers a module whose inhabitants have not been added yet
+     * 
+     * @param module the module
+     * @param contracts the contracts advertised by the inhabitants of the module
+     */
+    synchronized void addModule(Module module, Collection<String> contracts) {
+        pending.add(module);
+        contractsByModule.put(module, contracts);
+        
+        for (String contract : contracts) {
+            List<Module> modules = modulesByContract.get(contract);
+            if (modules == null) {
+                modules = new ArrayList<Module>(1);
+                
+                modulesByContract.put(contract, modules);
+            }
+            
+            modules.add(module);
+        }
+    }
+    
+    /**
+     * The module will not be populated anymore
+     * 
+     * @param module the module that went away
+     */
+    synchronized void removeModule(Module module) {
+        pending.remove(module);
+        contractsByModule.remove(module);
+    }
+    
+    synchronized boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Adds the pending modules advertising a contract for which the
+     * service locator already has a service, for example one from
+     * a module that was not populated on demand
+     */
+    synchronized void populateProvidedContracts() {
+        List<String> provided = new ArrayList<String>();
+        for (String contract : modulesByContract.keySet()) {
+            if (serviceLocator.getBestDescriptor(BuilderHelper.createContractFilter(contract)) != null) {
+                provided.add(contract);
+            }
+        }
+        
+        populate(provided);
+    }
+    
+    /**
+     * Adds the pending modules advertising any of the given contracts,
+     * which have just been given a service in the service locator
+     * 
+     * @param contracts the contracts that now have a service
+     */
+    synchronized void contractsAdded(Collection<String> contracts) {
+        populate(contracts);
+    }
+
+    /**
+     * Adds all the modules advertising the required contract.  This is
+     * done while holding the lock, so that concurrent lookups of the same
+     * contract all see the module
+     */
+    @Override
+    public synchronized boolean justInTimeResolution(Injectee failedInjectionPoint) {
+        Class<?> requiredClass = ReflectionHelper.getRawClass(failedInjectionPoint.getRequiredType());
+        if (requiredClass == null) return false;
+        
+        return populate(Collections.singletonList(requiredClass.getName()));
+    }
+    
+    /**
+     * Adds the pending modules advertising the given contracts, then
+     * those advertising the other contracts of the added modules and
+     * so on.  Lock must be held
+     * 
+     * @return true if anything was added to the service locator
+     */
+    private boolean populate(Collection<String> contracts) {
+        LinkedList<String> toDo = new LinkedList<String>(contracts);
+        
+        boolean modified = false;
+        while (!toDo.isEmpty()) {
+            List<Module> modules = modulesByContract.remove(toDo.removeFirst());
+            if (modules == null) continue;
+            
+            for (Module module : modules) {
+                if (!pending.remove(module)) continue;
+                
+                toDo.addAll(contractsByModule.remove(module));
+                
+                List<ActiveDescriptor> descriptors;
+                try {
+                    descriptors = registry.parseInhabitants(module, name, serviceLocator, postProcessors);
+                }
+                catch (Exception e) {
+                    throw new MultiException(e);
+                }
+                
+                if (descriptors == null || descriptors.isEmpty()) continue;
+                
+                registry.addModuleDescriptors(module, serviceLocator, descriptors);
+                modified = true;
+            }
+        }
+        
+        return modified;
+    }
+    
+    @Override
+    public String toString() {
+        return "OnDemandPopulator(" + name + "," + System.identityHashCode(this) + ")";
+    }
+}
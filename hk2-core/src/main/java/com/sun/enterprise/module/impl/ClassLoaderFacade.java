@@ -63,6 +63,15 @@ final class ClassLoaderFacade extends URLClassLoader {
     private ModuleClassLoader privateLoader;
     private int classesLoaded = 0;
 
+    static {
+        // lock per class name rather than on the whole facade
+        try {
+            registerAsParallelCapable();
+        } catch (Throwable t) {
+            // a VM older than Java 7, stays a serial class loader
+        }
+    }
+
     /** Creates a new instance of ClassLoaderFacade */
     public ClassLoaderFacade(ModuleClassLoader privateLoader) {
         super(EMPTY_URLS, privateLoader.getParent());
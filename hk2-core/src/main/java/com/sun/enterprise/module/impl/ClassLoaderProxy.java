@@ -45,7 +45,10 @@ import com.sun.enterprise.module.common_impl.FlattenEnumeration;
 import java.net.URLClassLoader;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.IOException;
 
 /**
@@ -58,6 +61,45 @@ public class ClassLoaderProxy extends URLClassLoader {
     private final List<ClassLoader> surrogates = new CopyOnWriteArrayList<ClassLoader>();
     private final List<ClassLoaderFacade> facadeSurrogates = new CopyOnWriteArrayList<ClassLoaderFacade>();
 
+    /**
+     * Package name to the facades exporting that package, in delegation order.
+     * Filled lazily and dropped whenever the delegates change.
+     */
+    private final ConcurrentMap<String, List<ClassLoaderFacade>> exportersByPackage =
+            new ConcurrentHashMap<String, List<ClassLoaderFacade>>();
+
+    /**
+     * Names of the classes that none of the exporting facades could load, so that
+     * repeated lookups of missing classes do not go through every module again.
+     * Only valid for the {@link #delegatesGeneration} in {@link #facadeMissesGeneration}.
+     */
+    private final Set<String> facadeMisses =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private volatile int facadeMissesGeneration;
+
+    /**
+     * Bumped whenever the delegates or the URLs of any class loader proxy change.
+     * A facade fronts the class loader of another module, so a change there must
+     * also drop the misses of every proxy delegating to that facade, and lookups
+     * racing with the change must not cache stale results.
+     */
+    private static final AtomicInteger delegatesGeneration = new AtomicInteger();
+
+    private static final int MAX_FACADE_MISSES = 4096;
+
+    /** One lock per class name, see {@link #getClassLoadingLock(String)} */
+    private final ConcurrentMap<String, Object> classLoadingLocks = new ConcurrentHashMap<String, Object>();
+
+    static {
+        // lock per class name rather than on the whole class loader
+        try {
+            registerAsParallelCapable();
+        } catch (Throwable t) {
+            // a VM older than Java 7, stays a serial class loader
+        }
+    }
+
     /** Creates a new instance of ClassLoader */
     public ClassLoaderProxy(URL[] shared, ClassLoader parent) {
         super(shared, parent);
@@ -111,16 +153,9 @@ public class ClassLoaderProxy extends URLClassLoader {
             return findClassDirect(name);
         } catch(ClassNotFoundException cfne) {
             if (followImports) {
-                Class c=null;
-                for (ClassLoaderFacade classLoader : facadeSurrogates) {
-                    try {
-                        c = classLoader.getClass(name);
-                    } catch(ClassNotFoundException e) {
-                        // ignored.
-                    }
-                    if (c!=null) {
-                        return c;
-                    }
+                Class c = findClassInFacades(name);
+                if (c!=null) {
+                    return c;
                 }
                 for (ClassLoader classLoader : surrogates) {
                     try {
@@ -137,17 +172,105 @@ public class ClassLoaderProxy extends URLClassLoader {
         }
     }
 
+    /**
+     * Looks for the class in the facades exporting its package only, in the order
+     * the facades were added. Misses are remembered until the delegates or the URLs
+     * of this or of any other class loader proxy change.
+     */
+    private Class findClassInFacades(String name) {
+        int generation = delegatesGeneration.get();
+        if (generation != facadeMissesGeneration) {
+            // some class loader changed since the misses were recorded
+            facadeMisses.clear();
+            facadeMissesGeneration = generation;
+        }
+        if (facadeMisses.contains(name)) {
+            return null;
+        }
+
+        for (ClassLoaderFacade classLoader : getExporters(name, generation)) {
+            Class c = null;
+            try {
+                c = classLoader.getClass(name);
+            } catch(ClassNotFoundException e) {
+                // ignored.
+            }
+            if (c!=null) {
+                return c;
+            }
+        }
+
+        if (facadeMisses.size() >= MAX_FACADE_MISSES) {
+            facadeMisses.clear();
+        }
+        facadeMisses.add(name);
+        if (delegatesGeneration.get() != generation) {
+            facadeMisses.remove(name);
+        }
+        return null;
+    }
+
+    private List<ClassLoaderFacade> getExporters(String className, int generation) {
+        int index = className.lastIndexOf('.');
+        String packageName = (index == -1) ? "" : className.substring(0, index);
+
+        List<ClassLoaderFacade> exporters = exportersByPackage.get(packageName);
+        if (exporters != null) {
+            return exporters;
+        }
+
+        // whether a facade exports a class only depends on the package of that class
+        exporters = new ArrayList<ClassLoaderFacade>(1);
+        for (ClassLoaderFacade classLoader : facadeSurrogates) {
+            if (classLoader.matchExportedPackage(className)) {
+                exporters.add(classLoader);
+            }
+        }
+
+        exportersByPackage.put(packageName, exporters);
+        if (delegatesGeneration.get() != generation) {
+            exportersByPackage.remove(packageName);
+        }
+        return exporters;
+    }
+
+    private void delegatesChanged() {
+        delegatesGeneration.incrementAndGet();
+        exportersByPackage.clear();
+        facadeMisses.clear();
+    }
+
     /**
      * {@link #findClass(String)} except the classloader punch-in hack.
      */
-    /*package*/ synchronized Class findClassDirect(String name) throws ClassNotFoundException {
-        Class c = findLoadedClass(name);
-        if(c!=null) return c;
-        try {
-            return super.findClass(name);
-        } catch (NoClassDefFoundError e) {
-            throw new ClassNotFoundException(e.getMessage());
+    /*package*/ Class findClassDirect(String name) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            Class c = findLoadedClass(name);
+            if(c!=null) return c;
+            try {
+                return super.findClass(name);
+            } catch (NoClassDefFoundError e) {
+                throw new ClassNotFoundException(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the lock guarding the loading of the given class by this class loader.
+     * As of Java 7 this overrides the one {@link ClassLoader} locks on when loading
+     * classes, so that {@link #findClassDirect(String)} and regular class loading
+     * use the same lock.
+     */
+    protected Object getClassLoadingLock(String className) {
+        Object lock = classLoadingLocks.get(className);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = classLoadingLocks.putIfAbsent(className, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
         }
+        return lock;
     }
 
     public URL findResource(String name) {
@@ -206,6 +329,7 @@ public class ClassLoaderProxy extends URLClassLoader {
         } else {
             surrogates.add(cl);
         }
+        delegatesChanged();
     }
 
     public void removeDelegate(ClassLoader cl) {
@@ -214,6 +338,7 @@ public class ClassLoaderProxy extends URLClassLoader {
         } else {
             surrogates.remove(cl);
         }
+        delegatesChanged();
     }
 
     public Collection<ClassLoader> getDelegates() {
@@ -228,6 +353,7 @@ public class ClassLoaderProxy extends URLClassLoader {
     public void stop() {
        surrogates.clear();
        facadeSurrogates.clear();
+       delegatesChanged();
     }
 
     public String toString() {
@@ -252,5 +378,6 @@ public class ClassLoaderProxy extends URLClassLoader {
        */
     public void addURL(URL url) {
         super.addURL(url);
+        delegatesChanged();
     }
 }
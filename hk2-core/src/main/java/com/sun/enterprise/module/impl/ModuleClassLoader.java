@@ -61,13 +61,29 @@ final class ModuleClassLoader extends ClassLoaderProxy {
     
     private final ModuleImpl module;
 
+    private static final int NOT_STARTED = 0;
+    private static final int STARTING = 1;
+    private static final int STARTED = 2;
+
     /**
      * Module will be initialized when this classloader is consulted for the first time.
+     * While it is STARTING only the thread starting it may use this class loader, all
+     * the others wait on this class loader until it is STARTED
      */
-    private volatile boolean initialized = false;
+    private volatile int startState = NOT_STARTED;
+    private Thread startingThread;
     private StackTraceElement[] initializerThread;
     private String initializerClassName;
 
+    static {
+        // lock per class name rather than on the whole module
+        try {
+            registerAsParallelCapable();
+        } catch (Throwable t) {
+            // a VM older than Java 7, stays a serial class loader
+        }
+    }
+
     /** Creates a new instance of ClassLoader */
     public ModuleClassLoader(ModuleImpl owner, URL[] shared, ClassLoader parent) {
         super(shared, parent);
@@ -80,7 +96,7 @@ final class ModuleClassLoader extends ClassLoaderProxy {
     }
 
 
-    protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
         initialize(name);
         return super.loadClass(name, resolve);
     }
@@ -150,23 +166,53 @@ final class ModuleClassLoader extends ClassLoaderProxy {
     }
 
     /**
-     * Lazily initialize this module if not done so yet.
+     * Lazily initialize this module if not done so yet.  The loader is not
+     * synchronized, so other threads must be held back until the module has
+     * resolved its imports and run its lifecycle policy, while the starting
+     * thread itself needs to get through in order to do so
      */
     private void initialize(String name) {
-        if (initialized)    return;
+        if (startState == STARTED)    return;
 
         synchronized(this) {
-            if(!initialized) {
-                // if we are preparing, we should just not initiate initialization.
-                if (module.getState().equals(ModuleState.PREPARING)) {
-                    return;
+            boolean interrupted = false;
+            try {
+                while (startState == STARTING) {
+                    if (startingThread == Thread.currentThread()) return;
+
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
                 }
-                initialized = true;
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+
+            if (startState == STARTED) return;
+
+            // if we are preparing, we should just not initiate initialization.
+            if (module.getState().equals(ModuleState.PREPARING)) {
+                return;
+            }
+            startState = STARTING;
+            startingThread = Thread.currentThread();
+        }
+
+        try {
+            module.start();
+        } finally {
+            synchronized(this) {
+                // as before, a module that failed to start is not started again
+                startState = STARTED;
+                startingThread = null;
 
-                module.start();
                 // remember who started us to assist debugging.
                 initializerThread = Thread.currentThread().getStackTrace();
                 initializerClassName = name;
+
+                notifyAll();
             }
         }
     }
@@ -210,7 +256,7 @@ final class ModuleClassLoader extends ClassLoaderProxy {
         StringBuffer s= new StringBuffer(); 
         s.append("ModuleClassLoader(name=").append(module.getName());
         s.append(", parent=").append(super.toString());
-        s.append(",init=").append(initialized);
+        s.append(",init=").append(startState == STARTED);
         s.append(",URls[]=");
         for (URL url : getURLs()) {
             s.append(url).append(",");
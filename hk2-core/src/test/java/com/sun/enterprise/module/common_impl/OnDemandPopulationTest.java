@@ -0,0 +1,390 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.sun.enterprise.module.common_impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+
+import javax.inject.Inject;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.Descriptor;
+import org.glassfish.hk2.api.DynamicConfiguration;
+import org.glassfish.hk2.api.IterableProvider;
+import org.glassfish.hk2.api.PopulatorPostProcessor;
+import org.glassfish.hk2.api.ServiceHandle;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.utilities.DescriptorImpl;
+import org.glassfish.hk2.utilities.HK2LoaderImpl;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.enterprise.module.Module;
+import com.sun.enterprise.module.impl.CookedModuleDefinition;
+import com.sun.enterprise.module.impl.HK2Factory;
+import com.sun.enterprise.module.impl.ModulesRegistryImpl;
+
+/**
+ * Tests populating a service locator with the inhabitants of modules on demand
+ * 
+ * @author jwells
+ */
+public class OnDemandPopulationTest {
+    private final static String DEFAULT = "default";
+    private final static String ALPHA = "alpha";
+    private final static String BETA = "beta";
+    private final static String GAMMA = "gamma";
+    private final static String DELTA = "delta";
+    
+    private static File moduleDirectory;
+    
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        HK2Factory.initialize();
+        
+        moduleDirectory = File.createTempFile("ondemand", "");
+        moduleDirectory.delete();
+        moduleDirectory.mkdirs();
+    }
+    
+    @AfterClass
+    public static void afterClass() {
+        moduleDirectory.delete();
+    }
+    
+    /**
+     * Modules are only parsed once a lookup needs one of their contracts
+     */
+    @Test
+    public void testModulesArePopulatedOnFirstLookup() throws IOException {
+        CountingRegistry registry = createRegistry(true);
+        
+        ServiceLocator locator = registry.createServiceLocator(DEFAULT);
+        Assert.assertTrue(registry.parsed.isEmpty());
+        
+        Assert.assertNotNull(locator.getService(AlphaContract.class));
+        Assert.assertEquals(Collections.singletonList(ALPHA), registry.parsed);
+        
+        Assert.assertNotNull(locator.getService(AlphaContract.class));
+        Assert.assertNotNull(locator.getService(BetaContract.class));
+        Assert.assertEquals(2, registry.parsed.size());
+        Assert.assertEquals(BETA, registry.parsed.get(1));
+        
+        locator.shutdown();
+        registry.shutdown();
+    }
+    
+    /**
+     * Looking up all the services of a contract that has none yet
+     * populates the modules advertising it
+     */
+    @Test
+    public void testGetAllServicesPopulatesModules() throws IOException {
+        CountingRegistry registry = createRegistry(true);
+        
+        ServiceLocator locator = registry.createServiceLocator(DEFAULT);
+        Assert.assertTrue(registry.parsed.isEmpty());
+        
+        List<AlphaContract> alphas = locator.getAllServices(AlphaContract.class);
+        Assert.assertEquals(1, alphas.size());
+        Assert.assertTrue(alphas.get(0) instanceof AlphaService);
+        Assert.assertEquals(Collections.singletonList(ALPHA), registry.parsed);
+        
+        List<ServiceHandle<BetaContract>> betas = locator.getAllServiceHandles(BetaContract.class);
+        Assert.assertEquals(1, betas.size());
+        Assert.assertTrue(betas.get(0).getService() instanceof BetaService);
+        Assert.assertEquals(2, registry.parsed.size());
+        
+        locator.shutdown();
+        registry.shutdown();
+    }
+    
+    /**
+     * Iterating over an IterableProvider of a contract that has no
+     * service yet populates the modules advertising it
+     */
+    @Test
+    public void testIterableProviderPopulatesModules() throws IOException {
+        CountingRegistry registry = createRegistry(true);
+        
+        ServiceLocator locator = registry.createServiceLocator(DEFAULT);
+        ServiceLocatorUtilities.addClasses(locator, AlphaIterator.class);
+        Assert.assertTrue(registry.parsed.isEmpty());
+        
+        AlphaIterator iterator = locator.getService(AlphaIterator.class);
+        Assert.assertEquals(1, iterator.alphas.getSize());
+        Assert.assertEquals(Collections.singletonList(ALPHA), registry.parsed);
+        
+        int found = 0;
+        for (AlphaContract alpha : iterator.alphas) {
+            Assert.assertTrue(alpha instanceof AlphaService);
+            found++;
+        }
+        Assert.assertEquals(1, found);
+        
+        locator.shutdown();
+        registry.shutdown();
+    }
+    
+    /**
+     * Without the mode every module is parsed up front
+     */
+    @Test
+    public void testModulesArePopulatedEagerlyByDefault() throws IOException {
+        CountingRegistry registry = createRegistry(false);
+        
+        ServiceLocator locator = registry.createServiceLocator(DEFAULT);
+        Assert.assertEquals(2, registry.parsed.size());
+        
+        Assert.assertNotNull(locator.getService(AlphaContract.class));
+        Assert.assertEquals(2, registry.parsed.size());
+        
+        locator.shutdown();
+        registry.shutdown();
+    }
+    
+    /**
+     * A module whose contracts are not known yet is parsed up front
+     */
+    @Test
+    public void testModulesWithoutDescriptorsArePopulatedEagerly() throws IOException {
+        CountingRegistry registry = createRegistry(true);
+        
+        Module gamma = registry.add(createDefinition(GAMMA, null));
+        registry.descriptors.put(gamma, createDescriptor(GammaService.class, GammaContract.class));
+        
+        ServiceLocator locator = registry.createServiceLocator(DEFAULT);
+        Assert.assertEquals(Collections.singletonList(GAMMA), registry.parsed);
+        Assert.assertNotNull(locator.getService(GammaContract.class));
+        
+        locator.shutdown();
+        registry.shutdown();
+    }
+    
+    /**
+     * A module removed before it was needed never gets populated
+     */
+    @Test
+    public void testRemovedModuleIsNotPopulated() throws IOException {
+        CountingRegistry registry = createRegistry(true);
+        
+        ServiceLocator locator = registry.createServiceLocator(DEFAULT);
+        
+        for (Module module : registry.getModules()) {
+            if (BETA.equals(module.getName())) {
+                registry.remove(module);
+            }
+        }
+        
+        Assert.assertNull(locator.getService(BetaContract.class));
+        Assert.assertTrue(registry.parsed.isEmpty());
+        
+        locator.shutdown();
+        registry.shutdown();
+    }
+    
+    /**
+     * A higher ranked service from a module that is populated on demand wins
+     * over a lower ranked one from a module that is populated right away
+     */
+    @Test
+    public void testOnDemandModuleKeepsItsRanking() throws IOException {
+        CountingRegistry registry = createRegistry(true);
+        
+        Module gamma = registry.add(createDefinition(GAMMA, null));
+        registry.descriptors.put(gamma, createDescriptor(LowRankedService.class, 0, RankedContract.class));
+        
+        DescriptorImpl high = createDescriptor(HighRankedService.class, 10, RankedContract.class);
+        Module delta = registry.add(createDefinition(DELTA, high));
+        registry.descriptors.put(delta, high);
+        
+        ServiceLocator locator = registry.createServiceLocator(DEFAULT);
+        
+        // The module with a contract that already has a service is not left behind
+        Assert.assertEquals(2, registry.parsed.size());
+        Assert.assertTrue(registry.parsed.contains(DELTA));
+        Assert.assertFalse(registry.parsed.contains(ALPHA));
+        
+        Assert.assertTrue(locator.getService(RankedContract.class) instanceof HighRankedService);
+        
+        locator.shutdown();
+        registry.shutdown();
+    }
+    
+    /**
+     * Populating a module for one of its contracts also populates the other
+     * modules advertising its remaining contracts
+     */
+    @Test
+    public void testModulesSharingAContractArePopulatedTogether() throws IOException {
+        CountingRegistry registry = createRegistry(true);
+        
+        DescriptorImpl low = createDescriptor(LowRankedService.class, 0, GammaContract.class, RankedContract.class);
+        Module gamma = registry.add(createDefinition(GAMMA, low));
+        registry.descriptors.put(gamma, low);
+        
+        DescriptorImpl high = createDescriptor(HighRankedService.class, 10, RankedContract.class);
+        Module delta = registry.add(createDefinition(DELTA, high));
+        registry.descriptors.put(delta, high);
+        
+        ServiceLocator locator = registry.createServiceLocator(DEFAULT);
+        Assert.assertTrue(registry.parsed.isEmpty());
+        
+        Assert.assertNotNull(locator.getService(GammaContract.class));
+        Assert.assertEquals(2, registry.parsed.size());
+        Assert.assertTrue(registry.parsed.contains(DELTA));
+        
+        Assert.assertTrue(locator.getService(RankedContract.class) instanceof HighRankedService);
+        
+        locator.shutdown();
+        registry.shutdown();
+    }
+    
+    private static CountingRegistry createRegistry(boolean onDemand) throws IOException {
+        CountingRegistry registry = new CountingRegistry();
+        registry.setOnDemandPopulation(onDemand);
+        
+        Module alpha = registry.add(createDefinition(ALPHA, createDescriptor(AlphaService.class, AlphaContract.class)));
+        Module beta = registry.add(createDefinition(BETA, createDescriptor(BetaService.class, BetaContract.class)));
+        
+        registry.descriptors.put(alpha, alpha.getMetadata().getDescriptors().get(DEFAULT).get(0));
+        registry.descriptors.put(beta, beta.getMetadata().getDescriptors().get(DEFAULT).get(0));
+        
+        return registry;
+    }
+    
+    private static CookedModuleDefinition createDefinition(String moduleName, Descriptor descriptor) throws IOException {
+        Attributes attributes = new Attributes();
+        attributes.putValue("Bundle-SymbolicName", moduleName);
+        
+        CookedModuleDefinition retVal = new CookedModuleDefinition(moduleDirectory, attributes);
+        if (descriptor != null) {
+            retVal.getMetadata().addDescriptors(DEFAULT, Collections.singletonList(descriptor));
+        }
+        
+        return retVal;
+    }
+    
+    private static DescriptorImpl createDescriptor(Class<?> implementation, Class<?> contract) {
+        return createDescriptor(implementation, 0, contract);
+    }
+    
+    private static DescriptorImpl createDescriptor(Class<?> implementation, int rank, Class<?>... contracts) {
+        DescriptorImpl retVal = new DescriptorImpl();
+        retVal.setImplementation(implementation.getName());
+        retVal.addAdvertisedContract(implementation.getName());
+        for (Class<?> contract : contracts) {
+            retVal.addAdvertisedContract(contract.getName());
+        }
+        retVal.setRanking(rank);
+        
+        return retVal;
+    }
+    
+    /**
+     * Adds the descriptor registered for a module and remembers which modules were parsed
+     */
+    private static class CountingRegistry extends ModulesRegistryImpl {
+        private final Map<Module, Descriptor> descriptors = new HashMap<Module, Descriptor>();
+        private final List<String> parsed = Collections.synchronizedList(new ArrayList<String>());
+        
+        private CountingRegistry() {
+            super(null);
+        }
+        
+        @Override
+        protected List<ActiveDescriptor> parseInhabitants(
+                Module module, String name, ServiceLocator serviceLocator, List<PopulatorPostProcessor> postProcessors) {
+            parsed.add(module.getName());
+            
+            DescriptorImpl descriptor = new DescriptorImpl(descriptors.get(module));
+            descriptor.setLoader(new HK2LoaderImpl(OnDemandPopulationTest.class.getClassLoader()));
+            
+            DynamicConfiguration config = ServiceLocatorUtilities.createDynamicConfiguration(serviceLocator);
+            List<ActiveDescriptor> retVal = new ArrayList<ActiveDescriptor>();
+            retVal.add(config.bind(descriptor, false));
+            config.commit();
+            
+            return retVal;
+        }
+    }
+    
+    public static interface AlphaContract {
+    }
+    
+    public static class AlphaService implements AlphaContract {
+    }
+    
+    public static class AlphaIterator {
+        @Inject
+        private IterableProvider<AlphaContract> alphas;
+    }
+    
+    public static interface BetaContract {
+    }
+    
+    public static class BetaService implements BetaContract {
+    }
+    
+    public static interface GammaContract {
+    }
+    
+    public static class GammaService implements GammaContract {
+    }
+    
+    public static interface RankedContract {
+    }
+    
+    public static class LowRankedService implements RankedContract, GammaContract {
+    }
+    
+    public static class HighRankedService implements RankedContract {
+    }
+}
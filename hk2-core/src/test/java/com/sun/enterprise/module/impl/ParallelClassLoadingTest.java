@@ -0,0 +1,506 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package com.sun.enterprise.module.impl;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.enterprise.module.Module;
+import com.sun.enterprise.module.ModuleDependency;
+import com.sun.enterprise.module.ModuleLifecycleListener;
+
+/**
+ * Loads classes of many modules from many threads through the class loader
+ * of a module importing all of them.  The main method is a benchmark
+ * 
+ * @author jwells
+ */
+public class ParallelClassLoadingTest {
+    private final static String APP = "app";
+    private final static String VERSION = "1.0";
+    
+    private final static int NUM_MODULES = 20;
+    private final static int NUM_CLASSES = 50;
+    private final static int NUM_THREADS = 8;
+    
+    private static File jarDirectory;
+    
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        jarDirectory = createModuleJars(NUM_MODULES, NUM_CLASSES);
+    }
+    
+    @AfterClass
+    public static void afterClass() {
+        deleteModuleJars(jarDirectory);
+    }
+    
+    /**
+     * Every thread must get the same class, defined by the module exporting it
+     */
+    @Test
+    public void testConcurrentLoadingAcrossModules() throws Exception {
+        ModulesRegistryImpl registry = createRegistry(jarDirectory, NUM_MODULES);
+        ModuleClassLoader app = getPrivateClassLoader(registry, APP);
+        
+        List<List<Class<?>>> loaded = loadAll(app, NUM_MODULES, NUM_CLASSES, NUM_THREADS, false);
+        
+        List<Class<?>> first = loaded.get(0);
+        for (List<Class<?>> other : loaded) {
+            Assert.assertEquals(first, other);
+        }
+        
+        for (Class<?> clazz : first) {
+            String moduleName = getModuleName(clazz.getName());
+            Assert.assertSame(clazz.getName(), getPrivateClassLoader(registry, moduleName), clazz.getClassLoader());
+        }
+        
+        registry.shutdown();
+    }
+    
+    /**
+     * Missing classes must keep on being reported as missing
+     */
+    @Test
+    public void testMissingClass() throws Exception {
+        ModulesRegistryImpl registry = createRegistry(jarDirectory, NUM_MODULES);
+        ModuleClassLoader app = getPrivateClassLoader(registry, APP);
+        
+        for (int lcv = 0; lcv < 2; lcv++) {
+            try {
+                app.loadClass(getPackageName(0) + ".Missing");
+                Assert.fail("Should not have found a missing class");
+            }
+            catch (ClassNotFoundException expected) {
+                // expected
+            }
+        }
+        
+        Assert.assertNotNull(app.loadClass(getClassName(0, 0)));
+        
+        registry.shutdown();
+    }
+    
+    /**
+     * A class missing from an exporting module must be found once that
+     * module's class loader can load it, even though the miss was remembered
+     * by the class loader importing the module
+     */
+    @Test
+    public void testMissIsForgottenWhenAnExportingModuleChanges() throws Exception {
+        ModulesRegistryImpl registry = createRegistry(jarDirectory, NUM_MODULES);
+        ModuleClassLoader app = getPrivateClassLoader(registry, APP);
+        
+        String lateClassName = getPackageName(0) + ".Late";
+        try {
+            app.loadClass(lateClassName);
+            Assert.fail("Should not have found a class that is not there yet");
+        }
+        catch (ClassNotFoundException expected) {
+            // expected
+        }
+        
+        File lateJar = new File(jarDirectory, "late.jar");
+        writeJar(lateJar, Collections.singletonList(lateClassName));
+        
+        ModuleClassLoader m0 = getPrivateClassLoader(registry, getModuleName(0));
+        m0.addURL(lateJar.toURI().toURL());
+        
+        Class<?> late = app.loadClass(lateClassName);
+        Assert.assertSame(m0, late.getClassLoader());
+        
+        registry.shutdown();
+    }
+    
+    /**
+     * The module class loaders must initialize on any VM, and must be registered
+     * as parallel capable on VMs that can tell (Java 9 and later)
+     */
+    @Test
+    public void testLoadersAreRegisteredAsParallelCapable() throws Exception {
+        ModulesRegistryImpl registry = createRegistry(jarDirectory, NUM_MODULES);
+        ModuleImpl app = (ModuleImpl) registry.makeModuleFor(APP, VERSION);
+        
+        List<ClassLoader> loaders = new ArrayList<ClassLoader>();
+        loaders.add(new ClassLoaderProxy(new URL[0], getClass().getClassLoader()));
+        loaders.add(app.getPrivateClassLoader());
+        loaders.add(app.getClassLoader());
+        
+        Method isRegistered;
+        try {
+            isRegistered = ClassLoader.class.getMethod("isRegisteredAsParallelCapable");
+        }
+        catch (NoSuchMethodException e) {
+            // Java 8 and earlier cannot tell, getting here means the loaders initialized
+            isRegistered = null;
+        }
+        
+        if (isRegistered != null) {
+            for (ClassLoader loader : loaders) {
+                Assert.assertEquals(loader.getClass().getName(), Boolean.TRUE, isRegistered.invoke(loader));
+            }
+        }
+        
+        Assert.assertNotNull(app.getPrivateClassLoader().loadClass(getClassName(0, 0)));
+        
+        registry.shutdown();
+    }
+    
+    /**
+     * While a module is being started by one thread, the others must not
+     * load classes from it, but the starting thread itself must be able to
+     */
+    @Test
+    public void testOtherThreadsWaitForModuleStart() throws Exception {
+        ModulesRegistryImpl registry = createRegistry(jarDirectory, NUM_MODULES);
+        final ModuleClassLoader loader = getPrivateClassLoader(registry, getModuleName(0));
+        
+        final CountDownLatch starting = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Class<?> loadedWhileStarting[] = new Class<?>[1];
+        
+        registry.register(new ModuleLifecycleListener() {
+
+            @Override
+            public void moduleInstalled(Module module) {
+            }
+
+            @Override
+            public void moduleResolved(Module module) {
+            }
+
+            @Override
+            public void moduleStarted(Module module) {
+                if (!getModuleName(0).equals(module.getName())) return;
+                
+                try {
+                    // The starting thread gets through
+                    loadedWhileStarting[0] = loader.loadClass(getClassName(0, 1));
+                    
+                    starting.countDown();
+                    release.await();
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void moduleStopped(Module module) {
+            }
+
+            @Override
+            public void moduleUpdated(Module module) {
+            }
+            
+        });
+        
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Class<?>> starter = executor.submit(new Callable<Class<?>>() {
+
+                @Override
+                public Class<?> call() throws Exception {
+                    return loader.loadClass(getClassName(0, 0));
+                }
+                
+            });
+            
+            Assert.assertTrue(starting.await(20, TimeUnit.SECONDS));
+            Assert.assertNotNull(loadedWhileStarting[0]);
+            
+            Future<Class<?>> waiter = executor.submit(new Callable<Class<?>>() {
+
+                @Override
+                public Class<?> call() throws Exception {
+                    return loader.loadClass(getClassName(0, 2));
+                }
+                
+            });
+            
+            Thread.sleep(200L);
+            Assert.assertFalse(waiter.isDone());
+            
+            release.countDown();
+            
+            Assert.assertSame(loader, starter.get(20, TimeUnit.SECONDS).getClassLoader());
+            Assert.assertSame(loader, waiter.get(20, TimeUnit.SECONDS).getClassLoader());
+        }
+        finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        
+        registry.shutdown();
+    }
+    
+    /**
+     * Loads all the classes with the given number of threads.  If partitioned each thread
+     * loads a distinct share of the classes, otherwise every thread loads all of them
+     */
+    private static List<List<Class<?>>> loadAll(final ModuleClassLoader loader, final int numModules,
+            final int numClasses, final int numThreads, final boolean partitioned) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<List<Class<?>>>> futures = new ArrayList<Future<List<Class<?>>>>();
+            for (int thread = 0; thread < numThreads; thread++) {
+                final int offset = thread;
+                
+                futures.add(executor.submit(new Callable<List<Class<?>>>() {
+                    
+                    @Override
+                    public List<Class<?>> call() throws Exception {
+                        // every thread starts with a different module so they race on all of them
+                        Class<?>[] retVal = new Class<?>[numModules * numClasses];
+                        int step = partitioned ? numThreads : 1;
+                        for (int lcv = partitioned ? offset : 0; lcv < retVal.length; lcv += step) {
+                            int index = partitioned ? lcv : (lcv + (offset * numClasses)) % retVal.length;
+                            
+                            retVal[index] = loader.loadClass(getClassName(index / numClasses, index % numClasses));
+                        }
+                        
+                        List<Class<?>> asList = new ArrayList<Class<?>>(retVal.length);
+                        Collections.addAll(asList, retVal);
+                        return asList;
+                    }
+                    
+                }));
+            }
+            
+            List<List<Class<?>>> retVal = new ArrayList<List<Class<?>>>();
+            for (Future<List<Class<?>>> future : futures) {
+                retVal.add(future.get());
+            }
+            
+            return retVal;
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+    
+    private static ModuleClassLoader getPrivateClassLoader(ModulesRegistryImpl registry, String name) {
+        ModuleImpl module = (ModuleImpl) registry.makeModuleFor(name, VERSION);
+        Assert.assertNotNull(name, module);
+        
+        return module.getPrivateClassLoader();
+    }
+    
+    private static ModulesRegistryImpl createRegistry(File jarDirectory, int numModules) throws IOException {
+        HK2Factory.initialize();
+        
+        ModulesRegistryImpl registry = new ModulesRegistryImpl(null);
+        
+        CookedModuleDefinition app = new CookedModuleDefinition(new File(jarDirectory, APP + ".jar"), getAttributes(APP));
+        
+        for (int module = 0; module < numModules; module++) {
+            String moduleName = getModuleName(module);
+            
+            CookedModuleDefinition definition = new CookedModuleDefinition(
+                    new File(jarDirectory, moduleName + ".jar"), getAttributes(moduleName));
+            definition.addPublicInterface(getPackageName(module));
+            
+            registry.add(definition);
+            
+            app.addDependency(new ModuleDependency(moduleName, VERSION));
+        }
+        
+        registry.add(app);
+        
+        return registry;
+    }
+    
+    private static Attributes getAttributes(String moduleName) {
+        Attributes retVal = new Attributes();
+        retVal.putValue("Bundle-SymbolicName", moduleName);
+        return retVal;
+    }
+    
+    private static String getModuleName(int module) {
+        return "m" + module;
+    }
+    
+    private static String getModuleName(String className) {
+        String packageName = className.substring(0, className.lastIndexOf('.'));
+        return packageName.substring(packageName.lastIndexOf('.') + 1);
+    }
+    
+    private static String getPackageName(int module) {
+        return "bench." + getModuleName(module);
+    }
+    
+    private static String getClassName(int module, int clazz) {
+        return getPackageName(module) + ".C" + clazz;
+    }
+    
+    private static File createModuleJars(int numModules, int numClasses) throws IOException {
+        File directory = File.createTempFile("modules", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Could not create " + directory);
+        }
+        
+        writeJar(new File(directory, APP + ".jar"), Collections.<String>emptyList());
+        
+        for (int module = 0; module < numModules; module++) {
+            List<String> classNames = new ArrayList<String>();
+            for (int clazz = 0; clazz < numClasses; clazz++) {
+                classNames.add(getClassName(module, clazz));
+            }
+            
+            writeJar(new File(directory, getModuleName(module) + ".jar"), classNames);
+        }
+        
+        return directory;
+    }
+    
+    private static void deleteModuleJars(File directory) {
+        if (directory == null) return;
+        
+        File jars[] = directory.listFiles();
+        if (jars != null) {
+            for (File jar : jars) {
+                jar.delete();
+            }
+        }
+        
+        directory.delete();
+    }
+    
+    private static void writeJar(File jar, List<String> classNames) throws IOException {
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar), new Manifest());
+        try {
+            for (String className : classNames) {
+                String internalName = className.replace('.', '/');
+                
+                jos.putNextEntry(new JarEntry(internalName + ".class"));
+                writeEmptyClass(new DataOutputStream(jos), internalName);
+                jos.closeEntry();
+            }
+        }
+        finally {
+            jos.close();
+        }
+    }
+    
+    /**
+     * Writes a public class extending Object with no members at all
+     */
+    private static void writeEmptyClass(DataOutputStream dos, String internalName) throws IOException {
+        dos.writeInt(0xCAFEBABE);
+        dos.writeShort(0);   // minor version
+        dos.writeShort(50);  // major version, Java 6
+        
+        dos.writeShort(5);   // constant pool count
+        dos.writeByte(7);    // #1 Class #2
+        dos.writeShort(2);
+        dos.writeByte(1);    // #2 Utf8
+        dos.writeUTF(internalName);
+        dos.writeByte(7);    // #3 Class #4
+        dos.writeShort(4);
+        dos.writeByte(1);    // #4 Utf8
+        dos.writeUTF("java/lang/Object");
+        
+        dos.writeShort(0x0021);  // public super
+        dos.writeShort(1);   // this class
+        dos.writeShort(3);   // super class
+        dos.writeShort(0);   // interfaces
+        dos.writeShort(0);   // fields
+        dos.writeShort(0);   // methods
+        dos.writeShort(0);   // attributes
+        dos.flush();
+    }
+    
+    /**
+     * Times loading every class of the given number of modules with one thread up to
+     * the given number of threads, using a fresh registry for every run
+     * 
+     * @param args [numModules [numClassesPerModule [maxThreads]]]
+     * @throws Exception On failure
+     */
+    public static void main(String args[]) throws Exception {
+        int numModules = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        int numClasses = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+        int maxThreads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        
+        File directory = createModuleJars(numModules, numClasses);
+        try {
+            for (int round = 0; round < 3; round++) {
+                for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+                    ModulesRegistryImpl registry = createRegistry(directory, numModules);
+                    ModuleClassLoader app = getPrivateClassLoader(registry, APP);
+                    
+                    long start = System.nanoTime();
+                    loadAll(app, numModules, numClasses, numThreads, true);
+                    long elapsed = (System.nanoTime() - start) / 1000000L;
+                    
+                    System.out.println("Loaded " + (numModules * numClasses) + " classes from " + numModules +
+                            " modules with " + numThreads + " threads in " + elapsed + "ms");
+                    
+                    registry.shutdown();
+                }
+            }
+        }
+        finally {
+            deleteModuleJars(directory);
+        }
+    }
+}
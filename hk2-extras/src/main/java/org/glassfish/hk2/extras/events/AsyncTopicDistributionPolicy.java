@@ -0,0 +1,147 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.extras.events;
+
+import java.util.concurrent.Executor;
+
+import org.glassfish.hk2.api.messaging.Topic;
+import org.jvnet.hk2.annotations.Contract;
+
+/**
+ * When using the TopicDistributionService added with
+ * {@link org.glassfish.hk2.extras.ExtrasUtilities#enableTopicDistribution(org.glassfish.hk2.api.ServiceLocator)}
+ * the presence of an implementation of this service will cause messages
+ * to be delivered to subscribers asynchronously rather than on the thread
+ * of the caller of {@link Topic#publish(Object)}.
+ * <p>
+ * Every subscriber has one bounded queue per partition key.  The messages in a
+ * single queue are delivered to the subscriber one at a time in the order in which
+ * they were published.  Messages in different queues may be delivered concurrently.
+ * If a subscriber fails the {@link DefaultTopicDistributionErrorService} services
+ * are called with the error from that one subscriber.
+ * <p>
+ * Only the best implementation of this service is used.  It is looked up
+ * when the first message is published and again after every change to the
+ * configuration of the locator, so a new best policy is used for messages
+ * published after it is added.  The same instance is used for every message
+ * published in between, even if the policy is in the
+ * {@link org.glassfish.hk2.api.PerLookup} scope
+ * 
+ * @author jwells
+ */
+@Contract
+public interface AsyncTopicDistributionPolicy {
+    /**
+     * What happens when a message is published and the queue of a
+     * subscriber is full
+     * 
+     * @author jwells
+     */
+    public enum Backpressure {
+        /**
+         * The publisher waits until there is room in the queue, unless
+         * the publisher is itself a subscriber being delivered a message
+         */
+        BLOCK,
+        
+        /**
+         * The message is not delivered to that subscriber, and the
+         * {@link DefaultTopicDistributionErrorService} services are
+         * called with a {@link java.util.concurrent.RejectedExecutionException}
+         */
+        DISCARD
+    }
+    
+    /**
+     * Returns the executor that subscribers are invoked on.  Any
+     * executor may be used, including one that starts a new thread
+     * (of any kind) for every task.  Every task given to the executor
+     * delivers all the messages currently waiting in one queue
+     * 
+     * @return The executor to deliver messages on.  May not return null
+     */
+    public Executor getExecutor();
+    
+    /**
+     * Returns the partition key of the message.  Messages with equal
+     * partition keys are delivered to each subscriber in the order
+     * in which they were published
+     * 
+     * @param topic The topic the message is being published to
+     * @param message The message being published
+     * @return The partition key of the message.  If null all messages
+     * are in the same partition, and hence each subscriber receives
+     * all messages in order
+     */
+    public Object getPartitionKey(Topic<?> topic, Object message);
+    
+    /**
+     * The maximum number of messages that may be waiting for
+     * delivery in the queue of one subscriber and partition
+     * 
+     * @return The maximum size of a queue, must be greater than zero
+     */
+    public int getMaximumQueueSize();
+    
+    /**
+     * Returns what to do when the queue of a subscriber is full.  A
+     * subscriber that publishes while it is being delivered a message
+     * never waits, even with {@link Backpressure#BLOCK}, since it could
+     * be waiting on its own queue forever.  Its message is instead
+     * treated as with {@link Backpressure#DISCARD}
+     * 
+     * @return What to do when a queue is full.  May not return null
+     */
+    public Backpressure getBackpressure();
+    
+    /**
+     * Called after a message has been delivered to a subscriber, whether
+     * or not the subscriber threw an exception.  This can be used to
+     * keep delivery latency metrics.  This method is called on the thread
+     * that delivered the message and so should be fast
+     * 
+     * @param topic The topic the message was published to
+     * @param message The message that was delivered
+     * @param queuedNanos The number of nanoseconds the message waited in the queue
+     * @param deliveryNanos The number of nanoseconds the subscriber took to process the message
+     */
+    public void messageDelivered(Topic<?> topic, Object message, long queuedNanos, long deliveryNanos);
+
+}
@@ -43,9 +43,9 @@ import java.lang.annotation.Annotation;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -53,12 +53,15 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.glassfish.hk2.api.AOPProxyCtl;
@@ -66,6 +69,7 @@ import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.Descriptor;
 import org.glassfish.hk2.api.DynamicConfigurationListener;
 import org.glassfish.hk2.api.Filter;
+import org.glassfish.hk2.api.InjectionResolver;
 import org.glassfish.hk2.api.InstanceLifecycleEvent;
 import org.glassfish.hk2.api.InstanceLifecycleListener;
 import org.glassfish.hk2.api.IterableProvider;
@@ -75,12 +79,15 @@ import org.glassfish.hk2.api.PerLookup;
 import org.glassfish.hk2.api.Self;
 import org.glassfish.hk2.api.ServiceHandle;
 import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.api.UnsatisfiedDependencyException;
 import org.glassfish.hk2.api.Unqualified;
 import org.glassfish.hk2.api.messaging.MessageReceiver;
 import org.glassfish.hk2.api.messaging.SubscribeTo;
 import org.glassfish.hk2.api.messaging.Topic;
 import org.glassfish.hk2.api.messaging.TopicDistributionService;
+import org.glassfish.hk2.extras.events.AsyncTopicDistributionPolicy;
 import org.glassfish.hk2.extras.events.DefaultTopicDistributionErrorService;
+import org.glassfish.hk2.utilities.BuilderHelper;
 import org.glassfish.hk2.utilities.InjecteeImpl;
 import org.glassfish.hk2.utilities.MethodParameterImpl;
 import org.glassfish.hk2.utilities.reflection.ClassReflectionHelper;
@@ -117,6 +124,9 @@ public class DefaultTopicDistributionService implements
     @Inject
     private IterableProvider<DefaultTopicDistributionErrorService> errorHandlers;
     
+    @Inject
+    private IterableProvider<AsyncTopicDistributionPolicy> asyncPolicies;
+    
     @Inject @Self
     private ActiveDescriptor<TopicDistributionService> selfDescriptor;
     
@@ -124,11 +134,75 @@ public class DefaultTopicDistributionService implements
     private final HashMap<ActiveDescriptor<?>, Set<Class<?>>> descriptor2Classes = new HashMap<ActiveDescriptor<?>, Set<Class<?>>>();
     private final HashMap<ActivatorClassKey, List<SubscriberInfo>> class2Subscribers = new HashMap<ActivatorClassKey, List<SubscriberInfo>>();
     
+    /**
+     * The subscribers that match a given event type and set of topic qualifiers.
+     * Routes are calculated the first time a topic is published and are then
+     * kept up to date as subscribers come and go.  Routes are created with
+     * the read lock held, and modified only with the write lock held
+     */
+    private final ConcurrentHashMap<RouteKey, List<SubscriberInfo>> routes = new ConcurrentHashMap<RouteKey, List<SubscriberInfo>>();
+    
+    /**
+     * The annotations handled by injection resolvers other than the system
+     * injection resolver, or null if not yet calculated.  Reset whenever
+     * the configuration changes
+     */
+    private volatile Set<Class<?>> customInjectAnnotations;
+    
+    /** Incremented on every configuration change, invokers compiled in older generations are not used */
+    private volatile int configurationGeneration;
+    
+    /**
+     * The best AsyncTopicDistributionPolicy as of some configuration
+     * generation, or null if it has not yet been looked up.  It is
+     * looked up again after the configuration changes
+     */
+    private volatile AsyncPolicyHolder asyncPolicy;
+    
+    /** The queues of messages waiting for asynchronous delivery, guarded by itself */
+    private final HashMap<DeliveryQueueKey, DeliveryQueue> deliveryQueues = new HashMap<DeliveryQueueKey, DeliveryQueue>();
+    
+    /** Set while a thread is draining a delivery queue, such a thread must never wait for room in a queue */
+    private final ThreadLocal<Boolean> delivering = new ThreadLocal<Boolean>();
+    
     private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
     private final WriteLock wLock = readWriteLock.writeLock();
     private final ReadLock rLock = readWriteLock.readLock();
     
     private void fire(Object message, Method subscription, SubscriberInfo subscriptionInfo, Object target, ServiceLocator locator) throws Throwable {
+        SubscriberInvoker invoker = subscriptionInfo.invoker;
+        if (invoker == null || invoker.generation != configurationGeneration) {
+            invoker = compileInvoker(subscriptionInfo);
+            subscriptionInfo.invoker = invoker;
+        }
+        
+        ServiceHandle<TopicDistributionService> handle = locator.getServiceHandle(selfDescriptor);
+        
+        if (invoker.descriptors != null) {
+            invoker.invoke(message, target, handle);
+        }
+        else {
+            assistedFire(message, subscription, subscriptionInfo, target, handle);
+        }
+            
+        List<ServiceHandle<?>> subHandles = handle.getSubHandles();
+        for (ServiceHandle<?> subHandle : subHandles) {
+            ActiveDescriptor<?> ad = subHandle.getActiveDescriptor();
+            if (ad == null) continue;
+            
+            if (!PerLookup.class.equals(ad.getScopeAnnotation())) continue;
+            
+            subHandle.destroy();
+        }
+    }
+    
+    /**
+     * Used when some parameter of the subscriber might be resolved by a
+     * custom injection resolver, in which case the locator resolves all
+     * of the parameters every time
+     */
+    private void assistedFire(Object message, Method subscription, SubscriberInfo subscriptionInfo, Object target,
+            ServiceHandle<TopicDistributionService> handle) {
         List<MethodParameter> mps = new ArrayList<MethodParameter>(subscriptionInfo.otherInjectees.length);
         
         
@@ -146,76 +220,163 @@ public class DefaultTopicDistributionService implements
         }
             
         // OK, everything filled in!
-        ServiceHandle<TopicDistributionService> handle = locator.getServiceHandle(selfDescriptor);
-            
         locator.assistedInject(target, subscription, handle, mps.toArray(new MethodParameter[mps.size()]));
+    }
+    
+    private Set<Class<?>> getCustomInjectAnnotations() {
+        Set<Class<?>> retVal = customInjectAnnotations;
+        if (retVal != null) return retVal;
+        
+        retVal = new HashSet<Class<?>>();
+        for (ActiveDescriptor<?> resolverDescriptor : locator.getDescriptors(
+                BuilderHelper.createContractFilter(InjectionResolver.class.getName()))) {
+            if (InjectionResolver.SYSTEM_RESOLVER_NAME.equals(resolverDescriptor.getName())) continue;
             
-        List<ServiceHandle<?>> subHandles = handle.getSubHandles();
-        for (ServiceHandle<?> subHandle : subHandles) {
-            ActiveDescriptor<?> ad = subHandle.getActiveDescriptor();
-            if (ad == null) continue;
-            
-            if (!PerLookup.class.equals(ad.getScopeAnnotation())) continue;
-            
-            subHandle.destroy();
+            resolverDescriptor = locator.reifyDescriptor(resolverDescriptor);
+            for (Type contract : resolverDescriptor.getContractTypes()) {
+                if (!(contract instanceof ParameterizedType)) continue;
+                if (!InjectionResolver.class.equals(ReflectionHelper.getRawClass(contract))) continue;
+                
+                Type annotationType = ReflectionHelper.getFirstTypeArgument(contract);
+                if (annotationType instanceof Class) {
+                    retVal.add((Class<?>) annotationType);
+                }
+            }
         }
+        
+        customInjectAnnotations = retVal;
+        return retVal;
     }
     
-    private List<FireResults> handleDescriptorToClass(ActiveDescriptor<?> descriptor, Class<?> clazz, Type eventType, Topic<?> topic) {
-        LinkedList<FireResults> retVal = new LinkedList<FireResults>();
+    private SubscriberInvoker compileInvoker(SubscriberInfo subscriberInfo) {
+        int generation = configurationGeneration;
+        
+        Set<Class<?>> customAnnotations = getCustomInjectAnnotations();
+        Annotation paramAnnotations[][] = subscriberInfo.method.getParameterAnnotations();
         
-        List<SubscriberInfo> subscribers = class2Subscribers.get(new ActivatorClassKey(descriptor, clazz));
-        if (subscribers == null) subscribers = Collections.emptyList();
+        int numParams = subscriberInfo.otherInjectees.length;
+        ActiveDescriptor<?> descriptors[] = new ActiveDescriptor<?>[numParams];
+        boolean perCall[] = new boolean[numParams];
         
-        for (SubscriberInfo subscriberInfo : subscribers) {    
-            Type subscriptionType = subscriberInfo.eventType;
+        for (int lcv = 0; lcv < numParams; lcv++) {
+            InjecteeImpl injectee = subscriberInfo.otherInjectees[lcv];
+            if (injectee == null || injectee.isSelf()) continue;
             
-            if (!TypeChecker.isRawTypeSafe(subscriptionType, eventType)) {
-                // Not a type match
+            for (Annotation paramAnnotation : paramAnnotations[lcv]) {
+                if (customAnnotations.contains(paramAnnotation.annotationType())) {
+                    return new SubscriberInvoker(generation, subscriberInfo, null, null);
+                }
+            }
+            
+            Class<?> rawType = ReflectionHelper.getRawClass(injectee.getRequiredType());
+            if (Provider.class.equals(rawType) || Iterable.class.equals(rawType) ||
+                    IterableProvider.class.equals(rawType) || Topic.class.equals(rawType)) {
+                // The locator makes a new descriptor for these every time
+                perCall[lcv] = true;
                 continue;
             }
-                
-            if (!subscriberInfo.eventQualifiers.isEmpty()) {
-                if (!ReflectionHelper.annotationContainsAll(topic.getTopicQualifiers(), subscriberInfo.eventQualifiers)) {
-                    // The qualifiers do not match
-                    continue;
-                }
+            
+            descriptors[lcv] = locator.getInjecteeDescriptor(injectee);
+        }
+        
+        return new SubscriberInvoker(generation, subscriberInfo, descriptors, perCall);
+    }
+    
+    private static boolean matches(SubscriberInfo subscriberInfo, Type eventType, Set<Annotation> topicQualifiers) {
+        Type subscriptionType = subscriberInfo.eventType;
+        
+        if (!TypeChecker.isRawTypeSafe(subscriptionType, eventType)) {
+            // Not a type match
+            return false;
+        }
+            
+        if (!subscriberInfo.eventQualifiers.isEmpty()) {
+            if (!ReflectionHelper.annotationContainsAll(topicQualifiers, subscriberInfo.eventQualifiers)) {
+                // The qualifiers do not match
+                return false;
+            }
+        }
+        
+        if ((subscriberInfo.unqualified != null) && !topicQualifiers.isEmpty()) {
+            if (subscriberInfo.unqualified.value().length == 0) {
+                // publisher must not have any qualifiers,
+                // but it DOES have some, so forget it!
+                return false;
             }
             
-            if ((subscriberInfo.unqualified != null) && !topic.getTopicQualifiers().isEmpty()) {
-                if (subscriberInfo.unqualified.value().length == 0) {
-                    // publisher must not have any qualifiers,
-                    // but it DOES have some, so forget it!
-                    continue;
-                }
+            Set<Class<? extends Annotation>> topicQualifierClasses = new HashSet<Class<? extends Annotation>>();
+            for (Annotation topicQualifier : topicQualifiers) {
+                topicQualifierClasses.add(topicQualifier.annotationType());
+            }
                 
-                Set<Class<? extends Annotation>> topicQualifierClasses = new HashSet<Class<? extends Annotation>>();
-                for (Annotation topicQualifier : topic.getTopicQualifiers()) {
-                    topicQualifierClasses.add(topicQualifier.annotationType());
-                }
-                    
-                boolean found = false;
-                for (Class<? extends Annotation> verbotenQualifier : subscriberInfo.unqualified.value()) {
-                    if (topicQualifierClasses.contains(verbotenQualifier)) {
-                        found = true;
-                        break;
-                    }
-                }
-                    
-                if (found) {
+            for (Class<? extends Annotation> verbotenQualifier : subscriberInfo.unqualified.value()) {
+                if (topicQualifierClasses.contains(verbotenQualifier)) {
                     // Found one of the qualifiers we are not allowed to have!
-                    continue;
+                    return false;
+                }
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Must have at least the read lock
+     * 
+     * @param routeKey The type and qualifiers of the topic being published
+     * @return The subscribers that match the topic
+     */
+    private List<SubscriberInfo> getRoute(RouteKey routeKey) {
+        List<SubscriberInfo> retVal = routes.get(routeKey);
+        if (retVal != null) return retVal;
+        
+        retVal = new ArrayList<SubscriberInfo>();
+        for (List<SubscriberInfo> subscribers : class2Subscribers.values()) {
+            for (SubscriberInfo subscriberInfo : subscribers) {
+                if (matches(subscriberInfo, routeKey.eventType, routeKey.topicQualifiers)) {
+                    retVal.add(subscriberInfo);
                 }
             }
-            
-            for (WeakReference<Object> targetReference : subscriberInfo.targets) {
-                Object target = targetReference.get();
-                retVal.add(new FireResults(subscriberInfo.method, subscriberInfo, target));
-            }    
         }
         
+        // Another reader may have calculated the same route
+        List<SubscriberInfo> existing = routes.putIfAbsent(routeKey, retVal);
+        if (existing != null) return existing;
+        
         return retVal;
     }
+    
+    /**
+     * Must have the write lock
+     * 
+     * @param added Newly discovered subscribers to add to the existing routes
+     */
+    private void addToRoutes(List<SubscriberInfo> added) {
+        if (added.isEmpty()) return;
+        
+        for (Map.Entry<RouteKey, List<SubscriberInfo>> route : routes.entrySet()) {
+            RouteKey routeKey = route.getKey();
+            
+            for (SubscriberInfo subscriberInfo : added) {
+                if (matches(subscriberInfo, routeKey.eventType, routeKey.topicQualifiers)) {
+                    route.getValue().add(subscriberInfo);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Must have the write lock
+     * 
+     * @param removed Subscribers that should be removed from all existing routes
+     */
+    private void removeFromRoutes(Set<SubscriberInfo> removed) {
+        if (removed.isEmpty()) return;
+        
+        for (List<SubscriberInfo> route : routes.values()) {
+            route.removeAll(removed);
+        }
+    }
 
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.messaging.TopicDistributionService#distributeMessage(org.glassfish.hk2.api.messaging.Topic, java.lang.Object)
@@ -223,14 +384,15 @@ public class DefaultTopicDistributionService implements
     @Override
     public void distributeMessage(Topic<?> topic, Object message) {
         
-        Type eventType = topic.getTopicType();
+        RouteKey routeKey = new RouteKey(topic.getTopicType(), topic.getTopicQualifiers());
         
         LinkedList<FireResults> fireResults = new LinkedList<FireResults>();
         rLock.lock();
         try {
-            for (Map.Entry<ActiveDescriptor<?>, Set<Class<?>>> d2cEntry : descriptor2Classes.entrySet()) {
-                for (Class<?> clazz : d2cEntry.getValue()) {
-                    fireResults.addAll(handleDescriptorToClass(d2cEntry.getKey(), clazz, eventType, topic));
+            for (SubscriberInfo subscriberInfo : getRoute(routeKey)) {
+                for (WeakReference<Object> targetReference : subscriberInfo.targets) {
+                    Object target = targetReference.get();
+                    fireResults.add(new FireResults(subscriberInfo.method, subscriberInfo, target));
                 }
             }
         }
@@ -241,6 +403,9 @@ public class DefaultTopicDistributionService implements
         // Do everything else outside the lock
         Set<SubscriberInfo> hasDeadReferences = new HashSet<SubscriberInfo>();
         
+        AsyncTopicDistributionPolicy asyncPolicy = fireResults.isEmpty() ? null : getAsyncPolicy();
+        Object partitionKey = (asyncPolicy == null) ? null : asyncPolicy.getPartitionKey(topic, message);
+        
         MultiException errors = null;
         for (FireResults fireResult : fireResults) {
             if (fireResult.target == null) {
@@ -248,6 +413,11 @@ public class DefaultTopicDistributionService implements
             }
             else {
                 try {
+                    if (asyncPolicy != null) {
+                        enqueue(asyncPolicy, topic, message, partitionKey, fireResult);
+                        continue;
+                    }
+                    
                     fire(message,
                            fireResult.subscriberMethod,
                            fireResult.subscriberInfo,
@@ -266,18 +436,7 @@ public class DefaultTopicDistributionService implements
         }
         
         if (errors != null) {
-            for (ServiceHandle<DefaultTopicDistributionErrorService> handle : errorHandlers.handleIterator()) {
-                try {
-                    handle.getService().subscribersFailed(topic, message, errors);
-                    
-                    if (handle.getActiveDescriptor().getScope().equals(PerLookup.class.getName())) {
-                        handle.destroy();
-                    }
-                }
-                catch (Throwable ignore) {
-                    // ignore it
-                }
-            }
+            reportErrors(topic, message, errors);
         }
         
         if (!hasDeadReferences.isEmpty()) {
@@ -302,6 +461,78 @@ public class DefaultTopicDistributionService implements
         
     }
 
+    private AsyncTopicDistributionPolicy getAsyncPolicy() {
+        int generation = configurationGeneration;
+        
+        AsyncPolicyHolder holder = asyncPolicy;
+        if (holder != null && holder.generation == generation) return holder.policy;
+        
+        holder = new AsyncPolicyHolder(asyncPolicies.get(), generation);
+        asyncPolicy = holder;
+        
+        return holder.policy;
+    }
+    
+    private void reportErrors(Topic<?> topic, Object message, MultiException errors) {
+        for (ServiceHandle<DefaultTopicDistributionErrorService> handle : errorHandlers.handleIterator()) {
+            try {
+                handle.getService().subscribersFailed(topic, message, errors);
+                
+                if (handle.getActiveDescriptor().getScope().equals(PerLookup.class.getName())) {
+                    handle.destroy();
+                }
+            }
+            catch (Throwable ignore) {
+                // ignore it
+            }
+        }
+    }
+    
+    private void enqueue(AsyncTopicDistributionPolicy asyncPolicy, Topic<?> topic, Object message, Object partitionKey, FireResults fireResult) {
+        DeliveryQueueKey key = new DeliveryQueueKey(fireResult.subscriberInfo, fireResult.target, partitionKey);
+        Delivery delivery = new Delivery(topic, message, fireResult);
+        
+        for (;;) {
+            DeliveryQueue queue;
+            synchronized (deliveryQueues) {
+                queue = deliveryQueues.get(key);
+                if (queue == null) {
+                    queue = new DeliveryQueue(key, asyncPolicy);
+                    deliveryQueues.put(key, queue);
+                }
+            }
+            
+            if (queue.offer(delivery)) return;
+            
+            // The queue went idle and was removed before the message
+            // could be added, so try again with a new queue
+        }
+    }
+    
+    private void deliver(AsyncTopicDistributionPolicy asyncPolicy, Delivery delivery) {
+        FireResults fireResult = delivery.fireResult;
+        
+        long start = System.nanoTime();
+        try {
+            fire(delivery.message,
+                    fireResult.subscriberMethod,
+                    fireResult.subscriberInfo,
+                    fireResult.target,
+                    locator);
+        }
+        catch (Throwable th) {
+            reportErrors(delivery.topic, delivery.message, new MultiException(th));
+        }
+        long finish = System.nanoTime();
+        
+        try {
+            asyncPolicy.messageDelivered(delivery.topic, delivery.message, start - delivery.queuedAt, finish - start);
+        }
+        catch (Throwable ignore) {
+            // ignore it
+        }
+    }
+    
     @Override
     public Filter getFilter() {
         return SUBSCRIBER_FILTER;
@@ -405,6 +636,7 @@ public class DefaultTopicDistributionService implements
             existingMethods.add(si);
         }
         
+        addToRoutes(existingMethods);
     }
     
     private Method findMethodOnDifferentClass(Class<?> findOnMe, Method method) {
@@ -566,15 +798,25 @@ public class DefaultTopicDistributionService implements
             HashSet<ActiveDescriptor<?>> removeMe = new HashSet<ActiveDescriptor<?>>(descriptor2Classes.keySet());
             removeMe.removeAll(allDescriptors);
             
+            HashSet<SubscriberInfo> removedSubscribers = new HashSet<SubscriberInfo>();
             for (ActiveDescriptor<?> parent : removeMe) {
                 Set<Class<?>> clazzes = descriptor2Classes.remove(parent);
                 
                 if (clazzes == null) continue;
                 
                 for (Class<?> clazz : clazzes) {
-                    class2Subscribers.remove(new ActivatorClassKey(parent, clazz));
+                    List<SubscriberInfo> subscribers = class2Subscribers.remove(new ActivatorClassKey(parent, clazz));
+                    if (subscribers != null) {
+                        removedSubscribers.addAll(subscribers);
+                    }
                 }
             }
+            
+            removeFromRoutes(removedSubscribers);
+            
+            // The best descriptor for a subscriber parameter may have changed
+            customInjectAnnotations = null;
+            configurationGeneration++;
         }
         finally {
             wLock.unlock();
@@ -590,6 +832,7 @@ public class DefaultTopicDistributionService implements
         private final Set<Annotation> eventQualifiers;
         private final Unqualified unqualified;
         private final InjecteeImpl otherInjectees[];  // There will be a null in the slot for the event
+        private volatile SubscriberInvoker invoker;
         
         private SubscriberInfo(Method method,
                 Type eventType,
@@ -604,6 +847,327 @@ public class DefaultTopicDistributionService implements
         }
     }
     
+    /**
+     * Invokes a subscriber with the descriptors of its other parameters
+     * already resolved, rather than resolving every parameter every
+     * time an event is delivered.  It is not used once the
+     * configuration of the locator has changed
+     * 
+     * @author jwells
+     *
+     */
+    private class SubscriberInvoker {
+        private final int generation;
+        private final SubscriberInfo subscriberInfo;
+        
+        /** null if all parameters must be resolved by the locator with assistedInject */
+        private final ActiveDescriptor<?> descriptors[];
+        
+        /** true for parameters whose descriptor must be looked up on every call */
+        private final boolean perCall[];
+        
+        private SubscriberInvoker(int generation, SubscriberInfo subscriberInfo, ActiveDescriptor<?> descriptors[], boolean perCall[]) {
+            this.generation = generation;
+            this.subscriberInfo = subscriberInfo;
+            this.descriptors = descriptors;
+            this.perCall = perCall;
+        }
+        
+        private void invoke(Object message, Object target, ServiceHandle<?> root) {
+            InjecteeImpl injectees[] = subscriberInfo.otherInjectees;
+            
+            Object args[] = new Object[injectees.length];
+            for (int lcv = 0; lcv < injectees.length; lcv++) {
+                InjecteeImpl injectee = injectees[lcv];
+                if (injectee == null) {
+                    args[lcv] = message;
+                    continue;
+                }
+                if (injectee.isSelf()) {
+                    args[lcv] = injectee.getInjecteeDescriptor();
+                    continue;
+                }
+                
+                ActiveDescriptor<?> ad = perCall[lcv] ? locator.getInjecteeDescriptor(injectee) : descriptors[lcv] ;
+                if (ad == null) {
+                    if (injectee.isOptional()) continue;
+                    
+                    throw new MultiException(new UnsatisfiedDependencyException(injectee));
+                }
+                
+                args[lcv] = locator.getService(ad, root, injectee);
+            }
+            
+            try {
+                ReflectionHelper.invoke(target, subscriberInfo.method, args, locator.getNeutralContextClassLoader());
+            }
+            catch (MultiException me) {
+                throw me;
+            }
+            catch (Throwable th) {
+                throw new MultiException(th);
+            }
+        }
+    }
+    
+    /**
+     * A message waiting to be delivered to one subscriber
+     * 
+     * @author jwells
+     *
+     */
+    private static class Delivery {
+        private final Topic<?> topic;
+        private final Object message;
+        private final FireResults fireResult;
+        private final long queuedAt = System.nanoTime();
+        
+        private Delivery(Topic<?> topic, Object message, FireResults fireResult) {
+            this.topic = topic;
+            this.message = message;
+            this.fireResult = fireResult;
+        }
+    }
+    
+    /**
+     * The messages waiting to be delivered to one subscriber of one target
+     * for one partition key.  At most one task from the executor drains
+     * the queue at a time, which keeps the messages in order.  Once the
+     * queue is empty it is removed, so that partition keys do not pile up
+     * 
+     * @author jwells
+     *
+     */
+    private class DeliveryQueue implements Runnable {
+        private final DeliveryQueueKey key;
+        private final AsyncTopicDistributionPolicy asyncPolicy;
+        private final LinkedList<Delivery> pending = new LinkedList<Delivery>();
+        private boolean running;
+        private boolean retired;
+        
+        private DeliveryQueue(DeliveryQueueKey key, AsyncTopicDistributionPolicy asyncPolicy) {
+            this.key = key;
+            this.asyncPolicy = asyncPolicy;
+        }
+        
+        /**
+         * Adds the delivery, blocking or throwing a RejectedExecutionException
+         * if the queue is full.  A subscriber publishing from a delivery thread
+         * never blocks, since the queue it waits on may be the one that thread
+         * drains
+         * 
+         * @return false if this queue has been removed and the delivery
+         * should be given to a new queue
+         */
+        private boolean offer(Delivery delivery) {
+            synchronized (this) {
+                while (!retired && pending.size() >= asyncPolicy.getMaximumQueueSize()) {
+                    if (AsyncTopicDistributionPolicy.Backpressure.DISCARD.equals(asyncPolicy.getBackpressure())) {
+                        throw new RejectedExecutionException("The delivery queue of subscriber " +
+                            Pretty.method(key.subscriberInfo.method) + " is full");
+                    }
+                    
+                    if (delivering.get() != null) {
+                        throw new RejectedExecutionException("The delivery queue of subscriber " +
+                            Pretty.method(key.subscriberInfo.method) +
+                            " is full and a delivery thread cannot wait for room");
+                    }
+                    
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        
+                        throw new RejectedExecutionException("Interrupted while waiting to deliver to subscriber " +
+                            Pretty.method(key.subscriberInfo.method), ie);
+                    }
+                }
+                
+                if (retired) return false;
+                
+                pending.add(delivery);
+                if (running) return true;
+                
+                running = true;
+            }
+            
+            // Started outside of the lock in case the executor runs the task on this thread
+            try {
+                asyncPolicy.getExecutor().execute(this);
+            }
+            catch (Throwable th) {
+                List<Delivery> stranded = retireAfterFailedStart(delivery);
+                
+                // Other publishers added these expecting the task that never started to deliver them
+                for (Delivery other : stranded) {
+                    reportErrors(other.topic, other.message, new MultiException(th));
+                }
+                
+                if (th instanceof RuntimeException) throw (RuntimeException) th;
+                if (th instanceof Error) throw (Error) th;
+                throw new RejectedExecutionException(th);
+            }
+            
+            return true;
+        }
+        
+        /**
+         * Called when the executor would not start the task that
+         * drains this queue.  The queue is removed so that the next
+         * message starts again with a new queue and a new task, and
+         * any publisher waiting for room moves to that new queue
+         * 
+         * @param failed The delivery whose offer tried to start the task
+         * @return The other deliveries that were waiting in this queue
+         */
+        private List<Delivery> retireAfterFailedStart(Delivery failed) {
+            synchronized (deliveryQueues) {
+                synchronized (this) {
+                    running = false;
+                    retired = true;
+                    
+                    pending.remove(failed);
+                    List<Delivery> retVal = new ArrayList<Delivery>(pending);
+                    pending.clear();
+                    
+                    notifyAll();
+                    
+                    if (deliveryQueues.get(key) == this) {
+                        deliveryQueues.remove(key);
+                    }
+                    
+                    return retVal;
+                }
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            Boolean wasDelivering = delivering.get();
+            delivering.set(Boolean.TRUE);
+            try {
+                for (;;) {
+                    Delivery delivery;
+                    synchronized (this) {
+                        delivery = pending.poll();
+                        if (delivery == null) {
+                            running = false;
+                            break;
+                        }
+                        
+                        notifyAll();
+                    }
+                    
+                    deliver(asyncPolicy, delivery);
+                }
+            }
+            finally {
+                if (wasDelivering == null) delivering.remove();
+            }
+            
+            synchronized (deliveryQueues) {
+                synchronized (this) {
+                    if (running || !pending.isEmpty()) return;
+                    
+                    retired = true;
+                    notifyAll();
+                    
+                    deliveryQueues.remove(key);
+                }
+            }
+        }
+    }
+    
+    /**
+     * The async policy found in one generation of the
+     * configuration, where the policy may be null
+     * 
+     * @author jwells
+     *
+     */
+    private static class AsyncPolicyHolder {
+        private final AsyncTopicDistributionPolicy policy;
+        private final int generation;
+        
+        private AsyncPolicyHolder(AsyncTopicDistributionPolicy policy, int generation) {
+            this.policy = policy;
+            this.generation = generation;
+        }
+    }
+    
+    /**
+     * The key for a delivery queue, which is the subscriber, the target
+     * (compared by identity) and the partition key of the message
+     * 
+     * @author jwells
+     *
+     */
+    private static class DeliveryQueueKey {
+        private final SubscriberInfo subscriberInfo;
+        private final Object target;
+        private final Object partitionKey;
+        private final int hashCode;
+        
+        private DeliveryQueueKey(SubscriberInfo subscriberInfo, Object target, Object partitionKey) {
+            this.subscriberInfo = subscriberInfo;
+            this.target = target;
+            this.partitionKey = partitionKey;
+            this.hashCode = System.identityHashCode(subscriberInfo) ^ System.identityHashCode(target) ^
+                    ((partitionKey == null) ? 0 : partitionKey.hashCode());
+        }
+        
+        public int hashCode() {
+            return hashCode;
+        }
+        
+        public boolean equals(Object o) {
+            if (o == null) return false;
+            if (!(o instanceof DeliveryQueueKey)) return false;
+            
+            DeliveryQueueKey other = (DeliveryQueueKey) o;
+            
+            if (subscriberInfo != other.subscriberInfo || target != other.target) return false;
+            if (partitionKey == null) return other.partitionKey == null;
+            return partitionKey.equals(other.partitionKey);
+        }
+    }
+    
+    /**
+     * The key for a route, which is the type of the topic and the
+     * qualifiers of the topic
+     * 
+     * @author jwells
+     *
+     */
+    private static class RouteKey {
+        private final Type eventType;
+        private final Set<Annotation> topicQualifiers;
+        private final int hashCode;
+        
+        private RouteKey(Type eventType, Set<Annotation> topicQualifiers) {
+            this.eventType = eventType;
+            this.topicQualifiers = topicQualifiers;
+            this.hashCode = eventType.hashCode() ^ topicQualifiers.hashCode();
+        }
+        
+        public int hashCode() {
+            return hashCode;
+        }
+        
+        public boolean equals(Object o) {
+            if (o == null) return false;
+            if (!(o instanceof RouteKey)) return false;
+            
+            RouteKey other = (RouteKey) o;
+            
+            return eventType.equals(other.eventType) && topicQualifiers.equals(other.topicQualifiers);
+        }
+    }
+    
     private static class FireResults {
         private final Method subscriberMethod;
         private final SubscriberInfo subscriberInfo;
@@ -41,8 +41,10 @@ package org.glassfish.hk2.extras.hk2bridge.internal;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.PreDestroy;
@@ -71,7 +73,7 @@ public class Hk2BridgeImpl implements DynamicConfigurationListener {
     private ServiceLocator remote;
     private Filter filter;
     
-    private List<ActiveDescriptor<?>> mirroredDescriptors = new ArrayList<ActiveDescriptor<?>>();
+    private Map<DescriptorKey, ActiveDescriptor<?>> mirroredDescriptors = new HashMap<DescriptorKey, ActiveDescriptor<?>>();
     
     @Inject
     private Hk2BridgeImpl(ServiceLocator local) {
@@ -88,37 +90,59 @@ public class Hk2BridgeImpl implements DynamicConfigurationListener {
         handleChange(newDescriptors);
     }
     
+    /**
+     * Mirrors the difference between the descriptors currently mirrored
+     * into the remote locator and the given set of descriptors.  Both
+     * sides are keyed by locator id and service id, so the difference is
+     * computed with hash lookups rather than list scans, and all of the
+     * removals are done with a single unbind filter.  All of the changes
+     * go to the remote locator in one commit, and no commit at all is
+     * done if nothing has changed
+     * 
+     * @param newDescriptors The descriptors that should now be mirrored
+     */
     @SuppressWarnings("unchecked")
     private synchronized void handleChange(List<ActiveDescriptor<?>> newDescriptors) {
         if (remote == null) return;
         
-        HashSet<ActiveDescriptor<?>> toRemove = new HashSet<ActiveDescriptor<?>>(mirroredDescriptors);
-        toRemove.removeAll(newDescriptors);
+        HashMap<DescriptorKey, ActiveDescriptor<?>> newMirror = new HashMap<DescriptorKey, ActiveDescriptor<?>>();
+        List<ActiveDescriptor<?>> toAdd = new ArrayList<ActiveDescriptor<?>>();
+        for (ActiveDescriptor<?> newDescriptor : newDescriptors) {
+            DescriptorKey key = new DescriptorKey(newDescriptor.getLocatorId(), newDescriptor.getServiceId());
+            if (newMirror.put(key, newDescriptor) != null) continue;
+            
+            if (!mirroredDescriptors.containsKey(key)) {
+                toAdd.add(newDescriptor);
+            }
+        }
+        
+        HashSet<DescriptorKey> toRemove = new HashSet<DescriptorKey>();
+        for (DescriptorKey mirroredKey : mirroredDescriptors.keySet()) {
+            if (!newMirror.containsKey(mirroredKey)) {
+                toRemove.add(mirroredKey);
+            }
+        }
         
-        HashSet<ActiveDescriptor<?>> toAdd = new HashSet<ActiveDescriptor<?>>(newDescriptors);
-        toAdd.removeAll(mirroredDescriptors);
+        if (toAdd.isEmpty() && toRemove.isEmpty()) {
+            mirroredDescriptors = newMirror;
+            return;
+        }
         
         DynamicConfigurationService remoteDCS = remote.getService(DynamicConfigurationService.class);
         DynamicConfiguration config = remoteDCS.createDynamicConfiguration();
         
-        boolean dirty = false;
-        for (ActiveDescriptor<?> removeMe : toRemove) {
-            Filter removeFilter = new RemoveFilter(removeMe.getLocatorId(), removeMe.getServiceId());
-            config.addUnbindFilter(removeFilter);
-            dirty = true;
+        if (!toRemove.isEmpty()) {
+            config.addUnbindFilter(new RemoveFilter(toRemove));
         }
         
         for (ActiveDescriptor<?> addMe : toAdd) {
             CrossOverDescriptor<Object> cod = new CrossOverDescriptor<Object>(local, (ActiveDescriptor<Object>) addMe);
             config.addActiveDescriptor(cod);
-            dirty = true;
         }
         
-        if (dirty) {
-            config.commit();
-        }
+        config.commit();
         
-        mirroredDescriptors = newDescriptors;
+        mirroredDescriptors = newMirror;
     }
     
     /* (non-Javadoc)
@@ -163,13 +187,18 @@ public class Hk2BridgeImpl implements DynamicConfigurationListener {
         handleChange(Collections.<ActiveDescriptor<?>>emptyList());
     }
     
+    /**
+     * Matches any remote descriptor that was mirrored from one of the
+     * given local descriptors
+     * 
+     * @author jwells
+     *
+     */
     private static class RemoveFilter implements Filter {
-        private final long localLocatorId;
-        private final long localServiceId;
+        private final Set<DescriptorKey> removeKeys;
         
-        private RemoveFilter(long localLocatorId, long localServiceId) {
-            this.localLocatorId = localLocatorId;
-            this.localServiceId = localServiceId;
+        private RemoveFilter(Set<DescriptorKey> removeKeys) {
+            this.removeKeys = removeKeys;
         }
 
         /* (non-Javadoc)
@@ -178,21 +207,50 @@ public class Hk2BridgeImpl implements DynamicConfigurationListener {
         @Override
         public boolean matches(Descriptor d) {
             List<Long> locatorIds = getMetadataLongsList(d, ExtrasUtilities.HK2BRIDGE_LOCATOR_ID);
-            int index = -1;
-            int lcv = 0;
-            for (Long locatorId : locatorIds) {
-                if (localLocatorId == locatorId) {
-                    index = lcv;
-                    break;
+            if (locatorIds.isEmpty()) return false;
+            
+            List<Long> serviceIds = getMetadataLongsList(d, ExtrasUtilities.HK2BRIDGE_SERVICE_ID);
+            int size = Math.min(locatorIds.size(), serviceIds.size());
+            for (int lcv = 0; lcv < size; lcv++) {
+                if (removeKeys.contains(new DescriptorKey(locatorIds.get(lcv), serviceIds.get(lcv)))) {
+                    return true;
                 }
-                lcv++;
             }
-            if (index == -1) return false;
             
-            List<Long> serviceIds = getMetadataLongsList(d, ExtrasUtilities.HK2BRIDGE_SERVICE_ID);
-            Long serviceId = serviceIds.get(index);
+            return false;
+        }
+    }
+    
+    /**
+     * Identifies a descriptor by its locator id and service id
+     * 
+     * @author jwells
+     *
+     */
+    private static class DescriptorKey {
+        private final long locatorId;
+        private final long serviceId;
+        private final int hash;
+        
+        private DescriptorKey(long locatorId, long serviceId) {
+            this.locatorId = locatorId;
+            this.serviceId = serviceId;
+            this.hash = (int) (locatorId ^ (locatorId >>> 32)) ^ (int) (serviceId ^ (serviceId >>> 32));
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (o == null) return false;
+            if (!(o instanceof DescriptorKey)) return false;
+            
+            DescriptorKey other = (DescriptorKey) o;
             
-            return (serviceId == localServiceId);
+            return (locatorId == other.locatorId) && (serviceId == other.serviceId);
         }
     }
     
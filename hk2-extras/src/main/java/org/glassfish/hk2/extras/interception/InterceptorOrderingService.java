@@ -57,6 +57,12 @@ import org.jvnet.hk2.annotations.Contract;
  * of this service then they will be called in the natural
  * hk2 ordering of services with the result of the method being
  * fed into the next service.
+ * <p>
+ * The default interception service caches the result for each Method
+ * and Constructor, and only calls these services again once the set of
+ * interceptors or InterceptorOrderingService services has changed.
+ * Implementations should therefore always return the same result
+ * for the same input.
  * 
  * @author jwells
  *
@@ -46,6 +46,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -55,6 +57,7 @@ import org.aopalliance.intercept.MethodInterceptor;
 import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.Descriptor;
 import org.glassfish.hk2.api.DescriptorVisibility;
+import org.glassfish.hk2.api.DynamicConfigurationListener;
 import org.glassfish.hk2.api.Filter;
 import org.glassfish.hk2.api.IndexedFilter;
 import org.glassfish.hk2.api.InterceptionService;
@@ -65,17 +68,22 @@ import org.glassfish.hk2.api.Visibility;
 import org.glassfish.hk2.extras.interception.Intercepted;
 import org.glassfish.hk2.extras.interception.Interceptor;
 import org.glassfish.hk2.extras.interception.InterceptorOrderingService;
+import org.glassfish.hk2.utilities.BuilderHelper;
 
 /**
  * A default implementation of the interception service using annotation to
  * denote services that are to be intercepted and other annotations to match
- * methods or constructors to interceptors
+ * methods or constructors to interceptors.
+ * <p>
+ * The interceptors found for each method and constructor are cached.  The
+ * cache is cleared only when the set of interceptor or
+ * {@link InterceptorOrderingService} descriptors changes
  * 
  * @author jwells
  */
 @Singleton
 @Visibility(DescriptorVisibility.LOCAL)
-public class DefaultInterceptionService implements InterceptionService {
+public class DefaultInterceptionService implements InterceptionService, DynamicConfigurationListener {
     private final static IndexedFilter METHOD_FILTER = new IndexedFilter() {
 
         @Override
@@ -114,11 +122,26 @@ public class DefaultInterceptionService implements InterceptionService {
         
     };
     
+    private final static Filter ORDERER_FILTER = BuilderHelper.createContractFilter(InterceptorOrderingService.class.getName());
+    
     @Inject
     private ServiceLocator locator;
     
     @Inject
     private IterableProvider<InterceptorOrderingService> orderers;
+    
+    private final ConcurrentHashMap<Method, List<CachedInterceptor<MethodInterceptor>>> methodCache =
+            new ConcurrentHashMap<Method, List<CachedInterceptor<MethodInterceptor>>>();
+    private final ConcurrentHashMap<Constructor<?>, List<CachedInterceptor<ConstructorInterceptor>>> constructorCache =
+            new ConcurrentHashMap<Constructor<?>, List<CachedInterceptor<ConstructorInterceptor>>>();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    
+    /** The interceptor and orderer descriptors the cache was computed with, guarded by this */
+    private List<ActiveDescriptor<?>> cachedDescriptors;
+    
+    /** Incremented every time the cache is cleared, guarded by this */
+    private long cacheGeneration;
 
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.InterceptionService#getDescriptorFilter()
@@ -180,9 +203,31 @@ public class DefaultInterceptionService implements InterceptionService {
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.InterceptionService#getMethodInterceptors(java.lang.reflect.Method)
      */
-    @SuppressWarnings("unchecked")
     @Override
     public List<MethodInterceptor> getMethodInterceptors(Method method) {
+        List<CachedInterceptor<MethodInterceptor>> cached = methodCache.get(method);
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+        }
+        else {
+            cacheMisses.incrementAndGet();
+            
+            long generation = getCacheGeneration();
+            cached = cache(findMethodInterceptors(method));
+            
+            synchronized (this) {
+                // Do not cache interceptors found before the configuration changed
+                if (generation == cacheGeneration) {
+                    methodCache.put(method, cached);
+                }
+            }
+        }
+        
+        return getServices(cached);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<ServiceHandle<MethodInterceptor>> findMethodInterceptors(Method method) {
         HashSet<String> allBindings = ReflectionUtilities.getAllBindingsFromMethod(method);
         
         List<ServiceHandle<?>> allInterceptors = locator.getAllServiceHandles(METHOD_FILTER);
@@ -214,26 +259,38 @@ public class DefaultInterceptionService implements InterceptionService {
             }
         }
         
-        handles = orderMethods(method, handles);
-        
-        if (handles.isEmpty()) return Collections.emptyList();
-        
-        List<MethodInterceptor> retVal = new ArrayList<MethodInterceptor>(handles.size());
-        for (ServiceHandle<MethodInterceptor> handle : handles) {
-            MethodInterceptor interceptor = handle.getService();
-            if (interceptor == null) continue;
-            retVal.add(interceptor);
-        }
-        return retVal;
+        return orderMethods(method, handles);
     }
 
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.InterceptionService#getConstructorInterceptors(java.lang.reflect.Constructor)
      */
-    @SuppressWarnings("unchecked")
     @Override
     public List<ConstructorInterceptor> getConstructorInterceptors(
             Constructor<?> constructor) {
+        List<CachedInterceptor<ConstructorInterceptor>> cached = constructorCache.get(constructor);
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+        }
+        else {
+            cacheMisses.incrementAndGet();
+            
+            long generation = getCacheGeneration();
+            cached = cache(findConstructorInterceptors(constructor));
+            
+            synchronized (this) {
+                // Do not cache interceptors found before the configuration changed
+                if (generation == cacheGeneration) {
+                    constructorCache.put(constructor, cached);
+                }
+            }
+        }
+        
+        return getServices(cached);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<ServiceHandle<ConstructorInterceptor>> findConstructorInterceptors(Constructor<?> constructor) {
         HashSet<String> allBindings = ReflectionUtilities.getAllBindingsFromConstructor(constructor);
         
         List<ServiceHandle<?>> allInterceptors = locator.getAllServiceHandles(CONSTRUCTOR_FILTER);
@@ -265,16 +322,114 @@ public class DefaultInterceptionService implements InterceptionService {
             }
         }
         
-        handles = orderConstructors(constructor, handles);
-        
+        return orderConstructors(constructor, handles);
+    }
+    
+    private synchronized long getCacheGeneration() {
+        return cacheGeneration;
+    }
+    
+    private static <T> List<CachedInterceptor<T>> cache(List<ServiceHandle<T>> handles) {
         if (handles.isEmpty()) return Collections.emptyList();
         
-        List<ConstructorInterceptor> retVal = new ArrayList<ConstructorInterceptor>(handles.size());
-        for (ServiceHandle<ConstructorInterceptor> handle : handles) {
-            ConstructorInterceptor interceptor = handle.getService();
+        List<CachedInterceptor<T>> retVal = new ArrayList<CachedInterceptor<T>>(handles.size());
+        for (ServiceHandle<T> handle : handles) {
+            ActiveDescriptor<?> ad = handle.getActiveDescriptor();
+            if (ad == null || ad.getLocatorId() == null) {
+                // Not a service of any locator, keep the handle itself
+                retVal.add(new CachedInterceptor<T>(null, handle));
+            }
+            else {
+                retVal.add(new CachedInterceptor<T>(ad, null));
+            }
+        }
+        
+        return retVal;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <T> List<T> getServices(List<CachedInterceptor<T>> cached) {
+        if (cached.isEmpty()) return Collections.emptyList();
+        
+        List<T> retVal = new ArrayList<T>(cached.size());
+        for (CachedInterceptor<T> cachedInterceptor : cached) {
+            ServiceHandle<T> handle = cachedInterceptor.handle;
+            if (handle == null) {
+                // A new handle every time, so per lookup interceptors are created every time
+                handle = (ServiceHandle<T>) locator.getServiceHandle(cachedInterceptor.descriptor);
+            }
+            
+            T interceptor = handle.getService();
             if (interceptor == null) continue;
             retVal.add(interceptor);
         }
         return retVal;
     }
+    
+    /**
+     * Returns the number of times the interceptors of a method or
+     * constructor were found in the cache
+     * 
+     * @return The number of cache hits
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+    
+    /**
+     * Returns the number of times the interceptors of a method or
+     * constructor had to be calculated
+     * 
+     * @return The number of cache misses
+     */
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+    
+    /**
+     * Returns the fraction of lookups of interceptors that were
+     * found in the cache
+     * 
+     * @return The hit rate of the cache, between 0 and 1.  Returns 0
+     * if no interceptors have been looked up
+     */
+    public double getCacheHitRate() {
+        long hits = cacheHits.get();
+        long total = hits + cacheMisses.get();
+        if (total == 0L) return 0.0;
+        
+        return ((double) hits) / ((double) total);
+    }
+
+    /* (non-Javadoc)
+     * @see org.glassfish.hk2.api.DynamicConfigurationListener#configurationChanged()
+     */
+    @Override
+    public void configurationChanged() {
+        List<ActiveDescriptor<?>> current = new ArrayList<ActiveDescriptor<?>>();
+        current.addAll(locator.getDescriptors(METHOD_FILTER));
+        current.addAll(locator.getDescriptors(CONSTRUCTOR_FILTER));
+        current.addAll(locator.getDescriptors(ORDERER_FILTER));
+        
+        synchronized (this) {
+            if (current.equals(cachedDescriptors)) return;
+            
+            cachedDescriptors = current;
+            cacheGeneration++;
+            
+            methodCache.clear();
+            constructorCache.clear();
+        }
+    }
+    
+    private static class CachedInterceptor<T> {
+        /** The interceptor service, or null if the handle is not a service of any locator */
+        private final ActiveDescriptor<?> descriptor;
+        private final ServiceHandle<T> handle;
+        
+        private CachedInterceptor(ActiveDescriptor<?> descriptor, ServiceHandle<T> handle) {
+            this.descriptor = descriptor;
+            this.handle = handle;
+        }
+    }
 }
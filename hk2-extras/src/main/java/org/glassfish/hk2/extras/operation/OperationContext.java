@@ -40,17 +40,17 @@
 package org.glassfish.hk2.extras.operation;
 
 import java.lang.annotation.Annotation;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.Context;
 import org.glassfish.hk2.api.ServiceHandle;
 import org.glassfish.hk2.extras.operation.internal.OperationHandleImpl;
+import org.glassfish.hk2.extras.operation.internal.OperationInstances;
 import org.glassfish.hk2.extras.operation.internal.SingleOperationManager;
 import org.glassfish.hk2.utilities.reflection.Logger;
 import org.jvnet.hk2.annotations.Contract;
@@ -84,29 +84,27 @@ import org.jvnet.hk2.annotations.Contract;
  */
 @Contract
 public abstract class OperationContext<T extends Annotation> implements Context<T> {
-    private SingleOperationManager<T> manager;
-    private final HashMap<OperationHandleImpl<T>, LinkedHashMap<ActiveDescriptor<?>, Object>> operationMap =
-            new HashMap<OperationHandleImpl<T>, LinkedHashMap<ActiveDescriptor<?>, Object>>();
-    private final HashSet<ActiveDescriptor<?>> creating = new HashSet<ActiveDescriptor<?>>();
-    private final HashMap<Long, LinkedList<OperationHandleImpl<T>>> closingOperations = new HashMap<Long, LinkedList<OperationHandleImpl<T>>>();
+    private volatile SingleOperationManager<T> manager;
+    
+    /** The operations that have created services, the services themselves are kept in each operation */
+    private final ConcurrentHashMap<OperationHandleImpl<T>, Boolean> operations =
+            new ConcurrentHashMap<OperationHandleImpl<T>, Boolean>();
+    
+    /** Each stack is only ever used by the thread whose id is its key */
+    private final ConcurrentHashMap<Long, LinkedList<OperationHandleImpl<T>>> closingOperations =
+            new ConcurrentHashMap<Long, LinkedList<OperationHandleImpl<T>>>();
+    
+    /** Makes registering an operation and shutting down atomic with respect to each other */
+    private final Object shutdownLock = new Object();
     private boolean shuttingDown = false;
 
     /* (non-Javadoc)
      * @see org.glassfish.hk2.api.Context#findOrCreate(org.glassfish.hk2.api.ActiveDescriptor, org.glassfish.hk2.api.ServiceHandle)
      */
-    @SuppressWarnings("unchecked")
     @Override
     public <U> U findOrCreate(ActiveDescriptor<U> activeDescriptor,
             ServiceHandle<?> root) {
-        SingleOperationManager<T> localManager;
-        LinkedList<OperationHandleImpl<T>> closingOperationStack;
-        boolean closingOperation;
-        
-        synchronized (this) {
-            localManager = manager;
-            closingOperationStack = closingOperations.get(Thread.currentThread().getId());
-            closingOperation = (closingOperationStack != null && !closingOperationStack.isEmpty());
-        }
+        SingleOperationManager<T> localManager = manager;
         
         if (localManager == null) {
             throw new IllegalStateException("There is no manager for " +
@@ -115,87 +113,30 @@ public abstract class OperationContext<T extends Annotation> implements Context<
         
         OperationHandleImpl<T> operation = localManager.getCurrentOperationOnThisThread();
         if (operation == null) {
-            synchronized (this) {
-                if (!closingOperation) {
-                    throw new IllegalStateException("There is no current operation of type " +
-                            getScope().getName() + " on thread " + Thread.currentThread().getId());
-                }
-                
-                operation = closingOperationStack.get(0);
+            LinkedList<OperationHandleImpl<T>> closingOperationStack = closingOperations.get(Thread.currentThread().getId());
+            if (closingOperationStack == null || closingOperationStack.isEmpty()) {
+                throw new IllegalStateException("There is no current operation of type " +
+                        getScope().getName() + " on thread " + Thread.currentThread().getId());
             }
+            
+            operation = closingOperationStack.getFirst();
         }
         
-        LinkedHashMap<ActiveDescriptor<?>, Object> serviceMap;
-        synchronized (this) {
-            serviceMap = operationMap.get(operation);
-            if (serviceMap == null) {
-                if (closingOperation || shuttingDown) {
+        OperationInstances instances = operation.getInstances();
+        if (!instances.containsKey(activeDescriptor)) {
+            synchronized (shutdownLock) {
+                if (shuttingDown) {
                     throw new IllegalStateException("The operation " + operation.getIdentifier() +
                             " is closing.  A new instance of " + activeDescriptor +
                             " cannot be created");
                 }
-                
-                serviceMap = new LinkedHashMap<ActiveDescriptor<?>, Object>();
-                operationMap.put(operation, serviceMap);
-            }
-            
-            Object retVal = serviceMap.get(activeDescriptor);
-            if (retVal != null) return (U) retVal;
-            
-            if (supportsNullCreation() && serviceMap.containsKey(activeDescriptor)) {
-                return null;
-            }
-            
-            if (closingOperation || shuttingDown) {
-                throw new IllegalStateException("The operation " + operation.getIdentifier() +
-                        " is closing.  A new instance of " + activeDescriptor +
-                        " cannot be created after searching existing descriptors");
-            }
-            
-            // retVal is null, and this is not an explicit null, so must actually do the creation
-            while (creating.contains(activeDescriptor)) {
-                try {
-                    this.wait();
-                }
-                catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-            
-            retVal = serviceMap.get(activeDescriptor);
-            if (retVal != null) return (U) retVal;
-            
-            if (supportsNullCreation() && serviceMap.containsKey(activeDescriptor)) {
-                return null;
-            }
-            
-            // Not in creating, and not created.  Create it ourselves
-            creating.add(activeDescriptor);
-        }
-        
-        Object retVal = null;
-        boolean success = false;
-        try {
-            retVal = activeDescriptor.create(root);
-            if (retVal == null && !supportsNullCreation()) {
-                throw new IllegalArgumentException("The operation for context " + getScope().getName() +
-                        " does not support null creation, but descriptor " + activeDescriptor + " returned null");
-            }
             
-            success = true;
-        }
-        finally {
-            synchronized (this) {
-                if (success) {
-                    serviceMap.put(activeDescriptor, retVal);
-                }
-                
-                creating.remove(activeDescriptor);
-                this.notifyAll();
+                // Either shutdown will see this operation and close it, or it has already failed above
+                operations.putIfAbsent(operation, Boolean.TRUE);
             }
         }
         
-        return (U) retVal;
+        return instances.findOrCreate(activeDescriptor, root, supportsNullCreation());
     }
 
     /* (non-Javadoc)
@@ -203,24 +144,13 @@ public abstract class OperationContext<T extends Annotation> implements Context<
      */
     @Override
     public boolean containsKey(ActiveDescriptor<?> descriptor) {
-        SingleOperationManager<T> localManager;
-        synchronized (this) {
-            localManager = manager;
-        }
+        SingleOperationManager<T> localManager = manager;
         if (localManager == null) return false;
         
         OperationHandleImpl<T> operation = localManager.getCurrentOperationOnThisThread();
         if (operation == null) return false;
         
-        synchronized (this) {
-            HashMap<ActiveDescriptor<?>, Object> serviceMap;
-            
-            serviceMap = operationMap.get(operation);
-            if (serviceMap == null) return false;
-            
-            return serviceMap.containsKey(descriptor);
-        }
-        
+        return operation.getInstances().containsKey(descriptor);
     }
 
     /* (non-Javadoc)
@@ -229,44 +159,31 @@ public abstract class OperationContext<T extends Annotation> implements Context<
     @SuppressWarnings("unchecked")
     @Override
     public void destroyOne(ActiveDescriptor<?> descriptor) {
-        synchronized (this) {
-            for (HashMap<ActiveDescriptor<?>, Object> serviceMap : operationMap.values()) {
-                Object killMe = serviceMap.remove(descriptor);
-                if (killMe == null) continue;
-                
-                ((ActiveDescriptor<Object>) descriptor).dispose(killMe);
-            }
+        for (OperationHandleImpl<T> operation : operations.keySet()) {
+            Object killMe = operation.getInstances().remove(descriptor);
+            if (killMe == null) continue;
+            
+            ((ActiveDescriptor<Object>) descriptor).dispose(killMe);
         }
     }
     
     @SuppressWarnings("unchecked")
     public void closeOperation(OperationHandleImpl<T> operation) {
         long tid = Thread.currentThread().getId();
-        HashMap<ActiveDescriptor<?>, Object> serviceMap;
-        LinkedList<OperationHandleImpl<T>> stack;
         
-        synchronized (this) {
-            stack = closingOperations.get(tid);
-            if (stack == null) {
-                stack = new LinkedList<OperationHandleImpl<T>>();
-                closingOperations.put(tid, stack);
-            }
-            
-            stack.addFirst(operation);
-            
-            serviceMap = operationMap.get(operation);
+        LinkedList<OperationHandleImpl<T>> stack = closingOperations.get(tid);
+        if (stack == null) {
+            stack = new LinkedList<OperationHandleImpl<T>>();
+            closingOperations.put(tid, stack);
         }
         
-        try {
-            // Must be done outside of the lock
-            
-            if (serviceMap == null) return;
+        stack.addFirst(operation);
         
-            // Reverses creation order
-            LinkedList<Map.Entry<ActiveDescriptor<?>, Object>> destructionList = new LinkedList<Map.Entry<ActiveDescriptor<?>, Object>>();
-            for (Map.Entry<ActiveDescriptor<?>, Object> entry : serviceMap.entrySet()) {
-                destructionList.addFirst(entry);
-            }
+        OperationInstances instances = operation.getInstances();
+        
+        try {
+            // Services can still be found, but not created, while they are disposed
+            List<Map.Entry<ActiveDescriptor<?>, Object>> destructionList = instances.startClosing();
             
             for (Map.Entry<ActiveDescriptor<?>, Object> entry : destructionList) {
                 ActiveDescriptor<Object> desc = (ActiveDescriptor<Object>) entry.getKey();
@@ -281,13 +198,12 @@ public abstract class OperationContext<T extends Annotation> implements Context<
             }
         }
         finally {
-            synchronized (this) {
-                operationMap.remove(operation);
+            instances.clear();
+            operations.remove(operation);
             
-                stack.removeFirst();
-                if (stack.isEmpty()) {
-                    closingOperations.remove(tid);
-                }
+            stack.removeFirst();
+            if (stack.isEmpty()) {
+                closingOperations.remove(tid);
             }
         }
     }
@@ -297,21 +213,20 @@ public abstract class OperationContext<T extends Annotation> implements Context<
      */
     @Override
     public void shutdown() {
-        Set<OperationHandleImpl<T>> toShutDown;
-        synchronized (this) {
+        List<OperationHandleImpl<T>> shutDowns;
+        synchronized (shutdownLock) {
             shuttingDown = true;
-            toShutDown = operationMap.keySet();
+            
+            shutDowns = new ArrayList<OperationHandleImpl<T>>(operations.keySet());
         }
         
         try {
-            for (OperationHandleImpl<T> shutDown : toShutDown) {
+            for (OperationHandleImpl<T> shutDown : shutDowns) {
                 shutDown.closeOperation();
             }
         }
         finally {
-            synchronized (this) {
-                operationMap.clear();
-            }
+            operations.clear();
         }
         
     }
@@ -332,7 +247,7 @@ public abstract class OperationContext<T extends Annotation> implements Context<
         return true;
     }
 
-    public synchronized void setOperationManager(SingleOperationManager<T> manager) {
+    public void setOperationManager(SingleOperationManager<T> manager) {
         this.manager = manager;
     }
     
@@ -62,6 +62,7 @@ public class OperationHandleImpl<T extends Annotation> implements OperationHandl
     
     // Not controlled by operationLock
     private Object userData;
+    private final OperationInstances instances = new OperationInstances(this);
     
     /* package */ OperationHandleImpl(
             SingleOperationManager<T> parent,
@@ -199,6 +200,15 @@ public class OperationHandleImpl<T extends Annotation> implements OperationHandl
         
     }
 
+    /**
+     * The services created in this operation.  Not controlled by operationLock
+     * 
+     * @return The non-null table of services created in this operation
+     */
+    public OperationInstances getInstances() {
+        return instances;
+    }
+
     /* (non-Javadoc)
      * @see org.glassfish.hk2.extras.operation.OperationHandle#getOperationData()
      */
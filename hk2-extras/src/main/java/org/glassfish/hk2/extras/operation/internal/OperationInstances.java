@@ -0,0 +1,241 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.extras.operation.internal;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.ServiceHandle;
+
+/**
+ * The services created in a single operation.  Every operation carries
+ * its own table, so finding an existing service in an operation does
+ * not take any lock that is shared with other operations
+ * 
+ * @author jwells
+ *
+ */
+public class OperationInstances {
+    /** Stands in for a service that was created as null */
+    private final static Object NULL_INSTANCE = new Object();
+    
+    private final OperationHandleImpl<?> operation;
+    private final ConcurrentHashMap<ActiveDescriptor<?>, Object> instances =
+            new ConcurrentHashMap<ActiveDescriptor<?>, Object>(8, 0.75f, 1);
+    
+    // These are all guarded by this
+    private final LinkedHashSet<ActiveDescriptor<?>> creationOrder = new LinkedHashSet<ActiveDescriptor<?>>();
+    private final HashSet<ActiveDescriptor<?>> creating = new HashSet<ActiveDescriptor<?>>();
+    private boolean closing;
+    
+    /* package */ OperationInstances(OperationHandleImpl<?> operation) {
+        this.operation = operation;
+    }
+    
+    private static Object unwrap(Object instance) {
+        return (instance == NULL_INSTANCE) ? null : instance ;
+    }
+    
+    /**
+     * Finds the service for the descriptor in this operation, creating
+     * it if it has not yet been created
+     * 
+     * @param activeDescriptor The descriptor of the service
+     * @param root The root handle to use when creating the service
+     * @param supportsNullCreation true if the descriptor may create null
+     * @return The service for the descriptor in this operation
+     * @throws IllegalStateException if the service needs to be created
+     * but this operation is closing
+     */
+    @SuppressWarnings("unchecked")
+    public <U> U findOrCreate(ActiveDescriptor<U> activeDescriptor, ServiceHandle<?> root, boolean supportsNullCreation) {
+        Object retVal = instances.get(activeDescriptor);
+        if (retVal != null) return (U) unwrap(retVal);
+        
+        synchronized (this) {
+            for (;;) {
+                retVal = instances.get(activeDescriptor);
+                if (retVal != null) return (U) unwrap(retVal);
+                
+                if (closing) {
+                    throw new IllegalStateException("The operation " + operation.getIdentifier() +
+                            " is closing.  A new instance of " + activeDescriptor +
+                            " cannot be created");
+                }
+                
+                if (!creating.contains(activeDescriptor)) break;
+                
+                try {
+                    this.wait();
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            
+            // Not in creating, and not created.  Create it ourselves
+            creating.add(activeDescriptor);
+        }
+        
+        boolean success = false;
+        boolean added = false;
+        try {
+            retVal = activeDescriptor.create(root);
+            if (retVal == null && !supportsNullCreation) {
+                throw new IllegalArgumentException("The operation " + operation.getIdentifier() +
+                        " does not support null creation, but descriptor " + activeDescriptor + " returned null");
+            }
+            
+            success = true;
+        }
+        finally {
+            synchronized (this) {
+                if (success && !closing) {
+                    instances.put(activeDescriptor, (retVal == null) ? NULL_INSTANCE : retVal);
+                    creationOrder.add(activeDescriptor);
+                    added = true;
+                }
+                
+                creating.remove(activeDescriptor);
+                this.notifyAll();
+            }
+        }
+        
+        if (!added) {
+            // The operation was closed while this service was being created
+            if (retVal != null) ((ActiveDescriptor<Object>) activeDescriptor).dispose(retVal);
+            
+            throw new IllegalStateException("The operation " + operation.getIdentifier() +
+                    " was closed while an instance of " + activeDescriptor + " was being created");
+        }
+        
+        return (U) retVal;
+    }
+    
+    /**
+     * Returns true if a service (possibly null) has been created for the
+     * descriptor in this operation
+     * 
+     * @param descriptor The descriptor to look for
+     * @return true if the service has been created in this operation
+     */
+    public boolean containsKey(ActiveDescriptor<?> descriptor) {
+        return instances.containsKey(descriptor);
+    }
+    
+    /**
+     * Removes the service for the given descriptor from this operation
+     * 
+     * @param descriptor The descriptor whose service should be removed
+     * @return The service that was removed, or null if there was none
+     * or the service was null
+     */
+    public Object remove(ActiveDescriptor<?> descriptor) {
+        synchronized (this) {
+            creationOrder.remove(descriptor);
+            return unwrap(instances.remove(descriptor));
+        }
+    }
+    
+    /**
+     * Stops any new service from being created in this operation.  The
+     * services that already exist can still be found until
+     * {@link #clear()} is called
+     * 
+     * @return The services of this operation in reverse creation order
+     */
+    public List<Map.Entry<ActiveDescriptor<?>, Object>> startClosing() {
+        LinkedList<Map.Entry<ActiveDescriptor<?>, Object>> retVal = new LinkedList<Map.Entry<ActiveDescriptor<?>, Object>>();
+        
+        synchronized (this) {
+            closing = true;
+            
+            for (ActiveDescriptor<?> descriptor : creationOrder) {
+                Object instance = instances.get(descriptor);
+                if (instance == null) continue;
+                
+                retVal.addFirst(new InstanceEntry(descriptor, unwrap(instance)));
+            }
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Removes all services from this operation
+     */
+    public void clear() {
+        synchronized (this) {
+            creationOrder.clear();
+            instances.clear();
+        }
+    }
+    
+    private static class InstanceEntry implements Map.Entry<ActiveDescriptor<?>, Object> {
+        private final ActiveDescriptor<?> descriptor;
+        private final Object instance;
+        
+        private InstanceEntry(ActiveDescriptor<?> descriptor, Object instance) {
+            this.descriptor = descriptor;
+            this.instance = instance;
+        }
+
+        @Override
+        public ActiveDescriptor<?> getKey() {
+            return descriptor;
+        }
+
+        @Override
+        public Object getValue() {
+            return instance;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
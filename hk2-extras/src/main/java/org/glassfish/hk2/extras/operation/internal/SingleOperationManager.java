@@ -44,6 +44,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.ServiceLocator;
@@ -62,12 +63,14 @@ public class SingleOperationManager<T extends Annotation> {
     private final Object operationLock = new Object();
     private final T scope;
     private final HashMap<OperationIdentifier<T>, OperationHandleImpl<T>> openScopes = new HashMap<OperationIdentifier<T>, OperationHandleImpl<T>>();
-    private final HashMap<Long, OperationHandleImpl<T>> threadToHandleMap = new HashMap<Long, OperationHandleImpl<T>>();
+    
+    /** Modified with the operationLock held, but read without it */
+    private final ConcurrentHashMap<Long, OperationHandleImpl<T>> threadToHandleMap = new ConcurrentHashMap<Long, OperationHandleImpl<T>>();
     private final ServiceLocator locator;
     private final OperationContext<T> context;
     private long scopedIdentifier;
     private final ActiveDescriptor<?> operationDescriptor;
-    private boolean closed = false;
+    private volatile boolean closed = false;
     
     /* package */ @SuppressWarnings("unchecked")
     SingleOperationManager(T scope,
@@ -168,17 +171,14 @@ public class SingleOperationManager<T extends Annotation> {
     }
     
     /**
-     * OperationLock need NOT be held
+     * OperationLock need NOT be held, and is not taken
      * 
      * @return The operation associated with the current thread
      */
     public OperationHandleImpl<T> getCurrentOperationOnThisThread() {
-        long threadId = Thread.currentThread().getId();
+        if (closed) return null;
         
-        synchronized (operationLock) {
-            if (closed) return null;
-            return getCurrentOperationOnThisThread(threadId);
-        }
+        return threadToHandleMap.get(Thread.currentThread().getId());
     }
     
     /* package */ Set<OperationHandle<T>> getAllOperations() {
@@ -48,6 +48,7 @@ import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.AnnotationLiteral;
 import org.glassfish.hk2.api.Descriptor;
 import org.glassfish.hk2.api.DynamicConfiguration;
+import org.glassfish.hk2.api.DynamicConfigurationListener;
 import org.glassfish.hk2.api.DynamicConfigurationService;
 import org.glassfish.hk2.api.PerLookup;
 import org.glassfish.hk2.api.ProxyCtl;
@@ -581,7 +582,63 @@ public class BridgeTest {
         
     }
     
+    /**
+     * Tests that changes to the from locator that do not change the set of
+     * bridged services do not cause commits in the into locator, and that
+     * several removals are mirrored in a single commit
+     */
+    @Test // @org.junit.Ignore
+    public void testOnlyChangesAreMirrored() {
+        ServiceLocator into = Utilities.getUniqueLocator();
+        ServiceLocator from = Utilities.getUniqueLocator(SimpleService.class, SimpleService2.class);
+        
+        CountingConfigurationListener counter = new CountingConfigurationListener();
+        ServiceLocatorUtilities.addOneConstant(into, counter);
+        
+        ExtrasUtilities.bridgeServiceLocator(into, from);
+        
+        Assert.assertNotNull(into.getService(SimpleService.class));
+        Assert.assertNotNull(into.getService(SimpleService2.class));
+        
+        int afterBridge = counter.getCount();
+        
+        // A local-only service is never bridged, so nothing should be committed into the other locator
+        DynamicConfigurationService dcs = from.getService(DynamicConfigurationService.class);
+        DynamicConfiguration config = dcs.createDynamicConfiguration();
+        config.bind(BuilderHelper.link(SimpleService3.class).localOnly().build());
+        config.commit();
+        
+        Assert.assertEquals(afterBridge, counter.getCount());
+        Assert.assertNull(into.getService(SimpleService3.class));
+        
+        config = dcs.createDynamicConfiguration();
+        config.addUnbindFilter(BuilderHelper.createContractFilter(SimpleService.class.getName()));
+        config.addUnbindFilter(BuilderHelper.createContractFilter(SimpleService2.class.getName()));
+        config.commit();
+        
+        Assert.assertEquals(afterBridge + 1, counter.getCount());
+        Assert.assertNull(into.getService(SimpleService.class));
+        Assert.assertNull(into.getService(SimpleService2.class));
+    }
+    
     private static class PerRequestImpl extends AnnotationLiteral<PerRequest> implements PerRequest {
     }
+    
+    @Singleton
+    private static class CountingConfigurationListener implements DynamicConfigurationListener {
+        private int count;
+
+        /* (non-Javadoc)
+         * @see org.glassfish.hk2.api.DynamicConfigurationListener#configurationChanged()
+         */
+        @Override
+        public synchronized void configurationChanged() {
+            count++;
+        }
+        
+        private synchronized int getCount() {
+            return count;
+        }
+    }
 
 }
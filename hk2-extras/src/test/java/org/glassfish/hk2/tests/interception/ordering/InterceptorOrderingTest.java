@@ -42,7 +42,9 @@ package org.glassfish.hk2.tests.interception.ordering;
 import java.util.List;
 
 import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.extras.interception.internal.DefaultInterceptionService;
 import org.glassfish.hk2.tests.extras.internal.Utilities;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -177,5 +179,61 @@ public class InterceptorOrderingTest {
         Assert.assertEquals(MethodInterceptorOne.class, interceptors.get(5).getClass());
         
     }
+    
+    private static void checkOrder(List<Object> interceptors, boolean reversed) {
+        Assert.assertEquals(6, interceptors.size());
+        
+        Class<?> constructorOrder[] = { ConstructorInterceptorOne.class, ConstructorInterceptorTwo.class, ConstructorInterceptorThree.class };
+        Class<?> methodOrder[] = { MethodInterceptorOne.class, MethodInterceptorTwo.class, MethodInterceptorThree.class };
+        
+        for (int lcv = 0; lcv < 3; lcv++) {
+            int index = reversed ? (2 - lcv) : lcv ;
+            
+            Assert.assertEquals(constructorOrder[index], interceptors.get(lcv).getClass());
+            Assert.assertEquals(methodOrder[index], interceptors.get(lcv + 3).getClass());
+        }
+    }
+    
+    /**
+     * Tests that the interceptors of a per lookup service come from the
+     * cache after the first lookup, and that adding an ordering service
+     * clears the cache
+     */
+    @Test // @org.junit.Ignore
+    public void testInterceptorsAreCachedUntilOrderersChange() {
+        ServiceLocator locator = Utilities.getUniqueLocator(PerLookupAService.class,
+                ConstructorInterceptorOne.class,
+                ConstructorInterceptorTwo.class,
+                ConstructorInterceptorThree.class,
+                Recorder.class,
+                MethodInterceptorOne.class,
+                MethodInterceptorTwo.class,
+                MethodInterceptorThree.class);
+        
+        DefaultInterceptionService interceptionService = locator.getService(DefaultInterceptionService.class);
+        Recorder recorder = locator.getService(Recorder.class);
+        
+        locator.getService(PerLookupAService.class).callMe();
+        checkOrder(recorder.get(), false);
+        
+        long misses = interceptionService.getCacheMisses();
+        long hits = interceptionService.getCacheHits();
+        
+        recorder.clear();
+        locator.getService(PerLookupAService.class).callMe();
+        checkOrder(recorder.get(), false);
+        
+        Assert.assertEquals(misses, interceptionService.getCacheMisses());
+        Assert.assertTrue(interceptionService.getCacheHits() > hits);
+        Assert.assertTrue(interceptionService.getCacheHitRate() > 0.0);
+        
+        ServiceLocatorUtilities.addClasses(locator, Reverser.class);
+        
+        recorder.clear();
+        locator.getService(PerLookupAService.class).callMe();
+        checkOrder(recorder.get(), true);
+        
+        Assert.assertTrue(interceptionService.getCacheMisses() > misses);
+    }
 
 }
@@ -0,0 +1,249 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.glassfish.hk2.tests.locator.messaging.async;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.extras.events.AsyncTopicDistributionPolicy;
+import org.glassfish.hk2.tests.extras.internal.Utilities;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests asynchronous delivery of topic messages
+ * 
+ * @author jwells
+ */
+public class AsyncTopicTest {
+    private final static int NUM_PARTITIONS = 4;
+    private final static int NUM_EVENTS = 100;
+    private final static long TIMEOUT = 20000L;
+    
+    /**
+     * Tests that messages are delivered on the executor of the
+     * policy, and in order within each partition
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public void testAsyncDeliveryIsOrderedPerPartition() throws InterruptedException {
+        ServiceLocator locator = Utilities.getLocatorWithTopics();
+        
+        ServiceLocatorUtilities.addClasses(locator, AsyncPolicy.class,
+                NumberSubscriber.class,
+                NumberPublisher.class);
+        
+        AsyncPolicy policy = locator.getService(AsyncPolicy.class);
+        NumberSubscriber subscriber = locator.getService(NumberSubscriber.class);
+        NumberPublisher publisher = locator.getService(NumberPublisher.class);
+        
+        for (int lcv = 0; lcv < NUM_EVENTS; lcv++) {
+            publisher.publish(lcv % NUM_PARTITIONS, lcv);
+        }
+        
+        List<NumberEvent> events = subscriber.waitForEvents(NUM_EVENTS, TIMEOUT);
+        Assert.assertEquals(NUM_EVENTS, events.size());
+        
+        HashMap<Integer, Integer> lastByPartition = new HashMap<Integer, Integer>();
+        for (NumberEvent event : events) {
+            Integer last = lastByPartition.get(event.getPartition());
+            if (last != null) {
+                Assert.assertTrue("Event " + event.getNumber() + " delivered after " + last,
+                        event.getNumber() > last);
+            }
+            
+            lastByPartition.put(event.getPartition(), event.getNumber());
+        }
+        
+        for (Thread thread : subscriber.getThreads()) {
+            Assert.assertNotSame(Thread.currentThread(), thread);
+        }
+        
+        long giveUp = System.currentTimeMillis() + TIMEOUT;
+        while (policy.getDeliveredCount() < NUM_EVENTS && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(5L);
+        }
+        
+        Assert.assertEquals(NUM_EVENTS, policy.getDeliveredCount());
+    }
+    
+    /**
+     * Tests that with the DISCARD policy a message that does not fit
+     * in a full queue is reported to the error handlers
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public void testFullQueueDiscards() throws InterruptedException {
+        ServiceLocator locator = Utilities.getLocatorWithTopics();
+        
+        ServiceLocatorUtilities.addClasses(locator, AsyncPolicy.class,
+                NumberSubscriber.class,
+                NumberPublisher.class,
+                ErrorHandler.class);
+        
+        AsyncPolicy policy = locator.getService(AsyncPolicy.class);
+        NumberSubscriber subscriber = locator.getService(NumberSubscriber.class);
+        NumberPublisher publisher = locator.getService(NumberPublisher.class);
+        ErrorHandler errorHandler = locator.getService(ErrorHandler.class);
+        
+        // Holds the tasks so nothing is delivered until they are run
+        final List<Runnable> held = new LinkedList<Runnable>();
+        policy.setExecutor(new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                held.add(command);
+            }
+            
+        });
+        policy.setBackpressure(AsyncTopicDistributionPolicy.Backpressure.DISCARD);
+        
+        // The maximum queue size of the policy is two
+        publisher.publish(0, 0);
+        publisher.publish(0, 1);
+        publisher.publish(0, 2);
+        
+        List<Throwable> errors = errorHandler.getErrors();
+        Assert.assertEquals(1, errors.size());
+        Assert.assertTrue(errors.get(0) instanceof RejectedExecutionException);
+        
+        Assert.assertEquals(1, held.size());
+        held.get(0).run();
+        
+        List<NumberEvent> events = subscriber.waitForEvents(2, TIMEOUT);
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals(0, events.get(0).getNumber());
+        Assert.assertEquals(1, events.get(1).getNumber());
+    }
+    
+    /**
+     * Tests that when the executor refuses to start delivery the
+     * messages waiting in that queue are reported to the error
+     * handlers, and that later messages are still delivered
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public void testRejectedExecutionDoesNotStrandQueue() throws InterruptedException {
+        ServiceLocator locator = Utilities.getLocatorWithTopics();
+        
+        ServiceLocatorUtilities.addClasses(locator, AsyncPolicy.class,
+                NumberSubscriber.class,
+                NumberPublisher.class,
+                ErrorHandler.class);
+        
+        final AsyncPolicy policy = locator.getService(AsyncPolicy.class);
+        NumberSubscriber subscriber = locator.getService(NumberSubscriber.class);
+        final NumberPublisher publisher = locator.getService(NumberPublisher.class);
+        ErrorHandler errorHandler = locator.getService(ErrorHandler.class);
+        
+        final Executor pool = policy.getExecutor();
+        policy.setExecutor(new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                // Another message joins the queue while the task is being started
+                policy.setExecutor(pool);
+                publisher.publish(0, 1);
+                
+                throw new RejectedExecutionException("Expected");
+            }
+            
+        });
+        
+        publisher.publish(0, 0);
+        
+        List<Throwable> errors = errorHandler.getErrors();
+        Assert.assertEquals(2, errors.size());
+        Assert.assertTrue(errors.get(0) instanceof RejectedExecutionException);
+        Assert.assertTrue(errors.get(1) instanceof RejectedExecutionException);
+        
+        publisher.publish(0, 2);
+        
+        List<NumberEvent> events = subscriber.waitForEvents(1, TIMEOUT);
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(2, events.get(0).getNumber());
+    }
+    
+    /**
+     * Tests that a subscriber publishing to its own full queue with
+     * the BLOCK policy has that message reported to the error handlers
+     * rather than waiting forever on the queue its own thread drains
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public void testSubscriberPublishingToItsOwnFullQueueDoesNotBlock() throws InterruptedException {
+        ServiceLocator locator = Utilities.getLocatorWithTopics();
+        
+        ServiceLocatorUtilities.addClasses(locator, AsyncPolicy.class,
+                RepublishingSubscriber.class,
+                NumberPublisher.class,
+                ErrorHandler.class);
+        
+        AsyncPolicy policy = locator.getService(AsyncPolicy.class);
+        RepublishingSubscriber subscriber = locator.getService(RepublishingSubscriber.class);
+        NumberPublisher publisher = locator.getService(NumberPublisher.class);
+        ErrorHandler errorHandler = locator.getService(ErrorHandler.class);
+        
+        Assert.assertEquals(AsyncTopicDistributionPolicy.Backpressure.BLOCK, policy.getBackpressure());
+        
+        // The subscriber publishes three more, but only two fit in its queue
+        publisher.publish(0, 0);
+        
+        List<NumberEvent> events = subscriber.waitForEvents(3, TIMEOUT);
+        Assert.assertEquals(3, events.size());
+        Assert.assertEquals(0, events.get(0).getNumber());
+        Assert.assertEquals(1, events.get(1).getNumber());
+        Assert.assertEquals(2, events.get(2).getNumber());
+        
+        List<Throwable> errors = errorHandler.getErrors();
+        Assert.assertEquals(1, errors.size());
+        Assert.assertTrue(errors.get(0) instanceof RejectedExecutionException);
+    }
+
+}
@@ -410,5 +410,67 @@ public class BasicTopicTest {
         publisher.publish();
         
     }
+    
+    /**
+     * Tests that a subscriber that appears after a topic has
+     * already been published still gets later events
+     */
+    @Test
+    public void testSubscriberAddedAfterFirstPublish() {
+        ServiceLocator locator = Utilities.getLocatorWithTopics();
+        
+        ServiceLocatorUtilities.addClasses(locator, FooPublisher.class);
+        
+        FooPublisher publisher = locator.getService(FooPublisher.class);
+        
+        // No subscribers yet
+        publisher.publishFoo(1);
+        
+        ServiceLocatorUtilities.addClasses(locator, PerLookupSubscriber.class,
+                SingletonSubscriber.class);
+        
+        SingletonSubscriber singletonSubscriber = locator.getService(SingletonSubscriber.class);
+        
+        publisher.publishFoo(2);
+        
+        Foo singletonFoo = singletonSubscriber.getAndClearLastEvent();
+        Assert.assertNotNull(singletonFoo);
+        Assert.assertEquals(2, singletonFoo.getFooValue());
+        
+        Foo perLookupFoo = singletonSubscriber.getAndClearDependentLastEvent();
+        Assert.assertNotNull(perLookupFoo);
+        Assert.assertEquals(2, perLookupFoo.getFooValue());
+    }
+    
+    /**
+     * Tests that the injected parameters of a subscriber follow
+     * changes to the configuration of the locator
+     */
+    @Test
+    public void testSubscriberParameterFollowsConfigurationChanges() {
+        ServiceLocator locator = Utilities.getLocatorWithTopics();
+        
+        ActiveDescriptor<String> hello = ServiceLocatorUtilities.addOneConstant(locator, "hello",
+                GreetingSubscriber.GREETING, String.class);
+        
+        ServiceLocatorUtilities.addClasses(locator, FooPublisher.class,
+                GreetingSubscriber.class);
+        
+        FooPublisher publisher = locator.getService(FooPublisher.class);
+        GreetingSubscriber subscriber = locator.getService(GreetingSubscriber.class);
+        
+        publisher.publishFoo(1);
+        Assert.assertEquals("hello", subscriber.getAndClearLastGreeting());
+        
+        publisher.publishFoo(2);
+        Assert.assertEquals("hello", subscriber.getAndClearLastGreeting());
+        
+        ServiceLocatorUtilities.removeOneDescriptor(locator, hello);
+        ServiceLocatorUtilities.addOneConstant(locator, "goodbye",
+                GreetingSubscriber.GREETING, String.class);
+        
+        publisher.publishFoo(3);
+        Assert.assertEquals("goodbye", subscriber.getAndClearLastGreeting());
+    }
 
 }
@@ -42,6 +42,7 @@ package org.glassfish.hk2.tests.operation.basic;
 import java.lang.annotation.Annotation;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.glassfish.hk2.api.ProxyCtl;
 import org.glassfish.hk2.api.ServiceLocator;
@@ -1130,6 +1131,78 @@ public class OperationsTest {
         
     }
     
+    /**
+     * Tests that many operations used concurrently on many threads
+     * each see their own services
+     * 
+     * @throws InterruptedException
+     */
+    @Test // @org.junit.Ignore
+    public void testManyConcurrentOperations() throws InterruptedException {
+        ServiceLocator locator = createLocator(BasicOperationScopeContext.class,
+                OperationUserFactory.class, SingletonThatUsesOperationService.class);
+        
+        final OperationManager operationManager = locator.getService(OperationManager.class);
+        final SingletonThatUsesOperationService singleton = locator.getService(SingletonThatUsesOperationService.class);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        
+        Thread threads[] = new Thread[32];
+        for (int lcv = 0; lcv < threads.length; lcv++) {
+            final String name = "User" + lcv;
+            
+            threads[lcv] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        OperationHandle<BasicOperationScope> operation = operationManager.createOperation(BASIC_OPERATION_ANNOTATION);
+                        operation.setOperationData(new OperationUser() {
+
+                            @Override
+                            public String getName() {
+                                return name;
+                            }
+
+                            @Override
+                            public byte[] getPassword() {
+                                return ALICE_PW;
+                            }
+                            
+                        });
+                        
+                        operation.resume();
+                        try {
+                            for (int times = 0; times < 100; times++) {
+                                Assert.assertEquals(name, singleton.getCurrentUserName());
+                            }
+                        }
+                        finally {
+                            operation.closeOperation();
+                        }
+                    }
+                    catch (Throwable th) {
+                        failure.compareAndSet(null, th);
+                    }
+                }
+                
+            });
+        }
+        
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        
+        Assert.assertTrue(operationManager.getCurrentOperations(BASIC_OPERATION_ANNOTATION).isEmpty());
+    }
+    
     private static class SimpleThreadedFetcher<T extends Annotation> implements Runnable {
         private final OperationHandle<T> operation;
         private final SingletonThatUsesOperationService singleton;
@@ -480,11 +480,26 @@ public class ServiceLocatorImpl implements ServiceLocator {
 
     private ActiveDescriptor<?> secondChanceResolve(Injectee injectee) {
         // OK, lets do the second chance protocol
+        if (!callJustInTimeResolvers(injectee)) {
+            return null;
+        }
+
+        // Try again
+        return internalGetInjecteeDescriptor(injectee, true);
+    }
+
+    /**
+     * Gives every {@link JustInTimeInjectionResolver} a chance to add
+     * services for the given injectee
+     *
+     * @return true if any of the resolvers added something
+     */
+    private boolean callJustInTimeResolvers(Injectee injectee) {
         Collector collector = new Collector();
 
         List<ServiceHandle<JustInTimeInjectionResolver>> jitResolvers =
                 ReflectionHelper.<List<ServiceHandle<JustInTimeInjectionResolver>>>cast(
-                getAllServiceHandles(JustInTimeInjectionResolver.class));
+                internalGetAllServiceHandles(JustInTimeInjectionResolver.class, null, true, false, false));
 
         try {
             boolean modified = false;
@@ -523,12 +538,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
                 collector.throwIfErrors();
             }
 
-            if (!modified) {
-                return null;
-            }
-
-            // Try again
-            return internalGetInjecteeDescriptor(injectee, true);
+            return modified;
         }
         finally {
             for (ServiceHandle<JustInTimeInjectionResolver> jitResolver : jitResolvers) {
@@ -820,6 +830,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
                 null,
                 false,
                 false,
+                true,
                 qualifiers
                 );
 
@@ -1296,18 +1307,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
         if (!calledFromSecondChanceResolveMethod && postValidateResult == null) {
             final Injectee injectee;
             if (onBehalfOf == null) {
-                final HashSet<Annotation> requiredQualifiers = new HashSet<Annotation>();
-                if (qualifiers != null && qualifiers.length > 0) {
-                    for (final Annotation qualifier : qualifiers) {
-                        if (qualifier != null) {
-                            requiredQualifiers.add(qualifier);
-                        }
-                    }
-                }
-                final InjecteeImpl injecteeImpl = new InjecteeImpl(contractOrImpl);
-                injecteeImpl.setRequiredQualifiers(requiredQualifiers);
-                injecteeImpl.setUnqualified(unqualified);
-                injectee = injecteeImpl;
+                injectee = createInjectee(contractOrImpl, unqualified, qualifiers);
             } else {
                 injectee = onBehalfOf;
             }
@@ -1317,6 +1317,25 @@ public class ServiceLocatorImpl implements ServiceLocator {
         return postValidateResult;
     }
 
+    /**
+     * Creates the injectee given to the JIT resolvers for a lookup
+     * that was not made on behalf of an injection point
+     */
+    private static Injectee createInjectee(Type contractOrImpl, Unqualified unqualified, Annotation... qualifiers) {
+        final HashSet<Annotation> requiredQualifiers = new HashSet<Annotation>();
+        if (qualifiers != null && qualifiers.length > 0) {
+            for (final Annotation qualifier : qualifiers) {
+                if (qualifier != null) {
+                    requiredQualifiers.add(qualifier);
+                }
+            }
+        }
+        final InjecteeImpl injecteeImpl = new InjecteeImpl(contractOrImpl);
+        injecteeImpl.setRequiredQualifiers(requiredQualifiers);
+        injecteeImpl.setUnqualified(unqualified);
+        return injecteeImpl;
+    }
+
     @Override
     public <T> ServiceHandle<T> getServiceHandle(Class<T> contractOrImpl,
             Annotation... qualifiers) throws MultiException {
@@ -1375,15 +1394,19 @@ public class ServiceLocatorImpl implements ServiceLocator {
             Type contractOrImpl, Annotation... qualifiers)
             throws MultiException {
         return (List<ServiceHandle<?>>)
-                internalGetAllServiceHandles(contractOrImpl, null, true, false, qualifiers);
+                internalGetAllServiceHandles(contractOrImpl, null, true, false, true, qualifiers);
     }
 
+    /**
+     * This method is only called from IterableProvider, which has already
+     * called the JIT resolvers with the original injectee
+     */
     /* package */ @SuppressWarnings("unchecked")
     List<ServiceHandle<?>> getAllUnqualifiedServiceHandles(
             Type contractOrImpl, Unqualified unqualified, boolean isIterable, Annotation... qualifiers)
             throws MultiException {
         return (List<ServiceHandle<?>>)
-                internalGetAllServiceHandles(contractOrImpl, unqualified, true, isIterable, qualifiers);
+                internalGetAllServiceHandles(contractOrImpl, unqualified, true, isIterable, false, qualifiers);
     }
 
     final private WeakCARCache<IgdCacheKey, IgdValue> igashCache =
@@ -1417,6 +1440,7 @@ public class ServiceLocatorImpl implements ServiceLocator {
             Unqualified unqualified,
             boolean getHandles,
             boolean isIterable,
+            boolean justInTime,
             Annotation... qualifiers)
             throws MultiException {
 
@@ -1482,6 +1506,12 @@ public class ServiceLocatorImpl implements ServiceLocator {
             Utilities.handleErrors(results, currentErrorHandlers);
         }
 
+        // Like IterableProvider, give the JIT resolvers a chance when nothing was found
+        if (justInTime && immediate.getImmediateResults().isEmpty() &&
+                callJustInTimeResolvers(createInjectee(contractOrImpl, unqualified, qualifiers))) {
+            return internalGetAllServiceHandles(contractOrImpl, unqualified, getHandles, isIterable, false, qualifiers);
+        }
+
         LinkedList<Object> retVal = new LinkedList<Object>();
         for (ActiveDescriptor<?> candidate : immediate.getImmediateResults()) {
             if (getHandles) {
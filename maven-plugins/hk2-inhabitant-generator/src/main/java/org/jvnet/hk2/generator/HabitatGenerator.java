@@ -81,6 +81,8 @@ public class HabitatGenerator {
     public final static String DIRECTORY_ARG = "--directory";
     /** This option gives the name of directory in the target location where the file should be placed */
     public final static String NO_DATE_ARG = "--noDate";
+    /** This option gives the file where the results of a run are kept so that the next run only analyzes changed classes */
+    public final static String INCREMENTAL_ARG = "--incremental";
     
     private final String directoryOrFileToGenerateFor;
     private final String outjarName;
@@ -90,6 +92,7 @@ public class HabitatGenerator {
     private final boolean noSwap;
     private final String outputDirectory;
     private final boolean includeDate;
+    private final String incrementalState;
     
     private HabitatGenerator(String directoryOrFileToGenerateFor,
             String outjarName,
@@ -98,7 +101,8 @@ public class HabitatGenerator {
             String searchPath,
             boolean noSwap,
             String outputDirectory,
-            boolean includeDate) {
+            boolean includeDate,
+            String incrementalState) {
         this.directoryOrFileToGenerateFor = directoryOrFileToGenerateFor;
         this.outjarName = outjarName;
         this.locatorName = locatorName;
@@ -107,6 +111,7 @@ public class HabitatGenerator {
         this.noSwap = noSwap;
         this.outputDirectory = outputDirectory;
         this.includeDate = includeDate;
+        this.incrementalState = incrementalState;
     }
     
     private void printThrowable(Throwable th) {
@@ -124,7 +129,7 @@ public class HabitatGenerator {
     private int go() {
         GeneratorRunner runner = new GeneratorRunner(directoryOrFileToGenerateFor,
                 outjarName, locatorName, verbose, searchPath, noSwap, outputDirectory,
-                includeDate);
+                includeDate, incrementalState);
         
         try {
             runner.go();
@@ -161,6 +166,7 @@ public class HabitatGenerator {
           "\t[--searchPath path-separator-delimited-classpath]\n" +
           "\t[--outjar jarFile]\n" +
           "\t[--locator locatorName]\n" +
+          "\t[--incremental stateFile]\n" +
           "\t[--verbose]");
     }
     
@@ -185,6 +191,10 @@ public class HabitatGenerator {
      * name of the output jar file that should be written.  This defaults to the input jar file
      * itself if not specified.  If specified and the jarFileOrDirectory parameter is a directory
      * then this parameter is ignored
+     * <p>
+     * --incremental gives a file in which the result of this run is kept.  The next run given
+     * the same file will only analyze the classes that have changed since, and will not rewrite
+     * inhabitant files whose contents did not change
      * 
      * @param argv The set of command line arguments
      * @return 0 on success, non-zero on failure
@@ -198,6 +208,7 @@ public class HabitatGenerator {
         boolean userNoSwap = false;
         String outputDirectory = null;
         boolean defaultIncludeDate = true;
+        String incrementalState = null;
         
         for (int lcv = 0; lcv < argv.length; lcv++) {
             if (VERBOSE_ARG.equals(argv[lcv])) {
@@ -254,6 +265,15 @@ public class HabitatGenerator {
                 
                 outputDirectory = argv[lcv];
             }
+            else if (INCREMENTAL_ARG.equals(argv[lcv])) {
+                lcv++;
+                if (lcv >= argv.length) {
+                    usage();
+                    return 5;
+                }
+                
+                incrementalState = argv[lcv];
+            }
             else {
                 System.err.println("Uknown argument: " + argv[lcv]);
             }
@@ -289,7 +309,7 @@ public class HabitatGenerator {
         
         HabitatGenerator hg = new HabitatGenerator(defaultFileToHandle, outjarFile,
                 defaultLocatorName, defaultVerbose, searchPath, userNoSwap,
-                outputDirectory, defaultIncludeDate);
+                outputDirectory, defaultIncludeDate, incrementalState);
         
         return hg.go();
     }
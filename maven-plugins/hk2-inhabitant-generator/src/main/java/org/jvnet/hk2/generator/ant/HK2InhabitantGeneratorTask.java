@@ -61,6 +61,7 @@ public class HK2InhabitantGeneratorTask extends Task {
     private boolean noswap = false;
     private Path classpath = null;
     private boolean includeDate = true;
+    private File incrementalState = null;
     
     public void setTargetDirectory(File targetDirectory) {
         this.targetDirectory = targetDirectory;
@@ -86,6 +87,10 @@ public class HK2InhabitantGeneratorTask extends Task {
         this.includeDate = includeDate;
     }
     
+    public void setIncrementalState(File incrementalState) {
+        this.incrementalState = incrementalState;
+    }
+    
     public void addClasspath(Path classpath) {
         this.classpath = classpath;
     }
@@ -141,6 +146,11 @@ public class HK2InhabitantGeneratorTask extends Task {
             args.add(classpath.toString());
         }
         
+        if (incrementalState != null) {
+            args.add(HabitatGenerator.INCREMENTAL_ARG);
+            args.add(incrementalState.getAbsolutePath());
+        }
+        
         String argv[] = args.toArray(new String[args.size()]);
         
         int result = HabitatGenerator.embeddedMain(argv);
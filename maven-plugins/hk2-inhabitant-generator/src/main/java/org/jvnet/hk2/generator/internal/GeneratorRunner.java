@@ -91,6 +91,7 @@ public class GeneratorRunner {
     private final String outputDirectory;  // Not used in the JAR case
     private final boolean includeDate;
     private final boolean outJarIsInJar;
+    private final File incrementalState;  // null if not incremental
 
     /**
      * This initializes the GeneratorRunner with the values needed to run
@@ -113,6 +114,34 @@ public class GeneratorRunner {
             boolean noSwap,
             String outputDirectory,
             boolean includeDate) {
+        this(fileOrDirectory, outjarName, locatorName, verbose, searchPath, noSwap,
+                outputDirectory, includeDate, null);
+    }
+    
+    /**
+     * This initializes the GeneratorRunner with the values needed to run
+     * 
+     * @param fileOrDirectory The fileOrDirectory to inspect for services
+     * @param outjarName The name of the jar file to create (can be the fileOrDirectory)
+     * @param locatorName The name of the locator these files should be put into
+     * @param verbose true if this should print information about progress
+     * @param searchPath The path-separator delimited list of files or directories to search for
+     *   contracts and qualifiers and various other annotations
+     * @param noSwap true if this run should NOT swap files (faster but riskier)
+     * @param outputDirectory The directory where the file should go
+     * @param includeDate Whether or not the output file should include a date
+     * @param incrementalState The file in which the result of this run is kept so that the
+     *   next run only visits classes that changed.  If null every class is visited every time
+     */
+    public GeneratorRunner(String fileOrDirectory,
+            String outjarName,
+            String locatorName,
+            boolean verbose,
+            String searchPath,
+            boolean noSwap,
+            String outputDirectory,
+            boolean includeDate,
+            String incrementalState) {
         this.fileOrDirectory = fileOrDirectory;
         this.outjarName = outjarName;
         this.locatorName = locatorName;
@@ -122,10 +151,12 @@ public class GeneratorRunner {
         utilities = new Utilities(verbose, searchPath);
         this.includeDate = includeDate;
         outJarIsInJar = fileOrDirectory.equals(outjarName);
+        this.incrementalState = (incrementalState == null) ? null : new File(incrementalState);
         
         if (verbose) {
             System.out.println("HabitatGenerator: inputFile=" + fileOrDirectory + " outjarName=" + outjarName +
-                    " locatorName=" + locatorName + " noSwap=" + noSwap + " outputDirectory=" + outputDirectory);
+                    " locatorName=" + locatorName + " noSwap=" + noSwap + " outputDirectory=" + outputDirectory +
+                    " incrementalState=" + incrementalState);
         }
     }
     
@@ -143,19 +174,41 @@ public class GeneratorRunner {
             throw new AssertionError("Could not find file: " + toInspect.getAbsolutePath());
         }
         
+        IncrementalState state = null;
+        if (incrementalState != null) {
+            state = IncrementalState.load(incrementalState, toInspect, verbose);
+        }
+        
         List<DescriptorImpl> allDescriptors;
         if (toInspect.isDirectory()) {
-            allDescriptors = utilities.findAllServicesFromDirectory(toInspect, Collections.singletonList(toInspect));
+            if (state != null) {
+                allDescriptors = state.findAllServicesFromDirectory(utilities);
+                state.save();
+            }
+            else {
+                allDescriptors = utilities.findAllServicesFromDirectory(toInspect, Collections.singletonList(toInspect));
+            }
             if (allDescriptors.isEmpty()) return;
             writeToDirectory(allDescriptors);
         }
         else {
-            allDescriptors = findAllServicesFromJar(toInspect);
+            if (state != null) {
+                allDescriptors = state.findAllServicesFromJar(utilities);
+                state.save();
+            }
+            else {
+                allDescriptors = findAllServicesFromJar(toInspect);
+            }
             
             // Do this here to close all FDs so that on Windows we can rewrite the file
             utilities.close();
             
-            if (noSwap && outJarIsInJar) {
+            if (state != null && outJarIsInJar && isJarUpToDate(toInspect, allDescriptors)) {
+                if (verbose) {
+                    System.out.println("Inhabitants of " + toInspect.getAbsolutePath() + " are unchanged, not rewriting it");
+                }
+            }
+            else if (noSwap && outJarIsInJar) {
                 writeToJarNoSwap(toInspect, allDescriptors);
             }
             else {
@@ -199,6 +252,13 @@ public class GeneratorRunner {
             
             File inhabitantsDir = new File(outputDirectory);
             File outputFile = new File(inhabitantsDir, targetHabitatName);
+            
+            if (incrementalState != null && isFileUpToDate(outputFile, descriptors)) {
+                if (verbose) {
+                    System.out.println("Inhabitant file " + outputFile.getAbsolutePath() + " is unchanged, not rewriting it");
+                }
+                continue;
+            }
 
             if (!inhabitantsDir.exists()) {
                 if (!inhabitantsDir.mkdirs()) {
@@ -412,6 +472,74 @@ public class GeneratorRunner {
         
     }
     
+    private boolean isFileUpToDate(File inhabitantsFile, List<DescriptorImpl> descriptors) throws IOException {
+        if (!inhabitantsFile.exists()) return false;
+        
+        FileInputStream fis = new FileInputStream(inhabitantsFile);
+        try {
+            return isUpToDate(fis, descriptors);
+        }
+        finally {
+            fis.close();
+        }
+    }
+    
+    private boolean isJarUpToDate(File jar, List<DescriptorImpl> descriptors) throws IOException {
+        JarFile jarFile = new JarFile(jar);
+        try {
+            ZipEntry entry = jarFile.getEntry(META_INF + "/" + INHABITANTS + "/" + locatorName);
+            if (entry == null) {
+                return descriptors.isEmpty();
+            }
+            
+            InputStream is = jarFile.getInputStream(entry);
+            try {
+                return isUpToDate(is, descriptors);
+            }
+            finally {
+                is.close();
+            }
+        }
+        finally {
+            jarFile.close();
+        }
+    }
+    
+    /**
+     * Compares the descriptors previously written to the given stream with the
+     * given descriptors, ignoring the header (which may contain a date)
+     */
+    private static boolean isUpToDate(InputStream existing, List<DescriptorImpl> descriptors) throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        PrintWriter writer = new PrintWriter(expected);
+        for (DescriptorImpl di : descriptors) {
+            di.writeObject(writer);
+        }
+        writer.close();
+        
+        ByteArrayOutputStream found = new ByteArrayOutputStream();
+        byte buffer[] = new byte[1024];
+        int len;
+        while ((len = existing.read(buffer)) > 0) {
+            found.write(buffer, 0, len);
+        }
+        
+        String foundString = found.toString();
+        
+        int start;
+        if (foundString.startsWith("[")) {
+            start = 0;
+        }
+        else {
+            start = foundString.indexOf("\n[") + 1;
+            if (start == 0) {
+                return descriptors.isEmpty();
+            }
+        }
+        
+        return foundString.substring(start).equals(expected.toString());
+    }
+    
     private List<DescriptorImpl> findAllServicesFromJar(File jar) throws IOException {
         TreeSet<DescriptorImpl> retVal = new TreeSet<DescriptorImpl>(new DescriptorComparitor());
         
@@ -0,0 +1,551 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.generator.internal;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+
+import org.glassfish.hk2.utilities.DescriptorImpl;
+
+/**
+ * Remembers, from one run of the generator to the next, the digest of every
+ * class of the jar or directory being inspected along with the descriptors
+ * that were generated for it and the classes that were consulted in order
+ * to generate them.  A class is only visited again if it changed or if one
+ * of the classes it consulted (a contract, scope, qualifier or superclass)
+ * changed, otherwise the descriptors of the previous run are reused
+ * 
+ * @author jwells
+ *
+ */
+class IncrementalState {
+    private final static String HEADER = "# hk2-inhabitant-generator incremental state";
+    private final static String VERSION = "version=1";
+    private final static String INPUT_KEY = "input=";
+    private final static String CLASS_KEY = "class=";
+    private final static String DIGEST_KEY = "digest=";
+    private final static String LENGTH_KEY = "length=";
+    private final static String MODIFIED_KEY = "modified=";
+    private final static String REFERENCE_KEY = "reference=";
+    private final static String DESCRIPTORS_KEY = "descriptors=";
+    private final static String DOT_CLASS = ".class";
+    
+    private final File stateFile;
+    private final File input;
+    private final boolean verbose;
+    
+    /** Entry name to what was found in the previous run */
+    private final Map<String, ClassState> previous;
+    
+    /** Entry name to what was found in this run */
+    private final Map<String, ClassState> current = new TreeMap<String, ClassState>();
+    
+    /** Dot-delimited class name to its fingerprint in this run */
+    private final Map<String, String> fingerprints = new HashMap<String, String>();
+    
+    private IncrementalState(File stateFile, File input, boolean verbose, Map<String, ClassState> previous) {
+        this.stateFile = stateFile;
+        this.input = input;
+        this.verbose = verbose;
+        this.previous = previous;
+    }
+    
+    /**
+     * Reads the state left behind by the previous run.  If there is no such state, or
+     * it was written for a different input or cannot be read, every class will be visited
+     * 
+     * @param stateFile The file the state is kept in
+     * @param input The jar or directory being inspected
+     * @param verbose true if this should print information about progress
+     * @return The state of the previous run, never null
+     */
+    /* package */ static IncrementalState load(File stateFile, File input, boolean verbose) {
+        Map<String, ClassState> previous = Collections.emptyMap();
+        
+        if (stateFile.exists()) {
+            try {
+                previous = read(stateFile, input);
+                
+                if (verbose && previous.isEmpty()) {
+                    System.out.println("Ignoring incremental state " + stateFile.getAbsolutePath() +
+                            " which was not generated for " + input.getAbsolutePath());
+                }
+            }
+            catch (IOException ioe) {
+                if (verbose) {
+                    System.out.println("Ignoring unreadable incremental state " + stateFile.getAbsolutePath() +
+                            ": " + ioe.getMessage());
+                }
+                
+                previous = Collections.emptyMap();
+            }
+        }
+        
+        return new IncrementalState(stateFile, input, verbose, previous);
+    }
+    
+    private static Map<String, ClassState> read(File stateFile, File input) throws IOException {
+        Map<String, ClassState> retVal = new HashMap<String, ClassState>();
+        
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(stateFile), "UTF-8"));
+        try {
+            if (!HEADER.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+                return Collections.emptyMap();
+            }
+            
+            if (!(INPUT_KEY + input.getAbsolutePath()).equals(reader.readLine())) {
+                return Collections.emptyMap();
+            }
+            
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0) continue;
+                
+                String entryName = getValue(line, CLASS_KEY);
+                String digest = getValue(reader.readLine(), DIGEST_KEY);
+                long length = getLong(reader.readLine(), LENGTH_KEY);
+                long modified = getLong(reader.readLine(), MODIFIED_KEY);
+                
+                Map<String, String> references = new TreeMap<String, String>();
+                
+                line = reader.readLine();
+                while (line != null && line.startsWith(REFERENCE_KEY)) {
+                    String reference = line.substring(REFERENCE_KEY.length());
+                    
+                    int space = reference.indexOf(' ');
+                    if (space < 0) {
+                        throw new IOException("Invalid reference " + line + " for " + entryName);
+                    }
+                    
+                    references.put(reference.substring(space + 1), reference.substring(0, space));
+                    
+                    line = reader.readLine();
+                }
+                
+                long numDescriptors = getLong(line, DESCRIPTORS_KEY);
+                
+                List<DescriptorImpl> descriptors = new ArrayList<DescriptorImpl>();
+                for (long lcv = 0; lcv < numDescriptors; lcv++) {
+                    DescriptorImpl di = new DescriptorImpl();
+                    if (!di.readObject(reader)) {
+                        throw new IOException("Missing descriptor for " + entryName);
+                    }
+                    
+                    descriptors.add(di);
+                }
+                
+                retVal.put(entryName, new ClassState(digest, length, modified, references, descriptors));
+            }
+        }
+        finally {
+            reader.close();
+        }
+        
+        return retVal;
+    }
+    
+    private static String getValue(String line, String key) throws IOException {
+        if (line == null || !line.startsWith(key)) {
+            throw new IOException("Expected " + key + " but got " + line);
+        }
+        
+        return line.substring(key.length());
+    }
+    
+    private static long getLong(String line, String key) throws IOException {
+        try {
+            return Long.parseLong(getValue(line, key));
+        }
+        catch (NumberFormatException nfe) {
+            throw new IOException("Invalid value in " + line);
+        }
+    }
+    
+    /**
+     * Finds all the services in the given directory, visiting only those classes
+     * that changed since the previous run
+     * 
+     * @param utilities The utilities to use for visiting classes
+     * @return The merged descriptors of all the services in the directory
+     * @throws IOException On error reading the classes
+     */
+    /* package */ List<DescriptorImpl> findAllServicesFromDirectory(Utilities utilities) throws IOException {
+        Map<String, ClassSource> sources = new HashMap<String, ClassSource>();
+        addClassFiles(input, "", sources);
+        
+        return findAllServices(utilities, sources);
+    }
+    
+    private static void addClassFiles(File directory, String prefix, Map<String, ClassSource> addToMe) {
+        File children[] = directory.listFiles();
+        if (children == null) return;
+        
+        for (File child : children) {
+            String entryName = prefix + child.getName();
+            
+            if (child.isDirectory()) {
+                addClassFiles(child, entryName + "/", addToMe);
+            }
+            else if (entryName.endsWith(DOT_CLASS)) {
+                addToMe.put(entryName, new FileClassSource(child));
+            }
+        }
+    }
+    
+    /**
+     * Finds all the services in the given jar, visiting only those classes
+     * that changed since the previous run
+     * 
+     * @param utilities The utilities to use for visiting classes
+     * @return The merged descriptors of all the services in the jar
+     * @throws IOException On error reading the classes
+     */
+    /* package */ List<DescriptorImpl> findAllServicesFromJar(Utilities utilities) throws IOException {
+        JarFile jarFile = new JarFile(input);
+        
+        try {
+            Map<String, ClassSource> sources = new HashMap<String, ClassSource>();
+            
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                
+                if (!entry.getName().endsWith(DOT_CLASS)) continue;
+                
+                sources.put(entry.getName(), new JarClassSource(jarFile, entry));
+            }
+            
+            return findAllServices(utilities, sources);
+        }
+        finally {
+            jarFile.close();
+        }
+    }
+    
+    private List<DescriptorImpl> findAllServices(Utilities utilities, Map<String, ClassSource> sources) throws IOException {
+        // First pass, every class needs its current digest before any reference can be checked
+        for (Map.Entry<String, ClassSource> entry : sources.entrySet()) {
+            ClassSource source = entry.getValue();
+            if (source.digest != null) continue;
+            
+            ClassState old = previous.get(entry.getKey());
+            if (old != null && source.modified >= 0 &&
+                    old.length == source.length && old.modified == source.modified) {
+                source.digest = old.digest;
+            }
+            else {
+                source.digest = source.computeDigest();
+            }
+        }
+        
+        List<File> searchHeres = Collections.singletonList(input);
+        TreeSet<DescriptorImpl> retVal = new TreeSet<DescriptorImpl>(new DescriptorComparitor());
+        
+        int numVisited = 0;
+        for (Map.Entry<String, ClassSource> entry : sources.entrySet()) {
+            String entryName = entry.getKey();
+            ClassSource source = entry.getValue();
+            
+            ClassState old = previous.get(entryName);
+            
+            ClassState now;
+            if (old != null && old.digest.equals(source.digest) && referencesUnchanged(old, utilities, sources)) {
+                now = new ClassState(source.digest, source.length, source.modified, old.references, old.descriptors);
+            }
+            else {
+                numVisited++;
+                
+                Set<String> referenced = new HashSet<String>();
+                List<DescriptorImpl> descriptors;
+                
+                InputStream is = source.open();
+                try {
+                    descriptors = utilities.createDescriptorIfService(is, searchHeres, referenced);
+                }
+                finally {
+                    is.close();
+                }
+                
+                Map<String, String> references = new TreeMap<String, String>();
+                for (String reference : referenced) {
+                    references.put(reference, getFingerprint(reference, utilities, sources));
+                }
+                
+                now = new ClassState(source.digest, source.length, source.modified, references,
+                        reread(descriptors));
+            }
+            
+            current.put(entryName, now);
+            retVal.addAll(now.descriptors);
+        }
+        
+        if (verbose) {
+            System.out.println("Visited " + numVisited + " of " + sources.size() + " classes in " +
+                    input.getAbsolutePath() + ", the rest were unchanged since the previous run");
+        }
+        
+        return new ArrayList<DescriptorImpl>(retVal);
+    }
+    
+    private boolean referencesUnchanged(ClassState old, Utilities utilities, Map<String, ClassSource> sources) throws IOException {
+        for (Map.Entry<String, String> reference : old.references.entrySet()) {
+            if (!reference.getValue().equals(getFingerprint(reference.getKey(), utilities, sources))) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    private String getFingerprint(String dotDelimitedName, Utilities utilities, Map<String, ClassSource> sources) throws IOException {
+        String retVal = fingerprints.get(dotDelimitedName);
+        if (retVal != null) return retVal;
+        
+        // Classes are looked for in the input before the search path
+        ClassSource source = sources.get(dotDelimitedName.replace('.', '/') + DOT_CLASS);
+        if (source != null) {
+            retVal = source.digest;
+        }
+        else {
+            retVal = utilities.getSearchPathFingerprint(dotDelimitedName);
+        }
+        
+        fingerprints.put(dotDelimitedName, retVal);
+        return retVal;
+    }
+    
+    /**
+     * Descriptors are kept in their written form, so freshly generated ones are passed
+     * through that form as well in order for reused and visited classes to sort the same
+     */
+    private static List<DescriptorImpl> reread(List<DescriptorImpl> descriptors) throws IOException {
+        if (descriptors.isEmpty()) return descriptors;
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(baos, "UTF-8"));
+        for (DescriptorImpl di : descriptors) {
+            di.writeObject(writer);
+        }
+        writer.close();
+        
+        BufferedReader reader = new BufferedReader(new StringReader(baos.toString("UTF-8")));
+        
+        List<DescriptorImpl> retVal = new ArrayList<DescriptorImpl>(descriptors.size());
+        for (int lcv = 0; lcv < descriptors.size(); lcv++) {
+            DescriptorImpl di = new DescriptorImpl();
+            if (!di.readObject(reader)) {
+                throw new IOException("Could not reread descriptor " + descriptors.get(lcv));
+            }
+            
+            retVal.add(di);
+        }
+        
+        return retVal;
+    }
+    
+    /**
+     * Writes the state of this run so that the next run can use it
+     * 
+     * @throws IOException On error writing the state file
+     */
+    /* package */ void save() throws IOException {
+        File parent = stateFile.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory " + parent.getAbsolutePath());
+        }
+        
+        File tmpFile = File.createTempFile(stateFile.getName(), ".tmp", parent);
+        
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8"));
+        try {
+            writer.println(HEADER);
+            writer.println(VERSION);
+            writer.println(INPUT_KEY + input.getAbsolutePath());
+            writer.println();
+            
+            for (Map.Entry<String, ClassState> entry : current.entrySet()) {
+                ClassState state = entry.getValue();
+                
+                writer.println(CLASS_KEY + entry.getKey());
+                writer.println(DIGEST_KEY + state.digest);
+                writer.println(LENGTH_KEY + state.length);
+                writer.println(MODIFIED_KEY + state.modified);
+                
+                for (Map.Entry<String, String> reference : state.references.entrySet()) {
+                    writer.println(REFERENCE_KEY + reference.getValue() + " " + reference.getKey());
+                }
+                
+                writer.println(DESCRIPTORS_KEY + state.descriptors.size());
+                for (DescriptorImpl di : state.descriptors) {
+                    di.writeObject(writer);
+                }
+            }
+        }
+        finally {
+            writer.close();
+        }
+        
+        if (writer.checkError()) {
+            tmpFile.delete();
+            throw new IOException("Could not write incremental state to " + tmpFile.getAbsolutePath());
+        }
+        
+        if (stateFile.exists() && !stateFile.delete()) {
+            tmpFile.delete();
+            throw new IOException("Could not delete existing incremental state " + stateFile.getAbsolutePath());
+        }
+        
+        if (!tmpFile.renameTo(stateFile)) {
+            throw new IOException("Could not move incremental state " + tmpFile.getAbsolutePath() +
+                    " to " + stateFile.getAbsolutePath());
+        }
+    }
+    
+    private static class ClassState {
+        private final String digest;
+        private final long length;
+        private final long modified;
+        
+        /** Dot-delimited name of every class consulted to its fingerprint at the time */
+        private final Map<String, String> references;
+        private final List<DescriptorImpl> descriptors;
+        
+        private ClassState(String digest, long length, long modified,
+                Map<String, String> references, List<DescriptorImpl> descriptors) {
+            this.digest = digest;
+            this.length = length;
+            this.modified = modified;
+            this.references = references;
+            this.descriptors = descriptors;
+        }
+    }
+    
+    private static abstract class ClassSource {
+        private final long length;
+        private final long modified;
+        
+        /** The CRC-32 of the class bytes, null until known */
+        private String digest;
+        
+        private ClassSource(long length, long modified, String digest) {
+            this.length = length;
+            this.modified = modified;
+            this.digest = digest;
+        }
+        
+        protected abstract InputStream open() throws IOException;
+        
+        private String computeDigest() throws IOException {
+            CRC32 crc = new CRC32();
+            byte buffer[] = new byte[8192];
+            
+            InputStream is = open();
+            try {
+                int read;
+                while ((read = is.read(buffer)) >= 0) {
+                    crc.update(buffer, 0, read);
+                }
+            }
+            finally {
+                is.close();
+            }
+            
+            return Long.toHexString(crc.getValue());
+        }
+    }
+    
+    private static class FileClassSource extends ClassSource {
+        private final File file;
+        
+        private FileClassSource(File file) {
+            super(file.length(), file.lastModified(), null);
+            
+            this.file = file;
+        }
+        
+        @Override
+        protected InputStream open() throws IOException {
+            return new FileInputStream(file);
+        }
+    }
+    
+    /**
+     * The central directory of a jar already has the CRC-32 of every entry, so
+     * unchanged entries of a jar never need to be inflated
+     */
+    private static class JarClassSource extends ClassSource {
+        private final JarFile jarFile;
+        private final JarEntry entry;
+        
+        private JarClassSource(JarFile jarFile, JarEntry entry) {
+            super(entry.getSize(), -1L, (entry.getCrc() < 0) ? null : Long.toHexString(entry.getCrc()));
+            
+            this.jarFile = jarFile;
+            this.entry = entry;
+        }
+        
+        @Override
+        protected InputStream open() throws IOException {
+            return jarFile.getInputStream(entry);
+        }
+    }
+}
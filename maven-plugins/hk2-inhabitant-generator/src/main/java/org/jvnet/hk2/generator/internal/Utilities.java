@@ -112,6 +112,9 @@ public class Utilities {
     private final List<File> searchPath = new LinkedList<File>();
     private final Map<File, JarFile> openedJarFiles = new HashMap<File, JarFile>();
     
+    /** When not null, every class consulted while visiting a service is added here */
+    private Set<String> references;
+    
     private final static String CONFIGURED_CONTRACT = "org.jvnet.hk2.config.Configured";
     
     private final static List<KnownClassData> KNOWN_DATA = new LinkedList<KnownClassData>();
@@ -402,6 +405,12 @@ public class Utilities {
         return null;
     }
     
+    private void addReference(String dotDelimitedName) {
+        if (references != null) {
+            references.add(dotDelimitedName);
+        }
+    }
+    
     private void nullCaches(String dotDelimitedName) {
         ISA_CONTRACT.put(dotDelimitedName, false);
         ISA_SCOPE.put(dotDelimitedName, false);
@@ -418,6 +427,8 @@ public class Utilities {
      * @return true if this can determine that this is a contract
      */
     private boolean isClassAContract(List<File> searchHeres, String dotDelimitedName) {
+        addReference(dotDelimitedName);
+        
         if (ISA_CONTRACT.containsKey(dotDelimitedName)) {
             return ISA_CONTRACT.get(dotDelimitedName);
         }
@@ -465,6 +476,8 @@ public class Utilities {
      *   an interface or extends java.lang.Object)
      */
     private String getSuperclass(List<File> searchHeres, String dotDelimitedName) {
+        addReference(dotDelimitedName);
+        
         if (FOUND_SUPERCLASS.containsKey(dotDelimitedName)) {
             return FOUND_SUPERCLASS.get(dotDelimitedName);
         }
@@ -511,6 +524,8 @@ public class Utilities {
      * @return true if this class is a scope
      */
     public boolean isClassAScope(List<File> searchHeres, String dotDelimitedName) {
+        addReference(dotDelimitedName);
+        
         if (ISA_SCOPE.containsKey(dotDelimitedName)) {
             return ISA_SCOPE.get(dotDelimitedName);
         }
@@ -558,6 +573,8 @@ public class Utilities {
      * @return true if this class is a qualifier
      */
     public boolean isClassAQualifier(List<File> searchHeres, String dotDelimitedName) {
+        addReference(dotDelimitedName);
+        
         if (ISA_QUALIFIER.containsKey(dotDelimitedName)) {
             return ISA_QUALIFIER.get(dotDelimitedName);
         }
@@ -605,6 +622,8 @@ public class Utilities {
      * @return true if this class is a qualifier
      */
     public GenerateMethodAnnotationData isClassAGenerator(List<File> searchHeres, String dotDelimitedName) {
+        addReference(dotDelimitedName);
+        
         if (FOUND_GENERATORS.containsKey(dotDelimitedName)) {
             return FOUND_GENERATORS.get(dotDelimitedName);
         }
@@ -1132,6 +1151,63 @@ public class Utilities {
         return cvi.getGeneratedDescriptor();
     }
     
+    /**
+     * Like {@link #createDescriptorIfService(InputStream, List)} but also collects the names
+     * of every class that was consulted in order to decide what the descriptors look like
+     * 
+     * @param is The stream of the class to analyze
+     * @param searchHeres The files or jars to look in first
+     * @param addReferencesHere Gets the dot-delimited names of all consulted classes
+     * @return The descriptors generated for this class (may be empty)
+     * @throws IOException On error reading the class
+     */
+    /* package */ List<DescriptorImpl> createDescriptorIfService(InputStream is, List<File> searchHeres,
+            Set<String> addReferencesHere) throws IOException {
+        references = addReferencesHere;
+        try {
+            return createDescriptorIfService(is, searchHeres);
+        }
+        finally {
+            references = null;
+        }
+    }
+    
+    /**
+     * Returns a string that changes whenever the class found on the search path for
+     * the given name changes.  For classes in jars this is the CRC and size of the entry,
+     * for classes in directories it is the size and modification time of the file
+     * 
+     * @param dotDelimitedName The fully qualified class name to look for
+     * @return A fingerprint of the class, or the empty string if it could not be found
+     * @throws IOException On error opening a jar on the search path
+     */
+    /* package */ String getSearchPathFingerprint(String dotDelimitedName) throws IOException {
+        for (File searchHere : searchPath) {
+            if (searchHere.isDirectory()) {
+                String properPathName = dotDelimitedName.replace('.', File.separatorChar) + DOT_CLASS;
+                
+                File fullFile = new File(searchHere, properPathName);
+                if (fullFile.exists()) {
+                    return fullFile.length() + "@" + fullFile.lastModified();
+                }
+            }
+            else if (searchHere.exists()) {
+                JarFile jar = openedJarFiles.get(searchHere);
+                if (jar == null) {
+                    jar = new JarFile(searchHere);
+                    openedJarFiles.put(searchHere, jar);
+                }
+                
+                ZipEntry entry = jar.getEntry(dotDelimitedName.replace('.', '/') + DOT_CLASS);
+                if (entry != null) {
+                    return entry.getSize() + "#" + Long.toHexString(entry.getCrc());
+                }
+            }
+        }
+        
+        return "";
+    }
+    
     public List<DescriptorImpl> findAllServicesFromDirectory(File directory, List<File> parent) throws IOException {
         TreeSet<DescriptorImpl> retVal = new TreeSet<DescriptorImpl>(new DescriptorComparitor());
         
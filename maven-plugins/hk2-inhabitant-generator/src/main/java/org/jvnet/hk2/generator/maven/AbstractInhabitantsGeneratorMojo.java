@@ -62,6 +62,10 @@ public abstract class AbstractInhabitantsGeneratorMojo extends AbstractMojo {
     private final static String WEB_INF = "WEB-INF";
     private final static String CLASSES = "classes";
     
+    private final static String INCREMENTAL_STATE_DIRECTORY = "hk2-inhabitant-generator";
+    private final static String INCREMENTAL_STATE_SUFFIX = ".state";
+    private final static String DEFAULT_LOCATOR = "default";
+    
     /**
      * @parameter expression="${project.build.directory}"
      */
@@ -89,6 +93,13 @@ public abstract class AbstractInhabitantsGeneratorMojo extends AbstractMojo {
      */
     private String locator;
     
+    /**
+     * When true only the classes that changed since the previous build are analyzed
+     * 
+     * @parameter default-value=false
+     */
+    private boolean incremental;
+    
     /**
      * @parameter expression="${supportedProjectTypes}" default-value="jar,ejb,war"
      */
@@ -161,6 +172,15 @@ public abstract class AbstractInhabitantsGeneratorMojo extends AbstractMojo {
             arguments.add(HabitatGenerator.NO_DATE_ARG);
         }
         
+        if (incremental) {
+            File stateFile = new File(targetDirectory, INCREMENTAL_STATE_DIRECTORY);
+            stateFile = new File(stateFile, getOutputDirectory().getName() + "-" +
+                    ((locator == null) ? DEFAULT_LOCATOR : locator) + INCREMENTAL_STATE_SUFFIX);
+            
+            arguments.add(HabitatGenerator.INCREMENTAL_ARG);
+            arguments.add(stateFile.getAbsolutePath());
+        }
+        
         if (isWar()) {
             // For WAR files, the hk2-locator files goes under WEB-INF/classes/hk2-locator, not META-INF/hk2-locator
             
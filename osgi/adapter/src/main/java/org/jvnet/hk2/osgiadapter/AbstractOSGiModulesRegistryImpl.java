@@ -124,6 +124,8 @@ public abstract class AbstractOSGiModulesRegistryImpl extends AbstractModulesReg
 
                 module.getModuleDefinition().getMetadata().addDescriptors(name, descriptors);
 
+                ModuleDefinitionCacheSingleton.getInstance().updated(module.getModuleDefinition().getLocations()[0]);
+
             }
         } else {
             activeDescriptors = new ArrayList<ActiveDescriptor>();
@@ -148,6 +150,74 @@ public abstract class AbstractOSGiModulesRegistryImpl extends AbstractModulesReg
 
     }
 
+    /**
+     * Returns the inhabitants descriptors of the given name in the given module, ready to be
+     * bound into the service locator.  Unlike {@link #parseInhabitants} nothing is added to the
+     * service locator, so this may be called for several modules at once
+     *
+     * @return the processed descriptors, or null if the module has no such descriptors
+     */
+    List<DescriptorImpl> prepareInhabitants(
+            Module module, String name, ServiceLocator serviceLocator, List<PopulatorPostProcessor> postProcessors)
+            throws IOException {
+
+        OSGiModuleImpl osgiModuleImpl = (OSGiModuleImpl) module;
+
+        ModuleDefinition moduleDefinition = module.getModuleDefinition();
+
+        List<Descriptor> descriptors = moduleDefinition.getMetadata().getDescriptors().get(name);
+
+        List<DescriptorImpl> descriptorImpls;
+
+        if (descriptors == null) {
+            descriptorImpls = osgiModuleImpl.readInhabitants(name, serviceLocator, postProcessors);
+
+            if (descriptorImpls != null) {
+
+                // keep copies, the ones returned will be bound and may still be changed by the locator
+                descriptors = new ArrayList<Descriptor>();
+                for (DescriptorImpl d : descriptorImpls) {
+                    descriptors.add(new DescriptorImpl(d));
+                }
+
+                moduleDefinition.getMetadata().addDescriptors(name, descriptors);
+
+                ModuleDefinitionCacheSingleton.getInstance().updated(moduleDefinition.getLocations()[0]);
+            }
+        } else {
+            descriptorImpls = new ArrayList<DescriptorImpl>();
+
+            OsgiPopulatorPostProcessor postProcessor = new OsgiPopulatorPostProcessor(osgiModuleImpl);
+            for (Descriptor descriptor : descriptors) {
+
+                DescriptorImpl di = (descriptor instanceof DescriptorImpl) ? (DescriptorImpl) descriptor : new DescriptorImpl(descriptor) ;
+
+                // set the hk2loader
+                DescriptorImpl descriptorImpl = postProcessor.process(serviceLocator, di);
+
+                if (descriptorImpl != null) {
+                    descriptorImpls.add(descriptorImpl);
+                }
+            }
+        }
+
+        return descriptorImpls;
+    }
+
+    /**
+     * Definitions read from the module definition cache know the contracts of their
+     * inhabitants without parsing them
+     */
+    @Override
+    protected Collection<String> getInhabitantContracts(Module module, String name) {
+        ModuleDefinition moduleDefinition = module.getModuleDefinition();
+        if (moduleDefinition instanceof OSGiModuleDefinition) {
+            Collection<String> contracts = OSGiModuleDefinition.class.cast(moduleDefinition).getInhabitantContracts(name);
+            if (contracts != null) return contracts;
+        }
+        return super.getInhabitantContracts(module, name);
+    }
+
     public ModulesRegistry createChild() {
         throw new UnsupportedOperationException("Not Yet Implemented"); // TODO(Sahoo)
     }
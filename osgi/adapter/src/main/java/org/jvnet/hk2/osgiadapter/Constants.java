@@ -96,6 +96,23 @@ public final class Constants {
      */
     public static final String OBR_DEPLOYS_OPTIONAL_REQUIREMENTS = "com.sun.enterprise.hk2.obrDeploysOptionalRequirements";
 
+    /**
+     * Number of threads used to read and process the inhabitants descriptors of the bundles
+     * while populating a service locator.  The descriptors are then added to the service locator
+     * in a few batches, in bundle id order.  Any {@link org.glassfish.hk2.api.PopulatorPostProcessor}
+     * passed in must then be safe to call from several threads at once.
+     * Default is 1, which populates the service locator one bundle at a time.
+     */
+    public static final String HK2_POPULATION_THREADS = "com.sun.enterprise.hk2.populationThreads";
+
+    /**
+     * This boolean flag is used to indicate if the inhabitants of a bundle should only be added to
+     * a service locator once a lookup needs one of their contracts.  Only bundles whose descriptors
+     * are in the module definition cache are populated this way.
+     * Default is the hk2.module.ondemand system property.
+     */
+    public static final String HK2_ON_DEMAND_POPULATION = "hk2.module.ondemand";
+
     static final String HK2_CACHE_DIR = "com.sun.enterprise.hk2.cacheDir";
     static final String INHABITANTS_CACHE = "inhabitants";
     static final String HK2_CACHE_IO_BUFFER_SIZE = "com.sun.enterprise.hk2.cacheIoBufferSize";
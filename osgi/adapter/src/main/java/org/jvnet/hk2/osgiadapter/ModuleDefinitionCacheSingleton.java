@@ -47,25 +47,58 @@ import org.osgi.framework.FrameworkUtil;
 import java.io.*;
 import java.net.URI;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import static org.jvnet.hk2.osgiadapter.Logger.logger;
 
+/**
+ * Keeps the {@link ModuleDefinition}s of the installed bundles across restarts.
+ * <p>
+ * The cache file starts with a magic number and a format version and is followed by
+ * one record per bundle.  Each record carries the location of the bundle, the
+ * last modified time it was computed from and the encoded definition.  A record for
+ * a location that appears later in the file replaces an earlier one, and a removal
+ * record drops it, so when only a few bundles change only their records are appended
+ * to the file.  The file is rewritten from scratch once the replaced records take up
+ * more room than the live ones.
+ * <p>
+ * Records are only decoded when their definition is asked for, and records that are
+ * never asked for are written back as they were read
+ */
 class ModuleDefinitionCacheSingleton {
 
+    private static final int MAGIC = 0x484b3243; // HK2C
+    private static final int FORMAT_VERSION = 3;
+
+    private static final int DEFINITION_RECORD = 1;
+    private static final int REMOVAL_RECORD = 2;
+
     private static ModuleDefinitionCacheSingleton _instance;
 
-    private Map<URI, ModuleDefinition> cachedData = new HashMap<URI, ModuleDefinition>();
+    private final Map<URI, Record> cachedData = new HashMap<URI, Record>();
+    private final Set<URI> removed = new HashSet<URI>();
     private boolean cacheInvalidated = false;
 
-    private ModuleDefinitionCacheSingleton() {
+    /**
+     * Set when the file on disk cannot simply be appended to
+     */
+    private boolean rewriteNeeded = true;
+    private long liveBytes;
+    private long deadBytes;
+
+    /*package*/ ModuleDefinitionCacheSingleton() {
         try {
             loadCachedData();
         } catch (Exception e) {
-            e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+            logger.logp(Level.WARNING, getClass().getSimpleName(), "loadCachedData",
+                    "Could not read module definition cache", e);
+            cachedData.clear();
+            rewriteNeeded = true;
+            cacheInvalidated = true;
         }
     }
 
@@ -77,21 +110,42 @@ class ModuleDefinitionCacheSingleton {
        return _instance;
     }
 
-    public synchronized  void cacheModuleDefinition(URI uri, ModuleDefinition md) {
-       if (!cachedData.containsKey(uri)) {
-           cacheInvalidated = true;
-       } else {
-           // should check if md is the same
-       }
+    /**
+     * Caches the definition of the bundle at the given location
+     *
+     * @param uri the location of the bundle
+     * @param md its definition
+     * @param lastModified the last modified time of the bundle the definition was computed from
+     */
+    public synchronized void cacheModuleDefinition(URI uri, ModuleDefinition md, long lastModified) {
+       discard(cachedData.put(uri, new Record(getLastModified(uri, lastModified), md)));
+       removed.remove(uri);
+       cacheInvalidated = true;
+    }
 
-       cachedData.put(uri, md);
+    /**
+     * Indicates that the cached definition of the bundle at the given location
+     * has changed, for example because its hk2 descriptors were added to it
+     *
+     * @param uri the location of the bundle
+     */
+    public synchronized void updated(URI uri) {
+        Record record = cachedData.get(uri);
+        if (record != null && record.definition != null) {
+            record.dirty = true;
+            cacheInvalidated = true;
+        }
     }
 
     public synchronized void remove(URI uri) {
-        if (cachedData.remove(uri) != null) {
+        Record record = cachedData.remove(uri);
+        if (record != null) {
+            discard(record);
+            removed.add(uri);
             cacheInvalidated =true;
         }
     }
+
     /**
      * Loads the inhabitants metadata from the cache. metadata is saved in a file
      * called inhabitants
@@ -109,10 +163,64 @@ class ModuleDefinitionCacheSingleton {
             logger.logp(Level.INFO, getClass().getSimpleName(), "loadCachedData", "HK2 cache file = {0}", new Object[]{io});
         }
 
-       ObjectInputStream stream = new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(io), getBufferSize())));
+        boolean truncated = false;
+        DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(io), getBufferSize()));
+        try {
+            if (stream.readInt() != MAGIC || stream.readInt() != FORMAT_VERSION) {
+                // written by an older version, start over
+                cacheInvalidated = true;
+                return;
+            }
+
+            while (true) {
+                int type = stream.read();
+                if (type == -1) break;
 
-       cachedData = (Map<URI, ModuleDefinition>) stream.readObject();
-       stream.close();
+                try {
+                    URI uri = new URI(stream.readUTF());
+                    if (type == DEFINITION_RECORD) {
+                        long lastModified = stream.readLong();
+                        int length = stream.readInt();
+                        if (length < 0 || length > io.length()) {
+                            throw new IOException("Record of " + uri + " has an impossible length " + length);
+                        }
+                        byte[] data = new byte[length];
+                        stream.readFully(data);
+
+                        discard(cachedData.put(uri, new Record(lastModified, data)));
+                        liveBytes += data.length;
+                    } else if (type == REMOVAL_RECORD) {
+                        discard(cachedData.remove(uri));
+                    } else {
+                        throw new IOException("Unknown record type " + type);
+                    }
+                } catch (EOFException e) {
+                    // the last write did not finish, the records before it are fine
+                    truncated = true;
+                    break;
+                }
+            }
+        } finally {
+            stream.close();
+        }
+
+        if (truncated) {
+            cacheInvalidated = true;
+        } else {
+            rewriteNeeded = false;
+        }
+
+        // Bundles installed from files can be validated right away, which lets the
+        // repositories know whether they need to look at their directories again
+        for (Iterator<Map.Entry<URI, Record>> it = cachedData.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<URI, Record> entry = it.next();
+            if (getLastModified(entry.getKey(), entry.getValue().lastModified) != entry.getValue().lastModified) {
+                it.remove();
+                discard(entry.getValue());
+                removed.add(entry.getKey());
+                cacheInvalidated = true;
+            }
+        }
     }
 
     /**
@@ -133,20 +241,108 @@ class ModuleDefinitionCacheSingleton {
         if(logger.isLoggable(Level.FINE)) {
             logger.logp(Level.INFO, getClass().getSimpleName(), "saveCache", "HK2 cache file = {0}", new Object[]{io});
         }
-        if (io.exists()) io.delete();
-        io.createNewFile();
-        Map<URI, ModuleDefinition> data = new HashMap<URI, ModuleDefinition>();
-        for (ModuleDefinition m : cachedData.values()) {
-            data.put(m.getLocations()[0], m);
+
+        // Encode the changed definitions first so that a failure leaves the file alone
+        for (Map.Entry<URI, Record> entry : cachedData.entrySet()) {
+            Record record = entry.getValue();
+            if (record.dirty) {
+                byte[] data = encode(record.definition);
+                if (data != null) {
+                    discard(record);
+                    record.data = data;
+                    liveBytes += data.length;
+                }
+            }
         }
-        ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(io)), getBufferSize()));
 
-        os.writeObject(data);
-        os.close();
+        if (rewriteNeeded || !io.exists() || deadBytes > liveBytes) {
+            rewrite(io);
+        } else {
+            append(io);
+        }
+
+        for (Record record : cachedData.values()) {
+            record.dirty = false;
+        }
+        removed.clear();
 
         cacheInvalidated =false;
     }
 
+    private void rewrite(File io) throws IOException {
+        File tmp = new File(io.getParentFile(), io.getName() + ".tmp");
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), getBufferSize()));
+        try {
+            os.writeInt(MAGIC);
+            os.writeInt(FORMAT_VERSION);
+            for (Map.Entry<URI, Record> entry : cachedData.entrySet()) {
+                writeRecord(os, entry.getKey(), entry.getValue());
+            }
+        } finally {
+            os.close();
+        }
+
+        if (io.exists()) io.delete();
+        if (!tmp.renameTo(io)) {
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp + " to " + io);
+        }
+
+        rewriteNeeded = false;
+        deadBytes = 0;
+    }
+
+    private void append(File io) throws IOException {
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(io, true), getBufferSize()));
+        try {
+            for (URI uri : removed) {
+                os.write(REMOVAL_RECORD);
+                os.writeUTF(uri.toString());
+            }
+            for (Map.Entry<URI, Record> entry : cachedData.entrySet()) {
+                if (entry.getValue().dirty) {
+                    writeRecord(os, entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (IOException e) {
+            // the tail of the file is now in an unknown state
+            rewriteNeeded = true;
+            throw e;
+        } finally {
+            os.close();
+        }
+    }
+
+    private void discard(Record record) {
+        if (record != null && record.data != null) {
+            deadBytes += record.data.length;
+            liveBytes -= record.data.length;
+        }
+    }
+
+    private static void writeRecord(DataOutputStream os, URI uri, Record record) throws IOException {
+        if (record.data == null) {
+            // not something this cache knows how to write
+            return;
+        }
+        os.write(DEFINITION_RECORD);
+        os.writeUTF(uri.toString());
+        os.writeLong(record.lastModified);
+        os.writeInt(record.data.length);
+        os.write(record.data);
+    }
+
+    private static byte[] encode(ModuleDefinition md) throws IOException {
+        if (!(md instanceof OSGiModuleDefinition)) {
+            return null;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        OSGiModuleDefinition.class.cast(md).writeTo(out);
+        out.flush();
+        return baos.toByteArray();
+    }
+
     private int getBufferSize() {
         int bufsize = Constants.DEFAULT_BUFFER_SIZE;
         try {
@@ -159,10 +355,36 @@ class ModuleDefinitionCacheSingleton {
         return bufsize;
     }
 
-    public synchronized ModuleDefinition get(URI uri) {
-        ModuleDefinition md = cachedData.get(uri);
+    /**
+     * Returns the cached definition of the bundle at the given location, provided
+     * it was computed from a bundle with the same last modified time
+     *
+     * @param uri the location of the bundle
+     * @param lastModified the current last modified time of the bundle
+     * @return the definition, or null if there is none or it is out of date
+     */
+    public synchronized ModuleDefinition get(URI uri, long lastModified) {
+        Record record = cachedData.get(uri);
+        if (record == null) return null;
+
+        if (record.lastModified != getLastModified(uri, lastModified)) {
+            remove(uri);
+            return null;
+        }
+
+        if (record.definition == null) {
+            try {
+                record.definition = OSGiModuleDefinition.readFrom(
+                        new DataInputStream(new ByteArrayInputStream(record.data)));
+            } catch (Exception e) {
+                logger.logp(Level.FINE, getClass().getSimpleName(), "get",
+                        "Discarding unreadable cache record for {0}: {1}", new Object[]{uri, e});
+                remove(uri);
+                return null;
+            }
+        }
 
-        return md;
+        return record.definition;
     }
 
     public void invalidate() {
@@ -173,6 +395,20 @@ class ModuleDefinitionCacheSingleton {
         return cacheInvalidated;
     }
 
+    /**
+     * Bundles installed from a file are checked against the file itself, so that the
+     * registry and the directory based repository agree on the time stamp
+     */
+    private static long getLastModified(URI uri, long defaultValue) {
+        if (!"file".equals(uri.getScheme())) return defaultValue;
+        try {
+            File f = new File(uri);
+            return f.isFile() ? f.lastModified() : defaultValue;
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
+    }
+
     private String getProperty(String property) {
         BundleContext bctx = null;
         try {
@@ -182,4 +418,22 @@ class ModuleDefinitionCacheSingleton {
         String value = bctx != null ? bctx.getProperty(property) : null;
         return value != null ? value : System.getProperty(property);
     }
+
+    private static class Record {
+        private final long lastModified;
+        private byte[] data;
+        private ModuleDefinition definition;
+        private boolean dirty;
+
+        private Record(long lastModified, byte[] data) {
+            this.lastModified = lastModified;
+            this.data = data;
+        }
+
+        private Record(long lastModified, ModuleDefinition definition) {
+            this.lastModified = lastModified;
+            this.definition = definition;
+            this.dirty = true;
+        }
+    }
 }
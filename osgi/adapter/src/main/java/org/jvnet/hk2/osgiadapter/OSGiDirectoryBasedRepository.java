@@ -92,7 +92,7 @@ public class OSGiDirectoryBasedRepository extends DirectoryBasedRepository {
     @Override
     protected ModuleDefinition loadJar(File jar) throws IOException {
         assert (jar.isFile()); // no support for exploded jar
-        ModuleDefinition md = cache.get(jar.toURI());
+        ModuleDefinition md = cache.get(jar.toURI(), jar.lastModified());
         if (md != null) {
             if(logger.isLoggable(Level.FINE)) {
                 logger.logp(Level.FINER, "OSGiDirectoryBasedRepository", "loadJar", "Found in mdCache for {0}", new Object[]{jar});
@@ -46,11 +46,16 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
@@ -83,6 +88,9 @@ public class OSGiModuleDefinition implements ModuleDefinition, Serializable {
     private String lifecyclePolicyClassName;
     private ModuleMetadata metadata = new ModuleMetadata();
 
+    private OSGiModuleDefinition() {
+    }
+
     public OSGiModuleDefinition(File jar) throws IOException {
         this(Jar.create(jar), jar.toURI());
     }
@@ -216,6 +224,202 @@ public class OSGiModuleDefinition implements ModuleDefinition, Serializable {
         return name + "(" + bundleName + ")" + ':' + version;
     }
 
+    /**
+     * Writes this definition in the binary format used by
+     * {@link ModuleDefinitionCacheSingleton}.  Descriptor lists that were
+     * read from the cache and never looked at are copied without being parsed
+     *
+     * @param out the stream to write to
+     * @throws IOException if the definition could not be written
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        writeString(out, name);
+        writeString(out, bundleName);
+        writeString(out, location.toString());
+        writeString(out, version);
+        writeString(out, lifecyclePolicyClassName);
+
+        writeAttributes(out, manifest.getMainAttributes());
+        Map<String, Attributes> sections = manifest.getEntries();
+        out.writeInt(sections.size());
+        for (Map.Entry<String, Attributes> section : sections.entrySet()) {
+            writeString(out, section.getKey());
+            writeAttributes(out, section.getValue());
+        }
+
+        /*
+         * ModuleMetadata only creates an entry when a META-INF/services file is loaded, so
+         * every entry has at least one resource, and the service name is the name of the
+         * first file.  Resources added to an entry afterwards are kept as well
+         */
+        List<ModuleMetadata.Entry> services = new ArrayList<ModuleMetadata.Entry>();
+        for (ModuleMetadata.Entry entry : metadata.getEntries()) {
+            services.add(entry);
+        }
+        out.writeInt(services.size());
+        for (ModuleMetadata.Entry entry : services) {
+            String source = entry.resources.get(0).toString();
+            writeString(out, source.substring(source.lastIndexOf('/') + 1));
+            out.writeInt(entry.resources.size());
+            for (URL resource : entry.resources) {
+                writeString(out, resource.toString());
+            }
+            out.writeInt(entry.providerNames.size());
+            for (String providerName : entry.providerNames) {
+                writeString(out, providerName);
+            }
+        }
+
+        Map<String, List<Descriptor>> descriptors = metadata.getDescriptors();
+        out.writeInt(descriptors.size());
+        for (Map.Entry<String, List<Descriptor>> locator : descriptors.entrySet()) {
+            writeString(out, locator.getKey());
+
+            Collection<String> contracts;
+            byte[] encoded;
+            if (locator.getValue() instanceof CachedDescriptorList) {
+                contracts = ((CachedDescriptorList) locator.getValue()).getContracts();
+                encoded = ((CachedDescriptorList) locator.getValue()).getEncoded();
+            } else {
+                contracts = CachedDescriptorList.getContracts(locator.getValue());
+                encoded = CachedDescriptorList.encode(locator.getValue());
+            }
+            out.writeInt(contracts.size());
+            for (String contract : contracts) {
+                writeString(out, contract);
+            }
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        }
+    }
+
+    /**
+     * Reads a definition previously written with {@link #writeTo(DataOutputStream)}.
+     * The hk2 descriptors are kept in their encoded form until somebody asks for them
+     *
+     * @param in the stream to read from
+     * @return the definition
+     * @throws IOException if the definition could not be read
+     */
+    static OSGiModuleDefinition readFrom(DataInputStream in) throws IOException {
+        OSGiModuleDefinition md = new OSGiModuleDefinition();
+        md.name = readString(in);
+        md.bundleName = readString(in);
+        try {
+            md.location = new URI(readString(in));
+        } catch (URISyntaxException e) {
+            throw new IOException(e.getMessage());
+        }
+        md.version = readString(in);
+        md.lifecyclePolicyClassName = readString(in);
+
+        SerializableManifest m = new SerializableManifest();
+        readAttributes(in, m.getMainAttributes());
+        for (int sections = in.readInt(); sections > 0; sections--) {
+            Attributes attributes = new Attributes();
+            m.getEntries().put(readString(in), attributes);
+            readAttributes(in, attributes);
+        }
+        md.manifest = m;
+
+        for (int services = in.readInt(); services > 0; services--) {
+            String serviceName = readString(in);
+            int count = readLength(in);
+            if (count < 1) {
+                throw new IOException("Service " + serviceName + " has no resources");
+            }
+            List<URL> resources = new ArrayList<URL>(count);
+            for (; count > 0; count--) {
+                resources.add(new URL(readString(in)));
+            }
+            StringBuilder providers = new StringBuilder();
+            for (int providerNames = in.readInt(); providerNames > 0; providerNames--) {
+                providers.append(readString(in)).append('\n');
+            }
+            md.metadata.load(resources.get(0), serviceName,
+                    new ByteArrayInputStream(providers.toString().getBytes("UTF-8")));
+            md.metadata.getEntry(serviceName).resources.addAll(resources.subList(1, resources.size()));
+        }
+
+        for (int locators = in.readInt(); locators > 0; locators--) {
+            String serviceLocatorName = readString(in);
+            int count = readLength(in);
+            List<String> contracts = new ArrayList<String>(count);
+            for (; count > 0; count--) {
+                contracts.add(readString(in));
+            }
+            byte[] encoded = new byte[readLength(in)];
+            in.readFully(encoded);
+            md.metadata.getDescriptors().put(serviceLocatorName, new CachedDescriptorList(contracts, encoded));
+        }
+
+        return md;
+    }
+
+    /**
+     * Returns the contracts advertised by the hk2 descriptors of the given service locator
+     * name when they are known without parsing the descriptors, which is the case for
+     * definitions read from the cache
+     *
+     * @param serviceLocatorName the name of the descriptors
+     * @return the contracts, or null if they are not known without parsing
+     */
+    Collection<String> getInhabitantContracts(String serviceLocatorName) {
+        List<Descriptor> descriptors = metadata.getDescriptors().get(serviceLocatorName);
+        if (!(descriptors instanceof CachedDescriptorList)) return null;
+        return ((CachedDescriptorList) descriptors).getContracts();
+    }
+
+    private static void writeAttributes(DataOutputStream out, Attributes attributes) throws IOException {
+        out.writeInt(attributes.size());
+        for (Map.Entry<Object, Object> attribute : attributes.entrySet()) {
+            writeString(out, attribute.getKey().toString());
+            writeString(out, (String) attribute.getValue());
+        }
+    }
+
+    private static void readAttributes(DataInputStream in, Attributes attributes) throws IOException {
+        for (int count = in.readInt(); count > 0; count--) {
+            attributes.putValue(readString(in), readString(in));
+        }
+    }
+
+    /*
+     * DataOutput.writeUTF is limited to 64k, which some Export-Package headers exceed
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads the length of an array or list, which may not be longer than
+     * what is left in the stream.  The stream is always over an in-memory record
+     */
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Impossible length " + length);
+        }
+        return length;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        if (length > in.available()) {
+            throw new IOException("Impossible length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
     private static class BundleJar extends Jar {
         private static final String HK2_DESCRIPTOR_LOCATION = "META-INF/hk2-locator";
 
@@ -400,6 +604,112 @@ public class OSGiModuleDefinition implements ModuleDefinition, Serializable {
         }
     }
 
+    /**
+     * The hk2 descriptors of one service locator as read from the module definition cache.
+     * They are only parsed the first time the list is used, which for most bundles is never
+     */
+    private static class CachedDescriptorList extends AbstractList<Descriptor> implements Serializable {
+        private final List<String> contracts;
+        private byte[] encoded;
+        private List<Descriptor> descriptors;
+
+        private CachedDescriptorList(List<String> contracts, byte[] encoded) {
+            this.contracts = contracts;
+            this.encoded = encoded;
+        }
+
+        static Collection<String> getContracts(List<Descriptor> descriptors) {
+            Set<String> contracts = new LinkedHashSet<String>();
+            for (Descriptor d : descriptors) {
+                contracts.addAll(d.getAdvertisedContracts());
+            }
+            return contracts;
+        }
+
+        synchronized Collection<String> getContracts() {
+            if (descriptors != null) {
+                // may have been changed since it was read
+                return getContracts(descriptors);
+            }
+            return contracts;
+        }
+
+        static byte[] encode(List<Descriptor> descriptors) throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            PrintWriter pw = new PrintWriter(new OutputStreamWriter(baos, "UTF-8"));
+            for (Descriptor d : descriptors) {
+                DescriptorImpl di = (d instanceof DescriptorImpl) ? (DescriptorImpl) d : new DescriptorImpl(d);
+                di.writeObject(pw);
+            }
+            pw.close();
+            return baos.toByteArray();
+        }
+
+        synchronized byte[] getEncoded() throws IOException {
+            if (descriptors != null) {
+                // may have been changed since it was read
+                return encode(descriptors);
+            }
+            return encoded;
+        }
+
+        private synchronized List<Descriptor> getDescriptors() {
+            if (descriptors != null) return descriptors;
+
+            List<Descriptor> result = new ArrayList<Descriptor>();
+            try {
+                BufferedReader br = new BufferedReader(new InputStreamReader(
+                        new ByteArrayInputStream(encoded), "UTF-8"));
+                boolean readOne;
+                do {
+                    DescriptorImpl descriptorImpl = new DescriptorImpl();
+
+                    readOne = descriptorImpl.readObject(br);
+
+                    if (readOne) {
+                        result.add(descriptorImpl);
+                    }
+                } while (readOne);
+            } catch (IOException e) {
+                // cannot happen when reading from memory, the content was written by encode
+                throw new IllegalStateException(e);
+            }
+
+            descriptors = result;
+            encoded = null;
+            return descriptors;
+        }
+
+        @Override
+        public Descriptor get(int index) {
+            return getDescriptors().get(index);
+        }
+
+        @Override
+        public int size() {
+            return getDescriptors().size();
+        }
+
+        @Override
+        public Descriptor set(int index, Descriptor element) {
+            return getDescriptors().set(index, element);
+        }
+
+        @Override
+        public void add(int index, Descriptor element) {
+            getDescriptors().add(index, element);
+        }
+
+        @Override
+        public Descriptor remove(int index) {
+            return getDescriptors().remove(index);
+        }
+
+        private Object writeReplace() {
+            return new ArrayList<Descriptor>(getDescriptors());
+        }
+    }
+
     private static class SerializableManifest extends Manifest implements Serializable {
 
         private SerializableManifest()
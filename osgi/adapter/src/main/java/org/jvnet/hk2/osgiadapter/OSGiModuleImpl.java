@@ -58,6 +58,7 @@ import org.glassfish.hk2.api.DescriptorFileFinder;
 import org.glassfish.hk2.api.DynamicConfiguration;
 import org.glassfish.hk2.api.DynamicConfigurationService;
 import org.glassfish.hk2.api.Filter;
+import org.glassfish.hk2.api.MultiException;
 import org.glassfish.hk2.api.PopulatorPostProcessor;
 import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.api.ServiceLocatorFactory;
@@ -397,6 +398,69 @@ public class OSGiModuleImpl implements Module {
         return this.activeDescriptors;
     }
 
+    /**
+     * Reads all the inhabitants descriptors of the given name in this module and runs
+     * them through the post processors, without adding them to the service locator.
+     * Unlike {@link #parseInhabitants} this may be called for several modules at once
+     *
+     * @return the processed descriptors, or null if this module has no such descriptors
+     */
+    List<DescriptorImpl> readInhabitants(String name, ServiceLocator serviceLocator, List<PopulatorPostProcessor> populatorPostProcessors) throws IOException {
+        final String path = "META-INF/hk2-locator/" + name;
+        URL entry = bundle.getEntry(path);
+
+        if (entry == null) {
+            return null;
+        }
+
+        ArrayList<PopulatorPostProcessor> allPostProcessors = new ArrayList<PopulatorPostProcessor>();
+        allPostProcessors.add(new OsgiPopulatorPostProcessor(this));
+        if (populatorPostProcessors != null) {
+          allPostProcessors.addAll(populatorPostProcessors);
+        }
+
+        List<DescriptorImpl> descriptors = new ArrayList<DescriptorImpl>();
+        List<Throwable> errors = new LinkedList<Throwable>();
+
+        BufferedReader br = new BufferedReader(new InputStreamReader(entry.openStream()));
+        try {
+            boolean readOne;
+
+            do {
+                DescriptorImpl descriptorImpl = new DescriptorImpl();
+
+                readOne = descriptorImpl.readObject(br);
+
+                if (readOne) {
+                    for (PopulatorPostProcessor pp : allPostProcessors) {
+                        try {
+                            descriptorImpl = pp.process(serviceLocator, descriptorImpl);
+                        } catch (Throwable th) {
+                            errors.add(new IOException("InputStream with identifier \"" + entry + "\" failed", th));
+                            descriptorImpl = null;
+                        }
+
+                        if (descriptorImpl == null) {
+                            break;
+                        }
+                    }
+
+                    if (descriptorImpl != null) {
+                        descriptors.add(descriptorImpl);
+                    }
+                }
+            } while (readOne);
+        } finally {
+            br.close();
+        }
+
+        if (!errors.isEmpty()) {
+            throw new MultiException(errors);
+        }
+
+        return descriptors;
+    }
+
     /**
      * This method is used as the parent loader of the class loader that we return in {@link #getClassLoader}
      */
@@ -46,8 +46,26 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
+import org.glassfish.hk2.api.ActiveDescriptor;
+import org.glassfish.hk2.api.DynamicConfiguration;
+import org.glassfish.hk2.api.MultiException;
+import org.glassfish.hk2.api.PopulatorPostProcessor;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.utilities.DescriptorImpl;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
@@ -67,6 +85,12 @@ public class OSGiModulesRegistryImpl
         extends AbstractOSGiModulesRegistryImpl
         implements SynchronousBundleListener {
 
+    /**
+     * Number of bundles whose inhabitants go into one DynamicConfiguration when
+     * the service locator is populated by several threads
+     */
+    private static final int POPULATION_BATCH_SIZE = 64;
+
     ModuleDefinitionCacheSingleton cache = ModuleDefinitionCacheSingleton.getInstance();
 
     /*package*/ OSGiModulesRegistryImpl(BundleContext bctx) {
@@ -77,6 +101,11 @@ public class OSGiModulesRegistryImpl
         // This must happen before we start iterating the existing bundles.
         bctx.addBundleListener(this);
 
+        String onDemand = getProperty(Constants.HK2_ON_DEMAND_POPULATION);
+        if (onDemand != null) {
+            setOnDemandPopulation(Boolean.valueOf(onDemand));
+        }
+
         // Populate registry with pre-installed bundles
         for (final Bundle b : bctx.getBundles()) {
             if (b.getLocation().equals (org.osgi.framework.Constants.SYSTEM_BUNDLE_LOCATION)) {
@@ -172,7 +201,7 @@ public class OSGiModulesRegistryImpl
             throws IOException, URISyntaxException {
         URI key = OSGiModuleDefinition.toURI(bundle);
 
-        ModuleDefinition md = cache.get(key);
+        ModuleDefinition md = cache.get(key, bundle.getLastModified());
 
         if (md != null) {
         	return OSGiModuleDefinition.class.cast(md);
@@ -180,7 +209,7 @@ public class OSGiModulesRegistryImpl
             cache.invalidate();
             md = new OSGiModuleDefinition(bundle);
 
-            cache.cacheModuleDefinition(key, md);
+            cache.cacheModuleDefinition(key, md, bundle.getLastModified());
 
             return (OSGiModuleDefinition) md;
         }
@@ -208,6 +237,125 @@ public class OSGiModulesRegistryImpl
         cache.remove(location);
     }
 
+    /**
+     * When {@link Constants#HK2_POPULATION_THREADS} is more than one, the inhabitants of the
+     * bundles are read and post processed by that many threads, and then added to the service
+     * locator in bundle id order, a batch of bundles per DynamicConfiguration
+     */
+    @Override
+    public void populateServiceLocator(final String name, final ServiceLocator serviceLocator,
+            final List<PopulatorPostProcessor> postProcessors) throws MultiException {
+        int threads = getPopulationThreads();
+        if (threads <= 1 || isOnDemandPopulation()) {
+            super.populateServiceLocator(name, serviceLocator, postProcessors);
+            return;
+        }
+
+        List<Module> sortedModules = new ArrayList<Module>(getModules());
+        Collections.sort(sortedModules, new Comparator<Module>() {
+            public int compare(Module m1, Module m2) {
+                long id1 = OSGiModuleImpl.class.cast(m1).getBundle().getBundleId();
+                long id2 = OSGiModuleImpl.class.cast(m2).getBundle().getBundleId();
+                return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(threads, Math.max(sortedModules.size(), 1)), new PopulatorThreadFactory());
+        try {
+            List<Future<List<DescriptorImpl>>> results = new ArrayList<Future<List<DescriptorImpl>>>(sortedModules.size());
+            for (final Module module : sortedModules) {
+                results.add(executor.submit(new Callable<List<DescriptorImpl>>() {
+                    public List<DescriptorImpl> call() throws Exception {
+                        return prepareInhabitants(module, name, serviceLocator, postProcessors);
+                    }
+                }));
+            }
+
+            DynamicConfiguration config = null;
+            List<Module> batchModules = new ArrayList<Module>();
+            List<List<ActiveDescriptor>> batchDescriptors = new ArrayList<List<ActiveDescriptor>>();
+
+            for (int lcv = 0; lcv < sortedModules.size(); lcv++) {
+                List<DescriptorImpl> descriptors;
+                try {
+                    descriptors = results.get(lcv).get();
+                } catch (ExecutionException e) {
+                    // what came before the failing bundle is added, as it would have been one by one
+                    commit(config, serviceLocator, batchModules, batchDescriptors);
+
+                    Throwable cause = e.getCause();
+                    if (cause instanceof MultiException) {
+                        throw (MultiException) cause;
+                    }
+                    throw new MultiException(cause);
+                }
+                if (descriptors == null || descriptors.isEmpty()) continue;
+
+                if (config == null) {
+                    config = ServiceLocatorUtilities.createDynamicConfiguration(serviceLocator);
+                }
+
+                List<ActiveDescriptor> bound = new ArrayList<ActiveDescriptor>(descriptors.size());
+                for (DescriptorImpl descriptor : descriptors) {
+                    bound.add(config.bind(descriptor, false));
+                }
+                batchModules.add(sortedModules.get(lcv));
+                batchDescriptors.add(bound);
+
+                if (batchModules.size() == POPULATION_BATCH_SIZE) {
+                    commit(config, serviceLocator, batchModules, batchDescriptors);
+                    config = null;
+                }
+            }
+
+            commit(config, serviceLocator, batchModules, batchDescriptors);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MultiException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // From now on, we will keep this service registry up-to-date with module system state
+        addServiceLocator(serviceLocator, name);
+    }
+
+    private void commit(DynamicConfiguration config, ServiceLocator serviceLocator,
+            List<Module> batchModules, List<List<ActiveDescriptor>> batchDescriptors) {
+        if (config == null) return;
+
+        config.commit();
+
+        for (int lcv = 0; lcv < batchModules.size(); lcv++) {
+            addModuleDescriptors(batchModules.get(lcv), serviceLocator, batchDescriptors.get(lcv));
+        }
+        batchModules.clear();
+        batchDescriptors.clear();
+    }
+
+    private int getPopulationThreads() {
+        String threads = getProperty(Constants.HK2_POPULATION_THREADS);
+        if (threads == null) return 1;
+        try {
+            return Integer.parseInt(threads.trim());
+        } catch (NumberFormatException e) {
+            logger.logp(Level.WARNING, "OSGiModulesRegistryImpl", "getPopulationThreads",
+                    "Ignoring invalid value {0} of {1}", new Object[]{threads, Constants.HK2_POPULATION_THREADS});
+            return 1;
+        }
+    }
+
+    private static class PopulatorThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "hk2-populator-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
     // factory method
     protected Module newModule(ModuleDefinition moduleDef) {
         String location = moduleDef.getLocations()[0].toString();
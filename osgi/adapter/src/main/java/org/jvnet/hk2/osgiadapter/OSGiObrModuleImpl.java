@@ -49,6 +49,7 @@ import com.sun.enterprise.module.bootstrap.BootException;
 import org.glassfish.hk2.api.ActiveDescriptor;
 import org.glassfish.hk2.api.PopulatorPostProcessor;
 import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.utilities.DescriptorImpl;
 import org.osgi.framework.Bundle;
 
 import java.io.File;
@@ -174,6 +175,12 @@ public class OSGiObrModuleImpl extends OSGiModuleImpl {
         return super.parseInhabitants(name, serviceLocator, populatorPostProcessors);
     }
 
+    @Override
+    List<DescriptorImpl> readInhabitants(String name, ServiceLocator serviceLocator, List<PopulatorPostProcessor> populatorPostProcessors) throws IOException {
+        init();
+        return super.readInhabitants(name, serviceLocator, populatorPostProcessors);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("OSGiObrModuleImpl::");
@@ -0,0 +1,493 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.osgiadapter;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.GZIPOutputStream;
+
+import org.glassfish.hk2.api.Descriptor;
+import org.glassfish.hk2.utilities.DescriptorImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.enterprise.module.ModuleDefinition;
+import com.sun.enterprise.module.ModuleMetadata;
+
+/**
+ * Tests writing module definitions to the cache file and reading
+ * them back
+ * 
+ * @author jwells
+ */
+public class ModuleDefinitionCacheTest {
+    private final static String DEFAULT = "default";
+    private final static String SERVICE = "com.acme.Service";
+    private final static String PROVIDER1 = "com.acme.impl.Provider1";
+    private final static String PROVIDER2 = "com.acme.impl.Provider2";
+    private final static String IMPLEMENTATION = "com.acme.impl.ServiceImpl";
+    private final static String CONTRACT = "com.acme.Contract";
+    private final static String SERVICE_NAME = "acme";
+    private final static String SECTION = "com/acme/Service.class";
+    private final static String SECTION_ATTRIBUTE = "Acme-Section";
+    private final static String SECTION_VALUE = "section value";
+    
+    private final static int MAGIC = 0x484b3243;
+    
+    private File cacheDirectory;
+    private File cacheFile;
+    
+    @Before
+    public void before() throws IOException {
+        cacheDirectory = File.createTempFile("mdcache", "");
+        cacheDirectory.delete();
+        cacheDirectory.mkdirs();
+        
+        cacheFile = new File(cacheDirectory, Constants.INHABITANTS_CACHE);
+        
+        System.setProperty(Constants.HK2_CACHE_DIR, cacheDirectory.getAbsolutePath());
+    }
+    
+    @After
+    public void after() {
+        System.clearProperty(Constants.HK2_CACHE_DIR);
+        
+        File files[] = cacheDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDirectory.delete();
+    }
+    
+    /**
+     * Everything in a definition survives being written and read back
+     */
+    @Test
+    public void testWriteThenRead() throws Exception {
+        File jar = createJar("alpha", "1.0.0");
+        OSGiModuleDefinition md = createDefinition(jar);
+        
+        ModuleDefinitionCacheSingleton cache = new ModuleDefinitionCacheSingleton();
+        cache.cacheModuleDefinition(jar.toURI(), md, 0L);
+        cache.saveCache();
+        Assert.assertFalse(cache.isCacheInvalidated());
+        
+        cache = new ModuleDefinitionCacheSingleton();
+        Assert.assertFalse(cache.isCacheInvalidated());
+        
+        ModuleDefinition read = cache.get(jar.toURI(), 0L);
+        Assert.assertNotNull(read);
+        Assert.assertEquals("alpha", read.getName());
+        Assert.assertEquals("1.0.0", read.getVersion());
+        Assert.assertEquals(jar.toURI(), read.getLocations()[0]);
+        Assert.assertEquals("com.acme", read.getManifest().getMainAttributes().getValue("Export-Package"));
+        Assert.assertEquals(SECTION_VALUE, read.getManifest().getAttributes(SECTION).getValue(SECTION_ATTRIBUTE));
+        
+        ModuleMetadata.Entry entry = read.getMetadata().getEntry(SERVICE);
+        Assert.assertEquals(2, entry.providerNames.size());
+        Assert.assertEquals(PROVIDER1, entry.providerNames.get(0));
+        Assert.assertEquals(PROVIDER2, entry.providerNames.get(1));
+        Assert.assertEquals(md.getMetadata().getEntry(SERVICE).resources, entry.resources);
+        
+        Assert.assertTrue(((OSGiModuleDefinition) read).getInhabitantContracts(DEFAULT).contains(CONTRACT));
+        
+        List<Descriptor> descriptors = read.getMetadata().getDescriptors().get(DEFAULT);
+        Assert.assertEquals(1, descriptors.size());
+        Assert.assertEquals(IMPLEMENTATION, descriptors.get(0).getImplementation());
+        Assert.assertEquals(SERVICE_NAME, descriptors.get(0).getName());
+        Assert.assertTrue(descriptors.get(0).getAdvertisedContracts().contains(CONTRACT));
+    }
+    
+    /**
+     * A service loaded from more than one resource keeps all of them
+     */
+    @Test
+    public void testEntryWithSeveralResources() throws Exception {
+        File jar = createJar("alpha", "1.0.0");
+        OSGiModuleDefinition md = createDefinition(jar);
+        
+        URL second = new URL("file:/fragment/META-INF/services/" + SERVICE);
+        md.getMetadata().getEntry(SERVICE).resources.add(second);
+        
+        ModuleDefinitionCacheSingleton cache = new ModuleDefinitionCacheSingleton();
+        cache.cacheModuleDefinition(jar.toURI(), md, 0L);
+        cache.saveCache();
+        
+        ModuleDefinition read = new ModuleDefinitionCacheSingleton().get(jar.toURI(), 0L);
+        
+        ModuleMetadata.Entry entry = read.getMetadata().getEntry(SERVICE);
+        Assert.assertEquals(2, entry.resources.size());
+        Assert.assertEquals(second, entry.resources.get(1));
+        Assert.assertEquals(2, entry.providerNames.size());
+    }
+    
+    /**
+     * A new bundle is appended to the file rather than the file being rewritten
+     */
+    @Test
+    public void testAppendThenReplay() throws Exception {
+        File alpha = createJar("alpha", "1.0.0");
+        File beta = createJar("beta", "1.0.0");
+        
+        ModuleDefinitionCacheSingleton cache = new ModuleDefinitionCacheSingleton();
+        cache.cacheModuleDefinition(alpha.toURI(), createDefinition(alpha), 0L);
+        cache.saveCache();
+        
+        byte[] firstWrite = readFile();
+        
+        cache = new ModuleDefinitionCacheSingleton();
+        cache.cacheModuleDefinition(beta.toURI(), createDefinition(beta), 0L);
+        cache.saveCache();
+        
+        byte[] secondWrite = readFile();
+        assertStartsWith(firstWrite, secondWrite);
+        
+        cache = new ModuleDefinitionCacheSingleton();
+        Assert.assertEquals("alpha", cache.get(alpha.toURI(), 0L).getName());
+        Assert.assertEquals("beta", cache.get(beta.toURI(), 0L).getName());
+    }
+    
+    /**
+     * A replaced definition is appended until the replaced records take
+     * up more room than the live ones, at which point the file is compacted
+     */
+    @Test
+    public void testReplaceThenCompact() throws Exception {
+        File alpha = createJar("alpha", "1.0.0");
+        
+        ModuleDefinitionCacheSingleton cache = new ModuleDefinitionCacheSingleton();
+        cache.cacheModuleDefinition(alpha.toURI(), createDefinition(alpha), 0L);
+        cache.saveCache();
+        long oneRecord = cacheFile.length();
+        
+        // Same size, so the dead bytes equal the live bytes
+        replaceVersion(alpha, "1.0.1");
+        cache.cacheModuleDefinition(alpha.toURI(), createDefinition(alpha), 0L);
+        cache.saveCache();
+        Assert.assertTrue(cacheFile.length() > oneRecord);
+        
+        Assert.assertEquals("1.0.1", new ModuleDefinitionCacheSingleton().get(alpha.toURI(), 0L).getVersion());
+        
+        replaceVersion(alpha, "1.0.2");
+        cache.cacheModuleDefinition(alpha.toURI(), createDefinition(alpha), 0L);
+        cache.saveCache();
+        Assert.assertEquals(oneRecord, cacheFile.length());
+        
+        cache = new ModuleDefinitionCacheSingleton();
+        Assert.assertFalse(cache.isCacheInvalidated());
+        Assert.assertEquals("1.0.2", cache.get(alpha.toURI(), 0L).getVersion());
+    }
+    
+    /**
+     * A removed bundle is recorded at the end of the file and is gone
+     * when the file is read back
+     */
+    @Test
+    public void testRemovalRecord() throws Exception {
+        File alpha = createJar("alpha", "1.0.0");
+        File beta = createJar("beta", "1.0.0");
+        
+        ModuleDefinitionCacheSingleton cache = new ModuleDefinitionCacheSingleton();
+        cache.cacheModuleDefinition(alpha.toURI(), createDefinition(alpha), 0L);
+        cache.cacheModuleDefinition(beta.toURI(), createDefinition(beta), 0L);
+        cache.saveCache();
+        
+        byte[] firstWrite = readFile();
+        
+        cache.remove(beta.toURI());
+        Assert.assertTrue(cache.isCacheInvalidated());
+        cache.saveCache();
+        
+        assertStartsWith(firstWrite, readFile());
+        
+        cache = new ModuleDefinitionCacheSingleton();
+        Assert.assertFalse(cache.isCacheInvalidated());
+        Assert.assertNull(cache.get(beta.toURI(), 0L));
+        Assert.assertEquals("alpha", cache.get(alpha.toURI(), 0L).getName());
+    }
+    
+    /**
+     * The records before a record that was not completely written are
+     * kept, and the next save rewrites the file
+     */
+    @Test
+    public void testTruncatedTail() throws Exception {
+        File alpha = createJar("alpha", "1.0.0");
+        File beta = createJar("beta", "1.0.0");
+        
+        ModuleDefinitionCacheSingleton cache = new ModuleDefinitionCacheSingleton();
+        cache.cacheModuleDefinition(alpha.toURI(), createDefinition(alpha), 0L);
+        cache.saveCache();
+        long oneRecord = cacheFile.length();
+        
+        cache.cacheModuleDefinition(beta.toURI(), createDefinition(beta), 0L);
+        cache.saveCache();
+        
+        RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw");
+        try {
+            raf.setLength(raf.length() - 5);
+        }
+        finally {
+            raf.close();
+        }
+        
+        cache = new ModuleDefinitionCacheSingleton();
+        Assert.assertTrue(cache.isCacheInvalidated());
+        Assert.assertEquals("alpha", cache.get(alpha.toURI(), 0L).getName());
+        Assert.assertNull(cache.get(beta.toURI(), 0L));
+        
+        cache.saveCache();
+        Assert.assertEquals(oneRecord, cacheFile.length());
+        
+        cache = new ModuleDefinitionCacheSingleton();
+        Assert.assertFalse(cache.isCacheInvalidated());
+        Assert.assertEquals("alpha", cache.get(alpha.toURI(), 0L).getName());
+    }
+    
+    /**
+     * A record whose length is negative or longer than the file is not
+     * allocated, and the whole cache is discarded
+     */
+    @Test
+    public void testImpossibleRecordLength() throws Exception {
+        File alpha = createJar("alpha", "1.0.0");
+        
+        ModuleDefinitionCacheSingleton cache = new ModuleDefinitionCacheSingleton();
+        cache.cacheModuleDefinition(alpha.toURI(), createDefinition(alpha), 0L);
+        cache.saveCache();
+        
+        // magic, version, record type, location and last modified time come before the length
+        long lengthOffset = 4 + 4 + 1 + 2 + alpha.toURI().toString().length() + 8;
+        
+        for (int length : new int[] { Integer.MAX_VALUE, -1 }) {
+            RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw");
+            try {
+                raf.seek(lengthOffset);
+                raf.writeInt(length);
+            }
+            finally {
+                raf.close();
+            }
+            
+            cache = new ModuleDefinitionCacheSingleton();
+            Assert.assertTrue(cache.isCacheInvalidated());
+            Assert.assertNull(cache.get(alpha.toURI(), 0L));
+        }
+        
+        cache.cacheModuleDefinition(alpha.toURI(), createDefinition(alpha), 0L);
+        cache.saveCache();
+        
+        cache = new ModuleDefinitionCacheSingleton();
+        Assert.assertFalse(cache.isCacheInvalidated());
+        Assert.assertEquals("alpha", cache.get(alpha.toURI(), 0L).getName());
+    }
+    
+    /**
+     * Files written by older versions are ignored and replaced on the next save
+     */
+    @Test
+    public void testOldFormat() throws Exception {
+        File alpha = createJar("alpha", "1.0.0");
+        
+        // The serialized map written before the binary format
+        ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(cacheFile)));
+        try {
+            oos.writeObject(new HashMap<URI, ModuleDefinition>());
+        }
+        finally {
+            oos.close();
+        }
+        
+        assertOldFormatIgnored(alpha);
+        
+        // An earlier version of the binary format
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(cacheFile));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(2);
+        }
+        finally {
+            dos.close();
+        }
+        
+        assertOldFormatIgnored(alpha);
+    }
+    
+    /**
+     * A definition is only returned for the last modified time it was
+     * computed from, and definitions of bundles whose file has changed are
+     * dropped when the cache is read
+     */
+    @Test
+    public void testStaleness() throws Exception {
+        File alpha = createJar("alpha", "1.0.0");
+        URI remote = new URI("http://acme.com/beta.jar");
+        
+        ModuleDefinitionCacheSingleton cache = new ModuleDefinitionCacheSingleton();
+        cache.cacheModuleDefinition(alpha.toURI(), createDefinition(alpha), 0L);
+        cache.cacheModuleDefinition(remote, createDefinition(createJar("beta", "1.0.0")), 10L);
+        cache.saveCache();
+        
+        cache = new ModuleDefinitionCacheSingleton();
+        Assert.assertFalse(cache.isCacheInvalidated());
+        Assert.assertNotNull(cache.get(alpha.toURI(), 0L));
+        
+        // Locations that are not files are compared with the given time
+        Assert.assertNull(cache.get(remote, 11L));
+        Assert.assertTrue(cache.isCacheInvalidated());
+        
+        cache = new ModuleDefinitionCacheSingleton();
+        Assert.assertNotNull(cache.get(remote, 10L));
+        
+        // Files are compared with their own time stamp
+        Assert.assertTrue(alpha.setLastModified(alpha.lastModified() - 100000L));
+        
+        cache = new ModuleDefinitionCacheSingleton();
+        Assert.assertTrue(cache.isCacheInvalidated());
+        Assert.assertNull(cache.get(alpha.toURI(), 0L));
+        Assert.assertNotNull(cache.get(remote, 10L));
+        
+        cache.saveCache();
+        
+        cache = new ModuleDefinitionCacheSingleton();
+        Assert.assertFalse(cache.isCacheInvalidated());
+        Assert.assertNull(cache.get(alpha.toURI(), 0L));
+    }
+    
+    private void assertOldFormatIgnored(File alpha) throws Exception {
+        ModuleDefinitionCacheSingleton cache = new ModuleDefinitionCacheSingleton();
+        Assert.assertTrue(cache.isCacheInvalidated());
+        Assert.assertNull(cache.get(alpha.toURI(), 0L));
+        
+        cache.cacheModuleDefinition(alpha.toURI(), createDefinition(alpha), 0L);
+        cache.saveCache();
+        
+        cache = new ModuleDefinitionCacheSingleton();
+        Assert.assertFalse(cache.isCacheInvalidated());
+        Assert.assertEquals("alpha", cache.get(alpha.toURI(), 0L).getName());
+    }
+    
+    private File createJar(String name, String version) throws IOException {
+        File jar = new File(cacheDirectory, name + ".jar");
+        writeJar(jar, name, version);
+        
+        return jar;
+    }
+    
+    /**
+     * Rewrites the jar with a new version of the same length, keeping its time stamp
+     */
+    private static void replaceVersion(File jar, String version) throws IOException {
+        long lastModified = jar.lastModified();
+        String name = jar.getName().substring(0, jar.getName().length() - ".jar".length());
+        
+        writeJar(jar, name, version);
+        jar.setLastModified(lastModified);
+    }
+    
+    private static void writeJar(File jar, String name, String version) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes main = manifest.getMainAttributes();
+        main.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        main.putValue(org.osgi.framework.Constants.BUNDLE_SYMBOLICNAME, name);
+        main.putValue(org.osgi.framework.Constants.BUNDLE_VERSION, version);
+        main.putValue("Export-Package", "com.acme");
+        
+        Attributes section = new Attributes();
+        section.putValue(SECTION_ATTRIBUTE, SECTION_VALUE);
+        manifest.getEntries().put(SECTION, section);
+        
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar), manifest);
+        jos.close();
+    }
+    
+    private static OSGiModuleDefinition createDefinition(File jar) throws IOException {
+        OSGiModuleDefinition md = new OSGiModuleDefinition(jar);
+        
+        URL services = new URL("jar:" + jar.toURI() + "!/META-INF/services/" + SERVICE);
+        md.getMetadata().load(services, SERVICE,
+                new ByteArrayInputStream((PROVIDER1 + "\n# comment\n" + PROVIDER2 + "\n").getBytes()));
+        
+        DescriptorImpl descriptor = new DescriptorImpl();
+        descriptor.setImplementation(IMPLEMENTATION);
+        descriptor.addAdvertisedContract(IMPLEMENTATION);
+        descriptor.addAdvertisedContract(CONTRACT);
+        descriptor.setName(SERVICE_NAME);
+        md.getMetadata().addDescriptors(DEFAULT, Collections.<Descriptor>singletonList(descriptor));
+        
+        return md;
+    }
+    
+    private byte[] readFile() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+        try {
+            byte[] retVal = new byte[(int) raf.length()];
+            raf.readFully(retVal);
+            return retVal;
+        }
+        finally {
+            raf.close();
+        }
+    }
+    
+    private static void assertStartsWith(byte[] prefix, byte[] all) {
+        Assert.assertTrue(all.length > prefix.length);
+        for (int lcv = 0; lcv < prefix.length; lcv++) {
+            Assert.assertEquals(prefix[lcv], all[lcv]);
+        }
+    }
+}
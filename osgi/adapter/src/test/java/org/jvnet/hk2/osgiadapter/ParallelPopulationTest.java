@@ -0,0 +1,308 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://glassfish.dev.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package org.jvnet.hk2.osgiadapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+
+import javax.inject.Singleton;
+
+import org.easymock.EasyMock;
+import org.glassfish.hk2.api.DynamicConfigurationListener;
+import org.glassfish.hk2.api.MultiException;
+import org.glassfish.hk2.api.PopulatorPostProcessor;
+import org.glassfish.hk2.api.ServiceHandle;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.utilities.DescriptorImpl;
+import org.glassfish.hk2.utilities.HK2LoaderImpl;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+
+import com.sun.enterprise.module.Module;
+import com.sun.enterprise.module.impl.CookedModuleDefinition;
+
+/**
+ * Tests populating a service locator with the inhabitants of several
+ * bundles at once
+ * 
+ * @author jwells
+ */
+public class ParallelPopulationTest {
+    private final static String DEFAULT = "default";
+    private final static String BUNDLE_ID = "bundleId";
+    
+    /** More than two batches worth of bundles, two thirds of which have inhabitants */
+    private final static int NUM_BUNDLES = 150;
+    private final static int NUM_THREADS = 4;
+    
+    private static File moduleDirectory;
+    
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        moduleDirectory = File.createTempFile("parallel", "");
+        moduleDirectory.delete();
+        moduleDirectory.mkdirs();
+    }
+    
+    @AfterClass
+    public static void afterClass() {
+        moduleDirectory.delete();
+    }
+    
+    /**
+     * The inhabitants are added in bundle id order no matter in which
+     * order the bundles were installed or finished being read, a batch of
+     * bundles per commit
+     */
+    @Test
+    public void testInhabitantsAreAddedInBundleOrder() throws IOException {
+        TestRegistry registry = createRegistry(-1L, null);
+        
+        ServiceLocator locator = ServiceLocatorUtilities.createAndPopulateServiceLocator();
+        CommitCounter counter = new CommitCounter();
+        ServiceLocatorUtilities.addOneConstant(locator, counter, null, DynamicConfigurationListener.class);
+        int commitsBefore = counter.commits;
+        
+        registry.populateServiceLocator(DEFAULT, locator, new ArrayList<PopulatorPostProcessor>());
+        
+        Assert.assertEquals(NUM_BUNDLES, registry.prepared.size());
+        Assert.assertEquals(getAddedBundleIds(NUM_BUNDLES), getBundleIds(locator));
+        
+        // The 100 bundles with inhabitants in batches of 64
+        Assert.assertEquals(2, counter.commits - commitsBefore);
+        
+        locator.shutdown();
+        registry.shutdown();
+    }
+    
+    /**
+     * The bundles before the failing one are still added, and the
+     * descriptors of those bundles are remembered so that they are
+     * removed along with their bundle
+     */
+    @Test
+    public void testBundlesBeforeFailureAreCommitted() throws IOException {
+        long failingId = 100L;
+        IOException failure = new IOException("expected");
+        
+        TestRegistry registry = createRegistry(failingId, failure);
+        ServiceLocator locator = ServiceLocatorUtilities.createAndPopulateServiceLocator();
+        
+        try {
+            registry.populateServiceLocator(DEFAULT, locator, new ArrayList<PopulatorPostProcessor>());
+            Assert.fail("The failure of bundle " + failingId + " should have been reported");
+        }
+        catch (MultiException me) {
+            Assert.assertEquals(1, me.getErrors().size());
+            Assert.assertSame(failure, me.getErrors().get(0));
+        }
+        
+        List<Long> expected = getAddedBundleIds((int) failingId);
+        Assert.assertEquals(expected, getBundleIds(locator));
+        
+        // Removing a committed bundle takes its inhabitants with it
+        for (Module module : registry.getModules()) {
+            if (getBundleId(module) == 0L) {
+                registry.remove(module);
+            }
+        }
+        
+        expected.remove(Long.valueOf(0L));
+        Assert.assertEquals(expected, getBundleIds(locator));
+        
+        locator.shutdown();
+        registry.shutdown();
+    }
+    
+    /**
+     * A MultiException from a bundle is given to the caller as is
+     */
+    @Test
+    public void testMultiExceptionIsNotWrapped() throws IOException {
+        MultiException failure = new MultiException(new IOException("expected"));
+        
+        TestRegistry registry = createRegistry(3L, failure);
+        ServiceLocator locator = ServiceLocatorUtilities.createAndPopulateServiceLocator();
+        
+        try {
+            registry.populateServiceLocator(DEFAULT, locator, new ArrayList<PopulatorPostProcessor>());
+            Assert.fail("The failure of bundle 3 should have been reported");
+        }
+        catch (MultiException me) {
+            Assert.assertSame(failure, me);
+        }
+        
+        Assert.assertEquals(getAddedBundleIds(3), getBundleIds(locator));
+        
+        locator.shutdown();
+        registry.shutdown();
+    }
+    
+    private static TestRegistry createRegistry(long failingId, Exception failure) throws IOException {
+        BundleContext context = EasyMock.createNiceMock(BundleContext.class);
+        EasyMock.expect(context.getBundles()).andReturn(new Bundle[0]).anyTimes();
+        EasyMock.expect(context.getProperty(Constants.HK2_POPULATION_THREADS)).andReturn(Integer.toString(NUM_THREADS)).anyTimes();
+        EasyMock.replay(context);
+        
+        OSGiFactoryImpl.initialize(context);
+        
+        TestRegistry registry = new TestRegistry(context, failingId, failure);
+        
+        // Installed in reverse order of their ids
+        for (long id = NUM_BUNDLES - 1; id >= 0; id--) {
+            Bundle bundle = EasyMock.createNiceMock(Bundle.class);
+            EasyMock.expect(bundle.getBundleId()).andReturn(id).anyTimes();
+            EasyMock.expect(bundle.getSymbolicName()).andReturn("bundle" + id).anyTimes();
+            EasyMock.expect(bundle.getVersion()).andReturn(Version.emptyVersion).anyTimes();
+            EasyMock.replay(bundle);
+            
+            Attributes attributes = new Attributes();
+            attributes.putValue("Bundle-SymbolicName", "bundle" + id);
+            
+            registry.add(new OSGiModuleImpl(registry, bundle, new CookedModuleDefinition(moduleDirectory, attributes)));
+        }
+        
+        return registry;
+    }
+    
+    /**
+     * Every third bundle has no inhabitants
+     */
+    private static boolean hasInhabitants(long bundleId) {
+        return (bundleId % 3L) != 1L;
+    }
+    
+    private static List<Long> getAddedBundleIds(int upTo) {
+        List<Long> retVal = new ArrayList<Long>();
+        for (long id = 0; id < upTo; id++) {
+            if (hasInhabitants(id)) retVal.add(id);
+        }
+        
+        return retVal;
+    }
+    
+    private static List<Long> getBundleIds(ServiceLocator locator) {
+        List<Long> retVal = new ArrayList<Long>();
+        for (ServiceHandle<?> handle : locator.getAllServiceHandles(BundleService.class)) {
+            retVal.add(Long.valueOf(handle.getActiveDescriptor().getMetadata().get(BUNDLE_ID).get(0)));
+        }
+        
+        return retVal;
+    }
+    
+    private static long getBundleId(Module module) {
+        return ((OSGiModuleImpl) module).getBundle().getBundleId();
+    }
+    
+    /**
+     * Hands out one descriptor per bundle instead of reading the bundle
+     */
+    private static class TestRegistry extends OSGiModulesRegistryImpl {
+        private final long failingId;
+        private final Exception failure;
+        private final List<Long> prepared = Collections.synchronizedList(new ArrayList<Long>());
+        
+        private TestRegistry(BundleContext context, long failingId, Exception failure) {
+            super(context);
+            
+            this.failingId = failingId;
+            this.failure = failure;
+        }
+        
+        @Override
+        List<DescriptorImpl> prepareInhabitants(
+                Module module, String name, ServiceLocator serviceLocator, List<PopulatorPostProcessor> postProcessors)
+                throws IOException {
+            long id = getBundleId(module);
+            prepared.add(id);
+            
+            if (id == failingId) {
+                if (failure instanceof IOException) throw (IOException) failure;
+                throw (RuntimeException) failure;
+            }
+            
+            if (id < NUM_THREADS) {
+                // Make the first bundles finish last
+                try {
+                    Thread.sleep(50L);
+                }
+                catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            
+            if (!hasInhabitants(id)) return Collections.emptyList();
+            
+            DescriptorImpl descriptor = new DescriptorImpl();
+            descriptor.setImplementation(BundleService.class.getName());
+            descriptor.addAdvertisedContract(BundleService.class.getName());
+            descriptor.addMetadata(BUNDLE_ID, Long.toString(id));
+            descriptor.setLoader(new HK2LoaderImpl(ParallelPopulationTest.class.getClassLoader()));
+            
+            return Collections.singletonList(descriptor);
+        }
+    }
+    
+    /**
+     * Counts the commits made to the service locator
+     */
+    @Singleton
+    public static class CommitCounter implements DynamicConfigurationListener {
+        private volatile int commits;
+        
+        @Override
+        public void configurationChanged() {
+            commits++;
+        }
+    }
+    
+    public static class BundleService {
+    }
+}